@@ -77,6 +77,10 @@ android {
     checkDependencies = true
   }
 
+  testOptions {
+    unitTests.isIncludeAndroidResources = true
+  }
+
   buildTypes {
     getByName("release") {
       Config.EXOPLAYER_EXTENSIONS.forEach { module ->
@@ -228,6 +232,11 @@ dependencies {
   // TODO: upgrade to "com.googlecode.mp4parser:isoparser:1.1.22" or latest
   // mp4parser: https://github.com/sannies/mp4parser/releases
   implementation("com.googlecode.mp4parser:isoparser:1.0.6")
+
+  // JUnit: https://github.com/junit-team/junit4/blob/main/doc/ReleaseNotes4.13.2.md
+  testImplementation("junit:junit:4.13.2")
+  // Robolectric: https://github.com/robolectric/robolectric/releases
+  testImplementation("org.robolectric:robolectric:4.9")
 }
 
 if (!isExperimentalBuild) {
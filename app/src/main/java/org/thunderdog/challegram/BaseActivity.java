@@ -21,6 +21,7 @@ import android.animation.ValueAnimator;
 import android.app.AlertDialog;
 import android.app.UiModeManager;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -124,6 +125,7 @@ import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.ActivityPermissionResult;
 import org.thunderdog.challegram.util.AppUpdater;
 import org.thunderdog.challegram.util.KonfettiBuilder;
+import org.thunderdog.challegram.util.text.GlyphAdvanceCache;
 import org.thunderdog.challegram.widget.BaseRootLayout;
 import org.thunderdog.challegram.widget.DragDropLayout;
 import org.thunderdog.challegram.widget.ForceTouchView;
@@ -893,6 +895,8 @@ public abstract class BaseActivity extends ComponentActivity implements View.OnT
       passcodeController.onActivityPause();
     }
     notifyActivityPause();
+    // Process may be killed any time after going to background
+    Settings.instance().flushPendingWritesSoon();
     if (!windows.isEmpty()) {
       for (PopupLayout window : windows) {
         window.onActivityPause();
@@ -1130,6 +1134,20 @@ public abstract class BaseActivity extends ComponentActivity implements View.OnT
     }
   }
 
+  @Override
+  public void onTrimMemory (int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+      GlyphAdvanceCache.clear();
+    }
+  }
+
+  @Override
+  public void onLowMemory () {
+    super.onLowMemory();
+    GlyphAdvanceCache.clear();
+  }
+
   @Override
   public void onConfigurationChanged (@NonNull Configuration newConfig)  {
     super.onConfigurationChanged(newConfig);
@@ -3042,7 +3060,7 @@ public abstract class BaseActivity extends ComponentActivity implements View.OnT
 
   @Override
   public void onThemeColorsChanged (boolean areTemp, ColorState state) {
-    themeList.onThemeColorsChanged(areTemp);
+    themeList.onThemeColorsChanged(areTemp, state);
     if (inlineResultsView != null) {
       inlineResultsView.getThemeProvider().onThemeColorsChanged(areTemp);
     }
@@ -3055,7 +3073,7 @@ public abstract class BaseActivity extends ComponentActivity implements View.OnT
       reactionsOverlayView.invalidate();
     }
     for (ThemeListenerList list : globalThemeListeners) {
-      list.onThemeColorsChanged(areTemp);
+      list.onThemeColorsChanged(areTemp, state);
     }
     if (Config.USE_CUSTOM_NAVIGATION_COLOR) {
       updateNavigationBarColor();
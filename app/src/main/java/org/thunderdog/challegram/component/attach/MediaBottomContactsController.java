@@ -34,6 +34,7 @@ import org.thunderdog.challegram.navigation.Menu;
 import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.ui.ContactsController;
+import org.thunderdog.challegram.util.UserSearchIndex;
 
 import java.util.ArrayList;
 
@@ -109,6 +110,7 @@ public class MediaBottomContactsController extends MediaBottomBaseController<Voi
 
   private SimpleUsersAdapter adapter;
   private ArrayList<TGUser> users;
+  private final UserSearchIndex searchIndex = new UserSearchIndex();
 
   protected void displayContacts (final ArrayList<TGUser> users) {
     if (users.isEmpty()) {
@@ -157,9 +159,12 @@ public class MediaBottomContactsController extends MediaBottomBaseController<Voi
         long[] userIds = ((TdApi.Users) object).userIds;
         ArrayList<TdApi.User> contacts = tdlib.cache().users(userIds);
         final ArrayList<TGUser> users = new ArrayList<>(userIds.length);
+        searchIndex.clear();
         for (TdApi.User user : contacts) {
           if (TD.hasPhoneNumber(user)) {
-            users.add(TGUser.createWithPhone(tdlib, user));
+            TGUser parsedUser = TGUser.createWithPhone(tdlib, user);
+            users.add(parsedUser);
+            searchIndex.put(parsedUser, false);
           }
         }
         runOnUiThread(() -> displayContacts(users));
@@ -188,22 +193,12 @@ public class MediaBottomContactsController extends MediaBottomBaseController<Voi
       return;
     }
     Background.instance().post(() -> {
-      final ArrayList<TGUser> foundUsers = new ArrayList<>();
+      final long[] foundUserIds = searchIndex.search(q);
+      final ArrayList<TGUser> foundUsers = new ArrayList<>(foundUserIds.length);
       for (TGUser user : users) {
-        TdApi.User raw = user.getUser();
-        if (raw == null) {
-          continue;
+        if (user.getUser() != null && UserSearchIndex.contains(foundUserIds, user.getUserId())) {
+          foundUsers.add(user);
         }
-
-        String firstName = Strings.clean(user.getFirstName().trim()).toLowerCase();
-        String lastName = Strings.clean(user.getLastName().trim()).toLowerCase();
-        String check = (firstName + " " + lastName).trim();
-
-        if (!firstName.startsWith(q) && !lastName.startsWith(q) && !check.startsWith(q)) {
-          continue;
-        }
-
-        foundUsers.add(user);
       }
       UI.post(() -> {
         if (!isDestroyed() && lastQuery.equals(q)) {
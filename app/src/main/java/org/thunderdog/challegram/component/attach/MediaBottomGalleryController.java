@@ -20,7 +20,6 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.SystemClock;
 import android.view.Gravity;
@@ -70,7 +69,7 @@ import me.vkryl.android.widget.FrameLayoutFix;
 import me.vkryl.core.lambda.CancellableRunnable;
 import me.vkryl.td.Td;
 
-public class MediaBottomGalleryController extends MediaBottomBaseController<MediaBottomGalleryController.Arguments> implements Media.GalleryCallback, MediaGalleryAdapter.Callback, Menu, View.OnClickListener, MediaBottomGalleryBucketAdapter.Callback, MediaViewDelegate, MediaSelectDelegate, MediaSendDelegate {
+public class MediaBottomGalleryController extends MediaBottomBaseController<MediaBottomGalleryController.Arguments> implements Media.PagedGalleryCallback, MediaGalleryAdapter.Callback, Menu, View.OnClickListener, MediaBottomGalleryBucketAdapter.Callback, MediaViewDelegate, MediaSelectDelegate, MediaSendDelegate {
   public static class Arguments {
     public boolean allowVideos;
 
@@ -221,6 +220,14 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
     setLayoutManager(manager);
     setAdapter(adapter);
     addItemDecoration(decoration);
+    recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled (@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy > 0) {
+          loadMoreIfNeeded();
+        }
+      }
+    });
 
     if (galleryLoaded) {
       if (gallery == null/* && !U.deviceHasAnyCamera(context)*/) {
@@ -287,7 +294,7 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
     }
     galleryLoading = true;
     onGalleryComplete = onComplete;
-    Media.instance().getGalleryPhotos(0L, this, getArguments() == null || getArguments().allowVideos);
+    Media.instance().openGallery(getArguments() == null || getArguments().allowVideos, this);
   }
 
   private long requestTime;
@@ -311,23 +318,51 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
   }
 
   @Override
-  public void displayPhotosAndVideos (Cursor cursor, final boolean hasAccess) {
-    Log.i("Received gallery in %dms", SystemClock.uptimeMillis() - requestTime);
-    requestTime = SystemClock.uptimeMillis();
-    final Media.Gallery gallery = hasAccess && cursor != null && cursor.getCount() > 0 ? Media.instance().parseGallery(cursor, true, ImageFile.CENTER_CROP) : null;
-    Log.i("Parsed gallery in %dms", SystemClock.uptimeMillis() - requestTime);
-    UI.post(() -> {
-      if ((gallery == null || gallery.isEmpty()) /*&& !U.deviceHasAnyCamera(context())*/) {
-        setError(hasAccess);
-      } else {
-        setGallery(gallery);
-      }
-      if (onGalleryComplete != null) {
-        onGalleryComplete.run();
-        onGalleryComplete = null;
+  public void onGalleryOpened (@Nullable Media.Gallery gallery, boolean hasAccess) {
+    Log.i("Received first gallery page in %dms", SystemClock.uptimeMillis() - requestTime);
+    if (isDestroyed()) {
+      if (gallery != null) {
+        Media.instance().releaseGallery(gallery);
       }
-      galleryLoaded = true;
-    });
+      return;
+    }
+    if ((gallery == null || gallery.isEmpty()) /*&& !U.deviceHasAnyCamera(context())*/) {
+      setError(hasAccess);
+    } else {
+      setGallery(gallery);
+    }
+    if (onGalleryComplete != null) {
+      onGalleryComplete.run();
+      onGalleryComplete = null;
+    }
+    galleryLoaded = true;
+  }
+
+  @Override
+  public void onGalleryBucketsLoaded (Media.Gallery gallery) {
+    Log.i("Received gallery buckets in %dms", SystemClock.uptimeMillis() - requestTime);
+  }
+
+  @Override
+  public void onGalleryPageLoaded (Media.Gallery gallery, Media.GalleryBucket bucket, int addedCount) {
+    if (this.gallery != gallery || currentBucket != bucket || showingFoundImages) {
+      return;
+    }
+    adapter.onImagesAdded(addedCount);
+    loadMoreIfNeeded();
+  }
+
+  private static final int LOAD_MORE_THRESHOLD_ROWS = 6;
+
+  private void loadMoreIfNeeded () {
+    if (gallery == null || currentBucket == null || currentBucket.isComplete() || showingFoundImages) {
+      return;
+    }
+    GridLayoutManager manager = (GridLayoutManager) getLayoutManager();
+    int lastVisiblePosition = manager.findLastVisibleItemPosition();
+    if (currentBucket.getMedia().isEmpty() || lastVisiblePosition + manager.getSpanCount() * LOAD_MORE_THRESHOLD_ROWS >= adapter.getItemCount()) {
+      Media.instance().loadGalleryPage(gallery, currentBucket, this);
+    }
   }
 
   private void setGallery (Media.Gallery gallery) {
@@ -596,7 +631,7 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
   //private MediaBottomGalleryBucketAdapter sectionsAdapter;
 
   private void openSections () {
-    if (gallery == null || gallery.isEmpty()) {
+    if (gallery == null || gallery.isEmpty() || !gallery.areBucketsLoaded()) {
       return;
     }
     if (sectionsView == null) {
@@ -731,6 +766,9 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
     if (sectionsView != null) {
       Views.destroyRecyclerView(sectionsView);
     }
+    if (gallery != null) {
+      Media.instance().releaseGallery(gallery);
+    }
   }
 
   private boolean showingFoundImages;
@@ -747,6 +785,7 @@ public class MediaBottomGalleryController extends MediaBottomBaseController<Medi
       adapter.setImages(null, true);
     }
     ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(0, 0);
+    loadMoreIfNeeded();
   }
 
   private void showFoundImages (ArrayList<ImageFile> images) {
@@ -106,6 +106,21 @@ public class MediaGalleryAdapter extends RecyclerView.Adapter<MediaGalleryAdapte
     U.notifyItemsReplaced(this, oldItemCount, this.showCamera && oldShowCamera ? 1 : 0);
   }
 
+  /**
+   * Notifies about images added to the end of the list passed to {@link #setImages(ArrayList, boolean)}.
+   */
+  public void onImagesAdded (int addedCount) {
+    if (images == null || addedCount <= 0) {
+      return;
+    }
+    int oldSize = images.size() - addedCount;
+    if (needCounter || oldSize == 0) {
+      notifyDataSetChanged();
+    } else {
+      notifyItemRangeInserted((showCamera ? 1 : 0) + oldSize, addedCount);
+    }
+  }
+
   public int getSelectionIndex (ImageFile file) {
     if (isSelectable && selected.size() > 0) {
       return selected.indexOf(file);
@@ -14,11 +14,14 @@
  */
 package org.thunderdog.challegram.component.chat;
 
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.SystemClock;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.annotation.UiThread;
 import androidx.collection.LongSparseArray;
 
 import org.drinkless.td.libcore.telegram.Client;
@@ -39,6 +42,7 @@ import org.thunderdog.challegram.data.TdApiExt;
 import org.thunderdog.challegram.data.ThreadInfo;
 import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibDelegate;
+import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.unsorted.Settings;
@@ -48,6 +52,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import me.vkryl.core.DateUtils;
 import me.vkryl.core.MathUtils;
@@ -488,6 +493,8 @@ public class MessagesLoader implements Client.ResultHandler {
     mergeMode = MERGE_MODE_NONE;
     mergeChunk = null;
 
+    cancelDeferredLayout();
+
     if (sponsoredResultHandler != null) {
       sponsoredResultHandler.cancel();
     }
@@ -1212,25 +1219,119 @@ public class MessagesLoader implements Client.ResultHandler {
     return array;
   }
 
-  private long measuredStartTime;
-  private long measuredTotalMs;
-  private int stepsCount;
+  // Metrics
+
+  /**
+   * Time spent on each stage of {@link #processMessages}, accumulated over all chats.
+   */
+  public static final class Metrics {
+    private long batchCount, messageCount, deferredCount, lazyLayoutCount;
+    private long combineNanos, parseNanos, layoutNanos, lazyLayoutNanos;
+    private long lastBatchNanos, maxBatchNanos;
+
+    private synchronized void onBatchProcessed (int messageCount, int deferredCount, long combineNanos, long parseNanos, long layoutNanos) {
+      this.batchCount++;
+      this.messageCount += messageCount;
+      this.deferredCount += deferredCount;
+      this.combineNanos += combineNanos;
+      this.parseNanos += parseNanos;
+      this.layoutNanos += layoutNanos;
+      this.lastBatchNanos = combineNanos + parseNanos + layoutNanos;
+      this.maxBatchNanos = Math.max(this.maxBatchNanos, this.lastBatchNanos);
+    }
+
+    private synchronized void onLazyLayout (int count, long nanos) {
+      this.lazyLayoutCount += count;
+      this.lazyLayoutNanos += nanos;
+    }
+
+    public synchronized long getLastBatchMs () {
+      return TimeUnit.NANOSECONDS.toMillis(lastBatchNanos);
+    }
+
+    public synchronized long getMaxBatchMs () {
+      return TimeUnit.NANOSECONDS.toMillis(maxBatchNanos);
+    }
+
+    public synchronized long getAverageMessageMicros () {
+      return messageCount != 0 ? TimeUnit.NANOSECONDS.toMicros((parseNanos + layoutNanos) / messageCount) : 0;
+    }
 
-  private void startMeasureStep () {
-    measuredStartTime = SystemClock.uptimeMillis();
+    public synchronized void reset () {
+      batchCount = messageCount = deferredCount = lazyLayoutCount = 0;
+      combineNanos = parseNanos = layoutNanos = lazyLayoutNanos = 0;
+      lastBatchNanos = maxBatchNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString () {
+      return "batches: " + batchCount + ", messages: " + messageCount +
+        ", combine: " + TimeUnit.NANOSECONDS.toMillis(combineNanos) + "ms" +
+        ", parse: " + TimeUnit.NANOSECONDS.toMillis(parseNanos) + "ms" +
+        ", layout: " + TimeUnit.NANOSECONDS.toMillis(layoutNanos) + "ms" +
+        ", deferred: " + deferredCount + " (laid out lazily: " + lazyLayoutCount + " in " + TimeUnit.NANOSECONDS.toMillis(lazyLayoutNanos) + "ms)" +
+        ", last batch: " + getLastBatchMs() + "ms, max batch: " + getMaxBatchMs() + "ms";
+    }
   }
 
-  private void endMeasureStep (TGMessage result, long messageId, int size) {
-    long ms = SystemClock.uptimeMillis() - measuredStartTime;
-    Log.i(Log.TAG_MESSAGES_LOADER, "message_id=%d (size: %d) took %dms (%s)", messageId, size, ms, result != null ? result.getClass().getName() : "combination");
-    measuredTotalMs += ms;
-    stepsCount++;
+  private static final Metrics metrics = new Metrics();
+
+  public static Metrics metrics () {
+    return metrics;
   }
 
-  private void completeMeasure () {
-    Log.i(Log.TAG_MESSAGES_LOADER, "processed %d steps in %dms (average %dms per step)", stepsCount, measuredTotalMs, stepsCount == 0 ? -1 : (measuredTotalMs / stepsCount));
-    measuredTotalMs = 0;
-    stepsCount = 0;
+  // Deferred layout
+
+  private static final long DEFERRED_LAYOUT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+  private final ArrayList<TGMessage> deferredLayout = new ArrayList<>();
+  private MessageQueue.IdleHandler deferredLayoutHandler;
+
+  /**
+   * Number of messages that should be laid out before they are displayed: enough to fill the screen on both sides of the anchor
+   */
+  private static int eagerLayoutRadius () {
+    return Math.max(10, Screen.currentHeight() / Screen.dp(48f));
+  }
+
+  @UiThread
+  private void scheduleDeferredLayout (List<TGMessage> messages) {
+    for (TGMessage message : messages) {
+      if (message.isLayoutDeferred()) {
+        deferredLayout.add(message);
+      }
+    }
+    if (deferredLayout.isEmpty() || deferredLayoutHandler != null) {
+      return;
+    }
+    deferredLayoutHandler = () -> {
+      long startNanos = System.nanoTime();
+      int count = 0;
+      // Messages closest to the visible window go first
+      while (!deferredLayout.isEmpty() && System.nanoTime() - startNanos < DEFERRED_LAYOUT_BUDGET_NANOS) {
+        TGMessage message = deferredLayout.remove(0);
+        if (message.isLayoutDeferred()) {
+          message.buildDeferredLayout();
+          count++;
+        }
+      }
+      metrics.onLazyLayout(count, System.nanoTime() - startNanos);
+      if (deferredLayout.isEmpty()) {
+        deferredLayoutHandler = null;
+        return false;
+      }
+      return true;
+    };
+    Looper.myQueue().addIdleHandler(deferredLayoutHandler);
+  }
+
+  @UiThread
+  private void cancelDeferredLayout () {
+    deferredLayout.clear();
+    if (deferredLayoutHandler != null) {
+      Looper.myQueue().removeIdleHandler(deferredLayoutHandler);
+      deferredLayoutHandler = null;
+    }
   }
 
   private void processMessages (final long currentContextId, TdApi.Message[] messages, int knownTotalMessageCount, String nextSecretSearchId, boolean needFindUnread, @Nullable List<List<TdApi.Message>> missingAlbums) {
@@ -1272,6 +1373,7 @@ public class MessagesLoader implements Client.ResultHandler {
     TGMessage scrollItem = null;
 
     final boolean needMeasureSpeed = Log.isEnabled(Log.TAG_MESSAGES_LOADER) && Log.checkLogLevel(Log.LEVEL_INFO);
+    final long startNanos = System.nanoTime();
 
     final TGMessage bottomMessage = manager.getAdapter().getBottomMessage();
     final long startBottom = bottomMessage != null ? bottomMessage.getBiggestId() : 0;
@@ -1286,9 +1388,6 @@ public class MessagesLoader implements Client.ResultHandler {
 
     final List<TdApi.Message> combineWithMessages = new ArrayList<>();
 
-    if (needMeasureSpeed) {
-      startMeasureStep();
-    }
     if (messages.length > 0) {
       switch (loadingMode) {
         case MODE_MORE_BOTTOM: {
@@ -1315,9 +1414,7 @@ public class MessagesLoader implements Client.ResultHandler {
         }
       }
     }
-    if (needMeasureSpeed) {
-      endMeasureStep(null, 0, 0);
-    }
+    final long combineNanos = System.nanoTime() - startNanos;
 
     if (!combineWithMessages.isEmpty()) {
       final boolean bottom = loadingMode == MODE_MORE_BOTTOM;
@@ -1336,9 +1433,7 @@ public class MessagesLoader implements Client.ResultHandler {
     TGMessage unreadBadged = null;
 
     for (int j = maxIndex; j >= minIndex; j--) {
-      if (needMeasureSpeed) {
-        startMeasureStep();
-      }
+      final long stepStartTime = needMeasureSpeed ? SystemClock.uptimeMillis() : 0;
       boolean containsScrollingMessage = false;
       try {
         if (chatAdmins != null) {
@@ -1363,9 +1458,6 @@ public class MessagesLoader implements Client.ResultHandler {
         }
       } catch (Throwable t) {
         Log.critical("Couldn't parse message", t);
-        if (needMeasureSpeed) {
-          endMeasureStep(null, 0, -1);
-        }
         continue;
       }
 
@@ -1404,7 +1496,6 @@ public class MessagesLoader implements Client.ResultHandler {
       }
 
       cur.mergeWith(top, j == minIndex);
-      cur.prepareLayout();
 
       items.add(0, cur);
 
@@ -1416,13 +1507,11 @@ public class MessagesLoader implements Client.ResultHandler {
       top = cur;
 
       if (needMeasureSpeed) {
-        endMeasureStep(cur, cur.getId(), cur.getMessageCount());
+        Log.i(Log.TAG_MESSAGES_LOADER, "message_id=%d (size: %d) took %dms (%s)", cur.getId(), cur.getMessageCount(), SystemClock.uptimeMillis() - stepStartTime, cur.getClass().getName());
       }
     }
 
-    if (needMeasureSpeed) {
-      completeMeasure();
-    }
+    final long parseNanos = System.nanoTime() - startNanos - combineNanos;
 
     if (unreadFound && lookForInbox) {
       unreadFound = false;
@@ -1470,6 +1559,40 @@ public class MessagesLoader implements Client.ResultHandler {
       }
     }
 
+    // Lay out messages around the place the chat will be displayed at, the rest is laid out lazily
+    final int anchorIndex;
+    if (scrollItemIndex != -1) {
+      anchorIndex = scrollItemIndex;
+    } else if (loadingMode == MODE_MORE_BOTTOM) {
+      anchorIndex = items.size() - 1;
+    } else {
+      anchorIndex = 0;
+    }
+    final int eagerLayoutRadius = eagerLayoutRadius();
+    final List<TGMessage> deferredItems = new ArrayList<>(Math.max(0, items.size() - eagerLayoutRadius * 2));
+    for (int distance = 0; distance < items.size(); distance++) {
+      for (int sign = 1; sign >= -1; sign -= 2) {
+        if (distance == 0 && sign == -1)
+          break;
+        int index = anchorIndex + distance * sign;
+        if (index < 0 || index >= items.size())
+          continue;
+        TGMessage item = items.get(index);
+        if (distance <= eagerLayoutRadius) {
+          item.prepareLayout();
+        } else {
+          item.deferLayout();
+          deferredItems.add(item);
+        }
+      }
+    }
+
+    final long layoutNanos = System.nanoTime() - startNanos - combineNanos - parseNanos;
+    metrics.onBatchProcessed(items.size(), deferredItems.size(), combineNanos, parseNanos, layoutNanos);
+    if (needMeasureSpeed) {
+      Log.i(Log.TAG_MESSAGES_LOADER, "processed %d messages, deferred layout of %d: %s", items.size(), deferredItems.size(), metrics);
+    }
+
     final boolean couldLoadTop = canLoadTop;
     final boolean couldLoadBottom = canLoadBottom;
 
@@ -1579,6 +1702,7 @@ public class MessagesLoader implements Client.ResultHandler {
       final int chunkSize = scrollItemIndexFinal == -1 ? CHUNK_SIZE_SMALL : CHUNK_SIZE_SEARCH;
       boolean willTryAgain = (loadingMode == MODE_INITIAL || loadingMode == MODE_REPEAT_INITIAL) && items.size() < chunkSize && items.size() > 0;
       manager.displayMessages(items, loadingMode, scrollPosition, scrollItemView, scrollMessageId, scrollHighlightMode, willTryAgain && loadingLocal);
+      scheduleDeferredLayout(deferredItems);
 
       synchronized (lock) {
         isLoading = false;
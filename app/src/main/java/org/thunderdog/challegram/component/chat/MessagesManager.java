@@ -90,6 +90,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
   private final RecyclerView.OnScrollListener listener;
 
   private final MessagesLoader loader;
+  private final MessagesPrefetcher prefetcher = new MessagesPrefetcher();
 
   private String eventLogQuery;
   private long[] eventLogUserIds;
@@ -134,6 +135,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       @Override
       public void onScrolled (RecyclerView recyclerView, int dx, int dy) {
         viewMessages();
+        prefetcher.onScrolled(manager, adapter, dy);
         if (dy == 0) {
           saveScrollPosition();
           ((MessagesRecyclerView) recyclerView).showDateForcely();
@@ -480,6 +482,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
       }
       tdlib.closeChat(chatId, context, true);
     }
+    prefetcher.reset();
     loader.reuse();
     adapter.clear(true);
     clearHeaderMessage();
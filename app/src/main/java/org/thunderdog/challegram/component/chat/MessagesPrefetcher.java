@@ -0,0 +1,209 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.component.chat;
+
+import android.graphics.Bitmap;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.data.TGMessage;
+import org.thunderdog.challegram.loader.ImageCache;
+import org.thunderdog.challegram.loader.ImageFile;
+import org.thunderdog.challegram.loader.ImageLoader;
+import org.thunderdog.challegram.loader.Watcher;
+import org.thunderdog.challegram.loader.WatcherReference;
+import org.thunderdog.challegram.tool.Screen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Requests media of messages that are about to appear on screen, in the direction of the scroll.
+ * Window size grows with scroll speed, and all pending requests are dropped once the direction changes.
+ */
+class MessagesPrefetcher {
+  private static final int MIN_WINDOW = 2;
+  private static final int MAX_WINDOW = 10;
+  private static final float FAST_SCROLL_DP = 48f;
+  private static final int MAX_REQUESTS = MAX_WINDOW * 4;
+
+  private static class Request implements Watcher {
+    final ImageFile file;
+    final WatcherReference reference;
+    long pass;
+    volatile boolean isLoaded;
+
+    Request (ImageFile file, long pass) {
+      this.file = file;
+      this.pass = pass;
+      this.reference = new WatcherReference(this);
+    }
+
+    @Override
+    public void imageLoaded (ImageFile file, boolean successful, Bitmap bitmap) {
+      isLoaded = successful;
+    }
+  }
+
+  // Strong references, as WatcherReference holds watchers weakly
+  private final HashMap<String, Request> requests = new HashMap<>();
+  private final ArrayList<ImageFile> files = new ArrayList<>();
+
+  private int lastDirection;
+  private long pass;
+  private long requestedCount, hitCount, lateCount, wastedCount;
+
+  public void onScrolled (LinearLayoutManager manager, MessagesAdapter adapter, int dy) {
+    if (dy == 0 || adapter == null) {
+      return;
+    }
+    int first = manager.findFirstVisibleItemPosition();
+    int last = manager.findLastVisibleItemPosition();
+    if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+      return;
+    }
+
+    checkVisible(adapter, first, last);
+
+    int direction = (dy > 0) != manager.getReverseLayout() ? 1 : -1;
+    if (lastDirection != direction) {
+      if (lastDirection != 0) {
+        cancelAll();
+      }
+      lastDirection = direction;
+    }
+
+    float speed = Math.min(1f, (float) Math.abs(dy) / (float) Screen.dp(FAST_SCROLL_DP));
+    int window = MIN_WINDOW + Math.round((MAX_WINDOW - MIN_WINDOW) * speed);
+    int from = direction > 0 ? last + 1 : first - window;
+    int to = direction > 0 ? last + window : first - 1;
+    int count = adapter.getMessageCount();
+    files.clear();
+    for (int i = Math.max(0, from); i <= to && i < count; i++) {
+      TGMessage message = adapter.getMessage(i);
+      if (message != null) {
+        message.collectPrefetchFiles(files);
+      }
+    }
+    pass++;
+    // Requests still inside the window are moved to the current pass first, so reaching the cap doesn't cancel them
+    for (ImageFile file : files) {
+      Request request = file != null ? requests.get(file.toString()) : null;
+      if (request != null) {
+        request.pass = pass;
+      }
+    }
+    for (ImageFile file : files) {
+      request(file);
+    }
+    files.clear();
+  }
+
+  private void request (ImageFile file) {
+    if (file == null || !file.shouldBeCached()) {
+      return;
+    }
+    String key = file.toString();
+    if (requests.containsKey(key) || ImageCache.instance().hasBitmap(file)) {
+      return;
+    }
+    if (requests.size() >= MAX_REQUESTS) {
+      // Items skipped without becoming visible, e.g. after scrollToPosition.
+      // Requests of the current pass are kept, the rest of the window waits for the next one
+      cancel(pass);
+      if (requests.size() >= MAX_REQUESTS) {
+        return;
+      }
+    }
+    Request request = new Request(file, pass);
+    requests.put(key, request);
+    requestedCount++;
+    ImageLoader.instance().prefetchFile(file, request.reference);
+  }
+
+  private void checkVisible (MessagesAdapter adapter, int first, int last) {
+    if (requests.isEmpty()) {
+      return;
+    }
+    for (int i = first; i <= last; i++) {
+      TGMessage message = adapter.getMessage(i);
+      if (message == null) {
+        continue;
+      }
+      files.clear();
+      message.collectPrefetchFiles(files);
+      for (ImageFile file : files) {
+        Request request = requests.remove(file.toString());
+        if (request != null) {
+          if (request.isLoaded) {
+            hitCount++;
+          } else {
+            lateCount++;
+          }
+          ImageLoader.instance().removeWatcher(request.reference);
+        }
+      }
+    }
+    files.clear();
+  }
+
+  public void cancelAll () {
+    cancel(Long.MAX_VALUE);
+  }
+
+  /**
+   * Drops requests issued before the given pass.
+   */
+  private void cancel (long beforePass) {
+    if (requests.isEmpty()) {
+      return;
+    }
+    Iterator<Map.Entry<String, Request>> it = requests.entrySet().iterator();
+    while (it.hasNext()) {
+      Request request = it.next().getValue();
+      if (request.pass >= beforePass) {
+        continue;
+      }
+      if (!request.isLoaded) {
+        ImageLoader.instance().removeWatcher(request.reference);
+      }
+      wastedCount++;
+      it.remove();
+    }
+    if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.v(Log.TAG_IMAGE_LOADER, "prefetch: %s", toString());
+    }
+  }
+
+  public void reset () {
+    cancelAll();
+    lastDirection = 0;
+  }
+
+  /**
+   * @return Share of prefetched files that were ready by the time they became visible
+   */
+  public float getHitRate () {
+    long total = hitCount + lateCount;
+    return total != 0 ? (float) hitCount / (float) total : 0f;
+  }
+
+  @Override
+  public String toString () {
+    return "requested: " + requestedCount + ", hits: " + hitCount + ", late: " + lateCount + ", wasted: " + wastedCount + ", hitRate: " + getHitRate();
+  }
+}
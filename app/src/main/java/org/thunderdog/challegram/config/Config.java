@@ -99,6 +99,10 @@ public class Config {
   public static final boolean HARDWARE_MEDIA_VIEWER = HARDWARE_CLIP_PATH_FIX;
 
   public static final boolean ALLOW_MORE_CACHED_MESSAGES = false;
+  public static final boolean CACHE_TEXT_LAYOUTS = true;
+  public static final boolean CACHE_GLYPH_ADVANCES = true;
+  public static final boolean USE_EMOJI_TRIE = true;
+  public static final boolean DEFER_PMC_WRITES = true;
   public static final boolean NEED_MEDIA_GROUP_MERGE_REQUESTS = false;
 
   public static final int CHANNEL_MEMBER_STRING = R.string.xSubscribers;
@@ -116,6 +120,7 @@ public class Config {
 
   public static final boolean USE_VIDEO_COMPRESSION = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
   public static final boolean MUTE_VIDEO_AVAILABLE = USE_VIDEO_COMPRESSION;
+  public static final boolean VIDEO_STREAMING_UPLOAD = BuildConfig.DEBUG || BuildConfig.EXPERIMENTAL; // Upload fragmented MP4 while it's being encoded
 
   public static final boolean MASKS_TEXTS_AVAILABLE = false;
 
@@ -0,0 +1,76 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.core;
+
+import android.database.Cursor;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.loader.ImageFile;
+import org.thunderdog.challegram.loader.ImageGalleryFile;
+
+import java.util.ArrayList;
+
+/**
+ * Open gallery cursor that is converted into media page by page, instead of walking all rows at once.
+ * Cursor must be ordered by {@link Media#getGallerySortOrder()}, so pages follow each other without re-sorting.
+ *
+ * Accessed only on MediaThread. Depends only on {@link Cursor}, so any implementation,
+ * e.g. {@link android.database.MatrixCursor}, can stand in for MediaStore.
+ */
+final class GallerySource {
+  private final Cursor cursor;
+  private final Media.GalleryRowParser parser;
+  private boolean isEnd, isClosed;
+
+  GallerySource (Cursor cursor, Media.GalleryRowParser parser) {
+    this.cursor = cursor;
+    this.parser = parser;
+  }
+
+  /**
+   * @return Up to {@code limit} files following the ones returned before. Rows that can't be displayed are skipped.
+   */
+  ArrayList<ImageFile> loadPage (Media.Gallery gallery, int limit) {
+    ArrayList<ImageFile> page = new ArrayList<>(limit);
+    if (isClosed) {
+      return page;
+    }
+    try {
+      while (page.size() < limit && cursor.moveToNext()) {
+        ImageGalleryFile file = gallery.obtainFile(cursor, parser);
+        if (file != null) {
+          page.add(file);
+        }
+      }
+      isEnd = cursor.isAfterLast() || cursor.getPosition() >= cursor.getCount() - 1;
+    } catch (Throwable t) {
+      Log.w("Cannot load gallery page", t);
+      isEnd = true;
+    }
+    if (isEnd) {
+      parser.logUnknownSizes();
+    }
+    return page;
+  }
+
+  boolean isEnd () {
+    return isEnd;
+  }
+
+  void close () {
+    if (!isClosed) {
+      isClosed = true;
+      Media.closeCursor(cursor);
+    }
+  }
+}
@@ -24,6 +24,8 @@ import android.os.Build;
 import android.os.SystemClock;
 import android.provider.MediaStore;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
 import androidx.collection.LongSparseArray;
 
 import org.thunderdog.challegram.BaseActivity;
@@ -247,11 +249,32 @@ public class Media {
     return projection;
   }
 
+  /**
+   * On Q and above, files are dated by {@link MediaStore.Images.ImageColumns#DATE_TAKEN} when it's earlier
+   * than modification date, see {@link GalleryRowParser#parse(Cursor)}. Rows are ordered the same way,
+   * so pages read from the cursor are already in {@link ImageGalleryFile#compareTo(ImageGalleryFile)} order.
+   */
+  static String getGallerySortOrder () {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      final String dateModified = MediaStore.Images.ImageColumns.DATE_MODIFIED + " * 1000";
+      final String dateTaken = MediaStore.Images.ImageColumns.DATE_TAKEN;
+      return
+        "CASE WHEN " + dateTaken + " != 0 AND " + dateTaken + " < " + dateModified +
+        " THEN " + dateTaken + " ELSE " + dateModified + " END DESC, " +
+        MediaStore.Images.ImageColumns._ID + " DESC";
+    }
+    return DATE_COLUMN + " DESC";
+  }
+
   public Cursor getGalleryCursor (long startDate, boolean allowVideos) {
     return getGalleryCursor(startDate, allowVideos, 0);
   }
 
   public Cursor getGalleryCursor (long startDate, boolean allowVideos, int limit) {
+    return getGalleryCursor(startDate, allowVideos, limit, null);
+  }
+
+  private Cursor getGalleryCursor (long startDate, boolean allowVideos, int limit, @Nullable String extraSelection) {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
       BaseActivity context = UI.getUiContext();
 
@@ -279,7 +302,13 @@ public class Media {
         }
         selection.append(DATE_COLUMN).append(" > ").append(startDate);
       }
-      cursor = resolver.query(contentUri, getGalleryProjection(allowVideos), selection.toString(), null, Media.DATE_COLUMN + " DESC" + (limit != 0 ? " LIMIT " + limit : ""));
+      if (extraSelection != null) {
+        if (selection.length() > 0) {
+          selection.insert(0, '(').append(") AND ");
+        }
+        selection.append(extraSelection);
+      }
+      cursor = resolver.query(contentUri, getGalleryProjection(allowVideos), selection.toString(), null, getGallerySortOrder() + (limit != 0 ? " LIMIT " + limit : ""));
     } catch (Throwable t) {
       Log.w("Cannot get gallery photos", t);
     }
@@ -318,6 +347,177 @@ public class Media {
     return gallery;
   }
 
+  // Paged gallery
+
+  public static final int GALLERY_FIRST_PAGE_SIZE = 48;
+  public static final int GALLERY_PAGE_SIZE = 120;
+
+  /**
+   * All methods are called on UI thread.
+   */
+  public interface PagedGalleryCallback {
+    void onGalleryOpened (@Nullable Gallery gallery, boolean hasAccess);
+    void onGalleryBucketsLoaded (Gallery gallery);
+    void onGalleryPageLoaded (Gallery gallery, GalleryBucket bucket, int addedCount);
+  }
+
+  private GalleryRowParser newGalleryRowParser (Cursor c, Gallery gallery) {
+    return new GalleryRowParser(c, gallery.needThumb, gallery.scaleType, Screen.dp(86f, 2.5f), Screen.dp(112, 2.5f));
+  }
+
+  /**
+   * Loads the first page of all media and passes the gallery to the callback right away.
+   * Buckets are collected after that, and further pages are loaded through {@link #loadGalleryPage(Gallery, GalleryBucket, PagedGalleryCallback)}.
+   * Gallery must be released through {@link #releaseGallery(Gallery)} once it's no longer needed.
+   */
+  public void openGallery (boolean allowVideos, PagedGalleryCallback callback) {
+    post(() -> {
+      long ms = SystemClock.uptimeMillis();
+      Cursor cursor = getGalleryCursor(0, allowVideos);
+      if (cursor == null) {
+        UI.post(() -> callback.onGalleryOpened(null, false));
+        return;
+      }
+      Gallery gallery = new Gallery(allowVideos, true, ImageFile.CENTER_CROP);
+      GalleryBucket bucket = gallery.getAllMediaBucket();
+      bucket.source = new GallerySource(cursor, newGalleryRowParser(cursor, gallery));
+      gallery.openSources.add(bucket.source);
+      ArrayList<ImageFile> page = bucket.source.loadPage(gallery, GALLERY_FIRST_PAGE_SIZE);
+      boolean isEnd = closeIfEnded(gallery, bucket);
+      Log.i("Loaded first gallery page of %d items in %dms", page.size(), SystemClock.uptimeMillis() - ms);
+      if (page.isEmpty()) {
+        closeGallerySources(gallery);
+        UI.post(() -> callback.onGalleryOpened(null, true));
+        return;
+      }
+      UI.post(() -> {
+        bucket.addPage(page, isEnd);
+        callback.onGalleryOpened(gallery, true);
+      });
+      // Queued separately, so it doesn't delay the first page
+      post(() -> loadGalleryBuckets(gallery, callback));
+    });
+  }
+
+  private static boolean closeIfEnded (Gallery gallery, GalleryBucket bucket) {
+    GallerySource source = bucket.source;
+    if (source != null && source.isEnd()) {
+      source.close();
+      gallery.openSources.remove(source);
+      bucket.source = null;
+      return true;
+    }
+    return false;
+  }
+
+  private void loadGalleryBuckets (Gallery gallery, PagedGalleryCallback callback) {
+    if (gallery.isReleased())
+      return;
+    long ms = SystemClock.uptimeMillis();
+    Cursor cursor = getGalleryCursor(0, gallery.allowVideos);
+    if (cursor == null)
+      return;
+    GalleryRowParser parser = newGalleryRowParser(cursor, gallery);
+    LongSparseArray<GalleryBucket> buckets = new LongSparseArray<>();
+    int totalCount = 0, videoCount = 0;
+    try {
+      while (cursor.moveToNext()) {
+        long bucketId = parser.getBucketId(cursor);
+        GalleryBucket bucket = buckets.get(bucketId);
+        if (bucket == null) {
+          // Only the first row of each bucket is parsed, for the preview
+          ImageGalleryFile previewImage = gallery.obtainFile(cursor, parser);
+          if (previewImage == null)
+            continue;
+          bucket = new GalleryBucket(bucketId, parser.getBucketName(cursor));
+          bucket.isComplete = false;
+          bucket.previewImage = previewImage;
+          buckets.put(bucketId, bucket);
+        }
+        boolean isVideo = parser.isVideo(cursor);
+        bucket.addCount(isVideo);
+        totalCount++;
+        if (isVideo) {
+          videoCount++;
+        }
+      }
+    } catch (Throwable t) {
+      Log.w("Cannot load gallery buckets", t);
+    } finally {
+      closeCursor(cursor);
+    }
+    parser.logUnknownSizes();
+    Log.i("Loaded %d gallery buckets for %d items in %dms", buckets.size(), totalCount, SystemClock.uptimeMillis() - ms);
+    final boolean needVideoBucket = videoCount > 0 && videoCount < totalCount;
+    final int photoCount = totalCount - videoCount, finalVideoCount = videoCount;
+    UI.post(() -> {
+      if (!gallery.isReleased()) {
+        gallery.allMediaBucket.photosCount = photoCount;
+        gallery.allMediaBucket.videosCount = finalVideoCount;
+        gallery.allVideoBucket.videosCount = finalVideoCount;
+        gallery.setBuckets(buckets, needVideoBucket);
+        gallery.bucketsLoaded = true;
+        callback.onGalleryBucketsLoaded(gallery);
+      }
+    });
+  }
+
+  /**
+   * Loads the next page of the bucket, unless it's already complete or being loaded.
+   *
+   * @return true, if the page was requested
+   */
+  @UiThread
+  public boolean loadGalleryPage (Gallery gallery, GalleryBucket bucket, PagedGalleryCallback callback) {
+    if (bucket.isComplete || bucket.isLoadingPage || gallery.isReleased())
+      return false;
+    bucket.isLoadingPage = true;
+    final int limit = bucket.media.isEmpty() ? GALLERY_FIRST_PAGE_SIZE : GALLERY_PAGE_SIZE;
+    post(() -> {
+      if (gallery.isReleased())
+        return;
+      if (bucket.source == null) {
+        Cursor cursor = getGalleryCursor(0, gallery.allowVideos, 0, bucket.getSourceSelection());
+        if (cursor != null) {
+          bucket.source = new GallerySource(cursor, newGalleryRowParser(cursor, gallery));
+          gallery.openSources.add(bucket.source);
+        }
+      }
+      ArrayList<ImageFile> page;
+      boolean isEnd;
+      if (bucket.source != null) {
+        page = bucket.source.loadPage(gallery, limit);
+        isEnd = closeIfEnded(gallery, bucket);
+      } else {
+        page = new ArrayList<>(0);
+        isEnd = true;
+      }
+      UI.post(() -> {
+        bucket.isLoadingPage = false;
+        if (!gallery.isReleased()) {
+          bucket.addPage(page, isEnd);
+          callback.onGalleryPageLoaded(gallery, bucket, page.size());
+        }
+      });
+    });
+    return true;
+  }
+
+  @UiThread
+  public void releaseGallery (Gallery gallery) {
+    if (!gallery.isReleased) {
+      gallery.isReleased = true;
+      post(() -> closeGallerySources(gallery));
+    }
+  }
+
+  private static void closeGallerySources (Gallery gallery) {
+    for (GallerySource source : gallery.openSources) {
+      source.close();
+    }
+    gallery.openSources.clear();
+  }
+
   public Gallery parseGallery (Cursor c, boolean needThumb, int scaleType) {
     int maxSize = Screen.dp(86f, 2.5f);
     int maxSizeScreenshot = Screen.dp(112, 2.5f);
@@ -325,12 +525,65 @@ public class Media {
   }
 
   public Gallery parseGallery (Cursor c, boolean needThumb, int scaleType, int size, int screenshotSize) {
-    int count = c.getCount();
+    GalleryRowParser parser = new GalleryRowParser(c, needThumb, scaleType, size, screenshotSize);
 
-    final int mediaTypeColumn = c.getColumnIndex(MediaStore.Files.FileColumns.MEDIA_TYPE);
-    final int mimeTypeColumn = c.getColumnIndex(MediaStore.Files.FileColumns.MIME_TYPE);
+    LongSparseArray<GalleryBucket> buckets = new LongSparseArray<>();
+    ArrayList<ImageFile> allMedia = new ArrayList<>(c.getCount());
+    ArrayList<ImageFile> allVideo = new ArrayList<>();
 
-    final int imageIdColumn,
+    while (c.moveToNext()) {
+      ImageGalleryFile image = parser.parse(c);
+      if (image == null) {
+        continue;
+      }
+      long bucketId = parser.getBucketId(c);
+      GalleryBucket bucket = buckets.get(bucketId);
+      if (bucket == null) {
+        bucket = new GalleryBucket(bucketId, parser.getBucketName(c));
+        buckets.put(bucketId, bucket);
+      }
+      bucket.add(image);
+      allMedia.add(image);
+      if (image.isVideo()) {
+        allVideo.add(image);
+      }
+    }
+
+    parser.logUnknownSizes();
+
+    if (allMedia.isEmpty())
+      return null;
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Comparator<ImageFile> comparator = newGalleryComparator();
+      Collections.sort(allMedia, comparator);
+      Collections.sort(allVideo, comparator);
+      for (int i = 0; i < buckets.size(); i++) {
+        Collections.sort(buckets.valueAt(i).media, comparator);
+      }
+    }
+
+    return new Gallery(allMedia, allVideo, buckets);
+  }
+
+  static Comparator<ImageFile> newGalleryComparator () {
+    return (a, b) -> {
+      ImageGalleryFile g1 = (ImageGalleryFile) a;
+      ImageGalleryFile g2 = (ImageGalleryFile) b;
+      return g1.compareTo(g2);
+    };
+  }
+
+  /**
+   * Converts rows of a gallery cursor into {@link ImageGalleryFile}.
+   * Column indexes are resolved once per cursor.
+   */
+  static final class GalleryRowParser {
+    private final boolean needThumb;
+    private final int scaleType, size, screenshotSize;
+
+    private final int mediaTypeColumn, mimeTypeColumn;
+    private final int imageIdColumn,
       dataColumn,
       dateColumn,
       dateTakenColumn,
@@ -340,40 +593,67 @@ public class Media {
       durationColumn,
       resolutionColumn,
       widthColumn, heightColumn;
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-      imageIdColumn = c.getColumnIndex(MediaStore.Images.ImageColumns._ID);
-      dataColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATA);
-      dateColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATE_MODIFIED);
-      dateTakenColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATE_TAKEN);
-      orientationColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.ORIENTATION);
-      bucketIdColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.BUCKET_ID);
-      bucketNameColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.BUCKET_DISPLAY_NAME);
-      widthColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.WIDTH);
-      heightColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.HEIGHT);
-      durationColumn = c.getColumnIndex(MediaStore.Video.VideoColumns.DURATION);
-      resolutionColumn = -1;
-    } else {
-      imageIdColumn = c.getColumnIndex(MediaStore.Images.Media._ID);
-      dataColumn = c.getColumnIndex(MediaStore.Images.Media.DATA);
-      dateColumn = c.getColumnIndex(DATE_COLUMN);
-      dateTakenColumn = -1;
-      orientationColumn = c.getColumnIndex(MediaStore.Images.Media.ORIENTATION);
-      bucketIdColumn = c.getColumnIndex(MediaStore.Images.Media.BUCKET_ID);
-      bucketNameColumn = c.getColumnIndex(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
-      widthColumn = c.getColumnIndex(MediaStore.Images.Media.WIDTH);
-      heightColumn = c.getColumnIndex(MediaStore.Images.Media.HEIGHT);
-      durationColumn = c.getColumnIndex(MediaStore.Video.Media.DURATION);
-      resolutionColumn = c.getColumnIndex(MediaStore.Video.Media.RESOLUTION); // TODO: check if it actually works?
+
+    private BitmapFactory.Options opts;
+    private HashMap<String, AtomicInteger> unknownSizeMediaCount;
+
+    GalleryRowParser (Cursor c, boolean needThumb, int scaleType, int size, int screenshotSize) {
+      this.needThumb = needThumb;
+      this.scaleType = scaleType;
+      this.size = size;
+      this.screenshotSize = screenshotSize;
+
+      mediaTypeColumn = c.getColumnIndex(MediaStore.Files.FileColumns.MEDIA_TYPE);
+      mimeTypeColumn = c.getColumnIndex(MediaStore.Files.FileColumns.MIME_TYPE);
+
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+        imageIdColumn = c.getColumnIndex(MediaStore.Images.ImageColumns._ID);
+        dataColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATA);
+        dateColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATE_MODIFIED);
+        dateTakenColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.DATE_TAKEN);
+        orientationColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.ORIENTATION);
+        bucketIdColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.BUCKET_ID);
+        bucketNameColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.BUCKET_DISPLAY_NAME);
+        widthColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.WIDTH);
+        heightColumn = c.getColumnIndex(MediaStore.Images.ImageColumns.HEIGHT);
+        durationColumn = c.getColumnIndex(MediaStore.Video.VideoColumns.DURATION);
+        resolutionColumn = -1;
+      } else {
+        imageIdColumn = c.getColumnIndex(MediaStore.Images.Media._ID);
+        dataColumn = c.getColumnIndex(MediaStore.Images.Media.DATA);
+        dateColumn = c.getColumnIndex(DATE_COLUMN);
+        dateTakenColumn = -1;
+        orientationColumn = c.getColumnIndex(MediaStore.Images.Media.ORIENTATION);
+        bucketIdColumn = c.getColumnIndex(MediaStore.Images.Media.BUCKET_ID);
+        bucketNameColumn = c.getColumnIndex(MediaStore.Images.Media.BUCKET_DISPLAY_NAME);
+        widthColumn = c.getColumnIndex(MediaStore.Images.Media.WIDTH);
+        heightColumn = c.getColumnIndex(MediaStore.Images.Media.HEIGHT);
+        durationColumn = c.getColumnIndex(MediaStore.Video.Media.DURATION);
+        resolutionColumn = c.getColumnIndex(MediaStore.Video.Media.RESOLUTION); // TODO: check if it actually works?
+      }
     }
 
-    LongSparseArray<GalleryBucket> buckets = new LongSparseArray<>();
-    BitmapFactory.Options opts = null;
+    long getImageId (Cursor c) {
+      return U.getLongOrInt(c, imageIdColumn);
+    }
 
-    ArrayList<ImageFile> allMedia = new ArrayList<>(count);
-    ArrayList<ImageFile> allVideo = new ArrayList<>();
-    HashMap<String, AtomicInteger> unknownSizeMediaCount = null;
+    long getBucketId (Cursor c) {
+      return U.getLongOrInt(c, bucketIdColumn);
+    }
 
-    while (c.moveToNext()) {
+    String getBucketName (Cursor c) {
+      return c.getString(bucketNameColumn);
+    }
+
+    boolean isVideo (Cursor c) {
+      return mediaTypeColumn != -1 && c.getInt(mediaTypeColumn) == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO;
+    }
+
+    /**
+     * @return File for the current row of the cursor, or null, if the row has to be skipped
+     */
+    @Nullable
+    ImageGalleryFile parse (Cursor c) {
       try {
         long imageId = U.getLongOrInt(c, imageIdColumn);
         String path = c.getString(dataColumn);
@@ -392,7 +672,7 @@ public class Media {
         long bucketId = U.getLongOrInt(c, bucketIdColumn);
 
         if (path == null || path.length() == 0) {
-          continue;
+          return null;
         }
 
         ImageGalleryFile image;
@@ -405,7 +685,7 @@ public class Media {
           height = -1;
         }
 
-        final boolean isVideo = mediaTypeColumn != -1 && c.getInt(mediaTypeColumn) == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO;
+        final boolean isVideo = isVideo(c);
 
         if (isVideo) {
           if (resolutionColumn != -1) {
@@ -426,12 +706,12 @@ public class Media {
           File file = new File(path);
           if (!file.exists()) {
             Settings.instance().forgetKnownSize(path);
-            continue;
+            return null;
           }
           long length = file.length();
           if (length == 0) {
             Settings.instance().forgetKnownSize(path);
-            continue;
+            return null;
           }
           long lastModified = file.lastModified();
           try {
@@ -448,90 +728,53 @@ public class Media {
             height = opts.outHeight;
             Log.i("Recovered size %dx%d in %dms for path: %s length:%d lastModified:%d", width, height, SystemClock.uptimeMillis() - ms, path, length, lastModified);
             Settings.instance().putKnownSize(path, length, lastModified, width, height);
-            /*if (width > 0 && height > 0) {
-              try {
-                ContentValues updatedSizes = new ContentValues();
-                updatedSizes.put(MediaStore.Images.Media.WIDTH, width);
-                updatedSizes.put(MediaStore.Images.Media.HEIGHT, height);
-                ms = SystemClock.uptimeMillis();
-                UI.getAppContext().getContentResolver().update(MediaStore.Images.Media.getContentUri("external"), updatedSizes, MediaStore.Images.Media._ID + " = " + imageId, null);
-                Log.i("updated size for imageId = %d to %dx%d in %dms", imageId, width, height, SystemClock.uptimeMillis() - ms);
-              } catch (Throwable t) {
-                Log.i("Unable to update content resolver data", t);
-              }
-            }*/
           }
         }
 
-        image = new ImageGalleryFile(imageId, path, dateTaken, width, height, bucketId, needThumb);
-        image.setRotation(orientation);
-        image.setScaleType(scaleType);
-        if (image.isScreenshot()) {
-          image.setSize(screenshotSize);
-        } else {
-          image.setSize(size);
-        }
-
-        if (isVideo) {
-          int duration = c.getInt(durationColumn);
-          String mimeType = c.getString(mimeTypeColumn);
-          image.setIsVideo(duration, mimeType);
-        }
-
-        GalleryBucket bucket = buckets.get(bucketId);
-        String bucketDisplayName = bucket != null ? bucket.name : c.getString(bucketNameColumn);
-
         if (isVideo && (width <= 0 || height <= 0)) {
           if (unknownSizeMediaCount == null) {
             unknownSizeMediaCount = new HashMap<>();
           }
+          String bucketDisplayName = getBucketName(c);
           AtomicInteger counter = unknownSizeMediaCount.get(bucketDisplayName);
           if (counter == null) {
             unknownSizeMediaCount.put(bucketDisplayName, new AtomicInteger(1));
           } else {
             counter.incrementAndGet();
           }
-          continue;
+          return null;
         }
 
-        if (bucket == null) {
-          bucket = new GalleryBucket(bucketId, bucketDisplayName);
-          buckets.put(bucketId, bucket);
+        image = new ImageGalleryFile(imageId, path, dateTaken, width, height, bucketId, needThumb);
+        image.setRotation(orientation);
+        image.setScaleType(scaleType);
+        if (image.isScreenshot()) {
+          image.setSize(screenshotSize);
+        } else {
+          image.setSize(size);
         }
 
-        bucket.add(image);
-        allMedia.add(image);
-        if (image.isVideo()) {
-          allVideo.add(image);;
+        if (isVideo) {
+          int duration = c.getInt(durationColumn);
+          String mimeType = c.getString(mimeTypeColumn);
+          image.setIsVideo(duration, mimeType);
         }
+
+        return image;
       } catch (Throwable t) {
         Log.w("Cannot parse image, skipping", t);
+        return null;
       }
     }
 
-    if (unknownSizeMediaCount != null) {
-      for (Map.Entry<String, AtomicInteger> entry : unknownSizeMediaCount.entrySet()) {
-        Log.i("Gallery: %d unknown sizes in %s, skipping", entry.getValue().get(), entry.getKey());
-      }
-    }
-
-    if (allMedia.isEmpty())
-      return null;
-
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-      Comparator<ImageFile> comparator = (a, b) -> {
-        ImageGalleryFile g1 = (ImageGalleryFile) a;
-        ImageGalleryFile g2 = (ImageGalleryFile) b;
-        return g1.compareTo(g2);
-      };
-      Collections.sort(allMedia, comparator);
-      Collections.sort(allVideo, comparator);
-      for (int i = 0; i < buckets.size(); i++) {
-        Collections.sort(buckets.valueAt(i).media, comparator);
+    void logUnknownSizes () {
+      if (unknownSizeMediaCount != null) {
+        for (Map.Entry<String, AtomicInteger> entry : unknownSizeMediaCount.entrySet()) {
+          Log.i("Gallery: %d unknown sizes in %s, skipping", entry.getValue().get(), entry.getKey());
+        }
+        unknownSizeMediaCount = null;
       }
     }
-
-    return new Gallery(allMedia, allVideo, buckets);
   }
 
   public static class Gallery {
@@ -544,7 +787,38 @@ public class Media {
       this.allMediaBucket.setPriority(GalleryBucket.PRIORITY_ALL_MEDIA);
       this.allVideoBucket = new GalleryBucket(Long.MIN_VALUE + 1, allVideos, R.string.AllVideos);
       this.allVideoBucket.setPriority(GalleryBucket.PRIORITY_ALL_VIDEOS);
+      this.allowVideos = true;
+      this.needThumb = true;
+      this.scaleType = ImageFile.CENTER_CROP;
+      this.bucketsLoaded = true;
+      setBuckets(buckets, !allVideos.isEmpty() && allVideos.size() < allMedia.size());
+    }
+
+    // Paged gallery, see Media#openGallery
+
+    private final boolean allowVideos, needThumb;
+    private final int scaleType;
+    private boolean bucketsLoaded;
+    private volatile boolean isReleased;
 
+    // Accessed only on MediaThread
+    private final LongSparseArray<ImageGalleryFile> knownFiles = new LongSparseArray<>();
+    private final ArrayList<GallerySource> openSources = new ArrayList<>();
+
+    Gallery (boolean allowVideos, boolean needThumb, int scaleType) {
+      this.buckets = new ArrayList<>();
+      this.allMediaBucket = new GalleryBucket(Long.MIN_VALUE, R.string.AllMedia);
+      this.allMediaBucket.setPriority(GalleryBucket.PRIORITY_ALL_MEDIA);
+      this.allVideoBucket = new GalleryBucket(Long.MIN_VALUE + 1, R.string.AllVideos);
+      this.allVideoBucket.setPriority(GalleryBucket.PRIORITY_ALL_VIDEOS);
+      this.allowVideos = allowVideos;
+      this.needThumb = needThumb;
+      this.scaleType = scaleType;
+      this.buckets.add(allMediaBucket);
+    }
+
+    private void setBuckets (LongSparseArray<GalleryBucket> buckets, boolean needVideoBucket) {
+      this.buckets.clear();
       boolean cameraFound = false;
       boolean screenshotsFound = false;
       boolean downloadsFound = false;
@@ -564,9 +838,9 @@ public class Media {
         }
       }
 
-      if (!allMedia.isEmpty()) {
+      if (!allMediaBucket.media.isEmpty()) {
         this.buckets.add(allMediaBucket);
-        if (!allVideos.isEmpty() && allVideos.size() < allMedia.size())
+        if (needVideoBucket)
           this.buckets.add(allVideoBucket);
         Collections.sort(this.buckets, (o1, o2) -> {
           int p1 = o1.getPriority();
@@ -578,6 +852,31 @@ public class Media {
       }
     }
 
+    /**
+     * @return false, if only the first page of all media is known so far
+     */
+    public boolean areBucketsLoaded () {
+      return bucketsLoaded;
+    }
+
+    public boolean isReleased () {
+      return isReleased;
+    }
+
+    // Files with the same id are shared between buckets, so selection state is kept when switching buckets
+    @Nullable
+    ImageGalleryFile obtainFile (Cursor c, GalleryRowParser parser) {
+      long imageId = parser.getImageId(c);
+      ImageGalleryFile file = knownFiles.get(imageId);
+      if (file == null) {
+        file = parser.parse(c);
+        if (file != null) {
+          knownFiles.put(imageId, file);
+        }
+      }
+      return file;
+    }
+
     public boolean isEmpty () {
       return allMediaBucket.media.isEmpty();
     }
@@ -667,6 +966,13 @@ public class Media {
       this.media = new ArrayList<>();
     }
 
+    private GalleryBucket (long id, int stringRes) {
+      this.id = id;
+      this.name = Lang.getString(stringRes);
+      this.media = new ArrayList<>();
+      this.isComplete = false;
+    }
+
     GalleryBucket (long id, ArrayList<ImageFile> allImages, int stringRes) {
       this.id = id;
       this.name = Lang.getString(stringRes);
@@ -733,7 +1039,47 @@ public class Media {
     }
 
     public ImageFile getPreviewImage () {
-      return media.isEmpty() ? null : media.get(0);
+      return media.isEmpty() ? previewImage : media.get(0);
+    }
+
+    // Paged loading
+
+    private boolean isComplete = true, isLoadingPage;
+    private @Nullable ImageFile previewImage;
+    private @Nullable GallerySource source; // Accessed only on MediaThread
+
+    /**
+     * @return false, if more media can be loaded through {@link Media#loadGalleryPage(Gallery, GalleryBucket, PagedGalleryCallback)}
+     */
+    public boolean isComplete () {
+      return isComplete;
+    }
+
+    private void addCount (boolean isVideo) {
+      if (isVideo) {
+        videosCount++;
+      } else {
+        photosCount++;
+      }
+    }
+
+    @UiThread
+    private void addPage (ArrayList<ImageFile> page, boolean isEnd) {
+      media.addAll(page);
+      if (isEnd) {
+        isComplete = true;
+      }
+    }
+
+    @Nullable
+    private String getSourceSelection () {
+      if (id == Long.MIN_VALUE) {
+        return null;
+      } else if (id == Long.MIN_VALUE + 1) {
+        return MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO;
+      } else {
+        return MediaStore.Images.ImageColumns.BUCKET_ID + "=" + id;
+      }
     }
 
     public void add (ImageGalleryFile image) {
@@ -72,6 +72,8 @@ import org.thunderdog.challegram.util.DrawableProvider;
 import org.thunderdog.challegram.widget.FileProgressComponent;
 import org.thunderdog.challegram.widget.SimplestCheckBox;
 
+import java.util.List;
+
 import me.vkryl.android.AnimatorUtils;
 import me.vkryl.android.animator.BoolAnimator;
 import me.vkryl.android.animator.FactorAnimator;
@@ -727,6 +729,15 @@ public class MediaWrapper implements FileProgressComponent.SimpleListener, FileP
     receiver.requestFile(showImage() ? targetImageFile : null);
   }
 
+  public void collectPrefetchFiles (List<ImageFile> out) {
+    if (showPreview() && previewFile != null) {
+      out.add(previewFile);
+    }
+    if (showImage()) {
+      out.add(targetImageFile);
+    }
+  }
+
   public void requestGif (GifReceiver receiver) {
     receiver.requestFile(targetGifFile != null && TD.isFileLoaded(targetFile) && (fileProgress == null || fileProgress.isDownloaded()) && !isHot() ? targetGifFile : null);
   }
@@ -24,6 +24,7 @@ import androidx.annotation.Nullable;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.thunderdog.challegram.loader.ComplexReceiver;
 import org.thunderdog.challegram.loader.DoubleImageReceiver;
+import org.thunderdog.challegram.loader.ImageFile;
 import org.thunderdog.challegram.loader.ImageReceiver;
 import org.thunderdog.challegram.loader.Receiver;
 import org.thunderdog.challegram.loader.gif.GifReceiver;
@@ -128,6 +129,12 @@ public class MosaicWrapper implements FactorAnimator.Target, ComplexReceiver.Key
     return MOSAIC_NOT_CHANGED;
   }
 
+  public void collectPrefetchFiles (List<ImageFile> out) {
+    for (MediaWrapper item : items) {
+      item.collectPrefetchFiles(out);
+    }
+  }
+
   public MediaWrapper getSingularItem () {
     return items.get(0);
   }
@@ -2767,8 +2767,14 @@ public class TD {
     functions.add(new TdApi.SendMessage(chatId, 0, 0, options, null, content));
   }
 
+  public static final long DEFAULT_SEEK_DISTANCE = ByteUnit.KIB.toBytes(512);
+
   public static boolean withinDistance (TdApi.File file, long offset) {
-    return offset >= file.local.downloadOffset && offset <= file.local.downloadOffset + file.local.downloadedPrefixSize + ByteUnit.KIB.toBytes(512);
+    return withinDistance(file, offset, DEFAULT_SEEK_DISTANCE);
+  }
+
+  public static boolean withinDistance (TdApi.File file, long offset, long maxDistance) {
+    return offset >= file.local.downloadOffset && offset <= file.local.downloadOffset + file.local.downloadedPrefixSize + maxDistance;
   }
 
   public static boolean canVote (TdApi.Poll poll) {
@@ -938,8 +938,35 @@ public abstract class TGMessage implements MultipleViewProvider.InvalidateConten
     }
   }
 
+  private boolean layoutDeferred;
+
+  /**
+   * Postpones {@link #prepareLayout()} until the message is measured, its height is requested or {@link #buildDeferredLayout()} is called.
+   */
+  public void deferLayout () {
+    if (this.width == 0) {
+      this.layoutDeferred = true;
+    } else {
+      rebuildLayout();
+    }
+  }
+
+  public boolean isLayoutDeferred () {
+    return layoutDeferred;
+  }
+
+  public void buildDeferredLayout () {
+    if (layoutDeferred) {
+      buildLayout(Screen.currentWidth());
+    }
+  }
+
   public void buildLayout (int width) {
-    if (width == 0 || this.width == width) {
+    if (width == 0) {
+      return;
+    }
+    layoutDeferred = false;
+    if (this.width == width) {
       return;
     }
 
@@ -3555,6 +3582,10 @@ public abstract class TGMessage implements MultipleViewProvider.InvalidateConten
     receiver.clear();
   }
 
+  public void collectPrefetchFiles (List<ImageFile> out) {
+    // Override in children that display images
+  }
+
   // Getters
 
   public boolean onMessageClick (MessageView v, MessagesController c) {
@@ -3567,6 +3598,9 @@ public abstract class TGMessage implements MultipleViewProvider.InvalidateConten
   }
 
   public int getHeight () {
+    if (layoutDeferred) {
+      buildDeferredLayout();
+    }
     return height;
   }
 
@@ -119,6 +119,7 @@ public class TGMessageBotInfo extends TGMessage {
 
   @Override
   public int getHeight () {
+    buildDeferredLayout();
     int totalHeight = getContentHeight() + Screen.dp(6f) + xAvatarRadius * 2 + xPaddingBottom - xContentOffset - xPaddingTop + xHeaderPadding;
 
     final View view = findCurrentView();
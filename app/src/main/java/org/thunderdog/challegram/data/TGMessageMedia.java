@@ -32,6 +32,7 @@ import org.thunderdog.challegram.component.chat.MessagesManager;
 import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Lang;
 import org.thunderdog.challegram.loader.ComplexReceiver;
+import org.thunderdog.challegram.loader.ImageFile;
 import org.thunderdog.challegram.mediaview.MediaViewController;
 import org.thunderdog.challegram.mediaview.MediaViewThumbLocation;
 import org.thunderdog.challegram.navigation.ViewController;
@@ -44,6 +45,7 @@ import org.thunderdog.challegram.util.text.TextEntity;
 import org.thunderdog.challegram.util.text.TextWrapper;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import me.vkryl.android.animator.FactorAnimator;
 import me.vkryl.core.lambda.CancellableRunnable;
@@ -687,6 +689,11 @@ public class TGMessageMedia extends TGMessage {
     mosaicWrapper.requestFiles(receiver, invalidate);
   }
 
+  @Override
+  public void collectPrefetchFiles (List<ImageFile> out) {
+    mosaicWrapper.collectPrefetchFiles(out);
+  }
+
   @Override
   protected int getContentWidth () {
     return wrapper == null ? mosaicWrapper.getWidth() : Math.max(mosaicWrapper.getWidth(), wrapper.getWidth());
@@ -19,7 +19,6 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.os.Build;
 import android.text.Spannable;
 import android.text.Spanned;
 
@@ -31,6 +30,7 @@ import com.coremedia.iso.Hex;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Media;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.tool.EmojiCode;
@@ -70,6 +70,8 @@ public class Emoji {
   }
 
   private final HashMap<CharSequence, EmojiInfo> rects;
+  private final EmojiTrie trie;
+  private final EmojiScanner.Lookup legacyLookup = code -> getEmojiInfo(code, false);
   private final ReferenceList<EmojiChangeListener> emojiChangeListeners = new ReferenceList<>();
 
   private final CountLimiter singleLimiter = new org.thunderdog.challegram.emoji.Emoji.CountLimiter() {
@@ -151,6 +153,12 @@ public class Emoji {
         rects.put(EmojiData.data[sectionIndex][emojiIndex], new EmojiInfo(rect, sectionIndex, page));
       }
     }
+
+    if (Config.USE_EMOJI_TRIE) {
+      this.trie = EmojiTrie.build(rects, EmojiData.instance().getEmojiAliases());
+    } else {
+      this.trie = null;
+    }
   }
 
   public void changeEmojiPack (Settings.EmojiPack emojiPack) {
@@ -610,293 +618,49 @@ public class Emoji {
     if (start == end) {
       return "";
     }
-
-    Spannable spannable = callback != null ? null : start == 0 && end == cs.length() && cs instanceof Spannable ? (Spannable) cs : null;
-    long buf = 0;
-    int emojiCount = countLimiter != null ? countLimiter.getEmojiCount() : 0;
-    char c;
-    int startIndex = -1;
-    int startLength = 0;
-    int previousGoodIndex = 0;
-    StringBuilder emojiCode = emojiText.get();
-    if (emojiCode == null) {
-      emojiCode = new StringBuilder(16);
-      emojiText.set(emojiCode);
-    } else {
-      emojiCode.setLength(0);
-    }
-    boolean doneEmoji = false;
-    boolean abort = false;
-
+    SpanCallback spanCallback = callback == null ? new SpanCallback(cs, start, end) : null;
     try {
-      for (int i = start; i < end; i++) {
-        c = cs.charAt(i);
-        if (c >= 0xD83C && c <= 0xD83E || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (buf & 0xFFFF) == 0xD83C && (c >= 0xDDE6 && c <= 0xDDFF))) {
-          if (startIndex == -1) {
-            startIndex = i;
-          }
-          emojiCode.append(c);
-          startLength++;
-          buf <<= 16;
-          buf |= c;
-        } else if (emojiCode.length() > 0 && (c == 0x2640 || c == 0x2642 || c == 0x2695)) {
-          emojiCode.append(c);
-          startLength++;
-          buf = 0;
-          doneEmoji = true;
-        } else if (buf > 0 && (c & 0xF000) == 0xD000) {
-          emojiCode.append(c);
-          startLength++;
-          buf = 0;
-          doneEmoji = true;
-        } else if (c == 0x20E3) {
-          if (i > 0) {
-            char c2 = cs.charAt(previousGoodIndex);
-            if ((c2 >= '0' && c2 <= '9') || c2 == '#' || c2 == '*') {
-              startIndex = previousGoodIndex;
-              startLength = i - previousGoodIndex + 1;
-              emojiCode.append(c2);
-              emojiCode.append(c);
-              doneEmoji = true;
-            }
-          }
-        } else if ((c == 0x00A9 || c == 0x00AE || c >= 0x203C && c <= 0x3299) && EmojiData.instance().containsDataChar(c)) {
-          if (startIndex == -1) {
-            startIndex = i;
-          }
-          startLength++;
-          emojiCode.append(c);
-          doneEmoji = true;
-        } else if (startIndex != -1) {
-          if (emojiCode.length() > 0) {
-            // SAME CODE BEGIN
-            final String code = emojiCode.toString();
-            final EmojiInfo info = getEmojiInfo(code, false);
-            if (info != null) {
-              if (callback != null) {
-                callback.onEmojiFound(cs, code, info, startIndex, startLength);
-              } else if (startLength > 0) {
-                EmojiSpan span = newSpan(code, info);
-                if (spannable == null) {
-                  spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
-                }
-                spannable.setSpan(span, startIndex - start, startIndex + startLength - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-              }
-
-              emojiCount++;
-              if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
-                abort = true;
-              }
-            } else if (code.length() > 1) {
-              int componentAddIndex = 0;
-              for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
-                char componentStartCode = code.charAt(componentStartIndex);
-                if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
-                  componentStartIndex++;
-                  continue;
-                }
-                int componentLength = code.length() - componentStartIndex;
-                if (componentStartIndex == 0) {
-                  componentLength--;
-                }
-                EmojiInfo componentInfo = null;
-                while (componentLength > 0 && componentInfo == null) {
-                  String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
-                  componentInfo = getEmojiInfo(componentCode, false);
-                  if (componentInfo == null) {
-                    componentLength--;
-                    continue;
-                  }
-                  while (componentStartIndex + componentAddIndex + componentLength < startLength) {
-                    char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
-                    if (nextComponentChar == '\uFE0F') {
-                      componentLength++;
-                    } else {
-                      break;
-                    }
-                  }
-                  if (callback != null) {
-                    callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
-                  } else {
-                    EmojiSpan span = newSpan(code, info);
-                    if (spannable == null) {
-                      spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
-                    }
-                    spannable.setSpan(span, startIndex + componentStartIndex + componentAddIndex - start, startIndex + componentStartIndex + componentAddIndex + componentLength - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                  }
-                  emojiCount++;
-                  if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
-                    abort = true;
-                  }
-                  componentStartIndex += componentCode.length();
-                  componentAddIndex += componentLength - componentCode.length();
-                }
-                if (componentInfo == null) {
-                  componentStartIndex++;
-                }
-              }
-            }
-            // SAME CODE END
-          }
-          startLength = 0;
-          startIndex = -1;
-          emojiCode.setLength(0);
-          doneEmoji = false;
-        }/* else if (c != 0xfe0f) {
-          if (emojiOnly != null) {
-            emojiOnly[0] = 0;
-            emojiOnly = null;
-          }
-        }*/
-        if (doneEmoji && i + 2 < end) {
-          char next = cs.charAt(i + 1);
-          if (next == 0xD83C) {
-            next = cs.charAt(i + 2);
-            if (next >= 0xDFFB && next <= 0xDFFF) {
-              emojiCode.append(cs, i + 1, i + 3);
-              startLength += 2;
-              i += 2;
-            }
-          } else if (emojiCode.length() >= 2 && emojiCode.charAt(0) == 0xD83C && emojiCode.charAt(1) == 0xDFF4 && next == 0xDB40) {
-            i++;
-            while (true) {
-              emojiCode.append(cs, i, i + 2);
-              startLength += 2;
-              i += 2;
-              if (i >= cs.length() || cs.charAt(i) != 0xDB40) {
-                i--;
-                break;
-              }
-            }
-          } else if (next == 0x200D && emojiCode.length() == 2) {
-            next = cs.charAt(i + 2);
-            char c1 = emojiCode.charAt(0);
-            char c2 = emojiCode.charAt(1);
-            int successCount = 0;
-            if (c1 == 0xD83C && c2 == 0xDFF4 && next == 0x2620) {
-              successCount = 2;
-            }
-            if (successCount > 0) {
-              emojiCode.append(cs, i + 1, i + 1 + successCount);
-              startLength += successCount;
-              i += 2;
-            }
-          }
-        }
-        previousGoodIndex = i;
-        for (int a = 0; a < 3 && i + 1 < end; a++) {
-          c = cs.charAt(i + 1);
-          if (a == 1) {
-            if (c == 0x200D && emojiCode.length() > 0) {
-              emojiCode.append(c);
-              i++;
-              startLength++;
-              doneEmoji = i + 1 == end;
-            }
-          } else {
-            if (c >= 0xFE00 && c <= 0xFE0F) {
-              i++;
-              startLength++;
-            }
-          }
-        }
-        if (doneEmoji && i + 2 < end && cs.charAt(i + 1) == 0xD83C) {
-          char next = cs.charAt(i + 2);
-          if (next >= 0xDFFB && next <= 0xDFFF) {
-            emojiCode.append(cs, i + 1, i + 3);
-            startLength += 2;
-            i += 2;
-          }
-        }
-        if (doneEmoji) {
-          // SAME CODE BEGIN
-          final String code = emojiCode.toString();
-          final EmojiInfo info = getEmojiInfo(code, false);
-          if (info != null) {
-            if (callback != null) {
-              callback.onEmojiFound(cs, code, info, startIndex, startLength);
-            } else if (startLength > 0) {
-              EmojiSpan span = newSpan(code, info);
-              if (spannable == null) {
-                spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
-              }
-              spannable.setSpan(span, startIndex - start, startIndex + startLength - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
-
-            emojiCount++;
-            if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
-              abort = true;
-            }
-          } else if (code.length() > 1) {
-            int componentAddIndex = 0;
-            for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
-              char componentStartCode = code.charAt(componentStartIndex);
-              if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
-                componentStartIndex++;
-                continue;
-              }
-              int componentLength = code.length() - componentStartIndex;
-              if (componentStartIndex == 0) {
-                componentLength--;
-              }
-              EmojiInfo componentInfo = null;
-              while (componentLength > 0 && componentInfo == null) {
-                String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
-                componentInfo = getEmojiInfo(componentCode, false);
-                if (componentInfo == null) {
-                  componentLength--;
-                  continue;
-                }
-                while (componentStartIndex + componentAddIndex + componentLength < startLength) {
-                  char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
-                  if (nextComponentChar == '\uFE0F') {
-                    componentLength++;
-                  } else {
-                    break;
-                  }
-                }
-                if (callback != null) {
-                  callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
-                } else {
-                  EmojiSpan span = newSpan(code, info);
-                  if (spannable == null) {
-                    spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
-                  }
-                  spannable.setSpan(span, startIndex + componentStartIndex + componentAddIndex - start, startIndex + componentStartIndex + componentAddIndex + componentLength - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                emojiCount++;
-                if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
-                  abort = true;
-                }
-                componentStartIndex += componentCode.length();
-                componentAddIndex += componentLength - componentCode.length();
-              }
-              if (componentInfo == null) {
-                componentStartIndex++;
-              }
-            }
-          }
-          // SAME CODE END
-
-          startLength = 0;
-          startIndex = -1;
-          emojiCode.setLength(0);
-          doneEmoji = false;
-        } else if (startIndex == -1) {
-          startLength = 0;
-        }
-        if (abort || (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP && emojiCount >= 1000)) {
-          break;
+      if (trie != null) {
+        EmojiScanner.scan(trie, cs, start, end, countLimiter, callback != null ? callback : spanCallback);
+      } else {
+        StringBuilder emojiCode = emojiText.get();
+        if (emojiCode == null) {
+          emojiCode = new StringBuilder(16);
+          emojiText.set(emojiCode);
         }
+        EmojiScanner.scanLegacy(legacyLookup, emojiCode, cs, start, end, countLimiter, callback != null ? callback : spanCallback);
       }
     } catch (Text.LimitReachedException e) {
       throw e;
     } catch (Throwable t) {
-      // FIXME
       Log.e("Cannot replace emoji, text:\n%s", t, start != 0 || end != cs.length() ? cs.subSequence(start, end) : cs);
-      // throw new RuntimeException("replaceEmoji failed for length=" + cs.length() + " count=" + (end - start) + " start=" + start + " end=" + end + "text=" + cs.toString());
     }
-    return spannable != null ? spannable : cs;
+    return spanCallback != null && spanCallback.spannable != null ? spanCallback.spannable : cs;
+  }
+
+  private final class SpanCallback implements Callback {
+    private final CharSequence cs;
+    private final int start, end;
+    private Spannable spannable;
+
+    SpanCallback (CharSequence cs, int start, int end) {
+      this.cs = cs;
+      this.start = start;
+      this.end = end;
+      this.spannable = start == 0 && end == cs.length() && cs instanceof Spannable ? (Spannable) cs : null;
+    }
+
+    @Override
+    public boolean onEmojiFound (CharSequence input, CharSequence code, EmojiInfo info, int position, int length) {
+      if (length <= 0)
+        return false;
+      EmojiSpan span = newSpan(code, info);
+      if (spannable == null) {
+        spannable = Spannable.Factory.getInstance().newSpannable(start == 0 && end == cs.length() ? cs : cs.subSequence(start, end));
+      }
+      spannable.setSpan(span, position - start, position + length - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+      return true;
+    }
   }
 
   public boolean draw (@NonNull Canvas c, EmojiInfo info, Rect outRect, int alpha) {
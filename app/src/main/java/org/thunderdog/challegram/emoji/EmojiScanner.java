@@ -0,0 +1,298 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.emoji;
+
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.tool.EmojiData;
+
+/**
+ * Finds emoji in text and reports each of them through {@link Emoji.Callback}, without creating spans.
+ *
+ * {@link #scan} matches against {@link EmojiTrie}. {@link #scanLegacy} is the scanner used before the trie,
+ * kept for {@link org.thunderdog.challegram.config.Config#USE_EMOJI_TRIE} and as a reference for the trie.
+ */
+final class EmojiScanner {
+  interface Lookup {
+    @Nullable
+    EmojiInfo find (String code);
+  }
+
+  static void scan (EmojiTrie trie, CharSequence cs, int start, int end, @Nullable Emoji.CountLimiter countLimiter, Emoji.Callback callback) {
+    int emojiCount = countLimiter != null ? countLimiter.getEmojiCount() : 0;
+    for (int i = start; i < end; ) {
+      if (!trie.canStartWith(cs.charAt(i))) {
+        i++;
+        continue;
+      }
+      long match = trie.match(cs, i, end);
+      if (match == -1) {
+        i++;
+        continue;
+      }
+      final int node = EmojiTrie.matchNode(match);
+      final int matchEnd = EmojiTrie.matchEnd(match);
+      final String code = trie.code(node);
+      final EmojiInfo info = trie.info(node);
+      callback.onEmojiFound(cs, code, info, i, matchEnd - i);
+      i = matchEnd;
+      emojiCount++;
+      if ((countLimiter != null && !countLimiter.incrementEmojiCount()) || (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP && emojiCount >= 1000)) {
+        break;
+      }
+    }
+  }
+
+  static void scanLegacy (Lookup lookup, StringBuilder emojiCode, CharSequence cs, int start, int end, @Nullable Emoji.CountLimiter countLimiter, Emoji.Callback callback) {
+    long buf = 0;
+    int emojiCount = countLimiter != null ? countLimiter.getEmojiCount() : 0;
+    char c;
+    int startIndex = -1;
+    int startLength = 0;
+    int previousGoodIndex = 0;
+    emojiCode.setLength(0);
+    boolean doneEmoji = false;
+    boolean abort = false;
+
+    for (int i = start; i < end; i++) {
+      c = cs.charAt(i);
+      if (c >= 0xD83C && c <= 0xD83E || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (buf & 0xFFFF) == 0xD83C && (c >= 0xDDE6 && c <= 0xDDFF))) {
+        if (startIndex == -1) {
+          startIndex = i;
+        }
+        emojiCode.append(c);
+        startLength++;
+        buf <<= 16;
+        buf |= c;
+      } else if (emojiCode.length() > 0 && (c == 0x2640 || c == 0x2642 || c == 0x2695)) {
+        emojiCode.append(c);
+        startLength++;
+        buf = 0;
+        doneEmoji = true;
+      } else if (buf > 0 && (c & 0xF000) == 0xD000) {
+        emojiCode.append(c);
+        startLength++;
+        buf = 0;
+        doneEmoji = true;
+      } else if (c == 0x20E3) {
+        if (i > 0) {
+          char c2 = cs.charAt(previousGoodIndex);
+          if ((c2 >= '0' && c2 <= '9') || c2 == '#' || c2 == '*') {
+            startIndex = previousGoodIndex;
+            startLength = i - previousGoodIndex + 1;
+            emojiCode.append(c2);
+            emojiCode.append(c);
+            doneEmoji = true;
+          }
+        }
+      } else if ((c == 0x00A9 || c == 0x00AE || c >= 0x203C && c <= 0x3299) && EmojiData.instance().containsDataChar(c)) {
+        if (startIndex == -1) {
+          startIndex = i;
+        }
+        startLength++;
+        emojiCode.append(c);
+        doneEmoji = true;
+      } else if (startIndex != -1) {
+        if (emojiCode.length() > 0) {
+          // SAME CODE BEGIN
+          final String code = emojiCode.toString();
+          final EmojiInfo info = lookup.find(code);
+          if (info != null) {
+            callback.onEmojiFound(cs, code, info, startIndex, startLength);
+
+            emojiCount++;
+            if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
+              abort = true;
+            }
+          } else if (code.length() > 1) {
+            int componentAddIndex = 0;
+            for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
+              char componentStartCode = code.charAt(componentStartIndex);
+              if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
+                componentStartIndex++;
+                continue;
+              }
+              int componentLength = code.length() - componentStartIndex;
+              if (componentStartIndex == 0) {
+                componentLength--;
+              }
+              EmojiInfo componentInfo = null;
+              while (componentLength > 0 && componentInfo == null) {
+                String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
+                componentInfo = lookup.find(componentCode);
+                if (componentInfo == null) {
+                  componentLength--;
+                  continue;
+                }
+                while (componentStartIndex + componentAddIndex + componentLength < startLength) {
+                  char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
+                  if (nextComponentChar == '\uFE0F') {
+                    componentLength++;
+                  } else {
+                    break;
+                  }
+                }
+                callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
+                emojiCount++;
+                if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
+                  abort = true;
+                }
+                componentStartIndex += componentCode.length();
+                componentAddIndex += componentLength - componentCode.length();
+              }
+              if (componentInfo == null) {
+                componentStartIndex++;
+              }
+            }
+          }
+          // SAME CODE END
+        }
+        startLength = 0;
+        startIndex = -1;
+        emojiCode.setLength(0);
+        doneEmoji = false;
+      }/* else if (c != 0xfe0f) {
+        if (emojiOnly != null) {
+          emojiOnly[0] = 0;
+          emojiOnly = null;
+        }
+      }*/
+      if (doneEmoji && i + 2 < end) {
+        char next = cs.charAt(i + 1);
+        if (next == 0xD83C) {
+          next = cs.charAt(i + 2);
+          if (next >= 0xDFFB && next <= 0xDFFF) {
+            emojiCode.append(cs, i + 1, i + 3);
+            startLength += 2;
+            i += 2;
+          }
+        } else if (emojiCode.length() >= 2 && emojiCode.charAt(0) == 0xD83C && emojiCode.charAt(1) == 0xDFF4 && next == 0xDB40) {
+          i++;
+          while (true) {
+            emojiCode.append(cs, i, i + 2);
+            startLength += 2;
+            i += 2;
+            if (i >= cs.length() || cs.charAt(i) != 0xDB40) {
+              i--;
+              break;
+            }
+          }
+        } else if (next == 0x200D && emojiCode.length() == 2) {
+          next = cs.charAt(i + 2);
+          char c1 = emojiCode.charAt(0);
+          char c2 = emojiCode.charAt(1);
+          int successCount = 0;
+          if (c1 == 0xD83C && c2 == 0xDFF4 && next == 0x2620) {
+            successCount = 2;
+          }
+          if (successCount > 0) {
+            emojiCode.append(cs, i + 1, i + 1 + successCount);
+            startLength += successCount;
+            i += 2;
+          }
+        }
+      }
+      previousGoodIndex = i;
+      for (int a = 0; a < 3 && i + 1 < end; a++) {
+        c = cs.charAt(i + 1);
+        if (a == 1) {
+          if (c == 0x200D && emojiCode.length() > 0) {
+            emojiCode.append(c);
+            i++;
+            startLength++;
+            doneEmoji = i + 1 == end;
+          }
+        } else {
+          if (c >= 0xFE00 && c <= 0xFE0F) {
+            i++;
+            startLength++;
+          }
+        }
+      }
+      if (doneEmoji && i + 2 < end && cs.charAt(i + 1) == 0xD83C) {
+        char next = cs.charAt(i + 2);
+        if (next >= 0xDFFB && next <= 0xDFFF) {
+          emojiCode.append(cs, i + 1, i + 3);
+          startLength += 2;
+          i += 2;
+        }
+      }
+      if (doneEmoji) {
+        // SAME CODE BEGIN
+        final String code = emojiCode.toString();
+        final EmojiInfo info = lookup.find(code);
+        if (info != null) {
+          callback.onEmojiFound(cs, code, info, startIndex, startLength);
+
+          emojiCount++;
+          if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
+            abort = true;
+          }
+        } else if (code.length() > 1) {
+          int componentAddIndex = 0;
+          for (int componentStartIndex = 0; componentStartIndex < code.length(); ) {
+            char componentStartCode = code.charAt(componentStartIndex);
+            if (componentStartCode == '\u200D' || componentStartCode == '\uFE0F') {
+              componentStartIndex++;
+              continue;
+            }
+            int componentLength = code.length() - componentStartIndex;
+            if (componentStartIndex == 0) {
+              componentLength--;
+            }
+            EmojiInfo componentInfo = null;
+            while (componentLength > 0 && componentInfo == null) {
+              String componentCode = code.substring(componentStartIndex, componentStartIndex + componentLength);
+              componentInfo = lookup.find(componentCode);
+              if (componentInfo == null) {
+                componentLength--;
+                continue;
+              }
+              while (componentStartIndex + componentAddIndex + componentLength < startLength) {
+                char nextComponentChar = cs.charAt(startIndex + componentStartIndex + componentAddIndex + componentLength);
+                if (nextComponentChar == '\uFE0F') {
+                  componentLength++;
+                } else {
+                  break;
+                }
+              }
+              callback.onEmojiFound(cs, componentCode, componentInfo, startIndex + componentStartIndex + componentAddIndex, componentLength);
+              emojiCount++;
+              if (countLimiter != null && !countLimiter.incrementEmojiCount()) {
+                abort = true;
+              }
+              componentStartIndex += componentCode.length();
+              componentAddIndex += componentLength - componentCode.length();
+            }
+            if (componentInfo == null) {
+              componentStartIndex++;
+            }
+          }
+        }
+        // SAME CODE END
+
+        startLength = 0;
+        startIndex = -1;
+        emojiCode.setLength(0);
+        doneEmoji = false;
+      } else if (startIndex == -1) {
+        startLength = 0;
+      }
+      if (abort || (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP && emojiCount >= 1000)) {
+        break;
+      }
+    }
+  }
+}
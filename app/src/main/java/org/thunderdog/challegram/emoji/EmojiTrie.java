@@ -0,0 +1,236 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.emoji;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable UTF-16 trie over all known emoji codes and their aliases.
+ *
+ * Performs longest match in a single pass without allocations.
+ * Variation selectors (U+FE00..U+FE0F) are optional in the input: every code is also stored without them,
+ * and a selector with no matching edge is skipped.
+ */
+final class EmojiTrie {
+  private static final int ROOT = 0;
+
+  // Node i owns edges [edgeStart[i], edgeStart[i + 1]), sorted by char
+  private final int[] edgeStart;
+  private final char[] edgeChars;
+  private final int[] edgeTargets;
+  private final EmojiInfo[] infos;
+  private final String[] codes;
+
+  private static final class Node {
+    char[] chars = new char[0];
+    Node[] children = new Node[0];
+    EmojiInfo info;
+    String code;
+
+    Node child (char c, boolean create) {
+      int index = Arrays.binarySearch(chars, c);
+      if (index >= 0)
+        return children[index];
+      if (!create)
+        return null;
+      index = -index - 1;
+      Node node = new Node();
+      char[] newChars = new char[chars.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(chars, 0, newChars, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      newChars[index] = c;
+      newChildren[index] = node;
+      System.arraycopy(chars, index, newChars, index + 1, chars.length - index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+      chars = newChars;
+      children = newChildren;
+      return node;
+    }
+  }
+
+  static final class Builder {
+    private final Node root = new Node();
+    private int nodeCount = 1, edgeCount;
+
+    private void put (CharSequence key, String code, EmojiInfo info, boolean override) {
+      Node node = root;
+      for (int i = 0; i < key.length(); i++) {
+        Node child = node.child(key.charAt(i), false);
+        if (child == null) {
+          child = node.child(key.charAt(i), true);
+          nodeCount++;
+          edgeCount++;
+        }
+        node = child;
+      }
+      if (node.info == null || override) {
+        node.info = info;
+        node.code = code;
+      }
+    }
+
+    Builder add (String code, EmojiInfo info) {
+      put(code, code, info, true);
+      String stripped = stripVariationSelectors(code);
+      if (stripped != null) {
+        put(stripped, code, info, false);
+      }
+      return this;
+    }
+
+    Builder addAliases (Map<CharSequence, CharSequence> aliases, Map<CharSequence, EmojiInfo> infos) {
+      for (Map.Entry<CharSequence, CharSequence> entry : aliases.entrySet()) {
+        EmojiInfo info = infos.get(entry.getValue());
+        if (info == null)
+          continue;
+        String alias = entry.getKey().toString();
+        String code = entry.getValue().toString();
+        put(alias, code, info, false);
+        String stripped = stripVariationSelectors(alias);
+        if (stripped != null) {
+          put(stripped, code, info, false);
+        }
+      }
+      return this;
+    }
+
+    EmojiTrie build () {
+      return new EmojiTrie(this);
+    }
+  }
+
+  /**
+   * @param infos Emoji codes, as they are stored in {@link org.thunderdog.challegram.tool.EmojiData#data}
+   * @param aliases Legacy and gender-less codes, mapped to codes in {@code infos}
+   */
+  static EmojiTrie build (Map<CharSequence, EmojiInfo> infos, Map<CharSequence, CharSequence> aliases) {
+    Builder builder = new Builder();
+    for (Map.Entry<CharSequence, EmojiInfo> entry : infos.entrySet()) {
+      builder.add(entry.getKey().toString(), entry.getValue());
+    }
+    return builder.addAliases(aliases, infos).build();
+  }
+
+  @Nullable
+  private static String stripVariationSelectors (String code) {
+    StringBuilder b = null;
+    for (int i = 0; i < code.length(); i++) {
+      char c = code.charAt(i);
+      if (isVariationSelector(c)) {
+        if (b == null) {
+          b = new StringBuilder(code.length());
+          b.append(code, 0, i);
+        }
+      } else if (b != null) {
+        b.append(c);
+      }
+    }
+    return b != null && b.length() > 0 ? b.toString() : null;
+  }
+
+  static boolean isVariationSelector (char c) {
+    return c >= 0xFE00 && c <= 0xFE0F;
+  }
+
+  private EmojiTrie (Builder builder) {
+    edgeStart = new int[builder.nodeCount + 1];
+    edgeChars = new char[builder.edgeCount];
+    edgeTargets = new int[builder.edgeCount];
+    infos = new EmojiInfo[builder.nodeCount];
+    codes = new String[builder.nodeCount];
+
+    // Breadth-first, so that node indexes are assigned in the order their edges are written
+    ArrayDeque<Node> queue = new ArrayDeque<>();
+    queue.add(builder.root);
+    int nodeIndex = 0, nextNodeIndex = 1, edgeIndex = 0;
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      infos[nodeIndex] = node.info;
+      codes[nodeIndex] = node.code;
+      edgeStart[nodeIndex] = edgeIndex;
+      for (int i = 0; i < node.chars.length; i++) {
+        edgeChars[edgeIndex] = node.chars[i];
+        edgeTargets[edgeIndex] = nextNodeIndex++;
+        edgeIndex++;
+        queue.add(node.children[i]);
+      }
+      nodeIndex++;
+    }
+    edgeStart[nodeIndex] = edgeIndex;
+  }
+
+  private int child (int node, char c) {
+    int index = Arrays.binarySearch(edgeChars, edgeStart[node], edgeStart[node + 1], c);
+    return index >= 0 ? edgeTargets[index] : -1;
+  }
+
+  boolean canStartWith (char c) {
+    return child(ROOT, c) != -1;
+  }
+
+  /**
+   * Finds the longest emoji starting at {@code start}.
+   *
+   * @return Packed match, see {@link #matchNode(long)} and {@link #matchEnd(long)}, or -1 if nothing matched
+   */
+  long match (CharSequence cs, int start, int end) {
+    int node = ROOT;
+    int matchNode = -1, matchEnd = -1;
+    for (int i = start; i < end; i++) {
+      char c = cs.charAt(i);
+      int next = child(node, c);
+      if (next == -1) {
+        if (node != ROOT && isVariationSelector(c)) {
+          if (matchEnd == i) {
+            matchEnd = i + 1;
+          }
+          continue;
+        }
+        break;
+      }
+      node = next;
+      if (infos[node] != null) {
+        matchNode = node;
+        matchEnd = i + 1;
+      }
+    }
+    if (matchNode == -1) {
+      return -1;
+    }
+    while (matchEnd < end && isVariationSelector(cs.charAt(matchEnd))) {
+      matchEnd++;
+    }
+    return ((long) matchNode << 32) | matchEnd;
+  }
+
+  static int matchNode (long match) {
+    return (int) (match >> 32);
+  }
+
+  static int matchEnd (long match) {
+    return (int) match;
+  }
+
+  EmojiInfo info (int node) {
+    return infos[node];
+  }
+
+  String code (int node) {
+    return codes[node];
+  }
+}
@@ -0,0 +1,849 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.filegen;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.transcoder.common.TrackStatus;
+import com.otaliastudios.transcoder.common.TrackType;
+import com.otaliastudios.transcoder.sink.DataSink;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * {@link DataSink} that writes fragmented MP4: ftyp and moov boxes without samples, followed by moof and mdat pairs.
+ *
+ * Unlike {@link android.media.MediaMuxer}, which patches the beginning of the file when it stops,
+ * this sink never rewrites bytes it has already written. Once a fragment is written, the whole file prefix
+ * is final and can be uploaded while the rest of the video is still being encoded, see {@link Callback}.
+ *
+ * Only H.264 video and AAC audio are supported.
+ */
+final class FragmentedMp4Sink implements DataSink {
+  public interface Callback {
+    /**
+     * Called on the transcoder thread each time a fragment is written.
+     *
+     * @param readyBytesCount Size of the file prefix that will not change anymore
+     */
+    void onFragmentWritten (long readyBytesCount);
+  }
+
+  private static final long MIN_FRAGMENT_DURATION_US = 1_000_000;
+  private static final long MAX_FRAGMENT_SIZE = ByteUnit.MIB.toBytes(4);
+
+  private static final int VIDEO_TIMESCALE = 90000;
+
+  private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+  private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+  private static final class Sample {
+    final long presentationTimeUs;
+    final int size;
+    final boolean isSync;
+
+    Sample (long presentationTimeUs, int size, boolean isSync) {
+      this.presentationTimeUs = presentationTimeUs;
+      this.size = size;
+      this.isSync = isSync;
+    }
+  }
+
+  /**
+   * Parts of {@link MediaFormat} needed to describe a track.
+   */
+  static final class TrackFormat {
+    final String mimeType;
+    final int width, height;
+    final int sampleRate, channelCount, bitrate;
+    final byte[][] codecSpecificData;
+
+    TrackFormat (String mimeType, int width, int height, int sampleRate, int channelCount, int bitrate, byte[]... codecSpecificData) {
+      this.mimeType = mimeType;
+      this.width = width;
+      this.height = height;
+      this.sampleRate = sampleRate;
+      this.channelCount = channelCount;
+      this.bitrate = bitrate;
+      this.codecSpecificData = codecSpecificData;
+    }
+
+    static TrackFormat valueOf (MediaFormat format) {
+      String mimeType = format.getString(MediaFormat.KEY_MIME);
+      List<byte[]> csd = new ArrayList<>(2);
+      for (String key : new String[] {"csd-0", "csd-1"}) {
+        ByteBuffer buffer = format.containsKey(key) ? format.getByteBuffer(key) : null;
+        if (buffer != null) {
+          buffer = buffer.duplicate();
+          buffer.position(0);
+          byte[] data = new byte[buffer.remaining()];
+          buffer.get(data);
+          csd.add(data);
+        }
+      }
+      boolean isVideo = mimeType != null && mimeType.startsWith("video/");
+      return new TrackFormat(mimeType,
+        isVideo ? format.getInteger(MediaFormat.KEY_WIDTH) : 0,
+        isVideo ? format.getInteger(MediaFormat.KEY_HEIGHT) : 0,
+        !isVideo ? format.getInteger(MediaFormat.KEY_SAMPLE_RATE) : 0,
+        !isVideo ? format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : 0,
+        !isVideo && format.containsKey(MediaFormat.KEY_BIT_RATE) ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0,
+        csd.toArray(new byte[0][])
+      );
+    }
+  }
+
+  private static final class Track {
+    final TrackType type;
+    int trackId;
+    TrackFormat format;
+    int timescale;
+
+    final ArrayList<Sample> samples = new ArrayList<>();
+    final Buffer data = new Buffer(ByteUnit.KIB.toBytes(256));
+    long nextDecodeTime = -1;
+    long lastSampleDuration;
+
+    Track (TrackType type) {
+      this.type = type;
+    }
+
+    boolean isVideo () {
+      return type == TrackType.VIDEO;
+    }
+  }
+
+  private final String path;
+  private final Callback callback;
+
+  private final Track videoTrack = new Track(TrackType.VIDEO);
+  private final Track audioTrack = new Track(TrackType.AUDIO);
+  private boolean hasVideo, hasAudio;
+  private int orientation;
+
+  private FileOutputStream stream;
+  private final Buffer box = new Buffer(ByteUnit.KIB.toBytes(4));
+  private boolean headerWritten;
+  private long timeOffsetUs = -1;
+  private int sequenceNumber;
+  private long writtenBytesCount;
+  private byte[] sampleBuffer = new byte[0];
+
+  FragmentedMp4Sink (String path, Callback callback) {
+    this.path = path;
+    this.callback = callback;
+  }
+
+  @Override
+  public void setOrientation (int orientation) {
+    this.orientation = ((orientation % 360) + 360) % 360;
+  }
+
+  @Override
+  public void setLocation (double latitude, double longitude) {
+    // Not needed for sent videos
+  }
+
+  @Override
+  public void setTrackStatus (@NonNull TrackType type, @NonNull TrackStatus status) {
+    setTrackTranscoding(type, status.isTranscoding());
+  }
+
+  void setTrackTranscoding (TrackType type, boolean isTranscoding) {
+    if (type == TrackType.VIDEO) {
+      hasVideo = isTranscoding;
+    } else {
+      hasAudio = isTranscoding;
+    }
+  }
+
+  @Override
+  public void setTrackFormat (@NonNull TrackType type, @NonNull MediaFormat format) {
+    setTrackFormat(type, TrackFormat.valueOf(format));
+  }
+
+  void setTrackFormat (TrackType type, TrackFormat format) {
+    String mimeType = format.mimeType;
+    Track track = type == TrackType.VIDEO ? videoTrack : audioTrack;
+    if (type == TrackType.VIDEO) {
+      if (!"video/avc".equals(mimeType)) {
+        throw new IllegalArgumentException("Unsupported video format: " + mimeType);
+      }
+      track.timescale = VIDEO_TIMESCALE;
+    } else {
+      if (!"audio/mp4a-latm".equals(mimeType)) {
+        throw new IllegalArgumentException("Unsupported audio format: " + mimeType);
+      }
+      track.timescale = format.sampleRate;
+    }
+    track.format = format;
+  }
+
+  @Override
+  public void writeTrack (@NonNull TrackType type, @NonNull ByteBuffer byteBuffer, @NonNull MediaCodec.BufferInfo bufferInfo) {
+    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || bufferInfo.size <= 0) {
+      return;
+    }
+    boolean isSync = type != TrackType.VIDEO || (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+    writeSample(type, byteBuffer, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, isSync);
+  }
+
+  void writeSample (TrackType type, ByteBuffer byteBuffer, int offset, int size, long presentationTimeUs, boolean isSync) {
+    Track track = type == TrackType.VIDEO ? videoTrack : audioTrack;
+
+    if (needFlush(track, isSync, presentationTimeUs)) {
+      try {
+        writeFragment(presentationTimeUs);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    if (sampleBuffer.length < size) {
+      sampleBuffer = new byte[size];
+    }
+    ByteBuffer buffer = byteBuffer.duplicate();
+    buffer.limit(offset + size);
+    buffer.position(offset);
+    buffer.get(sampleBuffer, 0, size);
+
+    int writtenSize;
+    if (track.isVideo() && isAnnexB(sampleBuffer, size)) {
+      writtenSize = appendNalUnits(track.data, sampleBuffer, size);
+    } else {
+      track.data.bytes(sampleBuffer, 0, size);
+      writtenSize = size;
+    }
+    track.samples.add(new Sample(presentationTimeUs, writtenSize, isSync));
+  }
+
+  private boolean needFlush (Track track, boolean isSync, long presentationTimeUs) {
+    if (!canWriteHeader()) {
+      return false;
+    }
+    if (videoTrack.data.size + audioTrack.data.size >= MAX_FRAGMENT_SIZE) {
+      return true;
+    }
+    if (hasVideo) {
+      // Fragments start with a key frame, so each of them can be decoded on its own
+      return track.isVideo() && isSync && !track.samples.isEmpty() && presentationTimeUs - track.samples.get(0).presentationTimeUs >= MIN_FRAGMENT_DURATION_US;
+    }
+    return !track.samples.isEmpty() && presentationTimeUs - track.samples.get(0).presentationTimeUs >= MIN_FRAGMENT_DURATION_US;
+  }
+
+  private boolean canWriteHeader () {
+    return (hasVideo || hasAudio) && (!hasVideo || videoTrack.format != null) && (!hasAudio || audioTrack.format != null);
+  }
+
+  @Override
+  public void stop () {
+    try {
+      if (!videoTrack.samples.isEmpty() || !audioTrack.samples.isEmpty()) {
+        if (!canWriteHeader()) {
+          throw new IllegalStateException("Track formats are unknown");
+        }
+        writeFragment(-1);
+      }
+      if (stream != null) {
+        stream.getFD().sync();
+        stream.close();
+        stream = null;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  int getFragmentCount () {
+    return sequenceNumber;
+  }
+
+  long getWrittenBytesCount () {
+    return writtenBytesCount;
+  }
+
+  @Override
+  public void release () {
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException ignored) { }
+      stream = null;
+    }
+  }
+
+  // Fragments
+
+  private void writeFragment (long nextPresentationTimeUs) throws IOException {
+    if (stream == null) {
+      stream = new FileOutputStream(path);
+    }
+    if (timeOffsetUs == -1) {
+      // Both tracks start from the earliest sample, so they stay in sync
+      timeOffsetUs = Long.MAX_VALUE;
+      for (Track track : tracks()) {
+        for (Sample sample : track.samples) {
+          timeOffsetUs = Math.min(timeOffsetUs, sample.presentationTimeUs);
+        }
+      }
+      if (timeOffsetUs == Long.MAX_VALUE) {
+        timeOffsetUs = 0;
+      }
+    }
+    if (!headerWritten) {
+      box.size = 0;
+      writeHeader(box);
+      stream.write(box.data, 0, box.size);
+      writtenBytesCount += box.size;
+      headerWritten = true;
+    }
+
+    box.size = 0;
+    int moof = box.startBox("moof");
+    int mfhd = box.startFullBox("mfhd", 0, 0);
+    box.u32(++sequenceNumber);
+    box.endBox(mfhd);
+    List<Track> tracks = tracks();
+    int[] dataOffsetPositions = new int[tracks.size()];
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.get(i);
+      dataOffsetPositions[i] = track.samples.isEmpty() ? -1 : writeTrackFragment(box, track, track.isVideo() ? nextPresentationTimeUs : -1);
+    }
+    box.endBox(moof);
+
+    int mdatSize = 8;
+    for (Track track : tracks) {
+      mdatSize += track.data.size;
+    }
+    int dataOffset = box.size + 8;
+    for (int i = 0; i < tracks.size(); i++) {
+      if (dataOffsetPositions[i] != -1) {
+        box.put32(dataOffsetPositions[i], dataOffset);
+        dataOffset += tracks.get(i).data.size;
+      }
+    }
+    box.u32(mdatSize);
+    box.fourcc("mdat");
+
+    stream.write(box.data, 0, box.size);
+    for (Track track : tracks) {
+      stream.write(track.data.data, 0, track.data.size);
+      track.data.size = 0;
+      track.samples.clear();
+    }
+    stream.flush();
+    writtenBytesCount += box.size - 8 + mdatSize;
+
+    callback.onFragmentWritten(writtenBytesCount);
+  }
+
+  private List<Track> tracks () {
+    List<Track> tracks = new ArrayList<>(2);
+    if (hasVideo) {
+      tracks.add(videoTrack);
+    }
+    if (hasAudio) {
+      tracks.add(audioTrack);
+    }
+    return tracks;
+  }
+
+  private long toTicks (Track track, long timeUs) {
+    return Math.max(0, timeUs - timeOffsetUs) * track.timescale / 1_000_000L;
+  }
+
+  /**
+   * @return Position of trun data offset, which has to be filled once moof size is known
+   */
+  private int writeTrackFragment (Buffer out, Track track, long nextPresentationTimeUs) {
+    int count = track.samples.size();
+
+    // Samples come in decode order. Sorted presentation times become decode times,
+    // the difference between them is the composition offset (non-zero only when there are B-frames).
+    long[] presentationTimes = new long[count];
+    for (int i = 0; i < count; i++) {
+      presentationTimes[i] = toTicks(track, track.samples.get(i).presentationTimeUs);
+    }
+    long[] decodeTimes = presentationTimes.clone();
+    Arrays.sort(decodeTimes);
+    long baseDecodeTime = track.nextDecodeTime != -1 ? track.nextDecodeTime : decodeTimes[0];
+    long[] durations = new long[count];
+    for (int i = 0; i < count - 1; i++) {
+      durations[i] = decodeTimes[i + 1] - decodeTimes[i];
+    }
+    long lastDuration = nextPresentationTimeUs != -1 ? toTicks(track, nextPresentationTimeUs) - decodeTimes[count - 1] : 0;
+    if (lastDuration <= 0) {
+      lastDuration = count > 1 ? durations[count - 2] : track.lastSampleDuration;
+    }
+    if (lastDuration <= 0) {
+      lastDuration = track.isVideo() ? track.timescale / 30 : 1024;
+    }
+    durations[count - 1] = lastDuration;
+    track.lastSampleDuration = lastDuration;
+
+    int traf = out.startBox("traf");
+    int tfhd = out.startFullBox("tfhd", 0, 0x020000 /*default-base-is-moof*/);
+    out.u32(track.trackId);
+    out.endBox(tfhd);
+    int tfdt = out.startFullBox("tfdt", 1, 0);
+    out.u64(baseDecodeTime);
+    out.endBox(tfdt);
+
+    boolean needCompositionOffsets = track.isVideo();
+    // data-offset, sample-duration, sample-size, sample-flags and, for video, sample-composition-time-offset
+    int trunFlags = 0x000001 | 0x000100 | 0x000200 | 0x000400 | (needCompositionOffsets ? 0x000800 : 0);
+    int trun = out.startFullBox("trun", needCompositionOffsets ? 1 : 0, trunFlags);
+    out.u32(count);
+    int dataOffsetPosition = out.size;
+    out.u32(0);
+    long decodeTime = baseDecodeTime;
+    for (int i = 0; i < count; i++) {
+      Sample sample = track.samples.get(i);
+      out.u32(durations[i]);
+      out.u32(sample.size);
+      out.u32(sample.isSync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+      if (needCompositionOffsets) {
+        out.u32((int) (presentationTimes[i] - (decodeTimes[i] - decodeTimes[0] + baseDecodeTime)));
+      }
+      decodeTime += durations[i];
+    }
+    out.endBox(trun);
+    out.endBox(traf);
+
+    track.nextDecodeTime = decodeTime;
+    return dataOffsetPosition;
+  }
+
+  // Header
+
+  private void writeHeader (Buffer out) {
+    int ftyp = out.startBox("ftyp");
+    out.fourcc("isom");
+    out.u32(0x200);
+    out.fourcc("isom");
+    out.fourcc("iso5");
+    out.fourcc("iso6");
+    out.fourcc("avc1");
+    out.fourcc("mp41");
+    out.endBox(ftyp);
+
+    List<Track> tracks = tracks();
+    for (int i = 0; i < tracks.size(); i++) {
+      tracks.get(i).trackId = i + 1;
+    }
+
+    int moov = out.startBox("moov");
+
+    int mvhd = out.startFullBox("mvhd", 0, 0);
+    out.u32(0); // creation_time
+    out.u32(0); // modification_time
+    out.u32(1000); // timescale
+    out.u32(0); // duration, unknown in advance
+    out.u32(0x00010000); // rate
+    out.u16(0x0100); // volume
+    out.zeros(10);
+    writeMatrix(out, 0);
+    out.zeros(24); // pre_defined
+    out.u32(tracks.size() + 1); // next_track_ID
+    out.endBox(mvhd);
+
+    for (Track track : tracks) {
+      writeTrackHeader(out, track);
+    }
+
+    int mvex = out.startBox("mvex");
+    for (Track track : tracks) {
+      int trex = out.startFullBox("trex", 0, 0);
+      out.u32(track.trackId);
+      out.u32(1); // default_sample_description_index
+      out.u32(0); // default_sample_duration
+      out.u32(0); // default_sample_size
+      out.u32(0); // default_sample_flags
+      out.endBox(trex);
+    }
+    out.endBox(mvex);
+
+    out.endBox(moov);
+  }
+
+  private void writeTrackHeader (Buffer out, Track track) {
+    boolean isVideo = track.isVideo();
+    int width = track.format.width;
+    int height = track.format.height;
+
+    int trak = out.startBox("trak");
+
+    int tkhd = out.startFullBox("tkhd", 0, 0x000003 /*enabled, in movie*/);
+    out.u32(0); // creation_time
+    out.u32(0); // modification_time
+    out.u32(track.trackId);
+    out.u32(0); // reserved
+    out.u32(0); // duration
+    out.zeros(8);
+    out.u16(0); // layer
+    out.u16(0); // alternate_group
+    out.u16(isVideo ? 0 : 0x0100); // volume
+    out.u16(0);
+    writeMatrix(out, isVideo ? orientation : 0);
+    out.u32((long) width << 16);
+    out.u32((long) height << 16);
+    out.endBox(tkhd);
+
+    int mdia = out.startBox("mdia");
+
+    int mdhd = out.startFullBox("mdhd", 0, 0);
+    out.u32(0); // creation_time
+    out.u32(0); // modification_time
+    out.u32(track.timescale);
+    out.u32(0); // duration
+    out.u16(0x55C4); // "und"
+    out.u16(0);
+    out.endBox(mdhd);
+
+    int hdlr = out.startFullBox("hdlr", 0, 0);
+    out.u32(0);
+    out.fourcc(isVideo ? "vide" : "soun");
+    out.zeros(12);
+    out.cString(isVideo ? "VideoHandler" : "SoundHandler");
+    out.endBox(hdlr);
+
+    int minf = out.startBox("minf");
+    if (isVideo) {
+      int vmhd = out.startFullBox("vmhd", 0, 1);
+      out.zeros(8); // graphicsmode, opcolor
+      out.endBox(vmhd);
+    } else {
+      int smhd = out.startFullBox("smhd", 0, 0);
+      out.zeros(4); // balance, reserved
+      out.endBox(smhd);
+    }
+    int dinf = out.startBox("dinf");
+    int dref = out.startFullBox("dref", 0, 0);
+    out.u32(1);
+    int url = out.startFullBox("url ", 0, 1 /*media data is in the same file*/);
+    out.endBox(url);
+    out.endBox(dref);
+    out.endBox(dinf);
+
+    int stbl = out.startBox("stbl");
+    int stsd = out.startFullBox("stsd", 0, 0);
+    out.u32(1);
+    if (isVideo) {
+      writeAvcSampleEntry(out, track.format, width, height);
+    } else {
+      writeAacSampleEntry(out, track.format);
+    }
+    out.endBox(stsd);
+    // Sample tables are empty, all samples are described in fragments
+    for (String type : new String[] {"stts", "stsc", "stco"}) {
+      int emptyBox = out.startFullBox(type, 0, 0);
+      out.u32(0);
+      out.endBox(emptyBox);
+    }
+    int stsz = out.startFullBox("stsz", 0, 0);
+    out.u32(0); // sample_size
+    out.u32(0); // sample_count
+    out.endBox(stsz);
+    out.endBox(stbl);
+
+    out.endBox(minf);
+    out.endBox(mdia);
+    out.endBox(trak);
+  }
+
+  private static void writeMatrix (Buffer out, int rotation) {
+    int a, b, c, d;
+    switch (rotation) {
+      case 90:
+        a = 0; b = 0x00010000; c = -0x00010000; d = 0;
+        break;
+      case 180:
+        a = -0x00010000; b = 0; c = 0; d = -0x00010000;
+        break;
+      case 270:
+        a = 0; b = -0x00010000; c = 0x00010000; d = 0;
+        break;
+      default:
+        a = 0x00010000; b = 0; c = 0; d = 0x00010000;
+        break;
+    }
+    out.u32(a); out.u32(b); out.u32(0);
+    out.u32(c); out.u32(d); out.u32(0);
+    out.u32(0); out.u32(0); out.u32(0x40000000);
+  }
+
+  private static void writeAvcSampleEntry (Buffer out, TrackFormat format, int width, int height) {
+    List<byte[]> parameterSets = new ArrayList<>();
+    for (byte[] data : format.codecSpecificData) {
+      parameterSets.addAll(splitNalUnits(data));
+    }
+    List<byte[]> sps = new ArrayList<>();
+    List<byte[]> pps = new ArrayList<>();
+    for (byte[] nalUnit : parameterSets) {
+      int nalType = nalUnit[0] & 0x1f;
+      if (nalType == 7) {
+        sps.add(nalUnit);
+      } else if (nalType == 8) {
+        pps.add(nalUnit);
+      }
+    }
+    if (sps.isEmpty() || sps.get(0).length < 4 || pps.isEmpty()) {
+      throw new IllegalArgumentException("Missing H.264 parameter sets");
+    }
+
+    int avc1 = out.startBox("avc1");
+    out.zeros(6);
+    out.u16(1); // data_reference_index
+    out.zeros(16);
+    out.u16(width);
+    out.u16(height);
+    out.u32(0x00480000); // horizresolution
+    out.u32(0x00480000); // vertresolution
+    out.u32(0);
+    out.u16(1); // frame_count
+    out.zeros(32); // compressorname
+    out.u16(0x0018); // depth
+    out.u16(0xffff); // pre_defined
+
+    byte[] firstSps = sps.get(0);
+    int avcC = out.startBox("avcC");
+    out.u8(1); // configurationVersion
+    out.u8(firstSps[1]); // AVCProfileIndication
+    out.u8(firstSps[2]); // profile_compatibility
+    out.u8(firstSps[3]); // AVCLevelIndication
+    out.u8(0xff); // 4 bytes NAL unit length
+    out.u8(0xe0 | sps.size());
+    for (byte[] nalUnit : sps) {
+      out.u16(nalUnit.length);
+      out.bytes(nalUnit, 0, nalUnit.length);
+    }
+    out.u8(pps.size());
+    for (byte[] nalUnit : pps) {
+      out.u16(nalUnit.length);
+      out.bytes(nalUnit, 0, nalUnit.length);
+    }
+    out.endBox(avcC);
+
+    out.endBox(avc1);
+  }
+
+  private static void writeAacSampleEntry (Buffer out, TrackFormat format) {
+    int sampleRate = format.sampleRate;
+    int channelCount = format.channelCount;
+    int bitrate = format.bitrate;
+    if (format.codecSpecificData.length == 0) {
+      throw new IllegalArgumentException("Missing AAC AudioSpecificConfig");
+    }
+    byte[] audioSpecificConfig = format.codecSpecificData[0];
+
+    int mp4a = out.startBox("mp4a");
+    out.zeros(6);
+    out.u16(1); // data_reference_index
+    out.zeros(8);
+    out.u16(channelCount);
+    out.u16(16); // samplesize
+    out.zeros(4);
+    out.u32((long) sampleRate << 16);
+
+    int esds = out.startFullBox("esds", 0, 0);
+    int decoderSpecificInfoSize = 2 + audioSpecificConfig.length;
+    int decoderConfigSize = 2 + 13 + decoderSpecificInfoSize;
+    int slConfigSize = 2 + 1;
+    out.u8(0x03); // ES_DescrTag
+    out.u8(3 + decoderConfigSize + slConfigSize);
+    out.u16(0); // ES_ID
+    out.u8(0); // flags
+    out.u8(0x04); // DecoderConfigDescrTag
+    out.u8(decoderConfigSize - 2);
+    out.u8(0x40); // objectTypeIndication: MPEG-4 Audio
+    out.u8(0x15); // streamType: audio
+    out.u8(0);
+    out.u16(0); // bufferSizeDB
+    out.u32(bitrate); // maxBitrate
+    out.u32(bitrate); // avgBitrate
+    out.u8(0x05); // DecSpecificInfoTag
+    out.u8(audioSpecificConfig.length);
+    out.bytes(audioSpecificConfig, 0, audioSpecificConfig.length);
+    out.u8(0x06); // SLConfigDescrTag
+    out.u8(1);
+    out.u8(0x02); // predefined: MP4
+    out.endBox(esds);
+
+    out.endBox(mp4a);
+  }
+
+  // NAL units
+
+  private static boolean isAnnexB (byte[] data, int size) {
+    return size >= 4 && data[0] == 0 && data[1] == 0 && (data[2] == 1 || (data[2] == 0 && data[3] == 1));
+  }
+
+  /**
+   * Converts start code delimited NAL units to length prefixed ones.
+   *
+   * @return Number of written bytes
+   */
+  private static int appendNalUnits (Buffer out, byte[] data, int size) {
+    int startSize = out.size;
+    int nalStart = -1;
+    int i = 0;
+    while (i + 2 < size) {
+      if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+        if (nalStart != -1) {
+          appendNalUnit(out, data, nalStart, i);
+        }
+        nalStart = i + 3;
+        i += 3;
+      } else {
+        i++;
+      }
+    }
+    if (nalStart != -1 && nalStart < size) {
+      appendNalUnit(out, data, nalStart, size);
+    }
+    return out.size - startSize;
+  }
+
+  private static void appendNalUnit (Buffer out, byte[] data, int start, int end) {
+    // Trailing zero belongs to the next four-byte start code
+    while (end > start && data[end - 1] == 0) {
+      end--;
+    }
+    if (end > start) {
+      out.u32(end - start);
+      out.bytes(data, start, end - start);
+    }
+  }
+
+  private static List<byte[]> splitNalUnits (byte[] data) {
+    List<byte[]> nalUnits = new ArrayList<>();
+    if (!isAnnexB(data, data.length)) {
+      nalUnits.add(data);
+      return nalUnits;
+    }
+    Buffer buffer = new Buffer(data.length + 16);
+    appendNalUnits(buffer, data, data.length);
+    int position = 0;
+    while (position + 4 <= buffer.size) {
+      int length = buffer.get32(position);
+      position += 4;
+      nalUnits.add(Arrays.copyOfRange(buffer.data, position, position + length));
+      position += length;
+    }
+    return nalUnits;
+  }
+
+  // Box writer
+
+  private static final class Buffer {
+    byte[] data;
+    int size;
+
+    Buffer (long capacity) {
+      this.data = new byte[(int) capacity];
+    }
+
+    private void ensureCapacity (int extraSize) {
+      if (size + extraSize > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, size + extraSize));
+      }
+    }
+
+    int startBox (String type) {
+      int position = size;
+      u32(0);
+      fourcc(type);
+      return position;
+    }
+
+    int startFullBox (String type, int version, int flags) {
+      int position = startBox(type);
+      u8(version);
+      u8(flags >> 16);
+      u16(flags);
+      return position;
+    }
+
+    void endBox (int position) {
+      put32(position, size - position);
+    }
+
+    void u8 (int value) {
+      ensureCapacity(1);
+      data[size++] = (byte) value;
+    }
+
+    void u16 (int value) {
+      ensureCapacity(2);
+      data[size++] = (byte) (value >> 8);
+      data[size++] = (byte) value;
+    }
+
+    void u32 (long value) {
+      ensureCapacity(4);
+      put32(size, value);
+      size += 4;
+    }
+
+    void u64 (long value) {
+      u32(value >>> 32);
+      u32(value);
+    }
+
+    void fourcc (String type) {
+      for (int i = 0; i < 4; i++) {
+        u8(type.charAt(i));
+      }
+    }
+
+    void cString (String value) {
+      for (int i = 0; i < value.length(); i++) {
+        u8(value.charAt(i));
+      }
+      u8(0);
+    }
+
+    void zeros (int count) {
+      ensureCapacity(count);
+      Arrays.fill(data, size, size + count, (byte) 0);
+      size += count;
+    }
+
+    void bytes (byte[] source, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(source, offset, data, size, length);
+      size += length;
+    }
+
+    void put32 (int position, long value) {
+      data[position] = (byte) (value >> 24);
+      data[position + 1] = (byte) (value >> 16);
+      data[position + 2] = (byte) (value >> 8);
+      data[position + 3] = (byte) value;
+    }
+
+    int get32 (int position) {
+      return ((data[position] & 0xff) << 24) | ((data[position + 1] & 0xff) << 16) | ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+    }
+  }
+}
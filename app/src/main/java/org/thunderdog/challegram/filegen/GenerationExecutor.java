@@ -0,0 +1,164 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.filegen;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Runs image generations in parallel, e.g. when an album is being sent.
+ *
+ * Number of workers depends on the number of cores. Before doing any work, each task reserves
+ * the estimated size of bitmaps it is going to decode from a shared memory budget,
+ * and waits while the budget is taken by other tasks, so large photos do not run out of memory.
+ * Tasks that were cancelled while still in the queue are never started.
+ */
+final class GenerationExecutor {
+  public interface Work {
+    long estimateMemoryUsage () throws Throwable;
+    void run () throws Throwable;
+    void onError (Throwable t);
+  }
+
+  private final class Task implements Runnable {
+    private final GenerationInfo info;
+    private final Work work;
+    private final long queuedTime = SystemClock.uptimeMillis();
+    private volatile boolean isCancelled;
+
+    Task (GenerationInfo info, Work work) {
+      this.info = info;
+      this.work = work;
+    }
+
+    void cancel () {
+      isCancelled = true;
+      if (executor.remove(this)) {
+        cancelledCount.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void run () {
+      if (isCancelled) {
+        cancelledCount.incrementAndGet();
+        return;
+      }
+      long reservedSize = 0;
+      try {
+        long estimatedSize;
+        try {
+          estimatedSize = Math.max(0, work.estimateMemoryUsage());
+        } catch (Throwable t) {
+          // Let work itself report the problem
+          estimatedSize = 0;
+        }
+        reservedSize = reserve(estimatedSize);
+        if (isCancelled) {
+          cancelledCount.incrementAndGet();
+          return;
+        }
+        long startTime = SystemClock.uptimeMillis();
+        try {
+          work.run();
+        } catch (Throwable t) {
+          work.onError(t);
+        }
+        long endTime = SystemClock.uptimeMillis();
+        completedCount.incrementAndGet();
+        totalWaitTime.addAndGet(startTime - queuedTime);
+        totalRunTime.addAndGet(endTime - startTime);
+        if (Log.isEnabled(Log.TAG_COMPRESS)) {
+          Log.i(Log.TAG_COMPRESS, "Generated %s in %dms, waited %dms, memory: %d", info.getKey(), endTime - startTime, startTime - queuedTime, reservedSize);
+        }
+      } finally {
+        release(reservedSize);
+        info.setOnCancel(null);
+      }
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final long memoryBudget;
+  private long reservedMemory;
+
+  private final AtomicInteger completedCount = new AtomicInteger();
+  private final AtomicInteger cancelledCount = new AtomicInteger();
+  private final AtomicLong totalWaitTime = new AtomicLong();
+  private final AtomicLong totalRunTime = new AtomicLong();
+
+  GenerationExecutor (String name) {
+    int workerCount = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    this.memoryBudget = Math.min(Runtime.getRuntime().maxMemory() / 4, ByteUnit.MIB.toBytes(96));
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = r -> new Thread(() -> {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      r.run();
+    }, name + "#" + threadCount.incrementAndGet());
+    this.executor = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queues the work. {@link GenerationInfo#cancel()} removes it from the queue,
+   * or marks it cancelled if it has already been taken by a worker.
+   */
+  public void execute (GenerationInfo info, Work work) {
+    Task task = new Task(info, work);
+    info.setOnCancel(task::cancel);
+    executor.execute(task);
+  }
+
+  private synchronized long reserve (long size) {
+    // Task that alone exceeds the budget still has to run, but only when nothing else is running
+    size = Math.min(size, memoryBudget);
+    while (reservedMemory > 0 && reservedMemory + size > memoryBudget) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    reservedMemory += size;
+    return size;
+  }
+
+  private synchronized void release (long size) {
+    if (size > 0) {
+      reservedMemory -= size;
+      notifyAll();
+    }
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    int completed = completedCount.get();
+    return "GenerationExecutor { workers = " + executor.getMaximumPoolSize() + ", completed = " + completed + ", cancelled = " + cancelledCount.get() +
+      ", avgWait = " + (completed > 0 ? totalWaitTime.get() / completed : 0) + "ms, avgRun = " + (completed > 0 ? totalRunTime.get() / completed : 0) + "ms }";
+  }
+}
@@ -131,8 +131,6 @@ public final class TdlibFileGenerationManager {
     }
   }
 
-  private static final int TASK_GENERATE_PHOTO = 0;
-  private static final int TASK_GENERATE_THUMB = 1;
   private static final int TASK_GENERATE_AVATAR = 3;
   private static final int TASK_DOWNLOAD_HTTP = 5;
   private static final int TASK_COPY_CONTENT_STREAM = 6;
@@ -143,7 +141,8 @@ public final class TdlibFileGenerationManager {
 
   private final Tdlib tdlib;
 
-  private BaseThread _queue, _thumbQueue;
+  private BaseThread _queue;
+  private GenerationExecutor _imageExecutor;
   private VideoGen _videoGen;
   private final HashMap<Long, GenerationInfo> pendingTasks = new HashMap<>();
 
@@ -164,15 +163,15 @@ public final class TdlibFileGenerationManager {
     return _queue;
   }
 
-  private BaseThread thumbQueue () {
-    if (_thumbQueue == null) {
+  private GenerationExecutor imageExecutor () {
+    if (_imageExecutor == null) {
       synchronized (this) {
-        if (_thumbQueue == null) {
-          _thumbQueue = new FileGenQueue(this);
+        if (_imageExecutor == null) {
+          _imageExecutor = new GenerationExecutor("ImageGen");
         }
       }
     }
-    return _thumbQueue;
+    return _imageExecutor;
   }
 
   private VideoGen videoGen () {
@@ -188,16 +187,6 @@ public final class TdlibFileGenerationManager {
 
   private void process (Message msg) {
     switch (msg.what) {
-      case TASK_GENERATE_PHOTO: {
-        PhotoGenerationInfo info = (PhotoGenerationInfo) msg.obj;
-        try {
-          generatePhoto(info);
-        } catch (Throwable t) {
-          Log.e("Cannot generate photo", t);
-          failGeneration(info, ERROR_UNKNOWN, "Unknown error, see logs for details");
-        }
-        break;
-      }
       case TASK_GENERATE_AVATAR: {
         SimpleGenerationInfo info = (SimpleGenerationInfo) msg.obj;
         try {
@@ -208,13 +197,6 @@ public final class TdlibFileGenerationManager {
         }
         break;
       }
-      case TASK_GENERATE_THUMB: {
-        Object[] obj = (Object[]) msg.obj;
-        generateThumb((ThumbGenerationInfo) obj[0], (String) obj[1], msg.arg1);
-        obj[0] = null;
-        obj[1] = null;
-        break;
-      }
       case TASK_DOWNLOAD_HTTP: {
         Object[] obj = (Object[]) msg.obj;
         downloadHttpFile(BitwiseUtils.mergeLong(msg.arg1, msg.arg2), (String) obj[0], (String) obj[1]);
@@ -414,7 +396,25 @@ public final class TdlibFileGenerationManager {
       if (!dataConversion.isEmpty() && type == ThumbGenerationInfo.TYPE_VIDEO) {
         VideoGenerationInfo.parseConversion(generationInfo, dataConversion);
       }
-      generateThumb(generationInfo, originalPath, resolution);
+      final int thumbResolution = resolution;
+      pendingTasks.put(generationId, generationInfo);
+      imageExecutor().execute(generationInfo, new GenerationExecutor.Work() {
+        @Override
+        public long estimateMemoryUsage () {
+          return estimateThumbMemoryUsage(generationInfo, thumbResolution);
+        }
+
+        @Override
+        public void run () throws Throwable {
+          generateThumb(generationInfo, originalPath, thumbResolution);
+        }
+
+        @Override
+        public void onError (Throwable t) {
+          Log.e("Cannot generate thumb type:%d", t, generationInfo.getType());
+          failGeneration(generationInfo, ERROR_APP_FAILURE, "Failed to generate thumb, see logs for details");
+        }
+      });
       return;
     }
 
@@ -427,16 +427,33 @@ public final class TdlibFileGenerationManager {
       targetQueue = queue();
       targetMessage = TASK_GENERATE_AVATAR;
     } else if (conversion.startsWith(GenerationInfo.TYPE_PHOTO)) {
+      final PhotoGenerationInfo photoTask;
       try {
-        task = new PhotoGenerationInfo(generationId, originalPath, destinationPath, conversion);
+        photoTask = new PhotoGenerationInfo(generationId, originalPath, destinationPath, conversion);
       } catch (Throwable t) {
         Log.e("Unable to process input conversion: %d %s", t, StringUtils.isEmpty(conversion) ? 0 : conversion.length(), conversion);
         failGeneration(originalPath, conversion, generationId, ERROR_APP_FAILURE, "Incorrect conversion input: " + conversion);
         return;
       }
-      int resolutionLimit = ((PhotoGenerationInfo) task).getResolutionLimit();
-      targetQueue = resolutionLimit > 0 && resolutionLimit <= BIG_THUMB_RESOLUTION ? thumbQueue() : queue();
-      targetMessage = TASK_GENERATE_PHOTO;
+      pendingTasks.put(generationId, photoTask);
+      imageExecutor().execute(photoTask, new GenerationExecutor.Work() {
+        @Override
+        public long estimateMemoryUsage () throws Throwable {
+          return estimatePhotoMemoryUsage(photoTask);
+        }
+
+        @Override
+        public void run () throws Throwable {
+          generatePhoto(photoTask);
+        }
+
+        @Override
+        public void onError (Throwable t) {
+          Log.e("Cannot generate photo", t);
+          failGeneration(photoTask, ERROR_UNKNOWN, "Unknown error, see logs for details");
+        }
+      });
+      return;
     } else if (conversion.startsWith(GenerationInfo.TYPE_VIDEO)) {
       boolean isKnownConversion = tdlib.settings().isKnownConversion(originalPath, conversion);
       if (isKnownConversion) {
@@ -992,6 +1009,22 @@ public final class TdlibFileGenerationManager {
 
   // Photo
 
+  private static long estimatePhotoMemoryUsage (PhotoGenerationInfo info) throws Throwable {
+    final int maxSize = info.getResolutionLimit() != 0 ? info.getResolutionLimit() : PhotoGenerationInfo.SIZE_LIMIT;
+    BitmapFactory.Options opts = new BitmapFactory.Options();
+    opts.inJustDecodeBounds = true;
+    try (InputStream is = U.openInputStream(info.getOriginalPath())) {
+      BitmapFactory.decodeStream(is, null, opts);
+    }
+    if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+      return 0;
+    }
+    int sampleSize = info.isFiltered() ? 1 : ImageReader.ceilInSampleSize(opts.outWidth, opts.outHeight, maxSize, maxSize);
+    long decodedSize = (long) (opts.outWidth / sampleSize) * (long) (opts.outHeight / sampleSize) * 4;
+    // Processing and resizing keep the second copy of the image
+    return decodedSize * 2;
+  }
+
   private void generatePhoto (PhotoGenerationInfo info) throws Throwable {
     final String originalPath = info.getOriginalPath();
     Uri uri = originalPath.startsWith("content://") ? Uri.parse(originalPath) : null;
@@ -1175,28 +1208,25 @@ public final class TdlibFileGenerationManager {
 
   // Common thumb logic
 
-  private void generateThumb (ThumbGenerationInfo info, String originalPath, int resolution) {
-    if (Thread.currentThread() != queue()) {
-      queue().sendMessage(Message.obtain(queue().getHandler(), TASK_GENERATE_THUMB, resolution, 0, new Object[] {info, originalPath}), 0);
-      return;
-    }
-    try {
-      switch (info.getType()) {
-        case ThumbGenerationInfo.TYPE_PHOTO:
-          generatePhotoThumb(info, originalPath, resolution);
-          break;
-        case ThumbGenerationInfo.TYPE_VIDEO:
-          generateVideoThumb(info, originalPath, resolution);
-          break;
-        case ThumbGenerationInfo.TYPE_MUSIC:
-          generateAudioThumb(info, originalPath, resolution);
-          break;
-        default:
-          throw new IllegalArgumentException("type == " + info.getType());
-      }
-    } catch (Throwable t) {
-      Log.e("Cannot generate thumb type:%d", t, info.getType());
-      failGeneration(info, ERROR_APP_FAILURE, "Failed to generate thumb, see logs for details");
+  private static long estimateThumbMemoryUsage (ThumbGenerationInfo info, int resolution) {
+    long thumbSize = (long) resolution * resolution * 4;
+    // Video frames are extracted in their original size before being scaled down
+    return info.getType() == ThumbGenerationInfo.TYPE_VIDEO ? Math.max(thumbSize, 1920 * 1080 * 4) : thumbSize * 2;
+  }
+
+  private void generateThumb (ThumbGenerationInfo info, String originalPath, int resolution) throws Throwable {
+    switch (info.getType()) {
+      case ThumbGenerationInfo.TYPE_PHOTO:
+        generatePhotoThumb(info, originalPath, resolution);
+        break;
+      case ThumbGenerationInfo.TYPE_VIDEO:
+        generateVideoThumb(info, originalPath, resolution);
+        break;
+      case ThumbGenerationInfo.TYPE_MUSIC:
+        generateAudioThumb(info, originalPath, resolution);
+        break;
+      default:
+        throw new IllegalArgumentException("type == " + info.getType());
     }
   }
 
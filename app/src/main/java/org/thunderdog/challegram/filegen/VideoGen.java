@@ -24,6 +24,7 @@ import androidx.annotation.WorkerThread;
 
 import com.otaliastudios.transcoder.Transcoder;
 import com.otaliastudios.transcoder.TranscoderListener;
+import com.otaliastudios.transcoder.TranscoderOptions;
 import com.otaliastudios.transcoder.common.TrackType;
 import com.otaliastudios.transcoder.source.DataSource;
 import com.otaliastudios.transcoder.source.FilePathDataSource;
@@ -39,6 +40,7 @@ import org.drinkless.td.libcore.telegram.TdApi;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.R;
 import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.BaseThread;
 import org.thunderdog.challegram.core.Lang;
 import org.thunderdog.challegram.telegram.Tdlib;
@@ -86,8 +88,9 @@ public class VideoGen {
     private final AtomicBoolean sendOriginal = new AtomicBoolean(false);
     private final AtomicBoolean canceled = new AtomicBoolean(false);
     private double transcodeProgress;
-    private long readyBytes;
+    private long readyBytes, writtenBytes;
     private long reportedBytesCount, reportedExpectedBytesCount;
+    private boolean isPrefixReported;
 
     private final VideoGen context;
     private final long generationId;
@@ -99,23 +102,54 @@ public class VideoGen {
       this.generationId = generationId;
     }
 
-    public void onTranscodeProgress (double progress, long expectedSize) {
+    public void onTranscodeProgress (double progress, long writtenBytes) {
       if (this.transcodeProgress != progress) {
         this.transcodeProgress = progress;
-        reportBytes(expectedSize, this.reportedBytesCount);
+        this.writtenBytes = Math.max(this.writtenBytes, writtenBytes);
+        reportBytes(estimateOutputSize(), this.reportedBytesCount);
       }
     }
 
+    /**
+     * @return Expected size of the transcoded file, extrapolated from bytes written so far and transcoding progress
+     */
+    long estimateOutputSize () {
+      long writtenBytes = Math.max(this.writtenBytes, this.readyBytes);
+      if (transcodeProgress <= 0 || writtenBytes == 0) {
+        return 0;
+      }
+      return Math.max(writtenBytes, (long) ((double) writtenBytes / Math.min(1.0, transcodeProgress)));
+    }
+
     public void reportBytes (long expectedSize, long uploadBytesCount) {
-      if (this.reportedExpectedBytesCount != expectedSize || (uploadBytesCount < this.reportedBytesCount || uploadBytesCount - this.reportedBytesCount >= ByteUnit.KIB.toBytes(5))) {
+      // Estimate changes with every progress update, so small changes are not worth a request
+      boolean expectedSizeChanged = expectedSize == 0 || this.reportedExpectedBytesCount == 0 ?
+        expectedSize != this.reportedExpectedBytesCount :
+        Math.abs(expectedSize - this.reportedExpectedBytesCount) >= ByteUnit.KIB.toBytes(64);
+      if (expectedSizeChanged || (uploadBytesCount < this.reportedBytesCount || uploadBytesCount - this.reportedBytesCount >= ByteUnit.KIB.toBytes(5))) {
         this.reportedExpectedBytesCount = expectedSize;
         this.reportedBytesCount = uploadBytesCount;
         context.tdlib.client().send(new TdApi.SetFileGenerationProgress(generationId, expectedSize, uploadBytesCount), context.tdlib.silentHandler());
       }
     }
 
+    public void onReadyToUpload (long bytesCount) {
+      this.readyBytes = bytesCount;
+      this.isPrefixReported = true;
+      reportBytes(estimateOutputSize(), bytesCount);
+    }
+
+    /**
+     * @return Whether TDLib might have already uploaded a part of the file,
+     * after that generation can't switch to other contents
+     */
+    public boolean isPrefixReported () {
+      return isPrefixReported;
+    }
+
     public void resetProgress (long expectedSize) {
       this.readyBytes = 0;
+      this.writtenBytes = 0;
       reportBytes(expectedSize, 0);
     }
 
@@ -172,8 +206,8 @@ public class VideoGen {
   }
 
   private interface ProgressCallback {
-    void onTranscodeProgress (double progress, long expectedSize);
-    void onReadyToUpload (long bytesCount, long expectedSize);
+    void onTranscodeProgress (double progress, long writtenBytes);
+    void onReadyToUpload (long bytesCount);
   }
 
   @WorkerThread
@@ -193,34 +227,42 @@ public class VideoGen {
     long sourceSize = getBytesCount(sourcePath, true);
     ProgressCallback onProgress = new ProgressCallback() {
       @Override
-      public void onTranscodeProgress (double progress, long expectedSize) {
+      public void onTranscodeProgress (double progress, long writtenBytes) {
         synchronized (entry) {
           if (entry.transcodeFinished.get() || entry.sendOriginal.get() || progress <= 0) {
             return;
           }
-          if (sourceSize != 0 && expectedSize > sourceSize && canUseSimplePath) {
+          if (sourceSize != 0 && writtenBytes > sourceSize && canUseSimplePath && !entry.isPrefixReported()) {
             if (!entry.sendOriginal.getAndSet(true)) {
               entry.cancel();
             }
           } else {
-            entry.onTranscodeProgress(progress, expectedSize);
+            entry.onTranscodeProgress(progress, writtenBytes);
           }
         }
       }
 
       @Override
-      public void onReadyToUpload (long bytesCount, long expectedSize) {
+      public void onReadyToUpload (long bytesCount) {
         synchronized (entry) {
           if (entry.transcodeFinished.get() || entry.sendOriginal.get() || bytesCount <= 0) {
             return;
           }
-          if (sourceSize != 0 && bytesCount > sourceSize && canUseSimplePath) {
-            if (!entry.sendOriginal.getAndSet(true)) {
-              entry.cancel();
+          if (sourceSize != 0 && canUseSimplePath && !entry.isPrefixReported()) {
+            if (bytesCount > sourceSize) {
+              if (!entry.sendOriginal.getAndSet(true)) {
+                entry.cancel();
+              }
+              return;
+            }
+            // Once TDLib starts uploading the prefix, falling back to the original file would mix
+            // already uploaded parts of this file with it, so the prefix is held back until it's clear that transcoding pays off
+            long estimatedSize = entry.estimateOutputSize();
+            if (estimatedSize == 0 || estimatedSize >= sourceSize) {
+              return;
             }
-          } else {
-            entry.reportBytes(0, bytesCount);
           }
+          entry.onReadyToUpload(bytesCount);
         }
       }
     };
@@ -267,7 +309,7 @@ public class VideoGen {
           } else {
             Log.i("No need to transcode video: %s", sourcePath);
           }
-          if (!entry.canceled.get() && canUseSimplePath) {
+          if (!entry.canceled.get() && canUseSimplePath && !entry.isPrefixReported()) {
             sendOriginal(info, entry);
           } else {
             tdlib.filegen().failGeneration(info, -1, Lang.getString(R.string.SendVideoError));
@@ -340,23 +382,40 @@ public class VideoGen {
         .build();
     }
 
+    TrackStrategy audioTrackStrategy;
+    boolean passThroughAudio = false;
+    if (info.needMute()) {
+      audioTrackStrategy = new RemoveTrackStrategy();
+    } else if (info.disableTranscoding() || Settings.instance().getNewSetting(Settings.SETTING_FLAG_NO_AUDIO_COMPRESSION)) {
+      audioTrackStrategy = new PassThroughTrackStrategy();
+      passThroughAudio = true;
+    } else {
+      audioTrackStrategy = new DefaultAudioStrategy.Builder()
+        .sampleRate(44100)
+        .bitRate(62000)
+        .channels(2)
+        .build();
+    }
+
     int rotation = info.getRotate();
 
     File outFile = new File(destinationPath);
 
-    entry.task = Transcoder
-      .into(destinationPath)
+    // Fragmented output is written only for H.264 and AAC produced by encoders,
+    // passed through tracks may come in any format
+    boolean streamingUpload = Config.VIDEO_STREAMING_UPLOAD && !info.disableTranscoding() && !passThroughAudio;
+
+    TranscoderOptions.Builder builder;
+    if (streamingUpload) {
+      builder = Transcoder.into(new FragmentedMp4Sink(destinationPath, onProgress::onReadyToUpload));
+    } else {
+      builder = Transcoder.into(destinationPath);
+    }
+
+    entry.task = builder
       .addDataSource(dataSource)
       .setVideoTrackStrategy(videoTrackStrategy)
-      .setAudioTrackStrategy(
-        info.needMute() ? new RemoveTrackStrategy() :
-        info.disableTranscoding() || Settings.instance().getNewSetting(Settings.SETTING_FLAG_NO_AUDIO_COMPRESSION) ? new PassThroughTrackStrategy() :
-          new DefaultAudioStrategy.Builder()
-            .sampleRate(44100)
-            .bitRate(62000)
-            .channels(2)
-            .build()
-      )
+      .setAudioTrackStrategy(audioTrackStrategy)
       .setVideoRotation(rotation)
       .setListener(new TranscoderListener() {
         @Override
@@ -0,0 +1,174 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.U;
+
+import java.util.ArrayList;
+
+/**
+ * Byte-budgeted pool of mutable bitmaps that were evicted from {@link ImageCache}
+ * and can be reused by {@link ImageReader} through {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ */
+final class BitmapPool {
+  private final int maxSize;
+  private final ArrayList<Bitmap> bitmaps = new ArrayList<>();
+  private int size;
+
+  private long reuseCount, offerCount, dropCount;
+
+  BitmapPool (int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  static int sizeOf (Bitmap bitmap) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+      return bitmap.getRowBytes() * bitmap.getHeight();
+    } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return bitmap.getByteCount();
+    } else {
+      return bitmap.getAllocationByteCount();
+    }
+  }
+
+  private static int bytesPerPixel (Bitmap.Config config) {
+    if (config == null) {
+      return 4;
+    }
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  static boolean isReusable (Bitmap bitmap) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || !U.isValidBitmap(bitmap) || !bitmap.isMutable()) {
+      return false;
+    }
+    return !(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE);
+  }
+
+  /**
+   * @return true if bitmap has been taken by the pool, false if caller should recycle it
+   */
+  boolean offer (Bitmap bitmap) {
+    if (!isReusable(bitmap)) {
+      return false;
+    }
+    final int bitmapSize = sizeOf(bitmap);
+    if (bitmapSize > maxSize / 2) {
+      return false;
+    }
+    ArrayList<Bitmap> trimmed = null;
+    synchronized (bitmaps) {
+      if (bitmaps.contains(bitmap)) {
+        return true;
+      }
+      bitmaps.add(bitmap);
+      size += bitmapSize;
+      offerCount++;
+      while (size > maxSize && !bitmaps.isEmpty()) {
+        Bitmap oldest = bitmaps.remove(0);
+        size -= sizeOf(oldest);
+        if (trimmed == null) {
+          trimmed = new ArrayList<>();
+        }
+        trimmed.add(oldest);
+        dropCount++;
+      }
+    }
+    if (trimmed != null) {
+      for (Bitmap oldest : trimmed) {
+        U.recycle(oldest);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds a pooled bitmap large enough to be passed as {@code inBitmap} for an image of the given dimensions.
+   */
+  @Nullable
+  Bitmap obtain (int width, int height, Bitmap.Config config) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || width <= 0 || height <= 0) {
+      return null;
+    }
+    final int requiredSize = width * height * bytesPerPixel(config);
+    synchronized (bitmaps) {
+      int bestIndex = -1;
+      int bestSize = 0;
+      for (int i = 0; i < bitmaps.size(); i++) {
+        Bitmap bitmap = bitmaps.get(i);
+        int bitmapSize = sizeOf(bitmap);
+        // Avoid pinning large allocations behind small images
+        if (bitmapSize >= requiredSize && bitmapSize <= requiredSize * 2 && (bestIndex == -1 || bitmapSize < bestSize)) {
+          bestIndex = i;
+          bestSize = bitmapSize;
+        }
+      }
+      if (bestIndex != -1) {
+        Bitmap bitmap = bitmaps.remove(bestIndex);
+        size -= bestSize;
+        if (bitmap.isRecycled()) {
+          return null;
+        }
+        reuseCount++;
+        return bitmap;
+      }
+    }
+    return null;
+  }
+
+  boolean remove (Bitmap bitmap) {
+    synchronized (bitmaps) {
+      if (bitmaps.remove(bitmap)) {
+        size -= sizeOf(bitmap);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void clear () {
+    ArrayList<Bitmap> removed;
+    synchronized (bitmaps) {
+      removed = new ArrayList<>(bitmaps);
+      bitmaps.clear();
+      size = 0;
+    }
+    for (Bitmap bitmap : removed) {
+      U.recycle(bitmap);
+    }
+    if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.v(Log.TAG_IMAGE_LOADER, "BitmapPool: cleared %d bitmaps", removed.size());
+    }
+  }
+
+  @Override
+  public String toString () {
+    synchronized (bitmaps) {
+      return "BitmapPool { count = " + bitmaps.size() + ", size = " + size + ", offered = " + offerCount + ", reused = " + reuseCount + ", dropped = " + dropCount + " }";
+    }
+  }
+}
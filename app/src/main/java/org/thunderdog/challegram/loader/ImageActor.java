@@ -35,6 +35,8 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
   private ImageFile file;
 
   private volatile boolean isCancelled;
+  private volatile int priority = ImageReader.PRIORITY_VISIBLE;
+  private volatile ImageReader.DecodeTask pendingDecode;
 
   public ImageActor (ImageFile file) {
     this.file = file;
@@ -42,6 +44,11 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
 
   public void cancel () {
     this.isCancelled = true;
+    ImageReader.DecodeTask pendingDecode = this.pendingDecode;
+    if (pendingDecode != null) {
+      this.pendingDecode = null;
+      ImageReader.instance().cancelDecode(pendingDecode);
+    }
     if (cancellationSignal != null)
       cancellationSignal.cancel();
     if (file instanceof ImageApicFile) {
@@ -54,6 +61,30 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
     return isCancelled;
   }
 
+  public int getPriority () {
+    return priority;
+  }
+
+  public void setPriority (int priority) {
+    if (this.priority != priority) {
+      this.priority = priority;
+      ImageReader.DecodeTask pendingDecode = this.pendingDecode;
+      if (pendingDecode != null && priority == ImageReader.PRIORITY_VISIBLE) {
+        ImageReader.instance().raiseDecodePriority(this, pendingDecode);
+      }
+    }
+  }
+
+  void onDecodeScheduled (ImageReader.DecodeTask task) {
+    this.pendingDecode = task;
+  }
+
+  void onDecodeStarted (ImageReader.DecodeTask task) {
+    if (this.pendingDecode == task) {
+      this.pendingDecode = null;
+    }
+  }
+
   private CancellationSignal cancellationSignal;
 
   public CancellationSignal getCancellationSignal () {
@@ -126,6 +157,9 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
         }
       }
       if (file.shouldBeCached()) {
+        // Receivers take their references later on UI thread, until then bitmap must not be evicted into the pool.
+        // Released by ImageLoader once result is dispatched
+        ImageCache.instance().addReference(file, (Bitmap) result);
         ImageCache.instance().putBitmap(file, (Bitmap) result);
       } else if (isCancelled) {
         Log.i(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap because associated actor is canceled and image should not be cached", file.toString());
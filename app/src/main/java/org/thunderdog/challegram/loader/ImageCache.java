@@ -27,30 +27,55 @@ import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
 import org.thunderdog.challegram.tool.UI;
 
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.vkryl.core.unit.ByteUnit;
 
+/**
+ * Tiered bitmap cache:
+ *
+ * 1. In-use tier: bitmaps currently referenced by at least one receiver, keyed by {@link ImageFile#toString()}.
+ * Lookups are lock-free, reference counting is guarded by one of {@link #LOCK_STRIPE_COUNT} striped locks.
+ * 2. LRU tier: unreferenced bitmaps, limited by byte size.
+ * 3. Pool: mutable bitmaps evicted from the LRU tier, reused by {@link ImageReader} via {@code inBitmap}.
+ */
 public class ImageCache {
   private static ImageCache instance;
 
   public static ImageCache instance () {
     if (instance == null) {
-      instance = new ImageCache();
+      synchronized (ImageCache.class) {
+        if (instance == null) {
+          instance = new ImageCache();
+        }
+      }
     }
     return instance;
   }
 
-  public static HashMap<String, AtomicInteger> getReferenceCounters () {
-    return instance().getCounters();
+  private static class Reference {
+    volatile Bitmap bitmap;
+    int count;
+
+    Reference (Bitmap bitmap) {
+      this.bitmap = bitmap;
+    }
+  }
+
+  private static class Eviction {
+    final String key;
+    final Bitmap bitmap;
+
+    Eviction (String key, Bitmap bitmap) {
+      this.key = key;
+      this.bitmap = bitmap;
+    }
   }
 
-  private final HashMap<String, AtomicInteger> counters;
-  private final HashMap<String, Integer> rotations;
-  private final HashMap<String, WeakReference<Bitmap>> references;
   private class BitmapLruCache extends LruCache<String, Bitmap> {
     public BitmapLruCache (int maxSize) {
       super(maxSize);
@@ -60,42 +85,52 @@ public class ImageCache {
     protected int sizeOf (String key, Bitmap value) {
       if (value == null || value.isRecycled())
         return 1;
-      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
-        return value.getRowBytes() * value.getHeight();
-      } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
-        return value.getByteCount();
-      } else {
-        return value.getAllocationByteCount();
-      }
+      return BitmapPool.sizeOf(value);
     }
 
     @Override
     protected void entryRemoved (boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
-      if (!counters.containsKey(key)) {
-        if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-          Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in entryRemoved", key);
-        }
-        U.recycle(oldValue);
+      if (evicted) {
+        // Caller may hold a stripe lock for another key, so release happens in drainEvictions()
+        evictions.add(new Eviction(key, oldValue));
+        evictionCount.incrementAndGet();
       }
     }
   }
 
+  private static final int LOCK_STRIPE_COUNT = 32;
+
+  private final Object[] locks;
+  private final ConcurrentHashMap<String, Reference> references;
+  private final ConcurrentHashMap<String, Integer> rotations;
+  private final ConcurrentLinkedQueue<Eviction> evictions;
   private final BitmapLruCache memcache;
+  private final BitmapPool pool;
 
-  private static final boolean ALLOW_REFERENCES = true;
+  private final AtomicLong hitCount = new AtomicLong(), referencedHitCount = new AtomicLong(), missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong(), recycleCount = new AtomicLong();
 
   private ImageCache () {
-    counters = new HashMap<>();
-    rotations = new HashMap<>();
-    memcache = new BitmapLruCache(getMemcacheSize());
-    references = new HashMap<>();
+    this(getMemcacheSize());
   }
 
-  private boolean hasInMemcache (String key) {
-    return memcache.get(key) != null;
+  ImageCache (int memcacheSize) {
+    locks = new Object[LOCK_STRIPE_COUNT];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+    references = new ConcurrentHashMap<>();
+    rotations = new ConcurrentHashMap<>();
+    evictions = new ConcurrentLinkedQueue<>();
+    memcache = new BitmapLruCache(memcacheSize);
+    pool = new BitmapPool(memcacheSize / 3);
   }
 
-  private int getMemcacheSize () {
+  private Object lockFor (String key) {
+    return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPE_COUNT];
+  }
+
+  private static int getMemcacheSize () {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
       int mib = Math.min(15, ((ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() / 7);
       return (int) ByteUnit.MIB.toBytes(mib);
@@ -104,22 +139,76 @@ public class ImageCache {
     }
   }
 
-  public HashMap<String, AtomicInteger> getCounters () {
-    return counters;
+  // Pool
+
+  /**
+   * @return Bitmap that can be passed to {@link android.graphics.BitmapFactory.Options#inBitmap} or null, if nothing suitable
+   */
+  @Nullable
+  public Bitmap obtainReusableBitmap (int width, int height, Bitmap.Config config) {
+    return pool.obtain(width, height, config);
+  }
+
+  /**
+   * Returns bitmap previously obtained through {@link #obtainReusableBitmap(int, int, Bitmap.Config)}, but not used by decoder.
+   */
+  public void returnReusableBitmap (Bitmap bitmap) {
+    if (!pool.offer(bitmap)) {
+      U.recycle(bitmap);
+    }
+  }
+
+  private void releaseBitmap (String key, Bitmap bitmap) {
+    if (!U.isValidBitmap(bitmap)) {
+      return;
+    }
+    if (pool.offer(bitmap)) {
+      if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+        Log.v(Log.TAG_IMAGE_LOADER, "#%s: moving bitmap to reusable pool", key);
+      }
+    } else {
+      if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+        Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap", key);
+      }
+      recycleCount.incrementAndGet();
+      U.recycle(bitmap);
+    }
   }
 
+  private void drainEvictions () {
+    Eviction eviction;
+    while ((eviction = evictions.poll()) != null) {
+      synchronized (lockFor(eviction.key)) {
+        // Bitmap could have been referenced or put back under the same key after it was evicted
+        if (!references.containsKey(eviction.key) && memcache.get(eviction.key) != eviction.bitmap) {
+          releaseBitmap(eviction.key, eviction.bitmap);
+        }
+      }
+    }
+  }
+
+  // References
+
   public void addReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
-      synchronized (counters) {
-        final String key = file.toString();
-        AtomicInteger count = counters.get(key);
-        if (count != null) {
-          count.incrementAndGet();
+      final String key = file.toString();
+      synchronized (lockFor(key)) {
+        Reference reference = references.get(key);
+        if (reference == null) {
+          reference = new Reference(bitmap);
+          references.put(key, reference);
+        } else if (reference.bitmap != bitmap) {
+          reference.bitmap = bitmap;
+        }
+        // Referenced bitmaps are not subject to LRU eviction
+        if (memcache.get(key) == bitmap) {
+          memcache.remove(key);
         } else {
-          counters.put(key, count = new AtomicInteger(1));
+          pool.remove(bitmap);
         }
+        reference.count++;
         if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-          Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference++: %d", key, count.get());
+          Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference++: %d", key, reference.count);
         }
       }
     } else {
@@ -131,31 +220,32 @@ public class ImageCache {
 
   public void removeReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
-      synchronized (counters) {
-        String key = file.toString();
-
-        AtomicInteger count = counters.get(key);
-        if (count != null) {
-          int result = count.decrementAndGet();
+      final String key = file.toString();
+      synchronized (lockFor(key)) {
+        Reference reference = references.get(key);
+        if (reference != null) {
+          int result = --reference.count;
           if (result < 0)
             throw new IllegalStateException("key:" + key);
           if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
             Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference--: %d", key, result);
           }
           if (result == 0) {
-            counters.remove(key);
-            if (!hasInMemcache(key)) {
-              if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-                Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in removeReference", key);
+            references.remove(key);
+            Bitmap retained = reference.bitmap;
+            if (file.shouldBeCached() && U.isValidBitmap(retained)) {
+              // Bitmap is no longer in use, so it becomes subject to LRU eviction
+              Bitmap previous = memcache.put(key, retained);
+              if (previous != null && previous != retained) {
+                releaseBitmap(key, previous);
               }
-              U.recycle(bitmap);
-            }
-            if (ALLOW_REFERENCES) {
-              references.remove(key);
+            } else if (memcache.get(key) != retained) {
+              releaseBitmap(key, retained);
             }
           }
         }
       }
+      drainEvictions();
     } else if (file == null) {
       if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
         Log.w(Log.TAG_IMAGE_LOADER, "#null: removeReference failed, bitmap: %s", getBitmapInfo(bitmap));
@@ -167,73 +257,110 @@ public class ImageCache {
     return bitmap != null ? (bitmap.isRecycled() ? "recycled" : bitmap.getWidth() + "x" + bitmap.getHeight()) : "null";
   }
 
+  // Cache
+
   public void putBitmap (ImageFile file, Bitmap bitmap) {
     final String key = file.toString();
-    memcache.put(key, bitmap);
     if (file.getRotation() != 0) {
       rotations.put(key, file.getRotation());
     }
-    if (ALLOW_REFERENCES) {
-      synchronized (counters) {
-        references.put(key, new WeakReference<>(bitmap));
+    synchronized (lockFor(key)) {
+      Reference reference = references.get(key);
+      if (reference != null && reference.bitmap == bitmap) {
+        return;
+      }
+      Bitmap previous = memcache.put(key, bitmap);
+      if (previous != null && previous != bitmap && reference == null) {
+        releaseBitmap(key, previous);
       }
     }
+    drainEvictions();
   }
 
   public Bitmap getBitmap (ImageFile file) {
     final String key = file.toString();
-    final Bitmap cached = memcache.get(key);
-    if (cached != null) {
-      Integer rotation = rotations.get(key);
-      if (rotation != null) {
-        file.setRotation(rotation);
+    Bitmap bitmap;
+    Reference reference = references.get(key);
+    if (reference != null && U.isValidBitmap(bitmap = reference.bitmap)) {
+      referencedHitCount.incrementAndGet();
+    } else {
+      bitmap = memcache.get(key);
+      if (U.isValidBitmap(bitmap)) {
+        hitCount.incrementAndGet();
+      } else {
+        missCount.incrementAndGet();
+        return null;
       }
     }
-    if (ALLOW_REFERENCES && cached == null) {
-      synchronized (counters) {
-        final WeakReference<Bitmap> reference = references.get(key);
-        final Bitmap referenced = reference != null ? reference.get() : null;
-        if (referenced == null || referenced.isRecycled()) {
-          references.remove(key);
-        } else {
-          return referenced;
-        }
+    Integer rotation = rotations.get(key);
+    if (rotation != null) {
+      file.setRotation(rotation);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Checks whether bitmap is in memory without counting it as a hit or a miss.
+   * Found bitmap becomes the most recently used one, as caller is about to display it.
+   */
+  public boolean hasBitmap (ImageFile file) {
+    final String key = file.toString();
+    Reference reference = references.get(key);
+    return (reference != null && U.isValidBitmap(reference.bitmap)) || U.isValidBitmap(memcache.get(key));
+  }
+
+  /**
+   * Same as {@link #getBitmap(ImageFile)}, but also takes a reference under the same lock,
+   * so the bitmap can't be moved to the pool while caller uses it.
+   * Caller must release it with {@link #removeReference(ImageFile, Bitmap)}.
+   */
+  @Nullable
+  public Bitmap getBitmapReferenced (ImageFile file) {
+    synchronized (lockFor(file.toString())) {
+      Bitmap bitmap = getBitmap(file);
+      if (bitmap != null) {
+        addReference(file, bitmap);
       }
+      return bitmap;
     }
-    return cached;
+  }
+
+  public String getStats () {
+    return "hits: " + referencedHitCount.get() + "+" + hitCount.get() + ", misses: " + missCount.get() + ", evictions: " + evictionCount.get() + ", recycled: " + recycleCount.get() + ", " + pool;
   }
 
   @Override
   @NonNull
   public String toString () {
-    return "ImageCache { counters = " + counters.size() + ", memcache = " + memcache.size() + " }";
+    return "ImageCache { references = " + references.size() + ", memcache = " + memcache.size() + ", " + getStats() + " }";
   }
 
   public void clear (boolean withMemcache) {
-    synchronized (counters) {
-      if (withMemcache) {
-        counters.clear();
-      }
-    }
     if (withMemcache) {
+      references.clear();
       memcache.evictAll();
+      drainEvictions();
+      pool.clear();
     }
   }
 
   public void clearForAccount (int accountId) {
-    synchronized (counters) {
-      final String prefix = "account" + accountId + "_";
-      /*U.removeByPrefix(counters, prefix);
-      U.removeByPrefix(rotations, prefix);
-      if (ALLOW_REFERENCES) {
-        U.removeByPrefix(references, prefix);
-      }*/
-      Set<String> snapshot = memcache.snapshot().keySet();
-      for (String key : snapshot) {
-        if (key.startsWith(prefix)) {
-          memcache.remove(key);
+    final String prefix = "account" + accountId + "_";
+    Set<String> snapshot = memcache.snapshot().keySet();
+    for (String key : snapshot) {
+      if (key.startsWith(prefix)) {
+        synchronized (lockFor(key)) {
+          Bitmap removed = memcache.remove(key);
+          if (removed != null && !references.containsKey(key)) {
+            releaseBitmap(key, removed);
+          }
         }
       }
     }
+    for (Map.Entry<String, Integer> entry : rotations.entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        rotations.remove(entry.getKey());
+      }
+    }
   }
 }
@@ -72,8 +72,24 @@ public class ImageLoader {
   }
 
   public void requestFile (final ImageFile file, WatcherReference reference) {
+    requestFile(file, reference, ImageReader.PRIORITY_VISIBLE);
+  }
+
+  /**
+   * Loads the file ahead of time. Decoded bitmap ends up in {@link ImageCache},
+   * so the following {@link ImageReceiver#requestFile(ImageFile)} gets it without waiting.
+   * Cancelled the same way as a regular request, through {@link #removeWatcher(WatcherReference)}.
+   */
+  public void prefetchFile (final ImageFile file, WatcherReference reference) {
+    requestFile(file, reference, ImageReader.PRIORITY_PREFETCH);
+  }
+
+  private static final int DOWNLOAD_PRIORITY_VISIBLE = 32;
+  private static final int DOWNLOAD_PRIORITY_PREFETCH = 1;
+
+  void requestFile (final ImageFile file, WatcherReference reference, int priority) {
     if (Thread.currentThread() != thread) {
-      thread.request(file, reference);
+      thread.request(file, reference, priority);
       return;
     }
 
@@ -89,6 +105,7 @@ public class ImageLoader {
 
     if (record == null) {
       ImageActor actor = new ImageActor(file);
+      actor.setPriority(priority);
       record = new ImageWatchers(file, actor, reference);
       synchronized (watchers) {
         watchers.put(file.toString(), record);
@@ -127,7 +144,7 @@ public class ImageLoader {
               });
             } else {
               if (!Config.DEBUG_DISABLE_DOWNLOAD) {
-                tdlib.client().send(new TdApi.DownloadFile(fileId, 32, 0, 0, false), tdlib.imageLoadHandler());
+                tdlib.client().send(new TdApi.DownloadFile(fileId, priority == ImageReader.PRIORITY_PREFETCH ? DOWNLOAD_PRIORITY_PREFETCH : DOWNLOAD_PRIORITY_VISIBLE, 0, 0, false), tdlib.imageLoadHandler());
               }
             }
           } else {
@@ -147,6 +164,13 @@ public class ImageLoader {
         }
         record.addWatcher(reference);
       }
+      if (priority == ImageReader.PRIORITY_VISIBLE && record.getActor().getPriority() != ImageReader.PRIORITY_VISIBLE) {
+        record.getActor().setPriority(ImageReader.PRIORITY_VISIBLE);
+        final Tdlib tdlib = file.tdlib();
+        if (tdlib != null && !(file instanceof ImageFileRemote) && !TD.isFileLoaded(file.getFile()) && !Config.DEBUG_DISABLE_DOWNLOAD) {
+          tdlib.client().send(new TdApi.DownloadFile(file.getId(), DOWNLOAD_PRIORITY_VISIBLE, 0, 0, false), tdlib.imageLoadHandler());
+        }
+      }
     }
   }
 
@@ -335,6 +359,11 @@ public class ImageLoader {
         }
       }
 
+      if (success && file.shouldBeCached()) {
+        // Release reference taken by ImageActor after receivers handle the result posted above
+        UI.post(() -> ImageCache.instance().removeReference(file, bitmap));
+      }
+
       final boolean isRemote = file instanceof ImageFileRemote;
       final Tdlib tdlib = file.tdlib();
       final String cacheKey = file.getFileLoadKey();
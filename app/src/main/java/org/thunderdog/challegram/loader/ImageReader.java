@@ -46,6 +46,11 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.vkryl.core.StringUtils;
 
@@ -59,14 +64,88 @@ public class ImageReader {
     return instance;
   }
 
-  private static byte[] bytesThumb;
+  private static final ThreadLocal<byte[]> bytesThumb = new ThreadLocal<>();
 
-  private final ImageReaderThread imageThread, videoThread, memThread;
+  public static final int PRIORITY_VISIBLE = 0;
+  public static final int PRIORITY_PREFETCH = 1;
+
+  private final ImageReaderThread imageThread, videoThread;
+  private final ThreadPoolExecutor decodeExecutor;
+  private final AtomicLong decodeSequence = new AtomicLong();
+
+  private static class DecodeWorker extends Thread {
+    public DecodeWorker (Runnable target, int index) {
+      super(target, "ImageDecodeThread#" + index);
+      setPriority(Thread.NORM_PRIORITY - 1);
+    }
+  }
+
+  /**
+   * Single decode request. Lower {@link #priority} goes first, then the most recently requested one,
+   * so images that have just appeared on screen are decoded before the ones requested earlier.
+   */
+  static class DecodeTask implements Runnable, Comparable<DecodeTask> {
+    private final ImageActor actor;
+    private final ImageFile file;
+    private final String path;
+    private final Listener listener;
+    private final int priority;
+    private final long sequence;
+
+    DecodeTask (ImageActor actor, ImageFile file, String path, Listener listener, int priority, long sequence) {
+      this.actor = actor;
+      this.file = file;
+      this.path = path;
+      this.listener = listener;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public void run () {
+      actor.onDecodeStarted(this);
+      instance().readImage(actor, file, path, listener);
+    }
+
+    @Override
+    public int compareTo (DecodeTask other) {
+      if (priority != other.priority) {
+        return Integer.compare(priority, other.priority);
+      }
+      return Long.compare(other.sequence, sequence);
+    }
+  }
 
   private ImageReader () {
     imageThread = new ImageReaderThread();
     videoThread = new ImageReaderThread();
-    memThread = new ImageReaderThread();
+    int poolSize = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    AtomicInteger workerCount = new AtomicInteger();
+    decodeExecutor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> new DecodeWorker(r, workerCount.incrementAndGet()));
+    decodeExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Removes pending decode request from the queue. Request that is already being decoded finishes normally.
+   */
+  void cancelDecode (DecodeTask task) {
+    if (decodeExecutor.remove(task) && Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.v(Log.TAG_IMAGE_LOADER, "#%s: decode request cancelled before start", task.file.toString());
+    }
+  }
+
+  /**
+   * Moves pending decode request ahead of prefetch requests, e.g. when image becomes visible.
+   */
+  void raiseDecodePriority (ImageActor actor, DecodeTask task) {
+    if (task.priority != PRIORITY_VISIBLE && decodeExecutor.remove(task)) {
+      scheduleDecode(new DecodeTask(actor, task.file, task.path, task.listener, PRIORITY_VISIBLE, decodeSequence.incrementAndGet()));
+    }
+  }
+
+  private void scheduleDecode (DecodeTask task) {
+    task.actor.onDecodeScheduled(task);
+    decodeExecutor.execute(task);
   }
 
   public void post (Runnable r) {
@@ -79,10 +158,8 @@ public class ImageReader {
 
   @SuppressWarnings (value={"SpellCheckingInspection", "deprecation"})
   public void readImage (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
-    ImageReaderThread thread = file.getBytes() != null ? memThread : file instanceof ImageVideoThumbFile || file instanceof ImageMp3File || (file instanceof ImageGalleryFile && ((ImageGalleryFile) file).isVideo()) ? videoThread : imageThread;
-
-    if (Thread.currentThread() != thread) {
-      thread.readImage(actor, file, path, listener);
+    if (!(Thread.currentThread() instanceof DecodeWorker)) {
+      scheduleDecode(new DecodeTask(actor, file, path, listener, actor.getPriority(), decodeSequence.incrementAndGet()));
       return;
     }
 
@@ -298,9 +375,10 @@ public class ImageReader {
             bitmap = null;
           } else {
             int len = (int) f.length();
-            byte[] data = bytesThumb != null && bytesThumb.length >= len ? bytesThumb : null;
-            if (data == null) {
-              bytesThumb = data = new byte[len];
+            byte[] data = bytesThumb.get();
+            if (data == null || data.length < len) {
+              data = new byte[len];
+              bytesThumb.set(data);
             }
             f.readFully(data, 0, len);
             bitmap = BitmapFactory.decodeByteArray(data, 0, len, opts);
@@ -340,9 +418,7 @@ public class ImageReader {
           }
 
           if (bitmap == null) {
-            try (FileInputStream is = new FileInputStream(cacheFile)) {
-              bitmap = BitmapFactory.decodeStream(is, null, opts);
-            }
+            bitmap = decodeReusingBitmap(cacheFile, opts);
           }
         }
       }
@@ -384,6 +460,37 @@ public class ImageReader {
     return bitmap;
   }
 
+  private static Bitmap decodeReusingBitmap (File file, BitmapFactory.Options opts) throws IOException {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && opts.outWidth > 0 && opts.outHeight > 0) {
+      // Mutable bitmaps can be moved to the reusable pool once evicted from ImageCache
+      opts.inMutable = true;
+      int sampleSize = Math.max(1, opts.inSampleSize);
+      Bitmap reusable = ImageCache.instance().obtainReusableBitmap(
+        (opts.outWidth + sampleSize - 1) / sampleSize,
+        (opts.outHeight + sampleSize - 1) / sampleSize,
+        opts.inPreferredConfig
+      );
+      if (reusable != null) {
+        opts.inBitmap = reusable;
+        Bitmap bitmap = null;
+        try (FileInputStream is = new FileInputStream(file)) {
+          bitmap = BitmapFactory.decodeStream(is, null, opts);
+        } catch (IllegalArgumentException e) {
+          Log.w(Log.TAG_IMAGE_LOADER, "Cannot reuse bitmap, falling back to a new allocation", e);
+        } finally {
+          opts.inBitmap = null;
+        }
+        if (bitmap != null) {
+          return bitmap;
+        }
+        ImageCache.instance().returnReusableBitmap(reusable);
+      }
+    }
+    try (FileInputStream is = new FileInputStream(file)) {
+      return BitmapFactory.decodeStream(is, null, opts);
+    }
+  }
+
   private void readMp3AlbumCover (ImageMp3File file, Listener listener) {
     String mp3Path = file.getPath();
 
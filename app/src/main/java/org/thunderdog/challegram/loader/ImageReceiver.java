@@ -692,8 +692,11 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
 
       if (file != null) {
         Bitmap bitmap = ImageStrictCache.instance().get(file);
+        boolean referenced = false;
         if (!U.isValidBitmap(bitmap)) {
-          bitmap = ImageCache.instance().getBitmap(file);
+          // Referenced until setBundle takes its own reference, so the bitmap can't be moved to the pool in between
+          bitmap = ImageCache.instance().getBitmapReferenced(file);
+          referenced = bitmap != null;
         }
 
         if (!U.isValidBitmap(bitmap)) {
@@ -712,6 +715,9 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
           if (!setBundle(file, bitmap, true) && changed) {
             invalidate();
           }
+          if (referenced) {
+            ImageCache.instance().removeReference(file, bitmap);
+          }
           dispatchCompleted();
         }
       } else {
@@ -791,16 +797,14 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
       final ImageFile oldFile = this.file;
 
       if (oldBitmap != bitmap) {
-        synchronized (ImageCache.getReferenceCounters()) {
-          if (needRefs1 && oldBitmap != null) {
-            ImageCache.instance().removeReference(oldFile, oldBitmap);
-          }
-          if (needRefs2 && bitmap != null) {
-            ImageCache.instance().addReference(file, bitmap);
-          }
-          setBitmap(bitmap);
-          bitmapChanged = true;
+        if (needRefs2 && bitmap != null) {
+          ImageCache.instance().addReference(file, bitmap);
+        }
+        setBitmap(bitmap);
+        if (needRefs1 && oldBitmap != null) {
+          ImageCache.instance().removeReference(oldFile, oldBitmap);
         }
+        bitmapChanged = true;
       }
 
       if (oldFile != file) {
@@ -810,30 +814,28 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
       ImageFile oldFile = this.file;
       Bitmap oldBitmap = this.bitmap;
 
-      synchronized (ImageCache.getReferenceCounters()) {
-        this.file = file;
-        setBitmap(bitmap);
+      this.file = file;
+      setBitmap(bitmap);
 
-        if (displayCrop != null) {
-          if (oldFile != null) {
-            oldFile.removeCropStateListener(this);
-          }
-          if (file != null) {
-            displayCrop.set(file.getCropState());
-            file.addCropStateListener(this);
-          } else {
-            displayCrop.set(null);
-          }
-        }
-
-        if (needRefs1 && oldFile != null) {
-          ImageCache.instance().removeReference(oldFile, oldBitmap);
+      if (displayCrop != null) {
+        if (oldFile != null) {
+          oldFile.removeCropStateListener(this);
         }
-        if (needRefs2 && file != null && bitmap != null) {
-          ImageCache.instance().addReference(file, bitmap);
+        if (file != null) {
+          displayCrop.set(file.getCropState());
+          file.addCropStateListener(this);
+        } else {
+          displayCrop.set(null);
         }
       }
 
+      if (needRefs1 && oldFile != null) {
+        ImageCache.instance().removeReference(oldFile, oldBitmap);
+      }
+      if (needRefs2 && file != null && bitmap != null) {
+        ImageCache.instance().addReference(file, bitmap);
+      }
+
       if (oldBitmap != bitmap) {
         bitmapChanged = true;
       }
@@ -67,7 +67,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
   private @Nullable GifState gif;
   private final int[] metadata;
   private final double[] lottieMetadata;
-  private final GifThread thread;
+  private final GifFrameScheduler.Strand strand;
   private final boolean isLottie;
   private int lottieCacheState = LOTTIE_CACHE_NONE;
 
@@ -84,15 +84,15 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
 
   private final boolean isPlayOnce;
 
-  public GifActor (final GifFile file, GifThread thread) {
+  public GifActor (final GifFile file, GifFrameScheduler scheduler) {
     this.isPlayOnce = file.isPlayOnce();
     file.setVibrationPattern(Emoji.VIBRATION_PATTERN_NONE);
     this.maxFrameRate = file.needOptimize() ? REDUCED_MAX_FRAME_RATE : DEFAULT_MAX_FRAME_RATE;
     this.isLottie = file.getGifType() == GifFile.TYPE_TG_LOTTIE;
     this.metadata = new int[4];
     this.lottieMetadata = new double[3];
-    this.thread = thread;
     this.file = file;
+    this.strand = scheduler.newStrand(this);
     this.isPlaybackFrozen = isFrozen(file);
 
     this.remoteFileHandler = new Client.ResultHandler() {
@@ -202,18 +202,21 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       if ((flags & FLAG_LOADING_FILE) != 0) {
         file.tdlib().client().send(new TdApi.CancelDownloadFile(file.getFileId(), false), fileLoadHandler);
         flags &= ~FLAG_LOADING_FILE;
-      } else {
-        thread.onDestroy(this);
       }
+      // Strand must be released even if decoding never started, as it holds a slot in the scheduler's worker load
+      strand.onDestroy();
     }
   }
 
   // GifBridge thread
-  public void watcherJoined (GifWatcherReference reference) {
+  public void watcherJoined (GifWatcherReference reference, GifFile watcherFile) {
     if (lastProgress != 0f && (flags & FLAG_LOADING_FILE) != 0) {
-      reference.gifProgress(file, lastProgress);
+      reference.gifProgress(watcherFile, lastProgress);
     } else if (gif != null) {
-      reference.gifLoaded(file, gif);
+      if (watcherFile != file) {
+        watcherFile.setTotalFrameCount(file.getTotalFrameCount());
+      }
+      reference.gifLoaded(watcherFile, gif);
     }
   }
 
@@ -235,7 +238,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     Td.copyTo(file, localFile);
 
     if ((flags & FLAG_CANCELLED) == 0) {
-      thread.startDecoding(this, file.local.path);
+      strand.startDecoding(file.local.path);
     }
   }
 
@@ -399,7 +402,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       this.gif = gif;
     }
     if (!isPlaybackFrozen) {
-      thread.prepareNextFrame(this);
+      strand.prepareNextFrame(0);
       scheduleNext(false);
     } else {
       GifBridge.instance().dispatchGifFrameChanged(file, gif);
@@ -434,8 +437,34 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     return Math.max(1, (long) (frameRate / maxFrameRate));
   }
 
+  /**
+   * @return Approximate time between two frames, in milliseconds
+   */
+  private long estimateFrameTime () {
+    if (isLottie) {
+      double effectiveFrameRate = Math.min(maxFrameRate, frameRate);
+      return effectiveFrameRate > 0 ? (long) (1000.0 / effectiveFrameRate) : 0;
+    }
+    return 0;
+  }
+
+  // Decoder thread
+  // Number of frames that fit into the given time, which can be skipped by late Lottie animation
+  int framesWithin (long ms) {
+    long frameTime = estimateFrameTime();
+    if (!isLottie || isPlayOnce || frameTime <= 0) {
+      return 0;
+    }
+    return (int) Math.min(ms / frameTime, Math.max(0, totalFrameCount / frameDelta() - 1));
+  }
+
   // Decoder thread
   public void prepareNextFrame () {
+    prepareNextFrame(0);
+  }
+
+  // Decoder thread
+  public void prepareNextFrame (int skipFrames) {
 
     GifState gif;
     synchronized (gifLock) {
@@ -451,7 +480,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       long desiredNextFrameNo;
       if (isLottie) {
         long frameDelta = frameDelta();
-        desiredNextFrameNo = lastFrameNo + frameDelta;
+        desiredNextFrameNo = lastFrameNo + frameDelta * (1 + skipFrames);
         if (desiredNextFrameNo >= totalFrameCount) {
           file.onLoop();
           desiredNextFrameNo = 0;
@@ -479,7 +508,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         // lottieCacheState = LOTTIE_CACHE_ERROR;
         switch (lottieCacheState) {
           case LOTTIE_CACHE_NONE: {
-            lottieCacheFile = LottieCache.getCacheFile(file, file.needOptimize(), lottieCacheFileSize = Math.max(free.getWidth(), free.getHeight()), file.getFitzpatrickType(), TimeUnit.MINUTES.toMillis(15), 8);
+            lottieCacheFile = LottieCache.getCacheFile(file, file.needOptimize(), lottieCacheFileSize = Math.max(free.getWidth(), free.getHeight()), file.getFitzpatrickType(), TimeUnit.MINUTES.toMillis(15));
             int status;
             synchronized (nativeSync) {
               status = nativePtr == 0 ? 3 : lottieCacheFile == null ? 2 : N.createLottieCache(nativePtr, lottieCacheFile.getPath(), gif.getBitmap(false), free.bitmap, false, (file.needOptimize() ? REDUCED_MAX_FRAME_RATE : DEFAULT_MAX_FRAME_RATE) == 30.0);
@@ -694,7 +723,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         }
         if (isPlayingRoundVideo) {
           if (TdlibManager.instance().player().isPlayingMessage(file.getChatId(), file.getMessageId())) {
-            thread.prepareStartFrame(this);
+            strand.prepareStartFrame();
             if (lastTimeStamp != 0) {
               scheduleNext(true);
             }
@@ -702,7 +731,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
           return;
         }
         if (GifBridge.instance().canScheduleNextFrame(this, file.getFileId())) {
-          thread.prepareNextFrame(this);
+          strand.prepareNextFrame(estimateFrameTime());
           scheduleNext(false);
         }
       }
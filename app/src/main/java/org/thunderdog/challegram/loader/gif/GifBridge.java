@@ -26,6 +26,7 @@ import org.thunderdog.challegram.telegram.Tdlib;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -42,37 +43,21 @@ public class GifBridge {
     return instance;
   }
 
-  private static final int THREAD_POOL_SIZE = 2;
   private final GifBridgeThread thread;
   private final HashMap<String, GifRecord> records = new HashMap<>();
+  private final HashMap<String, GifRecord> sharedRecords = new HashMap<>();
   private final HashMap<Integer, ArrayList<GifRecord>> fileIdToRecordList = new HashMap<>();
   private final ArrayList<GifRecord> playingRoundVideos = new ArrayList<>();
-  private int lastUsedThread;
-  private final GifThread[] threads;
-  private final GifThread[] lottieThreads;
+  private final GifFrameScheduler scheduler;
 
   private GifBridge () {
     N.gifInit();
     thread = new GifBridgeThread();
-    threads = new GifThread[THREAD_POOL_SIZE];
-    for (int i = 0; i < threads.length; i++) {
-      threads[i] = new GifThread(i);
-    }
-    lottieThreads = new GifThread[2];
-    for (int i = 0; i < lottieThreads.length; i++) {
-      lottieThreads[i] = new GifThread(i);
-    }
+    scheduler = new GifFrameScheduler(GifFrameScheduler.defaultWorkerCount());
   }
 
-  private GifThread obtainFrameThread (GifFile file) {
-    if (file.getGifType() == GifFile.TYPE_TG_LOTTIE) {
-      return lottieThreads[file.needOptimize() ? 1 : 0];
-    } else {
-      if (++lastUsedThread == THREAD_POOL_SIZE) {
-        lastUsedThread = 0;
-      }
-      return threads[lastUsedThread];
-    }
+  public GifFrameScheduler getScheduler () {
+    return scheduler;
   }
 
   public GifBridgeThread getBaseThread () {
@@ -106,11 +91,29 @@ public class GifBridge {
 
     GifRecord record = records.get(key);
 
+    if (record == null && file.isShareable()) {
+      record = findSharedRecord(file);
+      if (record != null) {
+        if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+          Log.i(Log.TAG_GIF_LOADER, "#%s: watcher joined shared actor #%s", key, record.getFile().toString());
+        }
+        synchronized (records) {
+          records.put(key, record);
+          record.addWatcher(reference, file);
+        }
+        return;
+      }
+    }
+
     if (record == null) {
-      GifActor actor = new GifActor(file, obtainFrameThread(file));
-      record = new GifRecord(file, actor, reference);
+      GifActor actor = new GifActor(file, scheduler);
+      String sharedKey = file.isShareable() ? file.getSharedKey(file.needOptimize()) : null;
+      record = new GifRecord(file, actor, reference, sharedKey);
       synchronized (records) {
         records.put(key, record);
+        if (sharedKey != null) {
+          sharedRecords.put(sharedKey, record);
+        }
         ArrayList<GifRecord> recordList = fileIdToRecordList.get(file.getFileId());
         if (recordList == null) {
           recordList = new ArrayList<>();
@@ -130,8 +133,19 @@ public class GifBridge {
         Log.i(Log.TAG_GIF_LOADER, "#%s: watched joined existing actor", key);
       }
       synchronized (records) {
-        record.addWatcher(reference);
+        record.addWatcher(reference, file);
+      }
+    }
+  }
+
+  private GifRecord findSharedRecord (GifFile file) {
+    synchronized (records) {
+      GifRecord record = sharedRecords.get(file.getSharedKey(file.needOptimize()));
+      if (record == null && file.needOptimize()) {
+        // Frames of the full-size animation get downscaled when drawn
+        record = sharedRecords.get(file.getSharedKey(false));
       }
+      return record;
     }
   }
 
@@ -140,8 +154,9 @@ public class GifBridge {
       GifRecord record = records.get(file.toString());
       if (record == null || !record.hasWatchers())
         return null;
-      for (GifWatcherReference reference : record.getWatchers()) {
-        View view = reference.findTargetView(file);
+      ArrayList<GifWatcherReference> watchers = record.getWatchers();
+      for (int i = 0; i < watchers.size(); i++) {
+        View view = watchers.get(i).findTargetView(record.getWatcherFile(i));
         if (view != null)
           return view;
       }
@@ -156,14 +171,14 @@ public class GifBridge {
     }
 
     synchronized (records) {
-      ArrayList<String> itemsToRemove = null;
+      ArrayList<GifRecord> recordsToRemove = null;
       for (HashMap.Entry<String, GifRecord> entry : records.entrySet()) {
         GifRecord record = entry.getValue();
         if (record.removeWatcher(reference) && !record.hasWatchers()) {
-          if (itemsToRemove == null) {
-            itemsToRemove = new ArrayList<>();
+          if (recordsToRemove == null) {
+            recordsToRemove = new ArrayList<>();
           }
-          itemsToRemove.add(entry.getKey());
+          recordsToRemove.add(record);
           int fileId = record.getFile().getFileId();
           ArrayList<GifRecord> recordList = fileIdToRecordList.get(fileId);
           if (recordList != null && recordList.remove(record) && recordList.isEmpty()) {
@@ -174,14 +189,21 @@ public class GifBridge {
           }
         }
       }
-      if (itemsToRemove != null) {
-        for (String item : itemsToRemove) {
-          GifRecord record = records.remove(item);
-          if (record != null) {
-            record.getActor().cancel();
-            if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
-              Log.i(Log.TAG_GIF_LOADER, "#%s: actor cancelled", record.getFile().toString());
-            }
+      if (recordsToRemove != null) {
+        // Shared record may be registered under several keys
+        Iterator<GifRecord> it = records.values().iterator();
+        while (it.hasNext()) {
+          if (recordsToRemove.contains(it.next())) {
+            it.remove();
+          }
+        }
+        for (GifRecord record : recordsToRemove) {
+          if (record.getSharedKey() != null && sharedRecords.get(record.getSharedKey()) == record) {
+            sharedRecords.remove(record.getSharedKey());
+          }
+          record.getActor().cancel();
+          if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+            Log.i(Log.TAG_GIF_LOADER, "#%s: actor cancelled", record.getFile().toString());
           }
         }
       }
@@ -196,8 +218,9 @@ public class GifBridge {
       ArrayList<GifRecord> records = this.fileIdToRecordList.get(fileId);
       if (records != null) {
         for (GifRecord record : records) {
-          for (GifWatcherReference reference : record.getWatchers()) {
-            reference.gifProgress(record.getFile(), progress);
+          ArrayList<GifWatcherReference> watchers = record.getWatchers();
+          for (int i = 0; i < watchers.size(); i++) {
+            watchers.get(i).gifProgress(record.getWatcherFile(i), progress);
           }
           record.getActor().cacheProgress(progress);
         }
@@ -256,8 +279,13 @@ public class GifBridge {
       GifRecord record = records.get(file.toString());
 
       if (record != null) {
-        for (GifWatcherReference reference : record.getWatchers()) {
-          reference.gifLoaded(file, gif);
+        ArrayList<GifWatcherReference> watchers = record.getWatchers();
+        for (int i = 0; i < watchers.size(); i++) {
+          GifFile watcherFile = record.getWatcherFile(i);
+          if (watcherFile != file) {
+            watcherFile.setTotalFrameCount(file.getTotalFrameCount());
+          }
+          watchers.get(i).gifLoaded(watcherFile, gif);
         }
         record.getActor().onGifLoaded(gif);
       }
@@ -275,8 +303,9 @@ public class GifBridge {
       GifRecord record = records.get(file.toString());
 
       if (record != null) {
-        for (GifWatcherReference reference : record.getWatchers()) {
-          reference.gifFrameChanged(file);
+        ArrayList<GifWatcherReference> watchers = record.getWatchers();
+        for (int i = 0; i < watchers.size(); i++) {
+          watchers.get(i).gifFrameChanged(record.getWatcherFile(i));
         }
       }
     }
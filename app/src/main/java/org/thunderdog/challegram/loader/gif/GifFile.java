@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import me.vkryl.core.BitwiseUtils;
+import me.vkryl.core.StringUtils;
 
 public class GifFile {
   public static final int TYPE_GIF = 1;
@@ -112,6 +113,10 @@ public class GifFile {
     this.totalFrameCount = totalFrameCount;
   }
 
+  public long getTotalFrameCount () {
+    return totalFrameCount;
+  }
+
   public boolean hasFrame (long frameNo) {
     return frameNo >= 0 && frameNo < totalFrameCount;
   }
@@ -210,6 +215,30 @@ public class GifFile {
     }
   }
 
+  /**
+   * @return Whether frames of this file can be taken from another file with the same content,
+   * e.g. the same sticker in another account or in a larger size
+   */
+  public boolean isShareable () {
+    return type == TYPE_TG_LOTTIE &&
+      (flags & (FLAG_ROUND_VIDEO | FLAG_PLAY_ONCE | FLAG_UNIQUE | FLAG_DECODE_LAST_FRAME)) == 0 &&
+      frameChangeListener == null && loopListeners == null &&
+      file.remote != null && !StringUtils.isEmpty(file.remote.uniqueId);
+  }
+
+  /**
+   * Content-addressed key, which doesn't depend on account or file id.
+   */
+  public String getSharedKey (boolean optimize) {
+    StringBuilder b = new StringBuilder(file.remote.uniqueId);
+    b.append(optimize ? ",s" : ",l");
+    if (fitzpatrickType != 0) {
+      b.append(",f");
+      b.append(fitzpatrickType);
+    }
+    return b.toString();
+  }
+
   public boolean needDecodeLastFrame () {
     return BitwiseUtils.getFlag(flags, FLAG_DECODE_LAST_FRAME);
   }
@@ -0,0 +1,277 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Work-stealing scheduler for {@link GifActor} decoding work.
+ *
+ * Each actor owns a {@link Strand}: its tasks are executed one at a time and in order,
+ * because native decoders are not thread-safe, but any worker may pick the strand up.
+ * Workers take strands with the earliest deadline from their own queue first and steal from others when idle.
+ * Frame requests that arrive while a previous one is still pending are dropped instead of being queued,
+ * and Lottie frames that are picked up after their deadline skip ahead to catch up with the clock.
+ */
+public class GifFrameScheduler {
+  private static final int TASK_START_DECODING = 0;
+  private static final int TASK_PREPARE_NEXT_FRAME = 1;
+  private static final int TASK_PREPARE_START_FRAME = 2;
+  private static final int TASK_DESTROY = 3;
+
+  private static class Task {
+    final int type;
+    final long deadline;
+    final String path;
+
+    Task (int type, long deadline, String path) {
+      this.type = type;
+      this.deadline = deadline;
+      this.path = path;
+    }
+  }
+
+  public final class Strand implements Comparable<Strand> {
+    private final GifActor actor;
+    private final int homeIndex;
+    private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+    private boolean isQueued, isRunning, isNextFramePending, isDestroyed;
+    private long deadline;
+
+    private Strand (GifActor actor, int homeIndex) {
+      this.actor = actor;
+      this.homeIndex = homeIndex;
+    }
+
+    // GifBridge thread
+    public void startDecoding (String path) {
+      submit(this, new Task(TASK_START_DECODING, SystemClock.uptimeMillis(), path));
+    }
+
+    public void prepareNextFrame (long frameTimeMs) {
+      submit(this, new Task(TASK_PREPARE_NEXT_FRAME, SystemClock.uptimeMillis() + frameTimeMs, null));
+    }
+
+    public void prepareStartFrame () {
+      submit(this, new Task(TASK_PREPARE_START_FRAME, SystemClock.uptimeMillis(), null));
+    }
+
+    public void onDestroy () {
+      submit(this, new Task(TASK_DESTROY, SystemClock.uptimeMillis(), null));
+    }
+
+    @Override
+    public int compareTo (Strand other) {
+      return Long.compare(deadline, other.deadline);
+    }
+  }
+
+  private class Worker extends Thread {
+    private final int index;
+    private final PriorityQueue<Strand> queue = new PriorityQueue<>();
+
+    Worker (int index) {
+      super("GifThread#" + index);
+      this.index = index;
+    }
+
+    @Nullable
+    Strand poll () {
+      synchronized (queue) {
+        return queue.poll();
+      }
+    }
+
+    @Override
+    public void run () {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+      //noinspection InfiniteLoopStatement
+      while (true) {
+        Strand strand = poll();
+        if (strand == null) {
+          strand = steal(index);
+        }
+        if (strand != null) {
+          queuedCount.decrementAndGet();
+          execute(strand);
+          continue;
+        }
+        synchronized (idleLock) {
+          while (queuedCount.get() == 0) {
+            try {
+              idleLock.wait();
+            } catch (InterruptedException ignored) { }
+          }
+        }
+      }
+    }
+  }
+
+  private final Worker[] workers;
+  private final int[] workerLoad;
+  private final Object idleLock = new Object();
+  private final AtomicInteger queuedCount = new AtomicInteger();
+
+  private final AtomicLong preparedFrameCount = new AtomicLong();
+  private final AtomicLong droppedFrameCount = new AtomicLong();
+  private final AtomicLong skippedFrameCount = new AtomicLong();
+  private final AtomicLong stolenCount = new AtomicLong();
+
+  public GifFrameScheduler (int workerCount) {
+    this.workers = new Worker[workerCount];
+    this.workerLoad = new int[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+  public static int defaultWorkerCount () {
+    return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  // GifBridge thread
+  public Strand newStrand (GifActor actor) {
+    int homeIndex = 0;
+    synchronized (workerLoad) {
+      for (int i = 1; i < workerLoad.length; i++) {
+        if (workerLoad[i] < workerLoad[homeIndex]) {
+          homeIndex = i;
+        }
+      }
+      workerLoad[homeIndex]++;
+    }
+    return new Strand(actor, homeIndex);
+  }
+
+  private void submit (Strand strand, Task task) {
+    synchronized (strand) {
+      if (strand.isDestroyed) {
+        return;
+      }
+      if (task.type == TASK_PREPARE_NEXT_FRAME) {
+        if (strand.isNextFramePending) {
+          // Previous request did not make it yet, there's no point in queueing one more
+          droppedFrameCount.incrementAndGet();
+          return;
+        }
+        strand.isNextFramePending = true;
+      } else if (task.type == TASK_DESTROY) {
+        strand.isDestroyed = true;
+      }
+      strand.tasks.add(task);
+      if (strand.isQueued || strand.isRunning) {
+        return;
+      }
+      enqueue(strand);
+    }
+  }
+
+  // Called with strand lock held
+  private void enqueue (Strand strand) {
+    strand.isQueued = true;
+    Task next = strand.tasks.peek();
+    strand.deadline = next != null ? next.deadline : SystemClock.uptimeMillis();
+    Worker worker = workers[strand.homeIndex];
+    synchronized (worker.queue) {
+      worker.queue.add(strand);
+    }
+    queuedCount.incrementAndGet();
+    synchronized (idleLock) {
+      idleLock.notifyAll();
+    }
+  }
+
+  @Nullable
+  private Strand steal (int thiefIndex) {
+    for (int i = 1; i < workers.length; i++) {
+      Strand strand = workers[(thiefIndex + i) % workers.length].poll();
+      if (strand != null) {
+        stolenCount.incrementAndGet();
+        return strand;
+      }
+    }
+    return null;
+  }
+
+  private void execute (@NonNull Strand strand) {
+    Task task;
+    synchronized (strand) {
+      strand.isQueued = false;
+      task = strand.tasks.poll();
+      if (task == null) {
+        return;
+      }
+      strand.isRunning = true;
+      if (task.type == TASK_PREPARE_NEXT_FRAME) {
+        strand.isNextFramePending = false;
+      }
+    }
+    try {
+      switch (task.type) {
+        case TASK_START_DECODING:
+          strand.actor.startDecoding(task.path);
+          break;
+        case TASK_PREPARE_NEXT_FRAME: {
+          long lateMs = SystemClock.uptimeMillis() - task.deadline;
+          int skipFrames = lateMs > 0 ? strand.actor.framesWithin(lateMs) : 0;
+          if (skipFrames > 0) {
+            skippedFrameCount.addAndGet(skipFrames);
+          }
+          strand.actor.prepareNextFrame(skipFrames);
+          preparedFrameCount.incrementAndGet();
+          break;
+        }
+        case TASK_PREPARE_START_FRAME:
+          strand.actor.prepareStartFrame();
+          break;
+        case TASK_DESTROY:
+          strand.actor.onDestroy();
+          synchronized (workerLoad) {
+            workerLoad[strand.homeIndex]--;
+          }
+          break;
+      }
+    } catch (Throwable t) {
+      Log.e(Log.TAG_GIF_LOADER, "Frame task failed, type: %d", t, task.type);
+    } finally {
+      synchronized (strand) {
+        strand.isRunning = false;
+        if (!strand.tasks.isEmpty()) {
+          enqueue(strand);
+        }
+      }
+    }
+  }
+
+  public long getDroppedFrameCount () {
+    return droppedFrameCount.get() + skippedFrameCount.get();
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "GifFrameScheduler { workers: " + workers.length + ", prepared: " + preparedFrameCount.get() + ", dropped: " + droppedFrameCount.get() + ", skipped: " + skippedFrameCount.get() + ", stolen: " + stolenCount.get() + " }";
+  }
+}
@@ -20,12 +20,17 @@ public class GifRecord {
   private GifFile file;
   private GifActor actor;
   private ArrayList<GifWatcherReference> watchers;
+  private ArrayList<GifFile> watcherFiles;
+  private final String sharedKey;
 
-  public GifRecord (GifFile file, GifActor actor, GifWatcherReference reference) {
+  public GifRecord (GifFile file, GifActor actor, GifWatcherReference reference, String sharedKey) {
     this.file = file;
     this.actor = actor;
+    this.sharedKey = sharedKey;
     this.watchers = new ArrayList<>(2);
+    this.watcherFiles = new ArrayList<>(2);
     this.watchers.add(reference);
+    this.watcherFiles.add(file);
   }
 
   public GifFile getFile () {
@@ -36,29 +41,47 @@ public class GifRecord {
     return actor;
   }
 
+  public String getSharedKey () {
+    return sharedKey;
+  }
+
   public ArrayList<GifWatcherReference> getWatchers () {
     return watchers;
   }
 
+  /**
+   * @return File requested by the watcher at the given index, which differs from {@link #getFile()} when frames are shared
+   */
+  public GifFile getWatcherFile (int index) {
+    return watcherFiles.get(index);
+  }
+
   public void setFile (GifFile file) {
     this.file = file;
   }
 
   public boolean addWatcher (GifWatcherReference reference) {
+    return addWatcher(reference, file);
+  }
+
+  public boolean addWatcher (GifWatcherReference reference, GifFile file) {
     if (watchers == null || watchers.contains(reference))
       return false;
     
-    actor.watcherJoined(reference);
+    actor.watcherJoined(reference, file);
     watchers.add(reference);
+    watcherFiles.add(file);
 
     return true;
   }
 
   public boolean removeWatcher (GifWatcherReference reference) {
-    if (watchers == null || !watchers.contains(reference))
+    int index = watchers != null ? watchers.indexOf(reference) : -1;
+    if (index == -1)
       return false;
 
-    watchers.remove(reference);
+    watchers.remove(index);
+    watcherFiles.remove(index);
     return true;
   }
 
@@ -17,6 +17,8 @@ package org.thunderdog.challegram.loader.gif;
 import android.content.SharedPreferences;
 import android.os.SystemClock;
 
+import androidx.annotation.Nullable;
+
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.core.BaseThread;
 import org.thunderdog.challegram.data.TD;
@@ -24,11 +26,11 @@ import org.thunderdog.challegram.unsorted.Settings;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import me.vkryl.core.FileUtils;
 import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
 import me.vkryl.leveldb.LevelDB;
 
 public class LottieCache {
@@ -52,6 +54,11 @@ public class LottieCache {
   public boolean clear () {
     if (FileUtils.delete(LottieCache.getCacheDir(), true)) {
       Settings.instance().pmc().removeByPrefix(LOTTIE_KEY_PREFIX);
+      generationThread.post(() -> {
+        if (index != null) {
+          index.clear();
+        }
+      }, 0);
       cancelScheduledGc();
       return true;
     }
@@ -60,107 +67,58 @@ public class LottieCache {
 
   private long scheduledAt;
 
-  private static class Entry implements Comparable<Entry> {
-    public final String key;
-    public final long time;
-
-    public final int accountId;
-    public final String directory, fileName;
+  private static final long MAX_CACHE_SIZE = ByteUnit.MIB.toBytes(64);
 
-    public Entry (String key, long time) {
-      this.key = key;
-      this.time = time;
-      String[] fileData = key.substring(LOTTIE_KEY_PREFIX.length()).split("/", 3);
-      if (fileData.length != 3)
-        throw new IllegalArgumentException(key);
-      this.accountId = StringUtils.parseInt(fileData[0], -1);
-      if (accountId == -1)
-        throw new IllegalArgumentException(key);
-      this.directory = fileData[1];
-      this.fileName = fileData[2];
-      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
-        throw new IllegalArgumentException(key);
-    }
+  // Accessed only on generationThread
+  private LottieCacheIndex index;
 
-    public static boolean validateKey (String key) {
-      String[] fileData = key.substring(LOTTIE_KEY_PREFIX.length()).split("/", 3);
-      if (fileData.length != 3)
-        return false;
-      int accountId = StringUtils.parseInt(fileData[0], -1);
-      if (accountId == -1)
-        return false;
-      String directory = fileData[1];
-      String fileName = fileData[2];
-      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
-        return false;
-      return true;
-    }
-
-    @Override
-    public int compareTo (Entry o) {
-      return Long.compare(time, o.time);
-    }
-
-    public File toFile (File cacheDir) {
-      return new File(new File(new File(cacheDir, Integer.toString(accountId)), directory), fileName);
-    }
-  }
-
-  private void limitFileCount (int count, String key) {
-    generationThread.post(() -> {
+  private LottieCacheIndex index () {
+    if (index == null) {
+      index = new LottieCacheIndex(getCacheDir(), MAX_CACHE_SIZE);
       final LevelDB db = Settings.instance().pmc();
-      final File cacheDir = getCacheDir();
-      List<Entry> entries = new ArrayList<>();
+      List<LottieCacheIndex.Entry> entries = new ArrayList<>();
       List<String> brokenKeys = null;
       for (LevelDB.Entry entry : db.find(LOTTIE_KEY_PREFIX)) {
-        Entry e;
         try {
-          e = new Entry(entry.key(), entry.asLong());
+          entries.add(new LottieCacheIndex.Entry(entry.key(), entry.asLong()));
         } catch (IllegalArgumentException t) {
           Log.e("Bad lottie cache key: %s", t);
           if (brokenKeys == null)
             brokenKeys = new ArrayList<>();
           brokenKeys.add(entry.key());
-          continue;
-        }
-        entries.add(e);
-      }
-      if (brokenKeys != null) {
-        db.edit();
-        for (String brokenKey : brokenKeys) {
-          db.remove(brokenKey);
         }
-        db.apply();
       }
-      Collections.sort(entries);
-      int extraCount = (entries.size() - count);
-      int index = 0;
-      SharedPreferences.Editor editor = null;
-      while (extraCount > 0 && index < entries.size()) {
-        Entry entry = entries.get(index++);
-        if (!entry.key.equals(key)) {
-          if (editor == null)
-            editor = db.edit();
-          delete(cacheDir, entry, editor);
-          extraCount--;
-        }
-      }
-      if (editor != null) {
-        editor.apply();
-      }
-    }, 0);
+      removeKeys(brokenKeys);
+      index.load(entries);
+    }
+    return index;
   }
 
-  private static void delete (File cacheDir, Entry entry, SharedPreferences.Editor editor) {
-    File file = entry.toFile(cacheDir);
-    if (!file.exists() || file.delete()) {
-      editor.remove(entry.key);
+  private static void removeKeys (@Nullable List<String> keys) {
+    if (keys != null && !keys.isEmpty()) {
+      SharedPreferences.Editor editor = Settings.instance().pmc().edit();
+      for (String key : keys) {
+        editor.remove(key);
+      }
+      editor.apply();
     }
   }
 
+  private void onAccess (String key, long time) {
+    generationThread.post(() -> {
+      LottieCacheIndex index = index();
+      try {
+        index.onAccess(key, time);
+      } catch (IllegalArgumentException t) {
+        Log.e("Bad lottie cache key: %s", t);
+        return;
+      }
+      removeKeys(index.trimToSize(key));
+    }, 0);
+  }
+
   public void gc () {
     generationThread.post(() -> {
-      long nextTime = -1;
       final File cacheDir = getCacheDir();
 
       File[] accountDirs = cacheDir.listFiles();
@@ -176,30 +134,9 @@ public class LottieCache {
       }
 
       long now = System.currentTimeMillis();
-      final LevelDB db = Settings.instance().pmc();
-      SharedPreferences.Editor editor = null;
-      List<String> brokenKeys = null;
-      for (LevelDB.Entry entry : db.find(LOTTIE_KEY_PREFIX)) {
-        Entry e;
-        try {
-          e = new Entry(entry.key(), entry.asLong());
-        } catch (IllegalArgumentException t) {
-          Log.e("Bad lottie cache key: %s", t);
-          if (brokenKeys == null)
-            brokenKeys = new ArrayList<>();
-          brokenKeys.add(entry.key());
-          continue;
-        }
-        if (now >= e.time) {
-          if (editor == null)
-            editor = db.edit();
-          delete(cacheDir, e, editor);
-        } else {
-          nextTime = nextTime == -1 ? e.time : Math.min(nextTime, e.time);
-        }
-      }
-      if (editor != null)
-        editor.apply();
+      LottieCacheIndex index = index();
+      removeKeys(index.removeExpired(now));
+      long nextTime = index.getNextExpirationTime(now);
       if (nextTime != -1) {
         scheduleGc(nextTime - now, true);
       } else {
@@ -245,9 +182,9 @@ public class LottieCache {
     return needOptimize ? generationThread : generationFullThread;
   }
 
-  private static final String LOTTIE_KEY_PREFIX = "lottie_";
+  private static final String LOTTIE_KEY_PREFIX = LottieCacheIndex.KEY_PREFIX;
 
-  public static File getCacheFile (GifFile file, boolean optimize, int size, int fitzpatrickType, long keepAliveMs, int maxCount) {
+  public static File getCacheFile (GifFile file, boolean optimize, int size, int fitzpatrickType, long keepAliveMs) {
     if (optimize) {
       keepAliveMs = 0;
     }
@@ -259,8 +196,9 @@ public class LottieCache {
     File originalFile = new File(file.getFilePath());
     if (keepAliveMs > 0) {
       String key = getCacheFileKey(accountId, optimize, size, colorKey, originalFile.getName());
-      Settings.instance().pmc().putLong(key, System.currentTimeMillis() + keepAliveMs);
-      instance().limitFileCount(maxCount, key);
+      long time = System.currentTimeMillis() + keepAliveMs;
+      Settings.instance().pmc().putLong(key, time);
+      instance().onAccess(key, time);
       instance().scheduleGc(keepAliveMs, false);
     }
     return new File(cacheDir, originalFile.getName());
@@ -268,7 +206,7 @@ public class LottieCache {
 
   public static String getCacheFileKey (int accountId, boolean optimize, int size, String colorKey, String originalFileName) {
     String cacheKey = LOTTIE_KEY_PREFIX + accountId + "/" + (optimize ? "thumbs" + size : size) + (!StringUtils.isEmpty(colorKey) ? "_" + colorKey : "") + "/" + originalFileName;
-    if (!Entry.validateKey(cacheKey))
+    if (!LottieCacheIndex.Entry.validateKey(cacheKey))
       throw new IllegalArgumentException(cacheKey);
     return cacheKey;
   }
@@ -280,11 +218,16 @@ public class LottieCache {
       } else {
         String colorKey = fitzpatrickType != 0 ? Integer.toString(fitzpatrickType) : null;
         String key = getCacheFileKey(file.tdlib.accountId(), optimize, size, colorKey, new File(file.getFilePath()).getName());
-        long time = Settings.instance().getLong(key, 0);
-        if (time == 0 || System.currentTimeMillis() >= time) {
+        LottieCacheIndex index = index();
+        LottieCacheIndex.Entry entry = index.get(key);
+        if (entry == null || System.currentTimeMillis() >= entry.time) {
           cacheFile.delete();
           Settings.instance().remove(key);
+          index.remove(key);
           gc();
+        } else {
+          // Generation is complete, so the final size is known
+          removeKeys(index.trimToSize(key));
         }
       }
     }, 0);
@@ -0,0 +1,216 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Access-ordered index of Lottie cache files that have keep-alive time, limited by total file size.
+ *
+ * Not thread-safe: {@link LottieCache} accesses it only on its generation thread
+ * and persists keys returned by removal methods.
+ */
+final class LottieCacheIndex {
+  static final String KEY_PREFIX = "lottie_";
+
+  static final class Entry implements Comparable<Entry> {
+    public final String key;
+    public long time;
+    public long size = -1;
+
+    public final int accountId;
+    public final String directory, fileName;
+
+    public Entry (String key, long time) {
+      this.key = key;
+      this.time = time;
+      String[] fileData = key.substring(KEY_PREFIX.length()).split("/", 3);
+      if (fileData.length != 3)
+        throw new IllegalArgumentException(key);
+      this.accountId = StringUtils.parseInt(fileData[0], -1);
+      if (accountId == -1)
+        throw new IllegalArgumentException(key);
+      this.directory = fileData[1];
+      this.fileName = fileData[2];
+      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
+        throw new IllegalArgumentException(key);
+    }
+
+    public static boolean validateKey (String key) {
+      String[] fileData = key.substring(KEY_PREFIX.length()).split("/", 3);
+      if (fileData.length != 3)
+        return false;
+      int accountId = StringUtils.parseInt(fileData[0], -1);
+      if (accountId == -1)
+        return false;
+      String directory = fileData[1];
+      String fileName = fileData[2];
+      if (StringUtils.isEmpty(directory) || StringUtils.isEmpty(fileName))
+        return false;
+      return true;
+    }
+
+    @Override
+    public int compareTo (Entry o) {
+      return Long.compare(time, o.time);
+    }
+
+    public File toFile (File cacheDir) {
+      return new File(new File(new File(cacheDir, Integer.toString(accountId)), directory), fileName);
+    }
+  }
+
+  private final File cacheDir;
+  private final long maxSize;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, .75f, true);
+  private long size;
+
+  LottieCacheIndex (File cacheDir, long maxSize) {
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Adds persisted entries. Entries expiring later were accessed later, so they become the most recently used.
+   */
+  void load (List<Entry> entries) {
+    Collections.sort(entries);
+    for (Entry entry : entries) {
+      entry.size = entry.toFile(cacheDir).length();
+      size += entry.size;
+      this.entries.put(entry.key, entry);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException when key is not produced by {@link LottieCache#getCacheFileKey}
+   */
+  void onAccess (String key, long time) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, time);
+      entries.put(key, entry);
+    } else {
+      entry.time = time;
+    }
+  }
+
+  @Nullable
+  Entry get (String key) {
+    return entries.get(key);
+  }
+
+  void remove (String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      size -= Math.max(0, entry.size);
+    }
+  }
+
+  void clear () {
+    entries.clear();
+    size = 0;
+  }
+
+  long size () {
+    return size;
+  }
+
+  private void updateSize (Entry entry) {
+    long size = entry.toFile(cacheDir).length();
+    if (entry.size != size) {
+      this.size += size - Math.max(0, entry.size);
+      entry.size = size;
+    }
+  }
+
+  private boolean delete (Entry entry) {
+    File file = entry.toFile(cacheDir);
+    return !file.exists() || file.delete();
+  }
+
+  /**
+   * Deletes least recently used files until total size fits the limit.
+   *
+   * @param excludeKey Key of the file being generated, its size is measured again and it is never deleted
+   * @return Keys of deleted files, or null if nothing was deleted
+   */
+  @Nullable
+  List<String> trimToSize (@Nullable String excludeKey) {
+    Entry lastAccessed = excludeKey != null ? entries.get(excludeKey) : null;
+    if (lastAccessed != null) {
+      // Cache file might have grown since it was indexed
+      updateSize(lastAccessed);
+    }
+    List<String> removedKeys = null;
+    Iterator<Entry> it = entries.values().iterator();
+    while (size > maxSize && it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.key.equals(excludeKey)) {
+        continue;
+      }
+      if (delete(entry)) {
+        size -= Math.max(0, entry.size);
+        it.remove();
+        if (removedKeys == null)
+          removedKeys = new ArrayList<>();
+        removedKeys.add(entry.key);
+      }
+    }
+    return removedKeys;
+  }
+
+  /**
+   * Deletes files whose keep-alive time has passed.
+   *
+   * @return Keys of deleted files, or null if nothing was deleted
+   */
+  @Nullable
+  List<String> removeExpired (long now) {
+    List<String> removedKeys = null;
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (now >= entry.time && delete(entry)) {
+        size -= Math.max(0, entry.size);
+        it.remove();
+        if (removedKeys == null)
+          removedKeys = new ArrayList<>();
+        removedKeys.add(entry.key);
+      }
+    }
+    return removedKeys;
+  }
+
+  /**
+   * @return Earliest keep-alive time after {@code now}, or -1 if there are no such files
+   */
+  long getNextExpirationTime (long now) {
+    long nextTime = -1;
+    for (Entry entry : entries.values()) {
+      if (now < entry.time) {
+        nextTime = nextTime == -1 ? entry.time : Math.min(nextTime, entry.time);
+      }
+    }
+    return nextTime;
+  }
+}
@@ -429,7 +429,7 @@ public class NavigationController implements Future<View>, ThemeChangeListener,
       headerView.resetColors(c, null);
     }
     if (themeListeners != null) {
-      themeListeners.onThemeColorsChanged(areTemp);
+      themeListeners.onThemeColorsChanged(areTemp, state);
     }
   }
 
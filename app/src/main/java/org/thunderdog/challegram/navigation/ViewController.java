@@ -250,7 +250,7 @@ public abstract class ViewController<T> implements Future<View>, ThemeChangeList
       if (c.themeListeners == null)
         c.themeListeners = new ThemeListenerList();
       if (this.themeListeners != null)
-        c.themeListeners.getList().addAll(this.themeListeners.getList());
+        c.themeListeners.addAll(this.themeListeners);
       this.themeListeners = c.themeListeners;
     }
   }
@@ -331,7 +331,7 @@ public abstract class ViewController<T> implements Future<View>, ThemeChangeList
   @CallSuper
   public void onThemeColorsChanged (boolean areTemp, ColorState state) {
     if (themeListeners != null) {
-      themeListeners.onThemeColorsChanged(areTemp);
+      themeListeners.onThemeColorsChanged(areTemp, state);
     }
   }
 
@@ -350,14 +350,11 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
       }
     }
 
-    if (exoPlayer != null) {
-      exoPlayer.removeListener(this);
-      exoPlayer.release();
-      exoPlayer = null;
+    if (exoPlayer == null) {
+      exoPlayer = U.newExoPlayer(UI.getAppContext(), true);
+      exoPlayer.addListener(this);
     }
-
-    exoPlayer = U.newExoPlayer(UI.getAppContext(), true);
-    exoPlayer.addListener(this);
+    // Otherwise the same player is reused for the new list, so its renderers don't have to be created again
     setExoPlayerParameters();
     exoPlayer.setVolume(volume);
     switch (TGPlayerController.getPlayRepeatFlag(playFlags)) {
@@ -367,10 +364,11 @@ public class AudioController extends BasePlaybackController implements TGAudio.P
       case TGPlayerController.PLAY_FLAG_REPEAT_ONE:
         exoPlayer.setRepeatMode(Player.REPEAT_MODE_ONE);
         break;
+      default:
+        exoPlayer.setRepeatMode(Player.REPEAT_MODE_OFF);
+        break;
     }
-    if ((playFlags & TGPlayerController.PLAY_FLAG_SHUFFLE) != 0) {
-      exoPlayer.setShuffleModeEnabled(true);
-    }
+    exoPlayer.setShuffleModeEnabled((playFlags & TGPlayerController.PLAY_FLAG_SHUFFLE) != 0);
 
     exoPlayer.setMediaSources(mediaSources);
     exoPlayer.prepare();
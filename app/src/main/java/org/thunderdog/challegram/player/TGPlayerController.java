@@ -44,6 +44,7 @@ import me.vkryl.core.ArrayUtils;
 import me.vkryl.core.StringUtils;
 import me.vkryl.core.reference.ReferenceList;
 import me.vkryl.core.reference.ReferenceMap;
+import me.vkryl.core.unit.ByteUnit;
 import me.vkryl.core.BitwiseUtils;
 import me.vkryl.td.ChatId;
 import me.vkryl.td.Td;
@@ -760,6 +761,7 @@ public class TGPlayerController implements GlobalMessageListener, ProximityManag
   }
 
   public void setPlayProgress (Tdlib tdlib, long chatId, long messageId, int fileId, float progress, long playPosition, long playDuration, boolean isBuffering) {
+    List<TdApi.File> prefetchFiles = null;
     synchronized (this) {
       if (this.tdlib == tdlib && this.message != null && this.message.chatId == chatId && this.message.id == messageId && TD.getFileId(this.message) == fileId && (this.playProgress != progress || this.playPosition != playPosition || this.playDuration != playDuration || this.playBuffering != isBuffering)) {
         this.playProgress = progress;
@@ -767,8 +769,73 @@ public class TGPlayerController implements GlobalMessageListener, ProximityManag
         this.playPosition = playPosition;
         this.playBuffering = isBuffering;
         notifyTrackState(targetListeners, tdlib, chatId, messageId, fileId, STATE_SEEK, progress, playPosition, playDuration, isBuffering);
+        prefetchFiles = findFilesToPrefetch();
       }
     }
+    if (prefetchFiles != null) {
+      // Outside of the lock, as files manager calls back into the player
+      for (TdApi.File file : prefetchFiles) {
+        tdlib.files().prefetchFile(file, prefetchSize);
+      }
+    }
+  }
+
+  // Prefetch
+
+  public static final float DEFAULT_PREFETCH_PROGRESS = .5f;
+  public static final int DEFAULT_PREFETCH_TRACK_COUNT = 2;
+  public static final long DEFAULT_PREFETCH_SIZE = ByteUnit.MIB.toBytes(1);
+
+  private float prefetchProgress = DEFAULT_PREFETCH_PROGRESS;
+  private int prefetchTrackCount = DEFAULT_PREFETCH_TRACK_COUNT;
+  private long prefetchSize = DEFAULT_PREFETCH_SIZE;
+  private TdApi.Message prefetchedForMessage;
+
+  /**
+   * Once current track passes {@code progress}, beginnings of the next {@code trackCount} tracks
+   * get downloaded up to {@code size} bytes each, so the following track starts without waiting for the network.
+   *
+   * @param trackCount Number of tracks to prefetch, 0 to disable prefetching
+   */
+  public void setPrefetchPolicy (float progress, int trackCount, long size) {
+    synchronized (this) {
+      this.prefetchProgress = progress;
+      this.prefetchTrackCount = trackCount;
+      this.prefetchSize = size;
+    }
+  }
+
+  // Called with lock held
+  @Nullable
+  private List<TdApi.File> findFilesToPrefetch () {
+    if (prefetchTrackCount <= 0 || playState == STATE_NONE || message == null || playDuration <= 0 || playProgress < prefetchProgress) {
+      return null;
+    }
+    if (compareTracks(prefetchedForMessage, message)) {
+      return null;
+    }
+    prefetchedForMessage = message;
+    if ((getPlaybackFlags(message, playbackFlags) & PLAY_FLAG_SHUFFLE) != 0) {
+      // Next track is chosen by the player
+      return null;
+    }
+    int currentIndex = indexOfCurrentMessage();
+    List<TdApi.File> files = null;
+    int index = currentIndex;
+    for (int i = 0; i < prefetchTrackCount; i++) {
+      index = indexOfNextMessage(index, true, false);
+      if (index == -1 || index == currentIndex) {
+        break;
+      }
+      TdApi.File file = TD.getFile(messageList.get(index));
+      if (file != null && !TD.isFileLoaded(file)) {
+        if (files == null) {
+          files = new ArrayList<>(prefetchTrackCount);
+        }
+        files.add(file);
+      }
+    }
+    return files;
   }
 
   private static void notifyTrackState (ReferenceMap<String, TrackListener> targetListeners, Tdlib tdlib, long chatId, long messageId, int fileId, int newState, float progress, long playPosition, long playDuration, boolean isBuffering) {
@@ -0,0 +1,204 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Order-statistics treap of chat list entries with chat id index.
+ *
+ * Insertion, removal and index lookup take O(log n). Entries must not change their order while they are in the tree,
+ * so reordered chat has to be removed and inserted again.
+ */
+final class ChatOrderTree {
+  private static final class Node {
+    final TdlibChatList.Entry entry;
+    final int priority;
+    Node left, right;
+    int size = 1;
+
+    Node (TdlibChatList.Entry entry, int priority) {
+      this.entry = entry;
+      this.priority = priority;
+    }
+  }
+
+  private final Comparator<TdlibChatList.Entry> comparator;
+  private final HashMap<Long, TdlibChatList.Entry> entries = new HashMap<>();
+  private final Random random = new Random();
+  private Node root;
+
+  ChatOrderTree (Comparator<TdlibChatList.Entry> comparator) {
+    this.comparator = comparator;
+  }
+
+  public int size () {
+    return size(root);
+  }
+
+  @Nullable
+  public TdlibChatList.Entry find (long chatId) {
+    return entries.get(chatId);
+  }
+
+  public TdlibChatList.Entry get (int index) {
+    if (index < 0 || index >= size(root))
+      throw new IndexOutOfBoundsException(Integer.toString(index));
+    Node node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index == leftSize) {
+        return node.entry;
+      } else {
+        index -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  public int indexOf (long chatId) {
+    TdlibChatList.Entry entry = entries.get(chatId);
+    return entry != null ? rank(entry) : -1;
+  }
+
+  /**
+   * @return index at which entry has been inserted
+   */
+  public int insert (TdlibChatList.Entry entry) {
+    if (entries.containsKey(entry.chat.id))
+      throw new IllegalStateException("Duplicate chat id:" + entry.chat.id);
+    entries.put(entry.chat.id, entry);
+    int index = rank(entry);
+    Node[] parts = split(root, entry);
+    root = merge(merge(parts[0], new Node(entry, random.nextInt())), parts[1]);
+    return index;
+  }
+
+  /**
+   * @return index at which entry has been located before removal, or -1, if chat is not in the tree
+   */
+  public int remove (long chatId) {
+    TdlibChatList.Entry entry = entries.remove(chatId);
+    if (entry == null)
+      return -1;
+    int index = rank(entry);
+    Node[] parts = split(root, entry);
+    Node right = parts[1];
+    // Leftmost node of the right part is the removed entry
+    root = merge(parts[0], removeFirst(right));
+    return index;
+  }
+
+  public void toList (List<TdlibChatList.Entry> out) {
+    if (out instanceof ArrayList) {
+      ((ArrayList<TdlibChatList.Entry>) out).ensureCapacity(out.size() + size(root));
+    }
+    ArrayList<Node> stack = new ArrayList<>();
+    Node node = root;
+    while (node != null || !stack.isEmpty()) {
+      while (node != null) {
+        stack.add(node);
+        node = node.left;
+      }
+      node = stack.remove(stack.size() - 1);
+      out.add(node.entry);
+      node = node.right;
+    }
+  }
+
+  // Internal
+
+  private static int size (@Nullable Node node) {
+    return node != null ? node.size : 0;
+  }
+
+  private static void update (Node node) {
+    node.size = 1 + size(node.left) + size(node.right);
+  }
+
+  /**
+   * @return Number of entries that go before the given one
+   */
+  private int rank (TdlibChatList.Entry entry) {
+    int rank = 0;
+    Node node = root;
+    while (node != null) {
+      int cmp = comparator.compare(entry, node.entry);
+      if (cmp <= 0) {
+        node = node.left;
+      } else {
+        rank += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Splits tree into entries that go before the given one and all others
+   */
+  private Node[] split (@Nullable Node node, TdlibChatList.Entry entry) {
+    if (node == null) {
+      return new Node[2];
+    }
+    if (comparator.compare(node.entry, entry) < 0) {
+      Node[] parts = split(node.right, entry);
+      node.right = parts[0];
+      update(node);
+      parts[0] = node;
+      return parts;
+    } else {
+      Node[] parts = split(node.left, entry);
+      node.left = parts[1];
+      update(node);
+      parts[1] = node;
+      return parts;
+    }
+  }
+
+  @Nullable
+  private static Node merge (@Nullable Node left, @Nullable Node right) {
+    if (left == null)
+      return right;
+    if (right == null)
+      return left;
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      update(left);
+      return left;
+    } else {
+      right.left = merge(left, right.left);
+      update(right);
+      return right;
+    }
+  }
+
+  @Nullable
+  private static Node removeFirst (@Nullable Node node) {
+    if (node == null)
+      return null;
+    if (node.left == null)
+      return node.right;
+    node.left = removeFirst(node.left);
+    update(node);
+    return node;
+  }
+}
@@ -1116,6 +1116,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener {
     boolean isMulti = context().isMultiUser();
     String name = isMulti ? TD.getUserName(account().getFirstName(), account().getLastName()) : null;
     incrementReferenceCount(REFERENCE_TYPE_JOB);
+    Settings.instance().flushPendingWrites();
     /*deleteAllFiles(ignored -> */client().send(new TdApi.LogOut(), result -> {
       if (isMulti) {
         UI.showToast(Lang.getString(R.string.SignedOutAs, name), Toast.LENGTH_SHORT);
@@ -6750,6 +6751,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener {
       chat.photo = update.photo;
     }
 
+    TdlibNotificationBitmapCache.onChatPhotoChanged(id(), update.chatId);
     listeners.updateChatPhoto(update);
   }
 
@@ -7065,6 +7067,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener {
     context.player().onUpdateFile(this, update);
 
     files().onFileUpdate(update);
+    TdlibNotificationBitmapCache.onFileUpdated(id(), update.file);
 
     if (update.file.local.isDownloadingActive || update.file.remote.isUploadingActive) {
       files().onFileProgress(update);
@@ -31,7 +31,6 @@ import me.vkryl.core.lambda.Filter;
 import me.vkryl.core.lambda.RunnableBool;
 import me.vkryl.core.lambda.RunnableData;
 import me.vkryl.td.ChatPosition;
-import me.vkryl.td.Td;
 
 public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterChangeListener {
   public static class Entry implements Comparable<Entry> {
@@ -76,7 +75,9 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
 
   private final Tdlib tdlib;
   private final TdApi.ChatList chatList;
-  private final ArrayList<Entry> list = new ArrayList<>();
+  private final ChatOrderTree list = new ChatOrderTree(this);
+  // Immutable copy of the list, shared between all readers until the next change
+  private volatile List<Entry> snapshot;
   private final List<Runnable> onLoadMore = new ArrayList<>();
   private final List<RunnableData<TdApi.Chat>> perChatCallbacks = new ArrayList<>();
 
@@ -124,95 +125,101 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
   }
 
   public int count (@Nullable Filter<TdApi.Chat> filter) {
-    synchronized (list) {
-      if (filter == null) {
+    if (filter == null) {
+      synchronized (list) {
         return list.size();
       }
-      int count = 0;
-      for (Entry entry : list) {
-        if (filter.accept(entry.chat)) {
-          count++;
-        }
+    }
+    int count = 0;
+    for (Entry entry : snapshot()) {
+      if (filter.accept(entry.chat)) {
+        count++;
       }
-      return count;
     }
+    return count;
   }
 
   public List<Entry> listCopy (@Nullable Filter<TdApi.Chat> filter) {
-    synchronized (list) {
-      return listCopyImpl(filter);
+    return listCopyImpl(filter);
+  }
+
+  private List<Entry> snapshot () {
+    List<Entry> snapshot = this.snapshot;
+    if (snapshot == null) {
+      synchronized (list) {
+        snapshot = this.snapshot;
+        if (snapshot == null) {
+          List<Entry> entries = new ArrayList<>(list.size());
+          list.toList(entries);
+          this.snapshot = snapshot = Collections.unmodifiableList(entries);
+        }
+      }
     }
+    return snapshot;
   }
 
+  // Entries in the list are never modified, so there's no need to copy them
   private List<Entry> listCopyImpl (@Nullable Filter<TdApi.Chat> filter) {
-    final List<Entry> copy = new ArrayList<>(list.size());
-    for (Entry entry : list) {
-      if (filter == null || filter.accept(entry.chat)) {
-        copy.add(new Entry(entry.chat, entry.chatList, entry.effectivePosition));
+    final List<Entry> snapshot = snapshot();
+    if (filter == null) {
+      return snapshot;
+    }
+    final List<Entry> copy = new ArrayList<>();
+    for (Entry entry : snapshot) {
+      if (filter.accept(entry.chat)) {
+        copy.add(entry);
       }
     }
     return copy;
   }
 
   public boolean hasUnreadMentions () {
-    synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.unreadMentionCount > 0)
-          return true;
-      }
-      return false;
+    for (Entry entry : snapshot()) {
+      if (entry.chat.unreadMentionCount > 0)
+        return true;
     }
+    return false;
   }
 
   public boolean hasUnreadReactions () {
-    synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.unreadReactionCount > 0)
-          return true;
-      }
-      return false;
+    for (Entry entry : snapshot()) {
+      if (entry.chat.unreadReactionCount > 0)
+        return true;
     }
+    return false;
   }
 
   public boolean hasScheduledMessages () {
-    synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.hasScheduledMessages)
-          return true;
-      }
-      return false;
+    for (Entry entry : snapshot()) {
+      if (entry.chat.hasScheduledMessages)
+        return true;
     }
+    return false;
   }
 
   public boolean hasFailedMessages () {
-    synchronized (list) {
-      for (Entry entry : list) {
-        if (TD.isFailed(entry.chat.lastMessage))
-          return true;
-      }
-      return false;
+    for (Entry entry : snapshot()) {
+      if (TD.isFailed(entry.chat.lastMessage))
+        return true;
     }
+    return false;
   }
 
   public int maxDate () {
-    synchronized (list) {
-      int maxDate = 0;
-      for (Entry entry : list) {
-        if (entry.chat.lastMessage != null) {
-          maxDate = Math.max(entry.chat.lastMessage.date, maxDate);
-          if (!ChatPosition.isPinned(entry.chat, chatList))
-            break;
-        }
+    int maxDate = 0;
+    for (Entry entry : snapshot()) {
+      if (entry.chat.lastMessage != null) {
+        maxDate = Math.max(entry.chat.lastMessage.date, maxDate);
+        if (!ChatPosition.isPinned(entry.chat, chatList))
+          break;
       }
-      return maxDate;
     }
+    return maxDate;
   }
 
   public void iterate (RunnableData<TdApi.Chat> callback) {
-    synchronized (list) {
-      for (Entry entry : list) {
-        callback.runWithData(entry.chat);
-      }
+    for (Entry entry : snapshot()) {
+      callback.runWithData(entry.chat);
     }
   }
 
@@ -233,7 +240,6 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
       tdlib.runOnTdlibThread(() -> getChats(filter, callback));
       return;
     }
-    // No need to sync, as all changes are made on tdlib thread
     List<Entry> entries = listCopyImpl(filter);
     callback.runWithData(entries);
   }
@@ -318,7 +324,7 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
         }
       }
     };
-    for (Entry entry : list) {
+    for (Entry entry : snapshot()) {
       perChatCallback.runWithData(entry.chat);
     }
     perChatCallbacks.add(perChatCallback);
@@ -332,17 +338,6 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
     return o1.compareTo(o2);
   }
 
-  private int indexOfEntry (long chatId) {
-    int index = 0;
-    for (Entry entry : list) {
-      if (entry.chat.id == chatId) {
-        return index;
-      }
-      index++;
-    }
-    return -1;
-  }
-
   // Updates handling
 
   @TdlibThread
@@ -358,32 +353,30 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
   @TdlibThread
   void onUpdateChatPosition (TdApi.Chat chat, Tdlib.ChatChange changeInfo) {
     TdApi.ChatPosition position = changeInfo.position;
-    int prevIndex = indexOfEntry(chat.id);
-    if (prevIndex == -1) {
+    // No need to sync reads, as all changes are made on tdlib thread
+    Entry existingEntry = list.find(chat.id);
+    if (existingEntry == null) {
       if (position.order != 0) {
         addChatToList(new Entry(chat, chatList(), position), changeInfo);
       }
     } else if (position.order == 0) {
-      removeChatFromList(prevIndex, changeInfo);
+      removeChatFromList(chat.id, changeInfo);
     } else {
-      final Entry existingEntry;
+      final int prevIndex;
       if (changeInfo.orderChanged()) {
-        int newIndex;
+        final Entry movedEntry = new Entry(chat, chatList(), position);
+        final int newIndex;
         synchronized (list) {
-          existingEntry = list.remove(prevIndex);
-          Td.copyTo(position, existingEntry.effectivePosition);
-          newIndex = Collections.binarySearch(this.list, existingEntry, this);
-          if (newIndex >= 0)
-            throw new IllegalStateException();
-          newIndex = newIndex * -1 - 1;
-          list.add(newIndex, existingEntry);
+          prevIndex = list.remove(chat.id);
+          newIndex = list.insert(movedEntry);
+          snapshot = null;
         }
         if (newIndex != prevIndex) {
-          tdlib.listeners().updateChatMoved(this, existingEntry.chat, prevIndex, newIndex, changeInfo);
+          tdlib.listeners().updateChatMoved(this, movedEntry.chat, prevIndex, newIndex, changeInfo);
           return;
         }
       } else {
-        existingEntry = list.get(prevIndex);
+        prevIndex = list.indexOf(chat.id);
       }
       if (changeInfo.metadataChanged()) {
         tdlib.listeners().updateChatChanged(this, existingEntry.chat, prevIndex, changeInfo);
@@ -394,12 +387,10 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
   // Internal
 
   private void addChatToList (Entry entry, Tdlib.ChatChange changeInfo) {
-    int atIndex = Collections.binarySearch(this.list, entry, this);
-    if (atIndex >= 0)
-      throw new IllegalStateException();
-    atIndex = atIndex * -1 - 1;
+    final int atIndex;
     synchronized (list) {
-      list.add(atIndex, entry);
+      atIndex = list.insert(entry);
+      snapshot = null;
     }
     for (RunnableData<TdApi.Chat> perChatCallback : perChatCallbacks) {
       perChatCallback.runWithData(entry.chat);
@@ -407,10 +398,13 @@ public class TdlibChatList implements Comparator<TdlibChatList.Entry>, CounterCh
     tdlib.listeners().updateChatAdded(this, entry.chat, atIndex, changeInfo);
   }
 
-  private void removeChatFromList (int fromIndex, Tdlib.ChatChange changeInfo) {
-    Entry entry;
+  private void removeChatFromList (long chatId, Tdlib.ChatChange changeInfo) {
+    final Entry entry;
+    final int fromIndex;
     synchronized (list) {
-      entry = list.remove(fromIndex);
+      entry = list.find(chatId);
+      fromIndex = list.remove(chatId);
+      snapshot = null;
     }
     tdlib.listeners().updateChatRemoved(this, entry.chat, fromIndex, changeInfo);
   }
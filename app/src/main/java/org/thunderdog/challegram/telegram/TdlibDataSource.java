@@ -21,17 +21,22 @@ import com.google.android.exoplayer2.upstream.BaseDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 
+import org.drinkless.td.libcore.telegram.Client;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.thunderdog.challegram.U;
 import org.thunderdog.challegram.data.TD;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
 import me.vkryl.td.Td;
 
 public final class TdlibDataSource extends BaseDataSource {
@@ -84,15 +89,96 @@ public final class TdlibDataSource extends BaseDataSource {
   }
 
   public static final class Factory implements DataSource.Factory {
+    private final long readAheadSize;
+
+    public Factory () {
+      this(DEFAULT_READ_AHEAD_SIZE);
+    }
+
+    /**
+     * @param readAheadSize Size of the window after the playhead that is kept downloaded or being downloaded
+     */
+    public Factory (long readAheadSize) {
+      this.readAheadSize = readAheadSize;
+    }
+
     @Override
     public DataSource createDataSource () {
-      return new TdlibDataSource();
+      return new TdlibDataSource(readAheadSize);
+    }
+  }
+
+  /**
+   * TDLib calls made by the data source, so reads can be driven by a file that grows on disk without TDLib.
+   */
+  interface Backend {
+    void send (TdApi.Function<?> function, Client.ResultHandler handler);
+    void addFileListener (int fileId, FileUpdateListener listener);
+    void removeFileListener (int fileId, FileUpdateListener listener);
+    void addCloudReference (TdApi.File file, long offset, FileUpdateListener listener);
+    void seekCloudReference (TdApi.File file, FileUpdateListener listener, long offset, long readAheadSize);
+    void resumeCloudReference (TdApi.File file, FileUpdateListener listener, long offset);
+    void removeCloudReference (TdApi.File file, FileUpdateListener listener);
+  }
+
+  interface BackendProvider {
+    Backend getBackend (int accountId);
+  }
+
+  private static final class TdlibBackend implements Backend {
+    private final Tdlib tdlib;
+
+    TdlibBackend (Tdlib tdlib) {
+      this.tdlib = tdlib;
+    }
+
+    @Override
+    public void send (TdApi.Function<?> function, Client.ResultHandler handler) {
+      tdlib.client().send(function, handler);
+    }
+
+    @Override
+    public void addFileListener (int fileId, FileUpdateListener listener) {
+      tdlib.listeners().addFileListener(fileId, listener);
+    }
+
+    @Override
+    public void removeFileListener (int fileId, FileUpdateListener listener) {
+      tdlib.listeners().removeFileListener(fileId, listener);
+    }
+
+    @Override
+    public void addCloudReference (TdApi.File file, long offset, FileUpdateListener listener) {
+      tdlib.files().addCloudReference(file, offset, listener, false, true);
+    }
+
+    @Override
+    public void seekCloudReference (TdApi.File file, FileUpdateListener listener, long offset, long readAheadSize) {
+      tdlib.files().seekCloudReference(file, listener, offset, readAheadSize);
+    }
+
+    @Override
+    public void resumeCloudReference (TdApi.File file, FileUpdateListener listener, long offset) {
+      tdlib.files().resumeCloudReference(file, listener, offset);
+    }
+
+    @Override
+    public void removeCloudReference (TdApi.File file, FileUpdateListener listener) {
+      tdlib.files().removeCloudReference(file, listener);
     }
   }
 
+  private static final BackendProvider TDLIB_BACKEND = accountId -> new TdlibBackend(TdlibManager.getTdlib(accountId));
+
+  public static final long DEFAULT_READ_AHEAD_SIZE = ByteUnit.MIB.toBytes(1);
+  private static final int MIN_WAKE_UP_SIZE = (int) ByteUnit.KIB.toBytes(64);
+  private static final long MAX_MAPPED_FILE_SIZE = ByteUnit.MIB.toBytes(64);
+
   private Uri uri;
   private long bytesRead;
-  private Tdlib tdlib;
+  private Backend backend;
+  private final BackendProvider backendProvider;
+  private final long readAheadSize;
   private final Object fileLock = new Object();
   private TdApi.File file;
 
@@ -101,7 +187,17 @@ public final class TdlibDataSource extends BaseDataSource {
   private boolean referenceAcquired;
 
   public TdlibDataSource () {
+    this(DEFAULT_READ_AHEAD_SIZE);
+  }
+
+  public TdlibDataSource (long readAheadSize) {
+    this(readAheadSize, TDLIB_BACKEND);
+  }
+
+  TdlibDataSource (long readAheadSize, BackendProvider backendProvider) {
     super(true);
+    this.readAheadSize = readAheadSize;
+    this.backendProvider = backendProvider;
   }
 
   @Override
@@ -123,7 +219,7 @@ public final class TdlibDataSource extends BaseDataSource {
 
     this.uri = uri;
     this.bytesRead = dataSpec.position;
-    this.tdlib = TdlibManager.getTdlib(accountId);
+    this.backend = backendProvider.getBackend(accountId);
 
     final TdApi.Function<?> function = !StringUtils.isEmpty(remoteId) ? new TdApi.GetRemoteFile(remoteId, null) : new TdApi.GetFile(fileId);
 
@@ -131,11 +227,11 @@ public final class TdlibDataSource extends BaseDataSource {
     final AtomicBoolean isOpening = new AtomicBoolean(true);
     final AtomicReference<TdApi.Object> response = new AtomicReference<>();
 
-    tdlib.client().send(function, object -> {
+    backend.send(function, object -> {
       synchronized (isOpening) {
         if (isOpening.getAndSet(false)) {
           if (object.getConstructor() == TdApi.File.CONSTRUCTOR) {
-            tdlib.listeners().addFileListener(((TdApi.File) object).id, listener);
+            backend.addFileListener(((TdApi.File) object).id, listener);
           }
           response.set(object);
         }
@@ -149,7 +245,7 @@ public final class TdlibDataSource extends BaseDataSource {
         if (!isOpening.getAndSet(false)) {
           TdApi.Object result = response.get();
           if (result instanceof TdApi.File) {
-            tdlib.listeners().removeFileListener(((TdApi.File) result).id, listener);
+            backend.removeFileListener(((TdApi.File) result).id, listener);
           }
         }
       }
@@ -170,13 +266,16 @@ public final class TdlibDataSource extends BaseDataSource {
 
   @TdlibThread
   private void processUpdate (TdApi.UpdateFile file) {
-    TdApi.File currentFile;
     synchronized (fileLock) {
-      currentFile = this.file;
-      boolean notify = currentFile != null && currentFile.id == file.file.id && Td.copyTo(file.file, currentFile);
-      if (notify && this.latch != null) {
-        this.latch.countDown();
-        this.latch = null;
+      TdApi.File currentFile = this.file;
+      boolean changed = currentFile != null && currentFile.id == file.file.id && Td.copyTo(file.file, currentFile);
+      if (changed && currentFile.local.isDownloadingActive) {
+        // Download may be resumed again once it stops
+        isResumeRequested = false;
+      }
+      // Reader is woken up only once enough bytes are ready, not on every downloaded part
+      if (changed && waitOffset != -1 && (waitForAnyChange || needWakeUp(currentFile))) {
+        fileLock.notifyAll();
       }
     }
   }
@@ -192,18 +291,73 @@ public final class TdlibDataSource extends BaseDataSource {
     return (int) Math.max(0, Math.min(length, available));
   }
 
+  // Guarded by fileLock
+  private long waitOffset = -1, wakeUpOffset;
+  private boolean waitForAnyChange;
+  private boolean isResumeRequested;
+
   private final TdApi.File localFile = new TdApi.File(0, 0, 0, new TdApi.LocalFile(), new TdApi.RemoteFile());
-  private CountDownLatch latch;
   private RandomAccessFile openFile;
+  private FileChannel openChannel;
+  private MappedByteBuffer mappedFile;
+
+  // Called with fileLock held
+  private boolean needWakeUp (TdApi.File file) {
+    if (file.local.isDownloadingCompleted || !file.local.isDownloadingActive) {
+      return true;
+    }
+    long prefixStart = file.local.downloadOffset;
+    long prefixEnd = prefixStart + file.local.downloadedPrefixSize;
+    if (waitOffset < prefixStart || waitOffset > prefixEnd + readAheadSize) {
+      // Download has been moved away from the playhead, it has to be moved back
+      return true;
+    }
+    return prefixEnd >= wakeUpOffset;
+  }
+
+  /**
+   * Called with fileLock held.
+   *
+   * Active download is moved by {@link #acquireReference(TdApi.File, long)}, while a stopped one, e.g. after reaching
+   * the limit of a prefetch, has to be resumed before the read-ahead window after the playhead runs out.
+   * It is resumed from the playhead, as TDLib skips already downloaded parts and reports the prefix from the download offset.
+   */
+  private boolean needResumeDownload (TdApi.File file, long offset) {
+    if (!referenceAcquired || isResumeRequested || file.local.isDownloadingActive || file.local.isDownloadingCompleted || !file.local.canBeDownloaded) {
+      return false;
+    }
+    long prefixStart = file.local.downloadOffset;
+    long prefixEnd = prefixStart + file.local.downloadedPrefixSize;
+    if (offset < prefixStart || offset > prefixEnd) {
+      return true;
+    }
+    return offset + readAheadSize > prefixEnd && (file.size == 0 || prefixEnd < file.size);
+  }
+
+  // Called with fileLock held
+  private void awaitUpdate (long offset, int readLength, boolean anyChange) throws InterruptedException {
+    long wakeUpSize = Math.min(readLength, MIN_WAKE_UP_SIZE);
+    if (file.size != 0) {
+      wakeUpSize = Math.min(wakeUpSize, file.size - offset);
+    }
+    this.waitOffset = offset;
+    this.wakeUpOffset = offset + wakeUpSize;
+    this.waitForAnyChange = anyChange;
+    try {
+      fileLock.wait();
+    } finally {
+      this.waitOffset = -1;
+    }
+  }
 
   private boolean acquireReference (TdApi.File file, long offset) {
     if (!referenceAcquired && file.local.canBeDownloaded) {
       referenceAcquired = true;
-      tdlib.files().addCloudReference(file, offset, listener, false, true);
+      backend.addCloudReference(file, offset, listener);
       return true;
     } else if (referenceAcquired) {
-      if (file.local.downloadOffset != offset && !TD.withinDistance(file, offset))
-        tdlib.files().seekCloudReference(file, listener, offset);
+      if (file.local.downloadOffset != offset && !TD.withinDistance(file, offset, readAheadSize))
+        backend.seekCloudReference(file, listener, offset, readAheadSize);
       return true;
     }
     return false;
@@ -211,7 +365,8 @@ public final class TdlibDataSource extends BaseDataSource {
 
   private void releaseReference (TdApi.File file) {
     if (referenceAcquired) {
-      tdlib.files().removeCloudReference(file, listener);
+      referenceAcquired = false;
+      backend.removeCloudReference(file, listener);
     }
   }
 
@@ -221,62 +376,72 @@ public final class TdlibDataSource extends BaseDataSource {
       return 0;
     }
     try {
-      boolean first = true;
       do {
-        final TdApi.File file;
-        final CountDownLatch latch;
+        final long offset = bytesRead;
+        final int available;
+        final String path;
+        final long mapSize;
+        final boolean needReference;
+        final boolean needResume;
         synchronized (fileLock) {
-          if (this.file != null) {
+          if (this.file == null)
+            throw new TdlibDataSourceException("file == null");
+          if (this.file.size != 0 && offset >= this.file.size)
+            return C.RESULT_END_OF_INPUT;
+          available = getAvailableSize(this.file, offset, readLength);
+          path = this.file.local.path;
+          boolean isCompleted = this.file.local.isDownloadingCompleted;
+          mapSize = isCompleted ? this.file.local.downloadedSize : 0;
+          // Download position has to be checked only when the playhead is outside of the downloaded prefix
+          needReference = isCompleted ? referenceAcquired : (!referenceAcquired || available == 0);
+          // Requested once per stop, so a download that can't be resumed is not requested on every read
+          needResume = needResumeDownload(this.file, offset);
+          if (needResume) {
+            isResumeRequested = true;
+          }
+          if (needReference || needResume) {
             Td.copyTo(this.file, localFile);
-            this.localFile.id = this.file.id;
-            file = localFile;
-            if (this.latch != null) {
-              latch = this.latch;
-            } else {
-              this.latch = latch = new CountDownLatch(1);
-            }
-          } else {
-            file = null;
-            latch = null;
+            localFile.id = this.file.id;
           }
         }
-        if (file == null)
-          throw new TdlibDataSourceException("file == null");
-        final long offset = bytesRead;
-        if (file.size != 0 && offset >= file.size)
-          return C.RESULT_END_OF_INPUT;
 
-        if (first) {
-          first = false;
-          if (file.local.isDownloadingCompleted) {
-            releaseReference(file);
+        if (needResume) {
+          backend.resumeCloudReference(localFile, listener, offset);
+        } else if (needReference) {
+          if (localFile.local.isDownloadingCompleted) {
+            releaseReference(localFile);
           } else {
-            acquireReference(file, offset);
+            acquireReference(localFile, offset);
           }
         }
-        int available = getAvailableSize(file, offset, readLength);
         if (available == 0) {
-          latch.await();
-          continue;
-        }
-        try {
-          boolean opened = false;
           synchronized (fileLock) {
-            if (openFile == null) {
-              openFile = new RandomAccessFile(file.local.path, "r");
-              opened = true;
+            if (this.file != null && getAvailableSize(this.file, offset, readLength) == 0) {
+              awaitUpdate(offset, readLength, false);
             }
           }
-          if (opened && offset > 0) {
-            openFile.seek(offset);
-          }
-          int readCount = openFile.read(buffer, bufferOffset, available);
+          continue;
+        }
+        try {
+          int readCount = readFile(path, mapSize, offset, buffer, bufferOffset, available);
           bytesTransferred(readCount);
           bytesRead += readCount;
           return readCount;
         } catch (IOException e) {
-          if (acquireReference(file, offset)) {
-            latch.await();
+          // File could have been moved after the download has been completed, reopen it on the next attempt
+          closeFile();
+          synchronized (fileLock) {
+            if (this.file == null)
+              throw new TdlibDataSourceException("file == null");
+            Td.copyTo(this.file, localFile);
+            localFile.id = this.file.id;
+          }
+          if (acquireReference(localFile, offset)) {
+            synchronized (fileLock) {
+              if (this.file != null) {
+                awaitUpdate(offset, readLength, true);
+              }
+            }
           } else {
             throw new TdlibDataSourceException(e);
           }
@@ -287,6 +452,44 @@ public final class TdlibDataSource extends BaseDataSource {
     }
   }
 
+  private int readFile (String path, long mapSize, long offset, byte[] buffer, int bufferOffset, int length) throws IOException {
+    final FileChannel channel;
+    final MappedByteBuffer mappedFile;
+    synchronized (fileLock) {
+      if (this.openChannel == null) {
+        this.openFile = new RandomAccessFile(path, "r");
+        this.openChannel = openFile.getChannel();
+      }
+      if (this.mappedFile == null && mapSize > 0 && mapSize <= MAX_MAPPED_FILE_SIZE && openChannel.size() >= mapSize) {
+        // Completed files are read from memory, without a system call per read
+        this.mappedFile = openChannel.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
+      }
+      channel = this.openChannel;
+      mappedFile = this.mappedFile;
+    }
+    if (mappedFile != null && offset + length <= mappedFile.capacity()) {
+      mappedFile.position((int) offset);
+      mappedFile.get(buffer, bufferOffset, length);
+      return length;
+    }
+    // Positional read, no need to track file pointer between reads and seeks
+    int readCount = channel.read(ByteBuffer.wrap(buffer, bufferOffset, length), offset);
+    if (readCount <= 0)
+      throw new IOException("Unexpected end of file, offset: " + offset + ", path: " + path);
+    return readCount;
+  }
+
+  private void closeFile () {
+    synchronized (fileLock) {
+      mappedFile = null;
+      openChannel = null;
+      if (openFile != null) {
+        U.closeFile(openFile);
+        openFile = null;
+      }
+    }
+  }
+
   @Nullable
   @Override
   public Uri getUri () {
@@ -300,23 +503,17 @@ public final class TdlibDataSource extends BaseDataSource {
     synchronized (fileLock) {
       file = this.file;
       this.file = null;
-      if (this.latch != null) {
-        this.latch.countDown();
-        this.latch = null;
-      }
-      if (this.openFile != null) {
-        U.closeFile(this.openFile);
-        this.openFile = null;
-      }
+      fileLock.notifyAll();
     }
-    if (tdlib != null && file != null) {
+    closeFile();
+    if (backend != null && file != null) {
       if (referenceAcquired) {
-        tdlib.files().removeCloudReference(file, listener);
+        backend.removeCloudReference(file, listener);
         referenceAcquired = false;
       }
-      tdlib.listeners().removeFileListener(file.id, listener);
+      backend.removeFileListener(file.id, listener);
       transferEnded();
     }
-    tdlib = null;
+    backend = null;
   }
 }
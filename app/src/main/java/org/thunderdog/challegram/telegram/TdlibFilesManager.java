@@ -92,6 +92,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   private final SparseIntArray downloadingCloudFiles;
 
   private final HashSet<Integer> manuallyCancelledFiles;
+  private final HashSet<Integer> prefetchingFiles;
 
   TdlibFilesManager (Tdlib tdlib) {
     this.tdlib = tdlib;
@@ -107,6 +108,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
     this.downloadingCloudFiles = new SparseIntArray();
 
     this.manuallyCancelledFiles = new HashSet<>();
+    this.prefetchingFiles = new HashSet<>();
 
     loadSettings();
 
@@ -266,19 +268,30 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   public static final int CLOUD_PRIORITY = 3;
 
   public void seekCloudReference (TdApi.File file, FileUpdateListener source, long offset) {
+    seekCloudReference(file, source, offset, TD.DEFAULT_SEEK_DISTANCE);
+  }
+
+  /**
+   * @param maxDistance How far past the downloaded prefix the offset may be without restarting the download from it
+   */
+  public void seekCloudReference (TdApi.File file, FileUpdateListener source, long offset, long maxDistance) {
     synchronized (activeCloudReferences) {
-      if (TD.withinDistance(file, offset)) {
+      if (TD.withinDistance(file, offset, maxDistance)) {
         return;
       }
       List<FileUpdateListener> references = activeCloudReferences.get(file.id);
       if (references != null && references.contains(source)) {
-        seekFileInternal(file, offset, 0);
+        seekFileInternal(file, offset, 0, maxDistance);
       }
     }
   }
 
   private void seekFileInternal (TdApi.File file, long offset, long limit) {
-    if (!TD.withinDistance(file, offset) && pendingOperations.get(file.id) == OPERATION_DOWNLOAD) {
+    seekFileInternal(file, offset, limit, TD.DEFAULT_SEEK_DISTANCE);
+  }
+
+  private void seekFileInternal (TdApi.File file, long offset, long limit, long maxDistance) {
+    if (!TD.withinDistance(file, offset, maxDistance) && pendingOperations.get(file.id) == OPERATION_DOWNLOAD) {
       if (!Config.DEBUG_DISABLE_DOWNLOAD) {
         Log.i("FILES: downloadFile %d offset=%d", file.id, offset);
         tdlib.client().send(new TdApi.DownloadFile(file.id, CLOUD_PRIORITY, offset, limit, false), filesHandler);
@@ -306,20 +319,84 @@ public class TdlibFilesManager implements GlobalConnectionListener {
       references = new ArrayList<>();
       references.add(source);
       activeCloudReferences.put(file.id, references);
-      if (!file.local.isDownloadingActive) {
-        synchronized (this) {
-          int pendingOperation = pendingOperations.get(file.id);
-          if (pendingOperation == OPERATION_NONE) {
+      synchronized (this) {
+        boolean isPrefetching = prefetchingFiles.remove(file.id);
+        boolean hasPendingOperation = pendingOperations.get(file.id) != OPERATION_NONE;
+        switch (getCloudReferenceAction(file.local.isDownloadingActive, isPrefetching, hasPendingOperation, offsetImportant)) {
+          case CLOUD_ACTION_DOWNLOAD: {
             downloadingCloudFiles.put(file.id, 1);
             downloadFileInternal(file.id, CLOUD_PRIORITY, offset, 0, null);
+            break;
           }
+          case CLOUD_ACTION_REPLACE_PREFETCH: {
+            // Pending download is the prefetch itself, so it is reissued without its limit
+            restartCloudDownload(file.id, offset, hasPendingOperation);
+            break;
+          }
+          case CLOUD_ACTION_SEEK: {
+            seekFileInternal(file, offset, 0);
+            break;
+          }
+          case CLOUD_ACTION_NONE:
+            break;
         }
-      } else if (offsetImportant) {
-        seekFileInternal(file, offset, 0);
       }
     }
   }
 
+  /**
+   * Restarts download of a file referenced by {@code source} from {@code offset} up to the end of the file,
+   * e.g. when it has stopped before the data {@code source} is going to read.
+   */
+  public void resumeCloudReference (TdApi.File file, FileUpdateListener source, long offset) {
+    synchronized (activeCloudReferences) {
+      List<FileUpdateListener> references = activeCloudReferences.get(file.id);
+      if (references != null && references.contains(source)) {
+        synchronized (this) {
+          if (!manuallyCancelledFiles.contains(file.id)) {
+            restartCloudDownload(file.id, offset, pendingOperations.get(file.id) != OPERATION_NONE);
+          }
+        }
+      }
+    }
+  }
+
+  // Called with activeCloudReferences and this locked
+  private void restartCloudDownload (int fileId, long offset, boolean hasPendingOperation) {
+    downloadingCloudFiles.put(fileId, 1);
+    if (!hasPendingOperation) {
+      downloadFileInternal(fileId, CLOUD_PRIORITY, offset, 0, null);
+    } else if (!Config.DEBUG_DISABLE_DOWNLOAD) {
+      tdlib.client().send(new TdApi.DownloadFile(fileId, CLOUD_PRIORITY, offset, 0, false), filesHandler);
+    }
+  }
+
+  static final int CLOUD_ACTION_NONE = 0;
+  static final int CLOUD_ACTION_DOWNLOAD = 1;
+  static final int CLOUD_ACTION_REPLACE_PREFETCH = 2;
+  static final int CLOUD_ACTION_SEEK = 3;
+
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({CLOUD_ACTION_NONE, CLOUD_ACTION_DOWNLOAD, CLOUD_ACTION_REPLACE_PREFETCH, CLOUD_ACTION_SEEK})
+  @interface CloudReferenceAction { }
+
+  /**
+   * Decides how the first cloud reference to a file starts receiving its data.
+   *
+   * Prefetch stops at its limit, so it is always replaced with a download up to the end of the file,
+   * even when its own download is already pending.
+   */
+  @CloudReferenceAction
+  static int getCloudReferenceAction (boolean isDownloadingActive, boolean isPrefetching, boolean hasPendingOperation, boolean offsetImportant) {
+    if (isPrefetching) {
+      return CLOUD_ACTION_REPLACE_PREFETCH;
+    }
+    if (!isDownloadingActive) {
+      return hasPendingOperation ? CLOUD_ACTION_NONE : CLOUD_ACTION_DOWNLOAD;
+    }
+    return offsetImportant ? CLOUD_ACTION_SEEK : CLOUD_ACTION_NONE;
+  }
+
   public void removeCloudReference (TdApi.File file, FileUpdateListener source) {
     synchronized (activeCloudReferences) {
       int index = activeCloudReferences.indexOfKey(file.id);
@@ -513,6 +590,50 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   }
 
   public static final int DEFAULT_DOWNLOAD_PRIORITY = 1;
+  public static final int PREFETCH_PRIORITY = 1;
+
+  /**
+   * Downloads first {@code limit} bytes of the file, so its playback can start without waiting for the network.
+   *
+   * Unlike {@link #downloadFile(TdApi.File)}, file is not considered as being downloaded by the user,
+   * and nothing is done if Data Saver is active or the file is already being downloaded for any other reason.
+   */
+  public void prefetchFile (@NonNull TdApi.File file, long limit) {
+    if (isDataSaverActive() || !file.local.canBeDownloaded || file.local.isDownloadingActive || TD.isFileLoaded(file)) {
+      return;
+    }
+    if (file.local.downloadOffset == 0 && file.local.downloadedPrefixSize >= limit) {
+      return;
+    }
+    synchronized (activeCloudReferences) {
+      if (activeCloudReferences.get(file.id) != null) {
+        return;
+      }
+      synchronized (this) {
+        if (pendingOperations.get(file.id) != OPERATION_NONE || manuallyCancelledFiles.contains(file.id) || !prefetchingFiles.add(file.id)) {
+          return;
+        }
+      }
+    }
+    if (Log.isEnabled(Log.TAG_TDLIB_FILES)) {
+      Log.i(Log.TAG_TDLIB_FILES, "prefetchFile id=%d limit=%d", file.id, limit);
+    }
+    if (!Config.DEBUG_DISABLE_DOWNLOAD) {
+      tdlib.client().send(new TdApi.DownloadFile(file.id, PREFETCH_PRIORITY, 0, limit, false), result -> {
+        if (result.getConstructor() != TdApi.File.CONSTRUCTOR || !((TdApi.File) result).local.isDownloadingActive) {
+          // Prefetch failed or has already stopped, so the file can be prefetched again
+          synchronized (this) {
+            prefetchingFiles.remove(file.id);
+          }
+        }
+        filesHandler.onResult(result);
+      });
+    } else {
+      synchronized (this) {
+        prefetchingFiles.remove(file.id);
+      }
+    }
+  }
 
   // Cancellation
 
@@ -611,6 +732,11 @@ public class TdlibFilesManager implements GlobalConnectionListener {
         notifyFileState(update.file.id, STATE_IN_PROGRESS, null);
       }
 
+      if (!update.file.local.isDownloadingActive) {
+        // Prefetch reached its limit, finished or failed
+        prefetchingFiles.remove(update.file.id);
+      }
+
       final Iterator<SimpleListener> list = simpleListeners.iterator(update.file.id);
       if (list != null) {
         while (list.hasNext()) {
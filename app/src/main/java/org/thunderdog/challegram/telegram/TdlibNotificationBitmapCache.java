@@ -0,0 +1,205 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.U;
+
+import java.util.HashMap;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Byte-budgeted cache of bitmaps rendered for notifications: large icons and content previews.
+ *
+ * Notifications get rebuilt on every new message and on any scope settings change,
+ * so rendered bitmaps are reused instead of being decoded and drawn again each time.
+ * Entries of a chat are dropped when its photo changes, entries of a file when it is removed from the disk.
+ *
+ * Cached bitmaps are shared and must not be recycled.
+ */
+final class TdlibNotificationBitmapCache {
+  private static volatile TdlibNotificationBitmapCache instance;
+
+  static TdlibNotificationBitmapCache instance () {
+    if (instance == null) {
+      synchronized (TdlibNotificationBitmapCache.class) {
+        if (instance == null) {
+          instance = new TdlibNotificationBitmapCache();
+        }
+      }
+    }
+    return instance;
+  }
+
+  static final class Key {
+    final int accountId;
+    final long chatId;
+    final int fileId;
+    final int size;
+    final String variant;
+
+    /**
+     * @param chatId Chat the bitmap was rendered for, or 0, if it depends only on the file
+     * @param fileId Identifier of the source file, or 0, if there's none
+     * @param variant Anything else the rendered bitmap depends on, e.g. colors or blur
+     */
+    Key (int accountId, long chatId, int fileId, int size, @NonNull String variant) {
+      this.accountId = accountId;
+      this.chatId = chatId;
+      this.fileId = fileId;
+      this.size = size;
+      this.variant = variant;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return other.accountId == accountId && other.chatId == chatId && other.fileId == fileId && other.size == size && other.variant.equals(variant);
+    }
+
+    @Override
+    public int hashCode () {
+      int result = accountId;
+      result = 31 * result + (int) (chatId ^ (chatId >>> 32));
+      result = 31 * result + fileId;
+      result = 31 * result + size;
+      result = 31 * result + variant.hashCode();
+      return result;
+    }
+  }
+
+  private final LruCache<Key, Bitmap> cache;
+  // Number of cached entries per account and file, to ignore updates of files that aren't cached without iterating entries
+  private final HashMap<Long, Integer> fileReferences = new HashMap<>();
+  private int hitCount, missCount;
+
+  private TdlibNotificationBitmapCache () {
+    int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 64, ByteUnit.MIB.toBytes(4));
+    this.cache = new LruCache<Key, Bitmap>(maxSize) {
+      @Override
+      protected int sizeOf (Key key, Bitmap bitmap) {
+        return bitmap.getByteCount();
+      }
+
+      @Override
+      protected void entryRemoved (boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+        // Bitmap may still be referenced by a notification being built, so it's left to GC instead of recycling
+        if (key.fileId != 0) {
+          synchronized (fileReferences) {
+            long fileKey = fileKey(key.accountId, key.fileId);
+            Integer count = fileReferences.get(fileKey);
+            if (count != null) {
+              if (count > 1) {
+                fileReferences.put(fileKey, count - 1);
+              } else {
+                fileReferences.remove(fileKey);
+              }
+            }
+          }
+        }
+      }
+    };
+  }
+
+  private static long fileKey (int accountId, int fileId) {
+    return ((long) accountId << 32) | (fileId & 0xffffffffL);
+  }
+
+  @Nullable
+  Bitmap get (Key key) {
+    Bitmap bitmap = cache.get(key);
+    if (bitmap != null && !U.isValidBitmap(bitmap)) {
+      cache.remove(key);
+      bitmap = null;
+    }
+    synchronized (this) {
+      if (bitmap != null) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+    }
+    return bitmap;
+  }
+
+  void put (Key key, @Nullable Bitmap bitmap) {
+    if (!U.isValidBitmap(bitmap)) {
+      return;
+    }
+    if (key.fileId != 0) {
+      synchronized (fileReferences) {
+        long fileKey = fileKey(key.accountId, key.fileId);
+        Integer count = fileReferences.get(fileKey);
+        fileReferences.put(fileKey, count != null ? count + 1 : 1);
+      }
+    }
+    cache.put(key, bitmap);
+  }
+
+  private void removeIf (int accountId, long chatId, int fileId) {
+    int removedCount = 0;
+    for (Key key : cache.snapshot().keySet()) {
+      if (key.accountId == accountId && ((chatId != 0 && key.chatId == chatId) || (fileId != 0 && key.fileId == fileId))) {
+        cache.remove(key);
+        removedCount++;
+      }
+    }
+    if (removedCount > 0 && Log.isEnabled(Log.TAG_FCM)) {
+      Log.i(Log.TAG_FCM, "Removed %d cached notification bitmaps, chatId: %d, fileId: %d", removedCount, chatId, fileId);
+    }
+  }
+
+  // Invalidation
+
+  static void onChatPhotoChanged (int accountId, long chatId) {
+    TdlibNotificationBitmapCache cache = instance;
+    if (cache != null) {
+      cache.removeIf(accountId, chatId, 0);
+    }
+  }
+
+  static void onFileUpdated (int accountId, TdApi.File file) {
+    TdlibNotificationBitmapCache cache = instance;
+    if (cache == null || file.local.isDownloadingCompleted) {
+      return;
+    }
+    // File is no longer available locally, e.g. after storage optimization
+    synchronized (cache.fileReferences) {
+      if (!cache.fileReferences.containsKey(fileKey(accountId, file.id))) {
+        return;
+      }
+    }
+    cache.removeIf(accountId, 0, file.id);
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    int entryCount = cache.snapshot().size();
+    synchronized (this) {
+      return "TdlibNotificationBitmapCache { entries = " + entryCount + ", bytes = " + cache.size() + "/" + cache.maxSize() + ", hits = " + hitCount + ", misses = " + missCount + " }";
+    }
+  }
+}
@@ -17,6 +17,7 @@ package org.thunderdog.challegram.telegram;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -32,6 +33,7 @@ import org.thunderdog.challegram.unsorted.Passcode;
 import org.thunderdog.challegram.unsorted.Settings;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +41,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import me.vkryl.core.util.FilteredIterator;
 import me.vkryl.td.ChatId;
@@ -146,6 +149,7 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
   public void restoreState (TdApi.UpdateActiveNotifications update) {
     this.notifications.clear();
     this.groups.clear();
+    this.displayStates.clear();
 
     boolean needRebuild = false;
     for (TdApi.NotificationGroup rawGroup : update.groups) {
@@ -175,6 +179,7 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
   public void updateGroup (TdApi.UpdateNotificationGroup update) {
     if (!accept(update.type))
       return;
+    receivedCount.incrementAndGet();
     boolean isSilent = update.notificationSoundId == 0;
     if (!isSilent && update.notificationSettingsChatId != 0 && ChatId.isUserChat(update.notificationSettingsChatId) && tdlib.settings().needMuteNonContacts()) {
       TdApi.User user = tdlib.chatUser(update.notificationSettingsChatId);
@@ -269,6 +274,7 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
 
   public void editNotification (TdApi.UpdateNotification update) {
     TdlibNotificationGroup group = findNotificationGroup(update.notificationGroupId);
+    receivedCount.incrementAndGet();
     if (group != null) {
       TdlibNotification editedNotification = group.updateNotification(update.notification);
       if (editedNotification != null) {
@@ -294,7 +300,111 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
       edited.markAsEdited(false);
     }
     group.markAsVisible();
-    displayNotificationGroup(group, needNotification, notificationSettingsChatId);
+
+    GroupDisplayState state = displayStates.get(group.getId());
+    if (state == null) {
+      state = new GroupDisplayState();
+      displayStates.put(group.getId(), state);
+    }
+    if (edited != null) {
+      state.needForceDisplay = true;
+    }
+    long now = SystemClock.uptimeMillis();
+    long delayMs = state.lastDisplayTime + GROUP_UPDATE_DEBOUNCE_MS - now;
+    if (needNotification || (!state.isPending && delayMs <= 0)) {
+      // Alerting updates and first updates after a quiet period are displayed immediately
+      state.isPending = false;
+      displayNotificationGroupIfChanged(group, state, needNotification, notificationSettingsChatId);
+    } else {
+      coalescedCount.incrementAndGet();
+      if (!state.isPending) {
+        state.isPending = true;
+        context.scheduleNotificationGroupFlush(group.getId(), delayMs);
+      }
+    }
+  }
+
+  // Debouncing
+
+  private static final long GROUP_UPDATE_DEBOUNCE_MS = 300;
+
+  /**
+   * Visible content of a posted notification group, used to skip reposting when nothing visible changed.
+   */
+  private static final class DisplayedContent {
+    private final int[] notificationIds;
+    private final int totalCount;
+    private final int badgeCount;
+    private final boolean allowPreview;
+
+    DisplayedContent (TdlibNotificationGroup group, int badgeCount, boolean allowPreview) {
+      List<TdlibNotification> notifications = group.notifications();
+      int[] notificationIds = new int[notifications.size()];
+      int count = 0;
+      for (TdlibNotification notification : notifications) {
+        if (!notification.isHidden()) {
+          notificationIds[count++] = notification.getId();
+        }
+      }
+      this.notificationIds = count == notificationIds.length ? notificationIds : Arrays.copyOf(notificationIds, count);
+      this.totalCount = group.getTotalCount();
+      this.badgeCount = badgeCount;
+      this.allowPreview = allowPreview;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (!(obj instanceof DisplayedContent))
+        return false;
+      DisplayedContent other = (DisplayedContent) obj;
+      return other.totalCount == totalCount && other.badgeCount == badgeCount && other.allowPreview == allowPreview && Arrays.equals(other.notificationIds, notificationIds);
+    }
+
+    @Override
+    public int hashCode () {
+      return Arrays.hashCode(notificationIds);
+    }
+  }
+
+  private static final class GroupDisplayState {
+    private long lastDisplayTime;
+    private @Nullable DisplayedContent displayedContent;
+    private boolean isPending, needForceDisplay;
+  }
+
+  private final Map<Integer, GroupDisplayState> displayStates = new HashMap<>();
+  private final AtomicInteger receivedCount = new AtomicInteger(), displayedCount = new AtomicInteger();
+  private final AtomicInteger coalescedCount = new AtomicInteger(), unchangedCount = new AtomicInteger(), rebuildCount = new AtomicInteger();
+
+  public void flushGroup (int groupId) {
+    GroupDisplayState state = displayStates.get(groupId);
+    if (state == null || !state.isPending)
+      return;
+    state.isPending = false;
+    TdlibNotificationGroup group = groups.get(groupId);
+    if (group != null && !group.isEmpty() && !group.isHidden() && !tdlib.isUnauthorized()) {
+      displayNotificationGroupIfChanged(group, state, false, 0);
+    }
+  }
+
+  private void displayNotificationGroupIfChanged (@NonNull TdlibNotificationGroup group, @NonNull GroupDisplayState state, boolean needNotification, long notificationSettingsChatId) {
+    int badgeCount = tdlib.getUnreadBadgeCount();
+    boolean allowPreview = allowNotificationPreview();
+    DisplayedContent content = new DisplayedContent(group, badgeCount, allowPreview);
+    if (!needNotification && !state.needForceDisplay && content.equals(state.displayedContent)) {
+      unchangedCount.incrementAndGet();
+      return;
+    }
+    displayNotificationGroup(group, needNotification, notificationSettingsChatId, badgeCount, allowPreview);
+    state.displayedContent = content;
+    state.lastDisplayTime = SystemClock.uptimeMillis();
+    state.needForceDisplay = false;
+    displayedCount.incrementAndGet();
+  }
+
+  @AnyThread
+  public String getStats () {
+    return "received: " + receivedCount.get() + ", posted: " + displayedCount.get() + ", coalesced: " + coalescedCount.get() + ", unchanged: " + unchangedCount.get() + ", rebuilds: " + rebuildCount.get();
   }
 
   public void onNotificationChannelGroupReset (long accountUserId) {
@@ -492,6 +602,7 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
       }
       groups.clear();
       notifications.clear();
+      displayStates.clear();
     }
     tdlib.settings().deleteHiddenNotificationIds();
     if (!hideAll && update) {
@@ -540,16 +651,16 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
 
   // Impl
 
-  private void displayNotificationGroup (@NonNull TdlibNotificationGroup group, boolean needNotification, long notificationSettingsChatId) {
+  private void displayNotificationGroup (@NonNull TdlibNotificationGroup group, boolean needNotification, long notificationSettingsChatId, int badgeCount, boolean allowPreview) {
     Context context = UI.getAppContext();
-    int badgeCount = tdlib.getUnreadBadgeCount();
-    boolean allowPreview = allowNotificationPreview();
     TdlibNotificationSettings settings = needNotification && !group.isHidden() ? new TdlibNotificationSettings(tdlib, notificationSettingsChatId, group) : null;
     style.displayNotificationGroup(context, this, badgeCount, allowPreview, group, settings);
     tdlib.context().setHavePendingNotifications(tdlib.id(), true);
   }
 
   private void hideNotificationGroup (@NonNull TdlibNotificationGroup group) {
+    // Pending flush, if any, finds no state and does nothing
+    displayStates.remove(group.getId());
     Context context = UI.getAppContext();
     int badgeCount = tdlib.getUnreadBadgeCount();
     boolean allowPreview = allowNotificationPreview();
@@ -559,7 +670,12 @@ public class TdlibNotificationHelper implements Iterable<TdlibNotificationGroup>
 
   private void rebuild (@Nullable TdApi.NotificationSettingsScope scope, long specificChatId, int specificGroupId) {
     final boolean haveNotifications = !isEmpty();
+    for (GroupDisplayState state : displayStates.values()) {
+      // Rebuild may change content that is not tracked, e.g. preview settings
+      state.displayedContent = null;
+    }
     if (haveNotifications) {
+      rebuildCount.incrementAndGet();
       Context context = UI.getAppContext();
       int badgeCount = tdlib.getUnreadBadgeCount();
       boolean allowPreview = allowNotificationPreview();
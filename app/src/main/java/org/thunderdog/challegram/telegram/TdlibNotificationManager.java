@@ -105,6 +105,7 @@ public class TdlibNotificationManager implements UI.StateListener, Passcode.Lock
   private static final int ON_REBUILD_NOTIFICATION_GROUP = 19;
   private static final int ON_RESTART = 20;
   private static final int REMOVE_NOTIFICATIONS = 21;
+  private static final int FLUSH_NOTIFICATION_GROUP = 22;
 
   @SuppressWarnings("DeprecatedIsStillUsed")
   @Deprecated
@@ -424,6 +425,12 @@ public class TdlibNotificationManager implements UI.StateListener, Passcode.Lock
           data[0] = data[1] = null;
           break;
         }
+        case FLUSH_NOTIFICATION_GROUP: {
+          TdlibNotificationManager manager = (TdlibNotificationManager) msg.obj;
+          manager.flushNotificationGroupImpl(msg.arg1);
+          manager.tdlib.decrementNotificationReferenceCount();
+          break;
+        }
       }
     }
   }
@@ -2310,4 +2317,24 @@ public class TdlibNotificationManager implements UI.StateListener, Passcode.Lock
   private void removeNotificationGroupImpl (TdlibNotificationExtras extras) {
     notification.removeNotificationGroup(extras);
   }
+
+  /**
+   * Displays coalesced changes of the notification group after the given delay.
+   * Keeps TDLib reference until then, as with any other queued update.
+   */
+  @NotificationThread
+  void scheduleNotificationGroupFlush (int groupId, long delayMs) {
+    tdlib.incrementNotificationReferenceCount();
+    queue.sendMessage(Message.obtain(queue.getHandler(), FLUSH_NOTIFICATION_GROUP, groupId, 0, this), delayMs);
+  }
+
+  @NotificationThread
+  private void flushNotificationGroupImpl (int groupId) {
+    notification.flushGroup(groupId);
+  }
+
+  @AnyThread
+  public String getNotificationStats () {
+    return notification.getStats();
+  }
 }
@@ -474,7 +474,11 @@ public class TdlibNotificationStyle implements TdlibNotificationStyleDelegate, F
         if (!isRebuild) {
           tdlib.files().downloadFileSync(photoFile, TdlibNotificationStyle.MEDIA_LOAD_TIMEOUT, null, null);
         }
-        if (TD.isFileLoaded(photoFile)) {
+        TdlibNotificationBitmapCache.Key cacheKey = new TdlibNotificationBitmapCache.Key(tdlib.id(), 0, photoFile.id, 512, "preview_" + photo.type + "_" + photo.needBlur);
+        Bitmap cachedBitmap = TD.isFileLoaded(photoFile) ? TdlibNotificationBitmapCache.instance().get(cacheKey) : null;
+        if (cachedBitmap != null) {
+          style = new NotificationCompat.BigPictureStyle().bigPicture(cachedBitmap);
+        } else if (TD.isFileLoaded(photoFile)) {
           Bitmap result = null;
           try {
             if (photo.type == TdlibNotificationMediaFile.TYPE_ANIMATED_STICKER) {
@@ -524,6 +528,7 @@ public class TdlibNotificationStyle implements TdlibNotificationStyleDelegate, F
             Log.i(t);
           }
           if (U.isValidBitmap(result)) {
+            TdlibNotificationBitmapCache.instance().put(cacheKey, result);
             style = new NotificationCompat.BigPictureStyle().bigPicture(result);
           }
         }
@@ -828,10 +833,8 @@ public class TdlibNotificationStyle implements TdlibNotificationStyleDelegate, F
       b.setKey(id);
       b.setBot(isBot);
       b.setName(Lang.getSilentNotificationTitle(name, true, isSelfChat, isGroupChat, isChannel, isScheduled, isSilent));
-      Bitmap bitmap = null; // TODO load from cache
-      if (!U.isValidBitmap(bitmap)) {
-        bitmap = isSelfChat ? TdlibNotificationUtils.buildSelfIcon(context.tdlib()) : TdlibNotificationUtils.buildLargeIcon(context.tdlib(), photo, colorId, letters, true, allowDownload);
-      }
+      // Icons are reused through TdlibNotificationBitmapCache
+      Bitmap bitmap = isSelfChat ? TdlibNotificationUtils.buildSelfIcon(context.tdlib()) : TdlibNotificationUtils.buildLargeIcon(context.tdlib(), photo, colorId, letters, true, allowDownload);
       if (U.isValidBitmap(bitmap)) {
         b.setIcon(IconCompat.createWithBitmap(bitmap));
       }
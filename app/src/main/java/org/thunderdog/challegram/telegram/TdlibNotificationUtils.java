@@ -67,7 +67,7 @@ public class TdlibNotificationUtils {
     if (tdlib.isSelfChat(chat)) {
       return buildSelfIcon(tdlib);
     } else {
-      return buildLargeIcon(tdlib, chat.photo != null ? chat.photo.small : null, tdlib.chatAvatarColorId(chat), tdlib.chatLetters(chat), true, allowDownload);
+      return buildLargeIcon(tdlib, chat.id, chat.photo != null ? chat.photo.small : null, tdlib.chatAvatarColorId(chat), tdlib.chatLetters(chat), true, allowDownload);
     }
   }
 
@@ -78,7 +78,12 @@ public class TdlibNotificationUtils {
   }
 
   public static Bitmap buildSelfIcon (Tdlib tdlib) {
-    Bitmap bitmap = null;
+    final int color = Theme.getColor(R.id.theme_color_avatarSavedMessages, tdlib.settings().globalTheme());
+    TdlibNotificationBitmapCache.Key cacheKey = new TdlibNotificationBitmapCache.Key(tdlib.id(), tdlib.selfChatId(), 0, iconSize(), "self_" + color);
+    Bitmap bitmap = TdlibNotificationBitmapCache.instance().get(cacheKey);
+    if (bitmap != null) {
+      return bitmap;
+    }
     synchronized (TdlibNotificationUtils.class) {
       if (fillingPaint == null) {
         fillingPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
@@ -104,8 +109,6 @@ public class TdlibNotificationUtils {
         Bitmap createdBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
         Canvas c = new Canvas(createdBitmap);
 
-        final int color = Theme.getColor(R.id.theme_color_avatarSavedMessages, tdlib.settings().globalTheme());
-
         bitmapPaint.setColor(color);
         if (Device.ROUND_NOTIFICAITON_IMAGE) {
           fillingPaint.setColor(color);
@@ -132,11 +135,32 @@ public class TdlibNotificationUtils {
       }
     }
 
+    TdlibNotificationBitmapCache.instance().put(cacheKey, bitmap);
     return bitmap;
   }
 
   public static Bitmap buildLargeIcon (Tdlib tdlib, TdApi.File rawFile, @ThemeColorId int colorId, Letters letters, boolean allowSyncDownload, boolean allowDownload) {
+    return buildLargeIcon(tdlib, 0, rawFile, colorId, letters, allowSyncDownload, allowDownload);
+  }
+
+  private static TdlibNotificationBitmapCache.Key newLargeIconKey (Tdlib tdlib, long chatId, @Nullable TdApi.File rawFile, int color, Letters letters) {
+    // Placeholder depends on letters, while the photo does not
+    String variant = rawFile != null ? "photo_" + color : "letters_" + color + "_" + letters.text + "_" + letters.needFakeBold;
+    return new TdlibNotificationBitmapCache.Key(tdlib.id(), chatId, rawFile != null ? rawFile.id : 0, iconSize(), variant);
+  }
+
+  private static Bitmap buildLargeIcon (Tdlib tdlib, long chatId, TdApi.File rawFile, @ThemeColorId int colorId, Letters letters, boolean allowSyncDownload, boolean allowDownload) {
+    final int color = Theme.getColor(colorId, tdlib.settings().globalTheme());
+    // Placeholder for a photo that is not yet loaded is not cached, so it gets replaced once download finishes
+    if (rawFile == null || TD.isFileLoadedAndExists(rawFile)) {
+      Bitmap cachedBitmap = TdlibNotificationBitmapCache.instance().get(newLargeIconKey(tdlib, chatId, rawFile, color, letters));
+      if (cachedBitmap != null) {
+        return cachedBitmap;
+      }
+    }
+
     Bitmap avatarBitmap = null;
+    ImageFile referencedFile = null;
     if (rawFile != null) {
       tdlib.files().syncFile(rawFile, null, 500);
       boolean fileLoaded = TD.isFileLoadedAndExists(rawFile);
@@ -147,10 +171,14 @@ public class TdlibNotificationUtils {
       if (fileLoaded) {
         ImageFile file = new ImageFile(tdlib, rawFile);
         file.setSize(iconSize());
-        avatarBitmap = ImageCache.instance().getBitmap(file);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && avatarBitmap != null) {
-          if (avatarBitmap.getConfig() == Bitmap.Config.HARDWARE) {
+        // Referenced, so cached bitmap doesn't get reused for decoding while icon is being drawn
+        avatarBitmap = ImageCache.instance().getBitmapReferenced(file);
+        if (avatarBitmap != null) {
+          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && avatarBitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            ImageCache.instance().removeReference(file, avatarBitmap);
             avatarBitmap = null;
+          } else {
+            referencedFile = file;
           }
         }
         if (avatarBitmap == null) {
@@ -193,8 +221,6 @@ public class TdlibNotificationUtils {
         Bitmap createdBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
         Canvas c = new Canvas(createdBitmap);
 
-        final int color = Theme.getColor(colorId, tdlib.settings().globalTheme());
-
         bitmapPaint.setColor(color);
         if (Device.ROUND_NOTIFICAITON_IMAGE) {
           fillingPaint.setColor(color);
@@ -218,7 +244,13 @@ public class TdlibNotificationUtils {
         Log.e(Log.TAG_FCM, "Cannot build large icon", t);
       }
     }
+    if (referencedFile != null) {
+      ImageCache.instance().removeReference(referencedFile, avatarBitmap);
+    }
 
+    if (rawFile == null || avatarBitmap != null) {
+      TdlibNotificationBitmapCache.instance().put(newLargeIconKey(tdlib, chatId, rawFile, color, letters), bitmap);
+    }
     return bitmap;
   }
 
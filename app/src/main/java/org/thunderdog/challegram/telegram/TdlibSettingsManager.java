@@ -31,6 +31,7 @@ import org.thunderdog.challegram.theme.TGBackground;
 import org.thunderdog.challegram.theme.Theme;
 import org.thunderdog.challegram.theme.ThemeId;
 import org.thunderdog.challegram.theme.ThemeManager;
+import org.thunderdog.challegram.unsorted.HotSettings;
 import org.thunderdog.challegram.unsorted.Settings;
 
 import java.util.Arrays;
@@ -81,8 +82,8 @@ public class TdlibSettingsManager implements CleanupStartupDelegate {
 
   private @ThemeId Integer _globalTheme, _globalThemeDaylight, _globalThemeNight;
 
-  @Nullable
-  private @ChatStyle Integer _chatStyle;
+  private final HotSettings hotSettings = new HotSettings();
+  private final HotSettings.Key<Integer> hotChatStyle = hotSettings.register(THEME_CHAT_STYLE_KEY, this::loadChatStyle);
   @Nullable
   private Boolean _forcePlainModeInChannels;
 
@@ -173,7 +174,7 @@ public class TdlibSettingsManager implements CleanupStartupDelegate {
 
     _globalTheme = _globalThemeDaylight = _globalThemeNight = null;
     _notificationErrorCount = null;
-    _chatStyle = null;
+    hotSettings.invalidate(hotChatStyle);
     _forcePlainModeInChannels = null;
     _userPreferences = null;
     _localChatIdsCount = null;
@@ -467,7 +468,7 @@ public class TdlibSettingsManager implements CleanupStartupDelegate {
 
   public void setChatStyle (@ChatStyle int chatStyle) {
     if (chatStyle() != chatStyle) {
-      this._chatStyle = chatStyle;
+      hotSettings.set(hotChatStyle, chatStyle);
       Settings.instance().putInt(key(THEME_CHAT_STYLE_KEY, tdlib.id()), chatStyle);
       if (chatStyle == ThemeManager.CHAT_STYLE_BUBBLES) {
         tdlib.wallpaper().ensureWallpaperAvailability();
@@ -482,36 +483,39 @@ public class TdlibSettingsManager implements CleanupStartupDelegate {
 
   @ChatStyle
   public int chatStyle () {
-    if (_chatStyle == null) {
-      final int accountId = tdlib.id();
-      SharedPreferences prefs = Settings.instance().pmc();
+    return hotSettings.get(hotChatStyle);
+  }
 
-      int chatStyle;
-      final String keyChatStyle = key(THEME_CHAT_STYLE_KEY, accountId);
-      chatStyle = prefs.getInt(keyChatStyle, ThemeManager.CHAT_STYLE_UNKNOWN);
-      if (chatStyle == ThemeManager.CHAT_STYLE_UNKNOWN && accountId > 0) {
-        chatStyle = prefs.getInt(THEME_CHAT_STYLE_KEY, ThemeManager.CHAT_STYLE_UNKNOWN);
-      }
-      if (chatStyle != ThemeManager.CHAT_STYLE_UNKNOWN) {
-        chatStyle = ThemeManager.restoreChatStyle(chatStyle);
-      } else {
-        int defaultStyle = ThemeManager.CHAT_STYLE_BUBBLES;
-        try {
-          String language = Locale.getDefault().getLanguage();
-          if (!StringUtils.isEmpty(language)) {
-            if (language.equals(new Locale("ja").getLanguage()) ||
-              language.equals(new Locale("ko").getLanguage()) ||
-              language.equals(new Locale("zh").getLanguage())) {
-              defaultStyle = ThemeManager.CHAT_STYLE_MODERN;
-            }
+  @NonNull
+  @ChatStyle
+  private Integer loadChatStyle () {
+    final int accountId = tdlib.id();
+    SharedPreferences prefs = Settings.instance().pmc();
+
+    int chatStyle;
+    final String keyChatStyle = key(THEME_CHAT_STYLE_KEY, accountId);
+    chatStyle = prefs.getInt(keyChatStyle, ThemeManager.CHAT_STYLE_UNKNOWN);
+    if (chatStyle == ThemeManager.CHAT_STYLE_UNKNOWN && accountId > 0) {
+      chatStyle = prefs.getInt(THEME_CHAT_STYLE_KEY, ThemeManager.CHAT_STYLE_UNKNOWN);
+    }
+    if (chatStyle != ThemeManager.CHAT_STYLE_UNKNOWN) {
+      chatStyle = ThemeManager.restoreChatStyle(chatStyle);
+    } else {
+      int defaultStyle = ThemeManager.CHAT_STYLE_BUBBLES;
+      try {
+        String language = Locale.getDefault().getLanguage();
+        if (!StringUtils.isEmpty(language)) {
+          if (language.equals(new Locale("ja").getLanguage()) ||
+            language.equals(new Locale("ko").getLanguage()) ||
+            language.equals(new Locale("zh").getLanguage())) {
+            defaultStyle = ThemeManager.CHAT_STYLE_MODERN;
           }
-        } catch (Throwable ignored) { }
-        prefs.edit().putInt(keyChatStyle, defaultStyle).apply();
-        chatStyle = defaultStyle;
-      }
-      _chatStyle = chatStyle;
+        }
+      } catch (Throwable ignored) { }
+      prefs.edit().putInt(keyChatStyle, defaultStyle).apply();
+      chatStyle = defaultStyle;
     }
-    return _chatStyle;
+    return chatStyle;
   }
 
   public @Nullable TGBackground getWallpaper (int usageIdentifier) {
@@ -27,6 +27,9 @@ public final class ThemeCustom implements ThemeDelegate {
   @Nullable
   private ThemeDelegate parentTheme;
 
+  @Nullable
+  private volatile ThemeTable table;
+
   public ThemeCustom (@ThemeId int id) {
     this.id = id;
     this.properties = new ThemeProperties();
@@ -59,6 +62,10 @@ public final class ThemeCustom implements ThemeDelegate {
   public void setColor (@ThemeColorId int colorId, @Nullable Integer color) {
     this.lastChangedColorId = colorId;
     colors.set(colorId, color);
+    ThemeTable table = this.table;
+    int index = table != null && parentTheme != null ? ThemeTable.indexOfColor(colorId) : -1;
+    // Colors do not depend on each other, so only the changed one is resolved again
+    this.table = index >= 0 ? table.withColor(index, getColorImpl(colorId)) : null;
   }
 
   public boolean hasRecentlyChanged (@ThemeColorId int colorId) {
@@ -86,6 +93,39 @@ public final class ThemeCustom implements ThemeDelegate {
       setParentThemeImpl(value != null ? value.intValue() : ThemeId.NONE);
     }
     properties.set(propertyId, value);
+    ThemeTable table = this.table;
+    int index = table != null && parentTheme != null && propertyId != ThemeProperty.PARENT_THEME ? ThemeTable.indexOfProperty(propertyId) : -1;
+    this.table = index >= 0 ? table.withProperty(index, getPropertyImpl(propertyId)) : null;
+  }
+
+  ThemeTable table () {
+    ThemeTable table = this.table;
+    if (table == null) {
+      // Resolved through getColorImpl and getPropertyImpl, as table is still missing
+      table = ThemeTable.resolve(new ThemeDelegate() {
+        @Override
+        public int getId () {
+          return id;
+        }
+
+        @Override
+        public int getColor (int colorId) {
+          return getColorImpl(colorId);
+        }
+
+        @Override
+        public String getDefaultWallpaper () {
+          return ThemeCustom.this.getDefaultWallpaper();
+        }
+
+        @Override
+        public float getProperty (int propertyId) {
+          return getPropertyImpl(propertyId);
+        }
+      });
+      this.table = table;
+    }
+    return table;
   }
 
   @Override
@@ -95,6 +135,11 @@ public final class ThemeCustom implements ThemeDelegate {
 
   @Override
   public int getColor (int colorId) {
+    int index = parentTheme != null ? ThemeTable.indexOfColor(colorId) : -1;
+    return index >= 0 ? table().colorAt(index) : getColorImpl(colorId);
+  }
+
+  private int getColorImpl (int colorId) {
     Integer color = colors.get(colorId);
     if (color != null)
       return color;
@@ -105,6 +150,11 @@ public final class ThemeCustom implements ThemeDelegate {
 
   @Override
   public float getProperty (int propertyId) {
+    int index = parentTheme != null ? ThemeTable.indexOfProperty(propertyId) : -1;
+    return index >= 0 ? table().propertyAt(index) : getPropertyImpl(propertyId);
+  }
+
+  private float getPropertyImpl (int propertyId) {
     Float property = properties.get(propertyId);
     if (property != null)
       return property;
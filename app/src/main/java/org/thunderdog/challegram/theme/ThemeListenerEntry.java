@@ -96,14 +96,54 @@ public class ThemeListenerEntry {
   }
 
   public void setTargetColorId (@ThemeColorId int colorId) {
-    this.targetColor = colorId;
+    if (this.targetColor != colorId) {
+      this.targetColor = colorId;
+      colorIdVersion++;
+    }
   }
 
   public ThemeListenerEntry setArg1 (int arg1) {
-    this.arg1 = arg1;
+    if (this.arg1 != arg1) {
+      this.arg1 = arg1;
+      colorIdVersion++;
+    }
     return this;
   }
 
+  // Color index support, see ThemeListenerList
+
+  private static int colorIdVersion, passCounter;
+  private int lastPass;
+
+  static int colorIdVersion () {
+    return colorIdVersion;
+  }
+
+  static int nextPass () {
+    return ++passCounter;
+  }
+
+  boolean markPass (int pass) {
+    if (lastPass == pass)
+      return false;
+    lastPass = pass;
+    return true;
+  }
+
+  boolean isColorIndependent () {
+    return mode == MODE_INVALIDATE;
+  }
+
+  @ThemeColorId
+  int getTargetColorId () {
+    return targetColor;
+  }
+
+  @ThemeColorId
+  int getSecondColorId () {
+    return mode == MODE_DOUBLE_TEXT_COLOR ? arg1 : 0;
+  }
+
   public ThemeListenerEntry setAlpha (float alpha) {
     this.alpha = alpha;
     return this;
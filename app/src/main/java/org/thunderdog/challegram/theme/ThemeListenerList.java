@@ -17,6 +17,9 @@ package org.thunderdog.challegram.theme;
 import android.graphics.Paint;
 import android.view.View;
 
+import androidx.annotation.Nullable;
+import androidx.collection.SparseArrayCompat;
+
 import org.thunderdog.challegram.R;
 
 import java.util.ArrayList;
@@ -26,6 +29,11 @@ import me.vkryl.android.util.InvalidateDelegate;
 public class ThemeListenerList {
   private final ArrayList<ThemeListenerEntry> themeListeners;
 
+  // Entries by color id they depend on, built lazily and dropped on any change of the list
+  private SparseArrayCompat<ArrayList<ThemeListenerEntry>> colorIndex;
+  private ArrayList<ThemeListenerEntry> colorIndependentEntries;
+  private int colorIndexVersion;
+
   public ThemeListenerList () {
     this.themeListeners = new ArrayList<>();
   }
@@ -37,6 +45,7 @@ public class ThemeListenerList {
   public void addAll (ThemeListenerList other) {
     if (other != null && !other.themeListeners.isEmpty()) {
       this.themeListeners.addAll(other.themeListeners);
+      this.colorIndex = null;
     }
   }
 
@@ -46,10 +55,12 @@ public class ThemeListenerList {
 
   public void add (ThemeListenerEntry item) {
     themeListeners.add(item);
+    colorIndex = null;
   }
 
   private void addThemeListener (ThemeListenerEntry listenerEntry) {
     themeListeners.add(listenerEntry);
+    colorIndex = null;
   }
 
   public final ThemeListenerEntry addThemeListener (Object target, @ThemeColorId int colorId, @ThemeListenerEntry.EntryMode int mode) {
@@ -140,17 +151,99 @@ public class ThemeListenerList {
         ThemeListenerEntry entry = themeListeners.get(i);
         if (entry.isEmpty() || entry.targetEquals(target)) {
           themeListeners.remove(i);
+          colorIndex = null;
         }
       }
     }
   }
 
   public final void onThemeColorsChanged (boolean areTemp) {
+    if (areTemp) {
+      int[] changedColorIds = ThemeManager.instance().getTransitionChangedColorIds();
+      if (changedColorIds != null) {
+        onThemeColorsChanged(true, changedColorIds);
+        return;
+      }
+    }
     final int size = themeListeners.size();
     for (int i = size - 1; i >= 0; i--) {
       ThemeListenerEntry entry = themeListeners.get(i);
-      if (!entry.apply(areTemp))
+      if (!entry.apply(areTemp)) {
         themeListeners.remove(i);
+        colorIndex = null;
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #onThemeColorsChanged(boolean)}, but when {@code state} is known,
+   * only entries that depend on the changed color are applied.
+   */
+  public final void onThemeColorsChanged (boolean areTemp, @Nullable ColorState state) {
+    if (state != null) {
+      onThemeColorsChanged(areTemp, new int[] {state.getColorId()});
+    } else {
+      onThemeColorsChanged(areTemp);
+    }
+  }
+
+  private void onThemeColorsChanged (boolean areTemp, int[] changedColorIds) {
+    if (themeListeners.isEmpty())
+      return;
+    buildColorIndex();
+    boolean hasGarbage = false;
+    for (ThemeListenerEntry entry : colorIndependentEntries) {
+      hasGarbage = !entry.apply(areTemp) || hasGarbage;
+    }
+    final int pass = ThemeListenerEntry.nextPass();
+    for (int colorId : changedColorIds) {
+      ArrayList<ThemeListenerEntry> entries = colorIndex.get(colorId);
+      if (entries == null)
+        continue;
+      for (ThemeListenerEntry entry : entries) {
+        // Entries depending on two colors must not be applied twice
+        if (entry.markPass(pass)) {
+          hasGarbage = !entry.apply(areTemp) || hasGarbage;
+        }
+      }
+    }
+    if (hasGarbage) {
+      for (int i = themeListeners.size() - 1; i >= 0; i--) {
+        if (themeListeners.get(i).isEmpty()) {
+          themeListeners.remove(i);
+        }
+      }
+      colorIndex = null;
+    }
+  }
+
+  private void buildColorIndex () {
+    if (colorIndex != null && colorIndexVersion == ThemeListenerEntry.colorIdVersion())
+      return;
+    SparseArrayCompat<ArrayList<ThemeListenerEntry>> index = new SparseArrayCompat<>();
+    ArrayList<ThemeListenerEntry> independentEntries = new ArrayList<>();
+    for (ThemeListenerEntry entry : themeListeners) {
+      if (entry.isColorIndependent()) {
+        independentEntries.add(entry);
+        continue;
+      }
+      addToIndex(index, entry.getTargetColorId(), entry);
+      int secondColorId = entry.getSecondColorId();
+      if (secondColorId != 0 && secondColorId != entry.getTargetColorId()) {
+        addToIndex(index, secondColorId, entry);
+      }
+    }
+    this.colorIndex = index;
+    this.colorIndependentEntries = independentEntries;
+    this.colorIndexVersion = ThemeListenerEntry.colorIdVersion();
+  }
+
+  private static void addToIndex (SparseArrayCompat<ArrayList<ThemeListenerEntry>> index, int colorId, ThemeListenerEntry entry) {
+    ArrayList<ThemeListenerEntry> entries = index.get(colorId);
+    if (entries == null) {
+      entries = new ArrayList<>();
+      index.put(colorId, entries);
     }
+    entries.add(entry);
   }
 }
@@ -16,6 +16,7 @@ package org.thunderdog.challegram.theme;
 
 import android.app.AlertDialog;
 import android.graphics.Paint;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -192,7 +193,7 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
 
   public static void addThemeListener (Paint paint, @ThemeColorId int colorIdRes) {
     // TODO get rid of this
-    instance().globalThemeListenerEntries.add(new ThemeListenerEntry(ThemeListenerEntry.MODE_PAINT_COLOR, colorIdRes, paint));
+    instance().globalThemeListeners.add(new ThemeListenerEntry(ThemeListenerEntry.MODE_PAINT_COLOR, colorIdRes, paint));
   }
 
   // Singleton stuff
@@ -235,7 +236,7 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
     return _currentTheme;
   }
 
-  private final List<ThemeListenerEntry> globalThemeListenerEntries = new ArrayList<>();
+  private final ThemeListenerList globalThemeListeners = new ThemeListenerList();
   private final ReferenceList<ThemeChangeListener> themeChangeListeners = new ReferenceList<>();
   private final ReferenceList<ChatStyleChangeListener> chatStyleChangeListeners = new ReferenceList<>();
 
@@ -353,6 +354,7 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
 
     ThemeTemporary tempTheme = new ThemeTemporary(currentTheme(true), newTheme);
     this._currentTheme = tempTheme;
+    this.transitionChangedColorIds = null;
 
     boolean animated = UI.wasResumedRecently(1000) || UI.getUiState() == UI.STATE_RESUMED;
     if (animated) {
@@ -361,6 +363,7 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
       else
         themeAnimator.forceFactor(0f);
 
+      this.transitionChangedColorIds = ThemeTable.diffColorIds(tempTheme.getFromTheme(), newTheme);
       notifyThemeChanged(tempTheme.getFromTheme(), newTheme);
 
       themeAnimator.animateTo(1f);
@@ -396,6 +399,8 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
   // Temp color
 
   private FactorAnimator themeAnimator;
+  @Nullable
+  private int[] transitionChangedColorIds;
 
   @Override
   public void onFactorChanged (int id, float factor, float fraction, FactorAnimator callee) {
@@ -407,6 +412,7 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
 
   @Override
   public void onFactorChangeFinished (int id, float finalFactor, FactorAnimator callee) {
+    this.transitionChangedColorIds = null;
     notifyThemeColorsChanged(false, null);
     ThemeDelegate currentTheme = currentThemeImpl(false);
     if (currentTheme instanceof ThemeTemporary) {
@@ -436,15 +442,18 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
     }
   }
 
+  /**
+   * Colors that differ between themes of the running theme change animation.
+   * During the animation {@link ThemeListenerList} applies only entries that depend on them.
+   */
+  @Nullable
+  public int[] getTransitionChangedColorIds () {
+    return transitionChangedColorIds;
+  }
+
   private void notifyThemeColorsChanged (boolean areTemp, @Nullable ColorState state) {
     // Direct garbage
-    final int globalSize = globalThemeListenerEntries.size();
-    for (int i = globalSize - 1; i >= 0; i--) {
-      ThemeListenerEntry entry = globalThemeListenerEntries.get(i);
-      if (!entry.apply(areTemp)) {
-        globalThemeListenerEntries.remove(i);
-      }
-    }
+    globalThemeListeners.onThemeColorsChanged(areTemp, state);
     // Listeners
     for (ThemeChangeListener listener : themeChangeListeners) {
       if (!areTemp || listener.needsTempUpdates()) {
@@ -654,8 +663,33 @@ public class ThemeManager implements FactorAnimator.Target, GlobalAccountListene
   }
 
   public void notifyColorChanged (@ThemeId int themeId, @NonNull ColorState colorState, boolean isTemporaryChange) {
-    if (currentThemeId() == themeId)
-      notifyThemeColorsChanged(isTemporaryChange, colorState);
+    if (currentThemeId() != themeId)
+      return;
+    if (pendingColorState != null && (!isTemporaryChange || pendingColorState.getColorId() != colorState.getColorId())) {
+      flushPendingColorChange();
+    }
+    if (isTemporaryChange) {
+      // Color picker may report changes more often than display refreshes
+      if (pendingColorState == null) {
+        Choreographer.getInstance().postFrameCallback(pendingColorChangeCallback);
+      }
+      pendingColorState = colorState;
+    } else {
+      notifyThemeColorsChanged(false, colorState);
+    }
+  }
+
+  @Nullable
+  private ColorState pendingColorState;
+  private final Choreographer.FrameCallback pendingColorChangeCallback = frameTimeNanos -> flushPendingColorChange();
+
+  private void flushPendingColorChange () {
+    ColorState state = pendingColorState;
+    if (state != null) {
+      pendingColorState = null;
+      Choreographer.getInstance().removeFrameCallback(pendingColorChangeCallback);
+      notifyThemeColorsChanged(true, state);
+    }
   }
 
   public void notifyPropertyChanged (@ThemeId int themeId, @ThemeProperty int propertyId, float value, float defaultValue) {
@@ -16,6 +16,8 @@ package org.thunderdog.challegram.theme;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.SparseArrayCompat;
 
 import org.thunderdog.challegram.theme.builtin.ThemeBlackWhite;
 import org.thunderdog.challegram.theme.builtin.ThemeClassic;
@@ -41,8 +43,12 @@ public class ThemeSet {
   public static @ColorInt int getColor (@ThemeId int themeId, @ThemeColorId int colorId) {
     if (themeId > ThemeId.CUSTOM)
       return getOrLoadTheme(themeId, true).getColor(colorId);
-    else
-      return Settings.instance().getCustomThemeColor(ThemeManager.resolveCustomThemeId(themeId), colorId);
+    int customThemeId = ThemeManager.resolveCustomThemeId(themeId);
+    ThemeTable table = getCustomThemeTable(customThemeId);
+    int index = table != null ? ThemeTable.indexOfColor(colorId) : -1;
+    if (index >= 0)
+      return table.colorAt(index);
+    return Settings.instance().getCustomThemeColor(customThemeId, colorId);
   }
 
   public static float getProperty (@ThemeId int themeId, @ThemeProperty int propertyId) {
@@ -52,8 +58,65 @@ public class ThemeSet {
   public static float getProperty (Settings prefs, @ThemeId int themeId, @ThemeProperty int propertyId) {
     if (themeId > ThemeId.CUSTOM)
       return getOrLoadTheme(prefs, themeId, true).getProperty(propertyId);
-    else
-      return prefs.getCustomThemeProperty(ThemeManager.resolveCustomThemeId(themeId), propertyId);
+    int customThemeId = ThemeManager.resolveCustomThemeId(themeId);
+    ThemeTable table = prefs == Settings.instance() ? getCustomThemeTable(customThemeId) : null;
+    int index = table != null ? ThemeTable.indexOfProperty(propertyId) : -1;
+    if (index >= 0)
+      return table.propertyAt(index);
+    return prefs.getCustomThemeProperty(customThemeId, propertyId);
+  }
+
+  // Custom themes that are not currently applied, e.g. chat list previews or notification colors
+
+  private static final SparseArrayCompat<ThemeTable> customThemeTables = new SparseArrayCompat<>();
+  // Incremented on every change, so that a table loaded before the change is not stored
+  private static int customThemesVersion;
+
+  @Nullable
+  private static ThemeTable getCustomThemeTable (int customThemeId) {
+    if (customThemeId <= ThemeId.NONE)
+      return null;
+    final int version;
+    synchronized (customThemeTables) {
+      ThemeTable table = customThemeTables.get(customThemeId);
+      if (table != null)
+        return table;
+      version = customThemesVersion;
+    }
+    ThemeCustom theme = Settings.instance().loadCustomTheme(customThemeId);
+    if (theme == null || theme.getParentTheme() == null)
+      return null;
+    ThemeTable table = theme.table();
+    synchronized (customThemeTables) {
+      if (version == customThemesVersion) {
+        customThemeTables.put(customThemeId, table);
+      }
+    }
+    return table;
+  }
+
+  public static void invalidateCustomTheme (int customThemeId) {
+    synchronized (customThemeTables) {
+      customThemesVersion++;
+      customThemeTables.remove(customThemeId);
+    }
+  }
+
+  /**
+   * Updates a single color of the stored table, so that it is not loaded and resolved again after each edit.
+   */
+  public static void onCustomThemeColorChanged (int customThemeId, @ThemeColorId int colorId, @Nullable Integer color) {
+    // Default color has to be resolved through the parent theme
+    int index = color != null ? ThemeTable.indexOfColor(colorId) : -1;
+    synchronized (customThemeTables) {
+      customThemesVersion++;
+      ThemeTable table = customThemeTables.get(customThemeId);
+      if (table != null && index >= 0) {
+        customThemeTables.put(customThemeId, table.withColor(index, color));
+      } else {
+        customThemeTables.remove(customThemeId);
+      }
+    }
   }
 
   public static String getDefaultWallpaper (@ThemeId int themeId) {
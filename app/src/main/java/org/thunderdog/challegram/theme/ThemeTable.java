@@ -0,0 +1,152 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.theme;
+
+import androidx.annotation.ColorInt;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Flat table of fully resolved colors and properties of a theme, with parent themes already applied.
+ */
+public final class ThemeTable {
+  private static volatile int[] colorIds, propertyIds;
+
+  private static int[] colorIds () {
+    int[] colorIds = ThemeTable.colorIds;
+    if (colorIds == null) {
+      synchronized (ThemeTable.class) {
+        colorIds = ThemeTable.colorIds;
+        if (colorIds == null) {
+          Set<Integer> ids = ThemeColors.getAll();
+          int[] result = new int[ids.size()];
+          int index = 0;
+          for (Integer id : ids) {
+            result[index++] = id;
+          }
+          Arrays.sort(result);
+          ThemeTable.colorIds = colorIds = result;
+        }
+      }
+    }
+    return colorIds;
+  }
+
+  private static int[] propertyIds () {
+    int[] propertyIds = ThemeTable.propertyIds;
+    if (propertyIds == null) {
+      synchronized (ThemeTable.class) {
+        propertyIds = ThemeTable.propertyIds;
+        if (propertyIds == null) {
+          Integer[] ids = ThemeProperties.getAll();
+          int[] result = new int[ids.length];
+          for (int i = 0; i < ids.length; i++) {
+            result[i] = ids[i];
+          }
+          Arrays.sort(result);
+          ThemeTable.propertyIds = propertyIds = result;
+        }
+      }
+    }
+    return propertyIds;
+  }
+
+  private final int[] colors;
+  private final float[] properties;
+
+  private ThemeTable (int[] colors, float[] properties) {
+    this.colors = colors;
+    this.properties = properties;
+  }
+
+  public static ThemeTable resolve (ThemeDelegate theme) {
+    final int[] colorIds = colorIds();
+    final int[] colors = new int[colorIds.length];
+    for (int i = 0; i < colorIds.length; i++) {
+      colors[i] = theme.getColor(colorIds[i]);
+    }
+    final int[] propertyIds = propertyIds();
+    final float[] properties = new float[propertyIds.length];
+    for (int i = 0; i < propertyIds.length; i++) {
+      properties[i] = theme.getProperty(propertyIds[i]);
+    }
+    return new ThemeTable(colors, properties);
+  }
+
+  /**
+   * @return Ids of colors that differ between two themes
+   */
+  public static int[] diffColorIds (ThemeDelegate fromTheme, ThemeDelegate toTheme) {
+    final int[] colorIds = colorIds();
+    int[] result = new int[colorIds.length];
+    int count = 0;
+    for (int colorId : colorIds) {
+      if (fromTheme.getColor(colorId) != toTheme.getColor(colorId)) {
+        result[count++] = colorId;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  public static int indexOfColor (@ThemeColorId int colorId) {
+    return Arrays.binarySearch(colorIds(), colorId);
+  }
+
+  public static int indexOfProperty (@ThemeProperty int propertyId) {
+    return Arrays.binarySearch(propertyIds(), propertyId);
+  }
+
+  @ColorInt
+  public int colorAt (int index) {
+    return colors[index];
+  }
+
+  public float propertyAt (int index) {
+    return properties[index];
+  }
+
+  /**
+   * @return Copy of this table with a single color replaced, tables are shared between threads and never modified
+   */
+  public ThemeTable withColor (int index, @ColorInt int color) {
+    if (colors[index] == color)
+      return this;
+    int[] colors = this.colors.clone();
+    colors[index] = color;
+    return new ThemeTable(colors, properties);
+  }
+
+  public ThemeTable withProperty (int index, float value) {
+    if (Float.compare(properties[index], value) == 0)
+      return this;
+    float[] properties = this.properties.clone();
+    properties[index] = value;
+    return new ThemeTable(colors, properties);
+  }
+
+  @ColorInt
+  public int getColor (@ThemeColorId int colorId) {
+    int index = indexOfColor(colorId);
+    if (index < 0)
+      throw Theme.newError(colorId, "colorId");
+    return colors[index];
+  }
+
+  public float getProperty (@ThemeProperty int propertyId) {
+    int index = indexOfProperty(propertyId);
+    if (index < 0)
+      throw Theme.newError(propertyId, "propertyId");
+    return properties[index];
+  }
+}
@@ -19,8 +19,10 @@ import android.text.Spanned;
 import org.thunderdog.challegram.emoji.Emoji;
 import org.thunderdog.challegram.emoji.EmojiSpan;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -121,6 +123,10 @@ public class EmojiData {
     return emojiAliasMap.get(emoji);
   }
 
+  public Map<CharSequence, CharSequence> getEmojiAliases () {
+    return Collections.unmodifiableMap(emojiAliasMap);
+  }
+
   public static boolean isEmojiString (CharSequence text) {
     if (StringUtils.isEmpty(text)) {
       return false;
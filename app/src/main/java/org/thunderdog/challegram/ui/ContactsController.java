@@ -65,6 +65,7 @@ import org.thunderdog.challegram.util.OptionDelegate;
 import org.thunderdog.challegram.util.Unlockable;
 import org.thunderdog.challegram.util.SenderPickerDelegate;
 import org.thunderdog.challegram.util.UserPickerMultiDelegate;
+import org.thunderdog.challegram.util.UserSearchIndex;
 import org.thunderdog.challegram.v.HeaderEditText;
 import org.thunderdog.challegram.widget.NoScrollTextView;
 import org.thunderdog.challegram.widget.SectionedRecyclerView;
@@ -129,6 +130,7 @@ public class ContactsController extends TelegramViewController<ContactsControlle
   private SenderPickerDelegate delegate;
   private UserPickerMultiDelegate multiDelegate;
   private TGUser[] users;
+  private final UserSearchIndex searchIndex = new UserSearchIndex();
   private ContactsAdapter adapter;
   private HeaderEditText searchView;
   private @Nullable BubbleHeaderView headerCell;
@@ -886,6 +888,19 @@ public class ContactsController extends TelegramViewController<ContactsControlle
         sortUsers(users);
       }
 
+      final long[] foundUserIds;
+      if (q != null) {
+        foundUserIds = searchIndex.search(q);
+      } else {
+        foundUserIds = null;
+        searchIndex.clear();
+        for (TGUser user : users) {
+          if (user != null) {
+            searchIndex.put(user, true);
+          }
+        }
+      }
+
       ArrayList<TGUser> result = new ArrayList<>();
 
       int sectionCount = 0;
@@ -900,18 +915,10 @@ public class ContactsController extends TelegramViewController<ContactsControlle
           Log.critical("ContactsController::sortUsers: TGUser is null");
           continue;
         }
-        String firstName = Strings.clean(user.getFirstName().trim()).toLowerCase();
-        String lastName = Strings.clean(user.getLastName().trim()).toLowerCase();
-        String username = user.getUsername();
-        if (username != null)
-          username = username.toLowerCase();
-        String check = (firstName + " " + lastName).trim();
-
-        if (q != null) {
-          if (!firstName.startsWith(q) && !lastName.startsWith(q) && !check.startsWith(q) && !(!StringUtils.isEmpty(username) && username.startsWith(q))) {
-            continue;
-          }
+        if (foundUserIds != null && !UserSearchIndex.contains(foundUserIds, user.getUserId())) {
+          continue;
         }
+        String check = (UserSearchIndex.normalize(user.getFirstName()) + " " + UserSearchIndex.normalize(user.getLastName())).trim();
 
         String c;
         if (check.isEmpty()) {
@@ -1055,6 +1062,7 @@ public class ContactsController extends TelegramViewController<ContactsControlle
       if (i != -1) {
         TGUser parsedUser = adapter.getUserAt(i);
         parsedUser.setUser(user, 0);
+        searchIndex.put(parsedUser, true);
         updateUserCellAt(i, false);
       } else if (users != null && TD.isContact(user)) {
         // TODO addContact
@@ -175,12 +175,14 @@ public class MapGoogleController extends MapController<MapView, MapGoogleControl
         imageFile = new ImageFile(tdlib, avatar);
         imageFile.setSwOnly(true);
         imageFile.setSize(ChatView.getDefaultAvatarCacheSize());
-        synchronized (ImageCache.getReferenceCounters()) {
-          Bitmap avatarBitmap = ImageCache.instance().getBitmap(imageFile);
-          if (U.isValidBitmap(avatarBitmap)) {
+        Bitmap avatarBitmap = ImageCache.instance().getBitmapReferenced(imageFile);
+        if (avatarBitmap != null) {
+          try {
             drawAvatar(c, avatarBitmap);
-            return;
+          } finally {
+            ImageCache.instance().removeReference(imageFile, avatarBitmap);
           }
+          return;
         }
       } else {
         imageFile = null;
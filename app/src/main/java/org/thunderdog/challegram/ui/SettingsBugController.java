@@ -53,6 +53,7 @@ import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.ui.camera.CameraController;
+import org.thunderdog.challegram.unsorted.PmcStats;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.unsorted.Test;
 import org.thunderdog.challegram.util.Crash;
@@ -478,6 +479,10 @@ public class SettingsBugController extends RecyclerViewController<SettingsBugCon
             view.setData(Settings.instance().getPushMessageStats());
             break;
           }
+          case R.id.btn_secret_notificationStats: {
+            view.setData(tdlib.notifications().getNotificationStats());
+            break;
+          }
           case R.id.btn_secret_pushDate: {
             long time = Settings.instance().getLastReceivedPushMessageReceivedTime();
             if (time != 0) {
@@ -701,6 +706,8 @@ public class SettingsBugController extends RecyclerViewController<SettingsBugCon
         items.add(new ListItem(ListItem.TYPE_SEPARATOR_FULL));
         items.add(new ListItem(ListItem.TYPE_VALUED_SETTING_COMPACT, R.id.btn_secret_pushStats, 0, "Packages received", false));
         items.add(new ListItem(ListItem.TYPE_SEPARATOR_FULL));
+        items.add(new ListItem(ListItem.TYPE_VALUED_SETTING_COMPACT, R.id.btn_secret_notificationStats, 0, "Notification updates", false));
+        items.add(new ListItem(ListItem.TYPE_SEPARATOR_FULL));
         items.add(new ListItem(ListItem.TYPE_VALUED_SETTING_COMPACT, R.id.btn_secret_pushDate, 0, "Last received on", false));
         items.add(new ListItem(ListItem.TYPE_SEPARATOR_FULL));
         items.add(new ListItem(ListItem.TYPE_VALUED_SETTING_COMPACT, R.id.btn_secret_pushDuration, 0, "Time from being sent", false));
@@ -976,6 +983,7 @@ public class SettingsBugController extends RecyclerViewController<SettingsBugCon
   public void onNewPushReceived () {
     runOnUiThreadOptional(() -> {
       adapter.updateValuedSettingById(R.id.btn_secret_pushStats);
+      adapter.updateValuedSettingById(R.id.btn_secret_notificationStats);
       adapter.updateValuedSettingById(R.id.btn_secret_pushDate);
       adapter.updateValuedSettingById(R.id.btn_secret_pushDuration);
       adapter.updateValuedSettingById(R.id.btn_secret_pushTtl);
@@ -1140,6 +1148,10 @@ public class SettingsBugController extends RecyclerViewController<SettingsBugCon
         UI.copyText(Settings.instance().getPushMessageStats(), R.string.CopiedText);
         break;
       }
+      case R.id.btn_secret_notificationStats: {
+        UI.copyText(tdlib.notifications().getNotificationStats(), R.string.CopiedText);
+        break;
+      }
       case R.id.btn_debugSwitchRtl: {
         context.addRemoveRtlSwitch();
         break;
@@ -1354,9 +1366,13 @@ public class SettingsBugController extends RecyclerViewController<SettingsBugCon
         break;
       }
       case R.id.btn_secret_databaseStats: {
-        String stats = Settings.instance().pmc().getProperty("leveldb.stats") + "\n\n" + "Memory usage: " + Settings.instance().pmc().getProperty("leveldb.approximate-memory-usage");
+        StringBuilder stats = new StringBuilder(Settings.instance().pmc().getProperty("leveldb.stats")).append("\n\n").append("Memory usage: ").append(Settings.instance().pmc().getProperty("leveldb.approximate-memory-usage"));
+        stats.append("\n\n").append("Access by key prefix:");
+        for (PmcStats.Entry entry : Settings.instance().getStorageStats()) {
+          stats.append("\n").append(entry);
+        }
         TextController c = new TextController(context, tdlib);
-        c.setArguments(TextController.Arguments.fromRawText("App Database Stats", stats, "text/plain"));
+        c.setArguments(TextController.Arguments.fromRawText("App Database Stats", stats.toString(), "text/plain"));
         navigateTo(c);
         break;
       }
@@ -135,6 +135,7 @@ public class CrashManager {
           trace.write(result.getBytes(StringUtils.UTF_8));
           trace.close();
           Settings.instance().putLong(KEY_CRASH_ID, crashId);
+          Settings.instance().flushPendingWrites();
         } catch (IOException io) {
           Log.w(Log.TAG_CRASH, "Cannot save crash file", io);
         }
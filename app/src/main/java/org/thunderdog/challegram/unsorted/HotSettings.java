@@ -0,0 +1,117 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.unsorted;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Versioned in-memory snapshot of frequently read settings.
+ *
+ * Settings opt in through {@link #register(String, Loader)}. Each value is loaded from storage once,
+ * then read without locks from an immutable snapshot, which is replaced as a whole on every change.
+ */
+public final class HotSettings {
+  public interface Loader<T> {
+    @NonNull T load ();
+  }
+
+  public static final class Key<T> {
+    public final String name;
+    private final int index;
+    private final Loader<T> loader;
+
+    private Key (String name, int index, Loader<T> loader) {
+      this.name = name;
+      this.index = index;
+      this.loader = loader;
+    }
+  }
+
+  private static final class Snapshot {
+    final long version;
+    final Object[] values;
+
+    Snapshot (long version, Object[] values) {
+      this.version = version;
+      this.values = values;
+    }
+  }
+
+  private volatile Snapshot snapshot = new Snapshot(0, new Object[0]);
+  private int keyCount;
+  private long loadCount, writeCount;
+
+  public synchronized <T> Key<T> register (String name, Loader<T> loader) {
+    return new Key<>(name, keyCount++, loader);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T get (Key<T> key) {
+    Object[] values = snapshot.values;
+    if (key.index < values.length) {
+      Object value = values[key.index];
+      if (value != null) {
+        return (T) value;
+      }
+    }
+    return load(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized <T> T load (Key<T> key) {
+    Object[] values = snapshot.values;
+    if (key.index < values.length && values[key.index] != null) {
+      return (T) values[key.index];
+    }
+    T value = key.loader.load();
+    publish(key, value);
+    loadCount++;
+    return value;
+  }
+
+  public synchronized <T> void set (Key<T> key, @NonNull T value) {
+    publish(key, value);
+    writeCount++;
+  }
+
+  /**
+   * Forces value to be loaded from storage again on the next access.
+   */
+  public synchronized void invalidate (Key<?> key) {
+    publish(key, null);
+  }
+
+  // Called with lock held
+  private void publish (Key<?> key, @Nullable Object value) {
+    Snapshot current = snapshot;
+    Object[] values = Arrays.copyOf(current.values, Math.max(current.values.length, keyCount));
+    values[key.index] = value;
+    snapshot = new Snapshot(current.version + 1, values);
+  }
+
+  /**
+   * @return Number that changes each time any of the values changes
+   */
+  public long version () {
+    return snapshot.version;
+  }
+
+  @NonNull
+  @Override
+  public synchronized String toString () {
+    return "HotSettings { keys = " + keyCount + ", version = " + snapshot.version + ", loads = " + loadCount + ", writes = " + writeCount + " }";
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.unsorted;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts {@link Settings} reads and writes per key prefix.
+ *
+ * Uses fixed open-addressed table, so counting never locks or allocates once prefix got its slot.
+ */
+public final class PmcStats {
+  private static final int SLOT_COUNT = 128;
+  private static final int MAX_PROBES = 8;
+  private static final String OTHER = "(other)";
+
+  /**
+   * Used for {@link Settings#pmc()} calls, as the key is not known there.
+   */
+  static final String DIRECT_ACCESS = "(pmc)";
+
+  private final AtomicReferenceArray<String> prefixes = new AtomicReferenceArray<>(SLOT_COUNT + 1);
+  private final AtomicIntegerArray counters = new AtomicIntegerArray((SLOT_COUNT + 1) * 2);
+
+  private static int prefixLength (String key) {
+    // Keys are usually built as "some_prefix_" + accountId + "_" + id, group them by the part before the first digit
+    int end = Math.min(key.length(), 32);
+    for (int i = 0; i < end; i++) {
+      if (Character.isDigit(key.charAt(i))) {
+        end = i;
+        break;
+      }
+    }
+    while (end > 1 && key.charAt(end - 1) == '_') {
+      end--;
+    }
+    return end;
+  }
+
+  void countRead (String key) {
+    count(key, false);
+  }
+
+  void countWrite (String key) {
+    count(key, true);
+  }
+
+  private void count (String key, boolean isWrite) {
+    final int length = prefixLength(key);
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + key.charAt(i);
+    }
+    int slot = SLOT_COUNT; // Shared slot for prefixes that didn't fit
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int index = (hash + probe) & (SLOT_COUNT - 1);
+      String prefix = prefixes.get(index);
+      if (prefix == null) {
+        // Substring is allocated only once per prefix
+        if (prefixes.compareAndSet(index, null, key.substring(0, length))) {
+          slot = index;
+          break;
+        }
+        prefix = prefixes.get(index);
+      }
+      if (prefix.length() == length && key.regionMatches(0, prefix, 0, length)) {
+        slot = index;
+        break;
+      }
+    }
+    counters.incrementAndGet(slot * 2 + (isWrite ? 1 : 0));
+  }
+
+  public static final class Entry implements Comparable<Entry> {
+    public final String prefix;
+    public final int readCount, writeCount;
+
+    Entry (String prefix, int readCount, int writeCount) {
+      this.prefix = prefix;
+      this.readCount = readCount;
+      this.writeCount = writeCount;
+    }
+
+    @Override
+    public int compareTo (Entry other) {
+      return Integer.compare(other.readCount + other.writeCount, readCount + writeCount);
+    }
+
+    @NonNull
+    @Override
+    public String toString () {
+      return prefix + ": " + readCount + " reads, " + writeCount + " writes";
+    }
+  }
+
+  /**
+   * @return Read and write counts per key prefix, the busiest prefixes first
+   */
+  List<Entry> get () {
+    List<Entry> entries = new ArrayList<>();
+    for (int slot = 0; slot <= SLOT_COUNT; slot++) {
+      int readCount = counters.get(slot * 2);
+      int writeCount = counters.get(slot * 2 + 1);
+      if (readCount + writeCount > 0) {
+        String prefix = slot < SLOT_COUNT ? prefixes.get(slot) : OTHER;
+        entries.add(new Entry(prefix, readCount, writeCount));
+      }
+    }
+    Collections.sort(entries);
+    return entries;
+  }
+}
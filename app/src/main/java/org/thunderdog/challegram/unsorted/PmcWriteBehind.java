@@ -0,0 +1,195 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.unsorted;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.core.BaseThread;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.vkryl.leveldb.LevelDB;
+
+/**
+ * Write-behind layer for frequently rewritten {@link Settings} keys.
+ *
+ * Pending values are kept in memory, so repeated writes to the same key are coalesced,
+ * and are applied as a single {@link LevelDB} batch on a dedicated thread no later than {@link #FLUSH_DELAY_MS} after the first write.
+ *
+ * Keys written through this layer must be read and written only through it:
+ * direct database access does not see pending values, and a later flush would overwrite direct writes.
+ * The only exception are prefix removals, which should call {@link #discardByPrefix(String...)} first.
+ */
+final class PmcWriteBehind {
+  private static final long FLUSH_DELAY_MS = 500;
+
+  private static final Object REMOVED = new Object();
+
+  private final LevelDB db;
+  @Nullable
+  private final BaseThread thread;
+  private final Runnable flushRunnable = this::flush;
+  private final Object flushLock = new Object();
+
+  private final ConcurrentHashMap<String, Object> pending = new ConcurrentHashMap<>();
+  private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+
+  private final AtomicLong flushCount = new AtomicLong(), coalescedCount = new AtomicLong();
+
+  private final PmcStats stats;
+
+  /**
+   * @param deferWrites When false, writes are applied immediately and only instrumentation is active
+   */
+  PmcWriteBehind (LevelDB db, PmcStats stats, boolean deferWrites) {
+    this.db = db;
+    this.stats = stats;
+    this.thread = deferWrites ? new BaseThread("PmcWriteThread") : null;
+  }
+
+  // Writes
+
+  void putStringArray (String key, String[] value) {
+    put(key, value);
+  }
+
+  void putByteArray (String key, byte[] value) {
+    put(key, value);
+  }
+
+  void remove (String key) {
+    put(key, REMOVED);
+  }
+
+  private void put (String key, Object value) {
+    stats.countWrite(key);
+    if (thread == null) {
+      apply(key, value);
+      return;
+    }
+    if (pending.put(key, value) != null) {
+      coalescedCount.incrementAndGet();
+    }
+    if (isFlushScheduled.compareAndSet(false, true)) {
+      thread.post(flushRunnable, FLUSH_DELAY_MS);
+    }
+  }
+
+  /**
+   * Drops pending writes to keys with the given prefix, caller is expected to remove them from the database.
+   */
+  void discardByPrefix (String... prefixes) {
+    if (pending.isEmpty()) {
+      return;
+    }
+    Iterator<String> it = pending.keySet().iterator();
+    while (it.hasNext()) {
+      String key = it.next();
+      for (String prefix : prefixes) {
+        if (key.startsWith(prefix)) {
+          it.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  // Reads
+
+  String[] getStringArray (String key) {
+    Object value = peek(key);
+    if (value == null) {
+      return db.getStringArray(key);
+    }
+    return value != REMOVED ? (String[]) value : null;
+  }
+
+  byte[] getByteArray (String key) {
+    Object value = peek(key);
+    if (value == null) {
+      return db.getByteArray(key);
+    }
+    return value != REMOVED ? (byte[]) value : null;
+  }
+
+  @Nullable
+  private Object peek (String key) {
+    stats.countRead(key);
+    return pending.isEmpty() ? null : pending.get(key);
+  }
+
+  // Flush
+
+  /**
+   * Applies pending writes on the dedicated thread without waiting for the flush interval.
+   */
+  void flushSoon () {
+    if (thread != null && !pending.isEmpty()) {
+      thread.post(flushRunnable, 0);
+    }
+  }
+
+  /**
+   * Applies all pending writes on the calling thread.
+   */
+  void flush () {
+    synchronized (flushLock) {
+      // Writes made after this point schedule another flush. Already posted flushRunnable may still run, which is harmless
+      isFlushScheduled.set(false);
+      if (pending.isEmpty()) {
+        return;
+      }
+      final List<Map.Entry<String, Object>> batch = new ArrayList<>(pending.size());
+      for (Map.Entry<String, Object> entry : pending.entrySet()) {
+        batch.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+      }
+      // Written values stay visible to readers until the batch is applied
+      db.edit();
+      for (Map.Entry<String, Object> entry : batch) {
+        apply(entry.getKey(), entry.getValue());
+      }
+      db.apply();
+      for (Map.Entry<String, Object> entry : batch) {
+        // Keep values that were overwritten while the batch was being applied
+        pending.remove(entry.getKey(), entry.getValue());
+      }
+      flushCount.incrementAndGet();
+    }
+  }
+
+  private void apply (String key, Object value) {
+    if (value == REMOVED) {
+      db.remove(key);
+    } else if (value instanceof String[]) {
+      db.putStringArray(key, (String[]) value);
+    } else if (value instanceof byte[]) {
+      db.putByteArray(key, (byte[]) value);
+    } else {
+      throw new IllegalArgumentException("Unsupported value: " + value.getClass());
+    }
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "PmcWriteBehind { pending = " + pending.size() + ", flushes = " + flushCount.get() + ", coalesced = " + coalescedCount.get() + " }";
+  }
+}
@@ -385,10 +385,10 @@ public class Settings {
   private static final @Deprecated int DISABLED_FLAG_OTHER_DISABLE_CALLS_PROXY = 1 << 20;
   private static final @Deprecated int DISABLED_FLAG_OTHER_DISABLE_CUSTOM_TEXT_ACTIONS = 1 << 19;
 
-  @Nullable
-  private Integer _settings;
-  @Nullable
-  private Long _newSettings;
+  private final HotSettings hotSettings = new HotSettings();
+  private final HotSettings.Key<Integer> hotOtherSettings = hotSettings.register(KEY_OTHER, () -> getInt(KEY_OTHER, makeDefaultSettings()));
+  private final HotSettings.Key<Long> hotNewSettings = hotSettings.register(KEY_OTHER_NEW, () -> getLong(KEY_OTHER_NEW, makeDefaultNewSettings()));
+  private final HotSettings.Key<EmojiPack> hotEmojiPack = hotSettings.register(KEY_EMOJI_PACK, this::loadEmojiPack);
 
   public static final int NIGHT_MODE_NONE = 0;
   public static final int NIGHT_MODE_AUTO = 1;
@@ -470,10 +470,13 @@ public class Settings {
   public class TdlibLogSettings {
     private final String settingsKey, maxSizeKey, verbosityKey;
 
+    private final HotSettings.Key<Integer> hotLogSettings;
+
     public TdlibLogSettings (String settingsKey, String maxSizeKey, String verbosityKey) {
       this.settingsKey = settingsKey;
       this.maxSizeKey = maxSizeKey;
       this.verbosityKey = verbosityKey;
+      this.hotLogSettings = hotSettings.register(settingsKey, () -> getInt(settingsKey, BuildConfig.DEBUG || BuildConfig.EXPERIMENTAL ? FLAG_TDLIB_OTHER_ENABLE_ANDROID_LOG : 0));
     }
 
     public void disable () {
@@ -484,15 +487,10 @@ public class Settings {
       return getVerbosity(null) > 0;
     }
 
-    @Nullable
-    private Integer _settings;
     private Map<String, int[]> _modules;
 
     private int getSettings () {
-      if (_settings == null) {
-        _settings = pmc.getInt(settingsKey, BuildConfig.DEBUG || BuildConfig.EXPERIMENTAL ? FLAG_TDLIB_OTHER_ENABLE_ANDROID_LOG : 0);
-      }
-      return _settings;
+      return hotSettings.get(hotLogSettings);
     }
 
     private boolean checkLogSetting (int flag) {
@@ -503,8 +501,8 @@ public class Settings {
       int flags = getSettings();
       int newFlags = BitwiseUtils.setFlag(flags, flag, enabled);
       if (flags != newFlags) {
-        _settings = newFlags;
-        pmc.putInt(settingsKey, newFlags);
+        hotSettings.set(hotLogSettings, newFlags);
+        putInt(settingsKey, newFlags);
         apply();
         return true;
       }
@@ -737,6 +735,7 @@ public class Settings {
         android.util.Log.e(Log.LOG_TAG, message, error);
       }
     });
+    pendingWrites = new PmcWriteBehind(pmc, stats, Config.DEFER_PMC_WRITES);
     Log.load(pmc);
     int pmcVersion = 0;
     try {
@@ -797,7 +796,7 @@ public class Settings {
 
   public void reset () {
     setTutorialFlags(0);
-    pmc.removeByPrefix(KEY_TUTORIAL_PSA);
+    removeByPrefix(KEY_TUTORIAL_PSA, null);
     resetOther();
   }
 
@@ -805,57 +804,97 @@ public class Settings {
     return pmc.edit();
   }
   public void remove (String key) {
+    stats.countWrite(key);
     pmc.remove(key);
   }
   public void putLong (String key, long value) {
+    stats.countWrite(key);
     pmc.putLong(key, value);
   }
   public long getLong (String key, long defValue) {
+    stats.countRead(key);
     return pmc.getLong(key, defValue);
   }
   public long[] getLongArray (String key) {
+    stats.countRead(key);
     return pmc.getLongArray(key);
   }
   public void putLongArray (String key, long[] value) {
+    stats.countWrite(key);
     pmc.putLongArray(key, value);
   }
   public void putInt (String key, int value) {
+    stats.countWrite(key);
     pmc.putInt(key, value);
   }
   public int getInt (String key, int defValue) {
+    stats.countRead(key);
     return pmc.getInt(key, defValue);
   }
   public void putFloat (String key, float value) {
+    stats.countWrite(key);
     pmc.putFloat(key, value).apply();
   }
   public void putBoolean (String key, boolean value) {
+    stats.countWrite(key);
     pmc.putBoolean(key, value);
   }
   public boolean getBoolean (String key, boolean defValue) {
+    stats.countRead(key);
     return pmc.getBoolean(key, defValue);
   }
   public void putVoid (String key) {
+    stats.countWrite(key);
     pmc.putVoid(key);
   }
   public boolean containsKey (String key) {
+    stats.countRead(key);
     return pmc.contains(key);
   }
   public void putString (String key, @NonNull String value) {
+    stats.countWrite(key);
     pmc.putString(key, value);
   }
   public String getString (String key, String defValue) {
+    stats.countRead(key);
     return pmc.getString(key, defValue);
   }
   public void removeByPrefix (String prefix, @Nullable SharedPreferences.Editor editor) {
+    pendingWrites.discardByPrefix(prefix);
     pmc.removeByPrefix(prefix); // editor
   }
   public void removeByAnyPrefix (String[] prefixes, @Nullable SharedPreferences.Editor editor) {
+    pendingWrites.discardByPrefix(prefixes);
     pmc.removeByAnyPrefix(prefixes); // , editor
   }
 
+  /**
+   * Writes all pending changes to the disk. Should be called at durability points,
+   * e.g. when account is being logged out or process is about to be killed.
+   */
+  public void flushPendingWrites () {
+    pendingWrites.flush();
+    pmc.flush();
+  }
+
+  /**
+   * Same as {@link #flushPendingWrites()}, but doesn't block the caller.
+   */
+  public void flushPendingWritesSoon () {
+    pendingWrites.flushSoon();
+  }
+
+  /**
+   * @return Read and write counts per key prefix, the busiest prefixes first.
+   * Each {@link #pmc()} call is counted as a single read of {@link PmcStats#DIRECT_ACCESS}
+   */
+  public List<PmcStats.Entry> getStorageStats () {
+    return stats.get();
+  }
+
   private void resetOther () {
     remove(KEY_OTHER);
-    this._settings = makeDefaultSettings();
+    hotSettings.set(hotOtherSettings, makeDefaultSettings());
   }
 
   @Deprecated
@@ -1021,9 +1060,7 @@ public class Settings {
   }
 
   private long getNewSettings () {
-    if (_newSettings == null)
-      _newSettings = pmc.getLong(KEY_OTHER_NEW, makeDefaultNewSettings());
-    return _newSettings;
+    return hotSettings.get(hotNewSettings);
   }
 
   public boolean getNewSetting (long key) {
@@ -1033,8 +1070,8 @@ public class Settings {
   private boolean setNewSettings (long newSettings) {
     long oldSettings = getNewSettings();
     if (oldSettings != newSettings) {
-      this._newSettings = newSettings;
-      pmc.putLong(KEY_OTHER_NEW, newSettings);
+      hotSettings.set(hotNewSettings, newSettings);
+      putLong(KEY_OTHER_NEW, newSettings);
       if (newSettingsListeners != null) {
         for (SettingsChangeListener listener : newSettingsListeners) {
           listener.onSettingsChanged(newSettings, oldSettings);
@@ -1074,15 +1111,13 @@ public class Settings {
   }
 
   private int getSettings () {
-    if (_settings == null)
-      _settings = pmc.getInt(KEY_OTHER, makeDefaultSettings());
-    return _settings;
+    return hotSettings.get(hotOtherSettings);
   }
 
   private boolean setSettings (int newSettings) {
     if (getSettings() != newSettings) {
-      this._settings = newSettings;
-      pmc.putInt(KEY_OTHER, newSettings);
+      hotSettings.set(hotOtherSettings, newSettings);
+      putInt(KEY_OTHER, newSettings);
       return true;
     }
     return false;
@@ -1342,8 +1377,12 @@ public class Settings {
   }*/
 
   private final LevelDB pmc;
+  // Owns emoji recents and binary maps, which are never accessed through pmc directly
+  private final PmcWriteBehind pendingWrites;
+  private final PmcStats stats = new PmcStats();
 
   public LevelDB pmc () {
+    stats.countRead(PmcStats.DIRECT_ACCESS);
     return pmc;
   }
 
@@ -3267,9 +3306,9 @@ public class Settings {
     deleteWallpaper(tdlib, editor, 0);
     deleteWallpaper(tdlib, editor, 1);
     String key = (accountId != 0 ? KEY_WALLPAPER_PREFIX + "_" + accountId : KEY_WALLPAPER_PREFIX) + "_other";
-    pmc.removeByPrefix(key);
+    removeByPrefix(key, null);
     key = (accountId != 0 ? KEY_WALLPAPER_PREFIX + "_" + accountId : KEY_WALLPAPER_PREFIX) + "_chat";
-    pmc.removeByPrefix(key);
+    removeByPrefix(key, null);
   }
 
   public void deleteWallpaper (Tdlib tdlib, SharedPreferences.Editor editor, int wallpaperIdentifier) {
@@ -3465,11 +3504,11 @@ public class Settings {
       blob.writeString(entry.getKey());
       entry.getValue().saveTo(blob);
     }
-    pmc.putByteArray(storageKey, blob.toByteArray());
+    pendingWrites.putByteArray(storageKey, blob.toByteArray());
   }
 
   private <T extends BlobEntry> void getBinaryMap (String storageKey, Map<String, T> out, Class<T> clazz) {
-    byte[] data = pmc.getByteArray(storageKey);
+    byte[] data = pendingWrites.getByteArray(storageKey);
     if (data == null || data.length == 0) {
       return;
     }
@@ -3498,11 +3537,11 @@ public class Settings {
     for (BlobEntry entry : list) {
       entry.saveTo(blob);
     }
-    pmc.putByteArray(storageKey, blob.toByteArray());
+    pendingWrites.putByteArray(storageKey, blob.toByteArray());
   }
 
   public @Nullable List<BlobEntry> getBinaryList (String storageKey, Class<? extends BlobEntry> clazz) {
-    byte[] data = pmc.getByteArray(storageKey);
+    byte[] data = pendingWrites.getByteArray(storageKey);
     if (data == null) {
       return null;
     }
@@ -3532,11 +3571,12 @@ public class Settings {
     for (RecentEmoji recent : recents) {
       out[i++] = recent.emoji;
     }
-    pmc.putStringArray(KEY_EMOJI_RECENTS, out);
+    pendingWrites.putStringArray(KEY_EMOJI_RECENTS, out);
   }
 
   public void clearEmojiRecents () {
-    pmc.edit().remove(KEY_EMOJI_COUNTERS).remove(KEY_EMOJI_RECENTS).apply();
+    pendingWrites.remove(KEY_EMOJI_COUNTERS);
+    pendingWrites.remove(KEY_EMOJI_RECENTS);
   }
 
   public void getEmojiCounters (Map<String, RecentInfo> infos) {
@@ -3544,7 +3584,7 @@ public class Settings {
   }
 
   public void getEmojiRecents (Map<String, RecentInfo> infos, List<RecentEmoji> recents) {
-    String[] emojis = pmc.getStringArray(KEY_EMOJI_RECENTS);
+    String[] emojis = pendingWrites.getStringArray(KEY_EMOJI_RECENTS);
     if (emojis != null && emojis.length > 0) {
       for (String emoji : emojis) {
         RecentInfo info = infos.get(emoji);
@@ -4375,7 +4415,7 @@ public class Settings {
 
     pmc.edit();
     pmc.remove(KEY_PROXY_PREFIX_CONFIG + proxyId);
-    pmc.removeByPrefix(KEY_PROXY_PREFIX_CONNECTION_TIME + proxyId);
+    removeByPrefix(KEY_PROXY_PREFIX_CONNECTION_TIME + proxyId, null);
     pmc.apply();
 
     if (availableProxyId == proxyId) {
@@ -4713,7 +4753,7 @@ public class Settings {
 
   public void forgetPasscodeErrors (int mode, @Nullable String suffix) {
     String key = suffix != null ? KEY_BRUT_FORCE_ERROR_PREFIX + suffix : "global_" + KEY_BRUT_FORCE_ERROR_PREFIX;
-    pmc.removeByPrefix(key);
+    removeByPrefix(key, null);
   }
 
   @AnyThread
@@ -5142,6 +5182,7 @@ public class Settings {
       }
     }
     pmc.apply();
+    ThemeSet.invalidateCustomTheme(customThemeId);
   }
 
   public float getThemeProperty (int customThemeId, @ThemeProperty int propertyId, float defValue) {
@@ -5362,6 +5403,7 @@ public class Settings {
       pmc.remove(themeColorKey(customThemeId, colorId));
     else
       pmc.putInt(themeColorKey(customThemeId, colorId), newColor);
+    ThemeSet.onCustomThemeColorChanged(customThemeId, colorId, newColor);
   }
 
   public void setCustomThemeProperty (int customThemeId, @ThemeProperty int propertyId, @Nullable Float newValue) {
@@ -5369,6 +5411,7 @@ public class Settings {
       pmc.remove(themePropertyKey(customThemeId, propertyId));
     else
       pmc.putFloat(themePropertyKey(customThemeId, propertyId), newValue);
+    ThemeSet.invalidateCustomTheme(customThemeId);
   }
 
   public int getCustomThemeColor (int customThemeId, @ThemeColorId int colorId) {
@@ -5703,6 +5746,7 @@ public class Settings {
   }
 
   public void storeCrash (Crash.Builder crashBuilder) {
+    pendingWrites.flush();
     final long crashId = pmc.getLong(KEY_TDLIB_CRASH_PREFIX, 0);
     final Crash crash = crashBuilder
       .id(crashId)
@@ -5993,50 +6037,50 @@ public class Settings {
 
   // Emoji pack
 
-  private EmojiPack emojiPack, outdatedEmojiPack;
+  private volatile EmojiPack outdatedEmojiPack;
 
   public EmojiPack getOutdatedEmojiPack () {
     return outdatedEmojiPack;
   }
 
   public void revokeOutdatedEmojiPack () {
-    setEmojiPack(emojiPack);
+    setEmojiPack(getEmojiPack());
   }
 
   public EmojiPack getEmojiPack () {
-    if (emojiPack == null) {
-      EmojiPack pack = null;
-      for (LevelDB.Entry entry : pmc.find(KEY_EMOJI_PACK)) {
-        if (entry.key().length() == KEY_EMOJI_PACK.length()) {
-          pack = new EmojiPack(entry.asString());
-        } else {
-          if (pack == null)
-            continue;
-          switch (entry.key().substring(KEY_EMOJI_PACK.length())) {
-            case "_version":
-              pack.version = entry.asInt();
-              break;
-            case "_name":
-              pack.displayName = entry.asString();
-              break;
-            case "_date":
-              pack.date = entry.asInt();
-              break;
-          }
+    return hotSettings.get(hotEmojiPack);
+  }
+
+  @NonNull
+  private EmojiPack loadEmojiPack () {
+    EmojiPack pack = null;
+    for (LevelDB.Entry entry : pmc().find(KEY_EMOJI_PACK)) {
+      if (entry.key().length() == KEY_EMOJI_PACK.length()) {
+        pack = new EmojiPack(entry.asString());
+      } else {
+        if (pack == null)
+          continue;
+        switch (entry.key().substring(KEY_EMOJI_PACK.length())) {
+          case "_version":
+            pack.version = entry.asInt();
+            break;
+          case "_name":
+            pack.displayName = entry.asString();
+            break;
+          case "_date":
+            pack.date = entry.asInt();
+            break;
         }
       }
-      if (pack != null) {
-        if (pack.version != BuildConfig.EMOJI_VERSION) {
-          outdatedEmojiPack = pack;
-          emojiPack = new EmojiPack();
-        } else {
-          emojiPack = pack;
-        }
-      } else {
-        emojiPack = new EmojiPack();
+    }
+    if (pack != null) {
+      if (pack.version != BuildConfig.EMOJI_VERSION) {
+        outdatedEmojiPack = pack;
+        return new EmojiPack();
       }
+      return pack;
     }
-    return emojiPack;
+    return new EmojiPack();
   }
 
   public String getEmojiPackIdentifier () {
@@ -6046,10 +6090,10 @@ public class Settings {
   public void setEmojiPack (EmojiPack emojiPack) {
     if (emojiPack.version != BuildConfig.EMOJI_VERSION)
       throw new IllegalArgumentException("emojiPack.version == " + emojiPack.version);
-    this.emojiPack = emojiPack;
+    hotSettings.set(hotEmojiPack, emojiPack);
     this.outdatedEmojiPack = null;
     if (emojiPack.identifier.equals(BuildConfig.EMOJI_BUILTIN_ID)) {
-      pmc.removeByPrefix(KEY_EMOJI_PACK);
+      removeByPrefix(KEY_EMOJI_PACK, null);
     } else {
       pmc.edit()
         .putString(KEY_EMOJI_PACK, emojiPack.identifier)
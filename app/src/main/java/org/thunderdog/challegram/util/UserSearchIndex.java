@@ -0,0 +1,172 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+
+import org.thunderdog.challegram.data.TGUser;
+import org.thunderdog.challegram.tool.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Sorted token index for local user search by name or username prefix.
+ *
+ * Tokens of each user are computed once, when the user is added or changed.
+ * The sorted token table is rebuilt lazily on the first search after a change,
+ * and each search is a binary search followed by a scan over the matching range.
+ */
+public final class UserSearchIndex {
+  private final LongSparseArray<String[]> userTokens = new LongSparseArray<>();
+
+  private String[] tokens = new String[0];
+  private long[] tokenUserIds = new long[0];
+  private boolean isDirty;
+
+  public static String normalize (String name) {
+    return Strings.clean(name.trim()).toLowerCase();
+  }
+
+  public void put (TGUser user, boolean includeUsername) {
+    put(user.getUserId(), user.getFirstName(), user.getLastName(), includeUsername ? user.getUsername() : null);
+  }
+
+  public synchronized void put (long userId, String firstName, String lastName, @Nullable String username) {
+    ArrayList<String> out = new ArrayList<>();
+    String first = normalize(firstName);
+    String last = normalize(lastName);
+    addToken(out, first);
+    addToken(out, last);
+    addToken(out, (first + " " + last).trim());
+    addWords(out, first);
+    addWords(out, last);
+    if (!StringUtils.isEmpty(username)) {
+      addToken(out, username.toLowerCase());
+    }
+    String[] newTokens = out.toArray(new String[0]);
+    String[] oldTokens = userTokens.get(userId);
+    if (oldTokens == null || !Arrays.equals(oldTokens, newTokens)) {
+      userTokens.put(userId, newTokens);
+      isDirty = true;
+    }
+  }
+
+  private static void addToken (ArrayList<String> out, String token) {
+    if (!token.isEmpty() && !out.contains(token)) {
+      out.add(token);
+    }
+  }
+
+  private static void addWords (ArrayList<String> out, String name) {
+    int start = name.indexOf(' ');
+    while (start != -1) {
+      int end = name.indexOf(' ', start + 1);
+      addToken(out, end != -1 ? name.substring(start + 1, end) : name.substring(start + 1));
+      start = end;
+    }
+  }
+
+  public synchronized void remove (long userId) {
+    if (userTokens.get(userId) != null) {
+      userTokens.remove(userId);
+      isDirty = true;
+    }
+  }
+
+  public synchronized void clear () {
+    userTokens.clear();
+    isDirty = true;
+  }
+
+  public synchronized int size () {
+    return userTokens.size();
+  }
+
+  private void rebuild () {
+    int count = 0;
+    for (int i = 0; i < userTokens.size(); i++) {
+      count += userTokens.valueAt(i).length;
+    }
+    Entry[] entries = new Entry[count];
+    int index = 0;
+    for (int i = 0; i < userTokens.size(); i++) {
+      long userId = userTokens.keyAt(i);
+      for (String token : userTokens.valueAt(i)) {
+        entries[index++] = new Entry(token, userId);
+      }
+    }
+    Arrays.sort(entries, (a, b) -> a.token.compareTo(b.token));
+    tokens = new String[count];
+    tokenUserIds = new long[count];
+    for (int i = 0; i < count; i++) {
+      tokens[i] = entries[i].token;
+      tokenUserIds[i] = entries[i].userId;
+    }
+    isDirty = false;
+  }
+
+  private static final class Entry {
+    final String token;
+    final long userId;
+
+    Entry (String token, long userId) {
+      this.token = token;
+      this.userId = userId;
+    }
+  }
+
+  /**
+   * @param prefix Normalized query, see {@link #normalize(String)}
+   * @return Sorted identifiers of users that have any token starting with the prefix
+   */
+  @NonNull
+  public synchronized long[] search (String prefix) {
+    if (isDirty) {
+      rebuild();
+    }
+    int low = 0, high = tokens.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (tokens[mid].compareTo(prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int end = low;
+    while (end < tokens.length && tokens[end].startsWith(prefix)) {
+      end++;
+    }
+    if (end == low) {
+      return new long[0];
+    }
+    long[] result = Arrays.copyOfRange(tokenUserIds, low, end);
+    Arrays.sort(result);
+    int size = 1;
+    for (int i = 1; i < result.length; i++) {
+      if (result[i] != result[size - 1]) {
+        result[size++] = result[i];
+      }
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  public static boolean contains (long[] searchResult, long userId) {
+    return Arrays.binarySearch(searchResult, userId) >= 0;
+  }
+}
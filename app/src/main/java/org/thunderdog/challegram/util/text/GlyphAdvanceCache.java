@@ -0,0 +1,321 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.util.text;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.config.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Caches text advances per paint configuration (typeface, text size, text scale, fake bold, letter spacing,
+ * locale and font feature settings).
+ *
+ * Single code points of simple scripts are looked up in a flat advance table.
+ * Short runs of simple scripts are cached as a whole rather than summed from glyph advances,
+ * because summed advances ignore kerning that is applied when the run is drawn.
+ * Everything else, e.g. complex scripts, RTL or combining marks, is always measured by the platform,
+ * as its advance depends on the surrounding context.
+ *
+ * Only recently used paint configurations are kept, so text sizes that were used once, e.g. during
+ * text size animation, don't stay in memory.
+ */
+public final class GlyphAdvanceCache {
+  // Latin, Greek and Cyrillic blocks. Hebrew, Arabic and other complex scripts start right after.
+  private static final int MAX_SIMPLE_CODE_POINT = 0x058F;
+  private static final int MAX_RUN_LENGTH = 48;
+  private static final int MAX_RUN_COUNT = 512;
+  private static final int MAX_TABLE_COUNT = 24;
+
+  private static final class Key {
+    final Typeface typeface;
+    final float textSize, textScaleX, letterSpacing;
+    final boolean fakeBold;
+    final @Nullable Locale locale;
+    final @Nullable String fontFeatureSettings;
+
+    Key (Paint paint) {
+      this.typeface = paint.getTypeface();
+      this.textSize = paint.getTextSize();
+      this.textScaleX = paint.getTextScaleX();
+      this.fakeBold = paint.isFakeBoldText();
+      this.locale = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 ? paint.getTextLocale() : null;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        this.letterSpacing = paint.getLetterSpacing();
+        this.fontFeatureSettings = paint.getFontFeatureSettings();
+      } else {
+        this.letterSpacing = 0f;
+        this.fontFeatureSettings = null;
+      }
+    }
+
+    /**
+     * Same as comparing with {@code new Key(paint)}, but without allocating it.
+     */
+    boolean matches (Paint paint) {
+      if (paint.getTypeface() != typeface || paint.getTextSize() != textSize || paint.getTextScaleX() != textScaleX || paint.isFakeBoldText() != fakeBold)
+        return false;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+        Locale locale = paint.getTextLocale();
+        if (this.locale != null ? !this.locale.equals(locale) : locale != null)
+          return false;
+      }
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        return paint.getLetterSpacing() == letterSpacing && StringUtils.equalsOrBothEmpty(paint.getFontFeatureSettings(), fontFeatureSettings);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return
+        other.typeface == typeface &&
+        other.textSize == textSize &&
+        other.textScaleX == textScaleX &&
+        other.letterSpacing == letterSpacing &&
+        other.fakeBold == fakeBold &&
+        (locale != null ? locale.equals(other.locale) : other.locale == null) &&
+        StringUtils.equalsOrBothEmpty(fontFeatureSettings, other.fontFeatureSettings);
+    }
+
+    @Override
+    public int hashCode () {
+      int result = System.identityHashCode(typeface);
+      result = 31 * result + Float.floatToIntBits(textSize);
+      result = 31 * result + Float.floatToIntBits(textScaleX);
+      result = 31 * result + Float.floatToIntBits(letterSpacing);
+      result = 31 * result + (fakeBold ? 1 : 0);
+      result = 31 * result + (locale != null ? locale.hashCode() : 0);
+      result = 31 * result + (StringUtils.isEmpty(fontFeatureSettings) ? 0 : fontFeatureSettings.hashCode());
+      return result;
+    }
+  }
+
+  /**
+   * Key of a cached run. Stored keys hold a copy of the run,
+   * while lookups reuse a per-thread probe pointing into the measured text, so cache hits don't allocate.
+   */
+  private static final class RunKey {
+    private CharSequence text;
+    private int start, end;
+    private int hash;
+
+    RunKey set (CharSequence text, int start, int end) {
+      this.text = text;
+      this.start = start;
+      this.end = end;
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + text.charAt(i);
+      }
+      this.hash = hash;
+      return this;
+    }
+
+    RunKey copy () {
+      return new RunKey().set(text.subSequence(start, end).toString(), 0, end - start);
+    }
+
+    void reset () {
+      this.text = null;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof RunKey))
+        return false;
+      RunKey other = (RunKey) obj;
+      int length = end - start;
+      if (other.hash != hash || other.end - other.start != length)
+        return false;
+      for (int i = 0; i < length; i++) {
+        if (text.charAt(start + i) != other.text.charAt(other.start + i))
+          return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode () {
+      return hash;
+    }
+  }
+
+  private static final class Table {
+    // Written without a lock: the same advance may be measured twice, but float writes are atomic
+    private final float[] advances = new float[MAX_SIMPLE_CODE_POINT + 1];
+    // LruCache synchronizes access on its own
+    private final LruCache<RunKey, Float> runs = new LruCache<>(MAX_RUN_COUNT);
+
+    Table () {
+      Arrays.fill(advances, -1f);
+    }
+
+    @Nullable
+    Float getRun (RunKey probe, CharSequence in, int start, int end) {
+      Float advance = runs.get(probe.set(in, start, end));
+      probe.reset();
+      return advance;
+    }
+
+    void putRun (RunKey probe, CharSequence in, int start, int end, float advance) {
+      runs.put(probe.set(in, start, end).copy(), advance);
+      probe.reset();
+    }
+  }
+
+  private static final LruCache<Key, Table> tables = new LruCache<>(MAX_TABLE_COUNT);
+  private static volatile int generation;
+
+  /**
+   * Tables of the paints recently measured on the current thread. A paint is found by identity
+   * and its state is checked against the key, so lookups neither allocate nor lock the table map.
+   */
+  private static final class Lookups {
+    private static final int SIZE = 4;
+
+    final RunKey probe = new RunKey();
+    private final Paint[] paints = new Paint[SIZE];
+    private final Key[] keys = new Key[SIZE];
+    private final Table[] values = new Table[SIZE];
+    private int generation, nextIndex;
+
+    @NonNull
+    Table table (Paint paint) {
+      int generation = GlyphAdvanceCache.generation;
+      if (this.generation != generation) {
+        // Tables were dropped by clear()
+        Arrays.fill(paints, null);
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        this.generation = generation;
+      }
+      int index = -1;
+      for (int i = 0; i < SIZE; i++) {
+        if (paints[i] == paint) {
+          if (keys[i].matches(paint)) {
+            return values[i];
+          }
+          index = i;
+          break;
+        }
+      }
+      if (index == -1) {
+        index = nextIndex;
+        nextIndex = (nextIndex + 1) % SIZE;
+      }
+      Key key = new Key(paint);
+      Table table = GlyphAdvanceCache.table(key);
+      paints[index] = paint;
+      keys[index] = key;
+      values[index] = table;
+      return table;
+    }
+  }
+
+  private static final ThreadLocal<Lookups> lookups = new ThreadLocal<>();
+
+  private static Lookups lookups () {
+    Lookups lookups = GlyphAdvanceCache.lookups.get();
+    if (lookups == null) {
+      lookups = new Lookups();
+      GlyphAdvanceCache.lookups.set(lookups);
+    }
+    return lookups;
+  }
+
+  private static boolean isSimpleChar (char c) {
+    // Control characters and combining diacritical marks depend on neighbours
+    return c >= 0x20 && c <= MAX_SIMPLE_CODE_POINT && !(c >= 0x0300 && c <= 0x036F) && !(c >= 0x0483 && c <= 0x0489);
+  }
+
+  private static boolean isSimpleRun (CharSequence in, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!isSimpleChar(in.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @NonNull
+  private static Table table (Key key) {
+    synchronized (tables) {
+      Table table = tables.get(key);
+      if (table == null) {
+        table = new Table();
+        tables.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Same as {@link U#measureText(CharSequence, int, int, Paint)}, but reuses previously measured advances.
+   */
+  public static float measureText (CharSequence in, int start, int end, Paint paint) {
+    final int count = end - start;
+    if (!Config.CACHE_GLYPH_ADVANCES || count <= 0 || count > MAX_RUN_LENGTH || !isSimpleRun(in, start, end)) {
+      return U.measureText(in, start, end, paint);
+    }
+    Lookups lookups = lookups();
+    Table table = lookups.table(paint);
+    if (count == 1) {
+      char c = in.charAt(start);
+      float advance = table.advances[c];
+      if (advance < 0f) {
+        advance = U.measureText(String.valueOf(c), paint);
+        table.advances[c] = advance;
+      }
+      return advance;
+    }
+    Float advance = table.getRun(lookups.probe, in, start, end);
+    if (advance == null) {
+      advance = U.measureText(in, start, end, paint);
+      table.putRun(lookups.probe, in, start, end, advance);
+    }
+    return advance;
+  }
+
+  public static float measureText (CharSequence in, Paint paint) {
+    return in.length() == 0 ? 0 : measureText(in, 0, in.length(), paint);
+  }
+
+  /**
+   * Drops all cached advances, e.g. when the system is low on memory.
+   */
+  public static void clear () {
+    synchronized (tables) {
+      tables.evictAll();
+      generation++;
+    }
+  }
+}
@@ -41,6 +41,7 @@ import org.drinkless.td.libcore.telegram.TdApi;
 import org.thunderdog.challegram.BuildConfig;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Lang;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.emoji.Emoji;
@@ -785,6 +786,15 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
       return;
     }
 
+    final TextLayoutCache.Key cacheKey = isLayoutCacheable(in) ? new TextLayoutCache.Key(in, maxWidth, textFlags & LAYOUT_FLAGS_MASK, maxLineCount, textStyleProvider, TextLayoutCache.environment()) : null;
+    if (cacheKey != null) {
+      TextLayoutCache.Layout layout = TextLayoutCache.instance().get(cacheKey);
+      if (layout != null) {
+        restoreLayout(in, layout);
+        return;
+      }
+    }
+
     final ArrayList<TextPart> out = new ArrayList<>(10);
     final Emoji.Callback emojiCallback = (input, code, info, position, length) -> {
       if (position > emojiStart) {
@@ -993,6 +1003,71 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
         getLineWidth(parts.get(i).getLineIndex());
       }
     }
+
+    if (cacheKey != null) {
+      saveLayout(cacheKey, in);
+    }
+  }
+
+  // Layout cache
+
+  private static final int LAYOUT_FLAGS_MASK = (1 << 21) - 1;
+  private static final int LAYOUT_RESULT_FLAGS = FLAG_FAKE_BOLD | FLAG_FULL_RTL | FLAG_MAY_APPLY_RTL | FLAG_ELLIPSIZED;
+
+  private boolean isLayoutCacheable (String in) {
+    return Config.CACHE_TEXT_LAYOUTS &&
+      (entities == null || entities.length == 0) &&
+      lineWidthProvider == null && lineMarginProvider == null &&
+      StringUtils.isEmpty(suffix) &&
+      in.length() <= TextLayoutCache.MAX_TEXT_LENGTH;
+  }
+
+  private void saveLayout (TextLayoutCache.Key key, String in) {
+    if (iconCount > 0 || (textFlags & FLAG_HAS_SPOILERS) != 0 || lineSizes == null) {
+      return;
+    }
+    final int partCount = parts.size();
+    TextPart[] cachedParts = new TextPart[partCount];
+    boolean isWidthIndependent = (textFlags & FLAG_ELLIPSIZED) == 0 && lineSizes.size() == 1;
+    for (int i = 0; i < partCount; i++) {
+      TextPart part = parts.get(i);
+      cachedParts[i] = part.copy(null);
+      if (part.isTrimmed()) {
+        isWidthIndependent = false;
+      }
+    }
+    int[][] cachedLineSizes = new int[lineSizes.size()][];
+    for (int i = 0; i < cachedLineSizes.length; i++) {
+      int[] lineSize = lineSizes.get(i);
+      cachedLineSizes[i] = new int[] {lineSize[0], lineSize[1]};
+    }
+    TextLayoutCache.instance().put(key, new TextLayoutCache.Layout(in, cachedParts, cachedLineSizes, textFlags & LAYOUT_RESULT_FLAGS, currentWidth, currentX, currentY, paragraphCount, emojiCount, maxPartHeight, isWidthIndependent));
+  }
+
+  private void restoreLayout (String in, TextLayoutCache.Layout layout) {
+    final ArrayList<TextPart> out = new ArrayList<>(layout.parts.length);
+    for (TextPart part : layout.parts) {
+      out.add(part.copy(this));
+    }
+    if (lineSizes == null) {
+      lineSizes = new ArrayList<>(layout.lineSizes.length);
+    }
+    for (int[] lineSize : layout.lineSizes) {
+      lineSizes.add(new int[] {lineSize[0], lineSize[1]});
+    }
+    textFlags = (textFlags & ~LAYOUT_RESULT_FLAGS) | layout.textFlags;
+    if (!in.isEmpty() && pickTheme(null, null).backgroundId(false) != 0) {
+      textFlags |= FLAG_NEED_BACKGROUND;
+    }
+    currentWidth = layout.currentWidth;
+    currentX = layout.currentX;
+    currentY = layout.currentY;
+    paragraphCount = layout.paragraphCount;
+    emojiCount = layout.emojiCount;
+    maxPartHeight = layout.maxPartHeight;
+    this.parts = out;
+    if (this.pressHighlights != null)
+      this.pressHighlights.clear();
   }
 
   private static int findMoreSpaces (String in, int start) {
@@ -1493,7 +1568,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
       } else if (isChild) {
         fullWidth = childWidth[0];
       } else {
-        fullWidth = U.measureText(in, start, end, paint);
+        fullWidth = GlyphAdvanceCache.measureText(in, start, end, paint);
       }
     }
     futureWidth = fullWidth;
@@ -1551,7 +1626,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
         } else if (newEnd - currentEnd == 1 && lastCodePointWidth != -1 && lastCodePoint == codePoint) {
           charWidth = lastCodePointWidth;
         } else {
-          charWidth = U.measureText(in, currentEnd, newEnd, paint);
+          charWidth = GlyphAdvanceCache.measureText(in, currentEnd, newEnd, paint);
           if (newEnd - currentEnd == 1) {
             lastCodePoint = codePoint;
             lastCodePointWidth = charWidth;
@@ -1599,7 +1674,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
       boolean movedLastLine = false;
 
       float firstCodePointWidth;
-      if ((textFlags & FLAG_BOUNDS_NOT_STRICT) != 0 && in.codePointCount(start, end) == 2 && currentX + (firstCodePointWidth = U.measureText(in, start, start + 1, paint)) <= maxWidth) {
+      if ((textFlags & FLAG_BOUNDS_NOT_STRICT) != 0 && in.codePointCount(start, end) == 2 && currentX + (firstCodePointWidth = GlyphAdvanceCache.measureText(in, start, start + 1, paint)) <= maxWidth) {
         int firstCodePoint = in.codePointAt(start);
         int secondCodePoint = in.codePointAt(start + Character.charCount(firstCodePoint));
 
@@ -1730,7 +1805,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
         }
       }
       final String defaultEllipsis = Strings.ELLIPSIS;
-      float ellipsisWidth = U.measureText(ellipsis, getTextPaint(entity));
+      float ellipsisWidth = GlyphAdvanceCache.measureText(ellipsis, getTextPaint(entity));
       boolean addLine = false;
       if (currentX + ellipsisWidth <= lineMaxWidth || (addLine = (textFlags & Text.FLAG_ELLIPSIZE_NEWLINE) != 0 && getLineCount() == maxLineCount - 1)) {
         // Easy path: just add ellipsis
@@ -1752,7 +1827,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
         // Hard path: find enough place for ellipsis and place it there
         final int requiredLineIndex = lastPart.getLineIndex();
         final int minEnd = lastPart.getEnd();
-        final float defaultEllipsisWidth = U.measureText(defaultEllipsis, getTextPaint(null));
+        final float defaultEllipsisWidth = GlyphAdvanceCache.measureText(defaultEllipsis, getTextPaint(null));
 
         boolean done = false;
         do {
@@ -2001,7 +2076,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterAnimator.TextD
 
   private float makeSpaceSize (Paint paint) {
     if (lastSpaceSize == 0f || lastSpacePaint != paint) {
-      lastSpaceSize = U.measureText(" ", paint);
+      lastSpaceSize = GlyphAdvanceCache.measureText(" ", paint);
       lastSpacePaint = paint;
     }
     return lastSpaceSize;
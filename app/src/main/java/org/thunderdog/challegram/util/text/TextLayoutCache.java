@@ -0,0 +1,192 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.util.text;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thunderdog.challegram.core.Lang;
+import org.thunderdog.challegram.emoji.Emoji;
+import org.thunderdog.challegram.unsorted.Settings;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Shared cache of {@link Text} layouts that do not depend on entities or per-instance providers,
+ * e.g. chat titles, sender names and list subtitles.
+ *
+ * Layouts are stored detached from the {@link Text} they were built for and copied on reuse.
+ * Single-line layouts are also stored without width, as they stay the same for any width they fit into.
+ */
+final class TextLayoutCache {
+  static final int MAX_TEXT_LENGTH = 256;
+  private static final int MAX_SIZE = (int) ByteUnit.KIB.toBytes(512);
+
+  private static TextLayoutCache instance;
+
+  static TextLayoutCache instance () {
+    if (instance == null) {
+      synchronized (TextLayoutCache.class) {
+        if (instance == null) {
+          instance = new TextLayoutCache();
+        }
+      }
+    }
+    return instance;
+  }
+
+  static final class Key {
+    final String text;
+    final int maxWidth;
+    final int textFlags, maxLineCount;
+    final TextStyleProvider textStyleProvider;
+    final int textSizePx;
+    final int environment;
+
+    Key (String text, int maxWidth, int textFlags, int maxLineCount, TextStyleProvider textStyleProvider, int environment) {
+      this(text, maxWidth, textFlags, maxLineCount, textStyleProvider, textStyleProvider.getTextSizeInPixels(), environment);
+    }
+
+    Key anyWidth () {
+      return new Key(text, 0, textFlags, maxLineCount, textStyleProvider, textSizePx, environment);
+    }
+
+    Key (String text, int maxWidth, int textFlags, int maxLineCount, TextStyleProvider textStyleProvider, int textSizePx, int environment) {
+      this.text = text;
+      this.maxWidth = maxWidth;
+      this.textFlags = textFlags;
+      this.maxLineCount = maxLineCount;
+      this.textStyleProvider = textStyleProvider;
+      this.textSizePx = textSizePx;
+      this.environment = environment;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return other.maxWidth == maxWidth && other.textFlags == textFlags && other.maxLineCount == maxLineCount && other.textSizePx == textSizePx && other.environment == environment && other.textStyleProvider == textStyleProvider && other.text.equals(text);
+    }
+
+    @Override
+    public int hashCode () {
+      int result = text.hashCode();
+      result = 31 * result + maxWidth;
+      result = 31 * result + textFlags;
+      result = 31 * result + maxLineCount;
+      result = 31 * result + textSizePx;
+      result = 31 * result + environment;
+      result = 31 * result + System.identityHashCode(textStyleProvider);
+      return result;
+    }
+  }
+
+  /**
+   * Immutable result of {@link Text} layout. Parts are not attached to any {@link Text} and must be copied before use.
+   */
+  static final class Layout {
+    final String text;
+    final TextPart[] parts;
+    final int[][] lineSizes;
+    final int textFlags;
+    final int currentWidth, currentX, currentY;
+    final int paragraphCount, emojiCount, maxPartHeight;
+    final boolean isWidthIndependent;
+
+    Layout (String text, TextPart[] parts, int[][] lineSizes, int textFlags, int currentWidth, int currentX, int currentY, int paragraphCount, int emojiCount, int maxPartHeight, boolean isWidthIndependent) {
+      this.text = text;
+      this.parts = parts;
+      this.lineSizes = lineSizes;
+      this.textFlags = textFlags;
+      this.currentWidth = currentWidth;
+      this.currentX = currentX;
+      this.currentY = currentY;
+      this.paragraphCount = paragraphCount;
+      this.emojiCount = emojiCount;
+      this.maxPartHeight = maxPartHeight;
+      this.isWidthIndependent = isWidthIndependent;
+    }
+
+    int estimateSize () {
+      return 64 + text.length() * 2 + parts.length * 72 + lineSizes.length * 32;
+    }
+  }
+
+  /**
+   * @return Global state that affects layout of any text: emoji size, system emoji and text direction
+   */
+  static int environment () {
+    int reduceSize = Emoji.instance().getReduceSize();
+    int flags = (Settings.instance().useSystemEmoji() ? 1 : 0) | (Lang.rtl() ? 1 << 1 : 0);
+    return (reduceSize << 2) | flags;
+  }
+
+  private final LruCache<Key, Layout> layouts;
+
+  private final AtomicLong hitCount = new AtomicLong(), widthIndependentHitCount = new AtomicLong(), missCount = new AtomicLong();
+
+  private TextLayoutCache () {
+    this(MAX_SIZE);
+  }
+
+  TextLayoutCache (int maxSize) {
+    layouts = new LruCache<Key, Layout>(maxSize) {
+      @Override
+      protected int sizeOf (@NonNull Key key, @NonNull Layout value) {
+        return value.estimateSize();
+      }
+    };
+  }
+
+  @Nullable
+  Layout get (Key key) {
+    Layout layout = layouts.get(key);
+    if (layout != null) {
+      hitCount.incrementAndGet();
+      return layout;
+    }
+    layout = layouts.get(key.anyWidth());
+    // Width must be strictly larger, as line is broken once its width reaches max width
+    if (layout != null && layout.currentWidth < key.maxWidth) {
+      widthIndependentHitCount.incrementAndGet();
+      return layout;
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  void put (Key key, Layout layout) {
+    if (layout.isWidthIndependent && layout.currentWidth < key.maxWidth) {
+      layouts.put(key.anyWidth(), layout);
+    } else {
+      layouts.put(key, layout);
+    }
+  }
+
+  void clear () {
+    layouts.evictAll();
+  }
+
+  @NonNull
+  @Override
+  public String toString () {
+    return "TextLayoutCache { size: " + layouts.size() + "/" + layouts.maxSize() + ", hits: " + hitCount.get() + ", anyWidthHits: " + widthIndependentHitCount.get() + ", misses: " + missCount.get() + " }";
+  }
+}
@@ -68,6 +68,29 @@ public class TextPart {
     this.paragraphIndex = paragraphIndex;
   }
 
+  /**
+   * Copies layout results of this part, used by {@link TextLayoutCache}.
+   * Icons are not copied, as layouts with icons are never cached.
+   */
+  TextPart copy (@Nullable Text source) {
+    TextPart part = new TextPart(source, line, start, end, lineIndex, paragraphIndex);
+    part.entity = entity;
+    part.flags = flags;
+    part.x = x;
+    part.y = y;
+    part.width = width;
+    part.height = height;
+    part.trimmedLine = trimmedLine;
+    part.trimmedWidth = trimmedWidth;
+    part.trimmedMaxWidth = trimmedMaxWidth;
+    part.emojiInfo = emojiInfo;
+    return part;
+  }
+
+  boolean isTrimmed () {
+    return trimmedLine != null;
+  }
+
   public TooltipOverlayView.TooltipBuilder newTooltipBuilder (View view) {
     return UI.getContext(view.getContext()).tooltipManager()
       .builder(view, source.getViewProvider())
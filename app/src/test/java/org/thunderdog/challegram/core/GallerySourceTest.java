@@ -0,0 +1,211 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thunderdog.challegram.loader.ImageFile;
+import org.thunderdog.challegram.loader.ImageGalleryFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads {@link MatrixCursor} rows laid out as MediaStore returns them on Q and above.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.Q)
+public class GallerySourceTest {
+  private static final String[] COLUMNS = {
+    MediaStore.Images.ImageColumns._ID,
+    MediaStore.Images.ImageColumns.DATA,
+    MediaStore.Images.ImageColumns.DATE_MODIFIED,
+    MediaStore.Images.ImageColumns.DATE_TAKEN,
+    MediaStore.Images.ImageColumns.ORIENTATION,
+    MediaStore.Images.ImageColumns.BUCKET_ID,
+    MediaStore.Images.ImageColumns.BUCKET_DISPLAY_NAME,
+    MediaStore.Images.ImageColumns.WIDTH,
+    MediaStore.Images.ImageColumns.HEIGHT,
+  };
+  private static final long BUCKET_ID = 1;
+
+  private static Object[] newRow (long id, String path, long dateModifiedSeconds, Long dateTakenMs) {
+    return new Object[] {id, path, dateModifiedSeconds, dateTakenMs, 0, BUCKET_ID, "Camera", 1280, 720};
+  }
+
+  private static String newPath (long id) {
+    return "/storage/emulated/0/DCIM/Camera/IMG_" + id + ".jpg";
+  }
+
+  // Rows are already ordered by Media#getGallerySortOrder(), newest first
+  private static MatrixCursor newCursor (int count) {
+    MatrixCursor cursor = new MatrixCursor(COLUMNS);
+    for (int i = 0; i < count; i++) {
+      long id = count - i;
+      cursor.addRow(newRow(id, newPath(id), 1_600_000_000L + id, null));
+    }
+    return cursor;
+  }
+
+  private static Media.Gallery newGallery () {
+    return new Media.Gallery(false, true, ImageFile.CENTER_CROP);
+  }
+
+  private static GallerySource newSource (Cursor cursor) {
+    return new GallerySource(cursor, new Media.GalleryRowParser(cursor, true, ImageFile.CENTER_CROP, 100, 100));
+  }
+
+  private static List<Long> ids (List<ImageFile> files) {
+    List<Long> ids = new ArrayList<>(files.size());
+    for (ImageFile file : files) {
+      ids.add(((ImageGalleryFile) file).getGalleryId());
+    }
+    return ids;
+  }
+
+  private static List<Long> range (long from, long to) {
+    List<Long> range = new ArrayList<>();
+    for (long id = from; id >= to; id--) {
+      range.add(id);
+    }
+    return range;
+  }
+
+  @Test
+  public void pagesFollowCursorOrder () {
+    MatrixCursor cursor = newCursor(10);
+    GallerySource source = newSource(cursor);
+    Media.Gallery gallery = newGallery();
+
+    ArrayList<ImageFile> page = source.loadPage(gallery, 4);
+    assertEquals(range(10, 7), ids(page));
+    assertFalse(source.isEnd());
+
+    page = source.loadPage(gallery, 4);
+    assertEquals(range(6, 3), ids(page));
+    assertFalse(source.isEnd());
+
+    page = source.loadPage(gallery, 4);
+    assertEquals(range(2, 1), ids(page));
+    assertTrue(source.isEnd());
+
+    source.close();
+    assertTrue(cursor.isClosed());
+    assertTrue(source.loadPage(gallery, 4).isEmpty());
+  }
+
+  @Test
+  public void lastFullPageEndsSource () {
+    GallerySource source = newSource(newCursor(8));
+    Media.Gallery gallery = newGallery();
+
+    assertEquals(4, source.loadPage(gallery, 4).size());
+    assertFalse(source.isEnd());
+    assertEquals(4, source.loadPage(gallery, 4).size());
+    assertTrue(source.isEnd());
+  }
+
+  @Test
+  public void skippedRowsDoNotShortenPage () {
+    MatrixCursor cursor = new MatrixCursor(COLUMNS);
+    for (long id = 6; id >= 1; id--) {
+      cursor.addRow(newRow(id, id % 2 == 0 ? newPath(id) : null, 1_600_000_000L + id, null));
+    }
+    GallerySource source = newSource(cursor);
+
+    ArrayList<ImageFile> page = source.loadPage(newGallery(), 2);
+    assertEquals(2, page.size());
+    assertEquals(6L, ((ImageGalleryFile) page.get(0)).getGalleryId());
+    assertEquals(4L, ((ImageGalleryFile) page.get(1)).getGalleryId());
+  }
+
+  @Test
+  public void filesAreSharedBetweenSources () {
+    Media.Gallery gallery = newGallery();
+    ImageFile first = newSource(newCursor(3)).loadPage(gallery, 3).get(0);
+    ImageFile second = newSource(newCursor(3)).loadPage(gallery, 3).get(0);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void sortOrderMatchesGalleryComparator () {
+    SQLiteDatabase db = SQLiteDatabase.create(null);
+    try {
+      db.execSQL(
+        "CREATE TABLE files (" +
+          MediaStore.Images.ImageColumns._ID + " INTEGER PRIMARY KEY, " +
+          MediaStore.Images.ImageColumns.DATA + " TEXT, " +
+          MediaStore.Images.ImageColumns.DATE_MODIFIED + " INTEGER, " +
+          MediaStore.Images.ImageColumns.DATE_TAKEN + " INTEGER, " +
+          MediaStore.Images.ImageColumns.ORIENTATION + " INTEGER, " +
+          MediaStore.Images.ImageColumns.BUCKET_ID + " INTEGER, " +
+          MediaStore.Images.ImageColumns.BUCKET_DISPLAY_NAME + " TEXT, " +
+          MediaStore.Images.ImageColumns.WIDTH + " INTEGER, " +
+          MediaStore.Images.ImageColumns.HEIGHT + " INTEGER)"
+      );
+      // Taken long before modification, taken after modification, unknown, zero, and ties broken by id
+      Object[][] rows = {
+        newRow(1, newPath(1), 1_600_000_500L, 1_600_000_100_000L),
+        newRow(2, newPath(2), 1_600_000_200L, 1_600_000_900_000L),
+        newRow(3, newPath(3), 1_600_000_300L, null),
+        newRow(4, newPath(4), 1_600_000_400L, 0L),
+        newRow(5, newPath(5), 1_600_000_300L, null),
+        newRow(6, newPath(6), 1_600_000_600L, 1_600_000_250_000L),
+        newRow(7, newPath(7), 1_600_000_700L, null),
+      };
+      for (Object[] row : rows) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < COLUMNS.length; i++) {
+          Object value = row[i];
+          if (value == null) {
+            values.putNull(COLUMNS[i]);
+          } else if (value instanceof String) {
+            values.put(COLUMNS[i], (String) value);
+          } else {
+            values.put(COLUMNS[i], ((Number) value).longValue());
+          }
+        }
+        db.insert("files", null, values);
+      }
+
+      Cursor cursor = db.query("files", COLUMNS, null, null, null, null, Media.getGallerySortOrder());
+      GallerySource source = newSource(cursor);
+      ArrayList<ImageFile> files = source.loadPage(newGallery(), rows.length);
+      assertTrue(source.isEnd());
+      source.close();
+
+      assertEquals(Arrays.asList(7L, 4L, 5L, 3L, 6L, 2L, 1L), ids(files));
+      ArrayList<ImageFile> sorted = new ArrayList<>(files);
+      Collections.sort(sorted, Media.newGalleryComparator());
+      assertEquals(ids(sorted), ids(files));
+    } finally {
+      db.close();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.emoji;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thunderdog.challegram.tool.EmojiData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link EmojiScanner#scan} over {@link EmojiTrie} with {@link EmojiScanner#scanLegacy},
+ * which looks codes up the same way {@link Emoji#getEmojiInfo(CharSequence, boolean)} does.
+ */
+public class EmojiTrieTest {
+  private static final String EJECT = "⏏"; // Known code the legacy scanner never starts a match with
+  private static final String TAG = "\uDB40"; // Tag sequences, e.g. subdivision flags
+
+  private static HashMap<CharSequence, EmojiInfo> infos;
+  private static EmojiTrie trie;
+  private static List<String> codes;
+
+  @BeforeClass
+  public static void buildTrie () {
+    infos = new HashMap<>();
+    codes = new ArrayList<>();
+    for (int sectionIndex = 0; sectionIndex < EmojiData.data.length; sectionIndex++) {
+      for (int emojiIndex = 0; emojiIndex < EmojiData.data[sectionIndex].length; emojiIndex++) {
+        String code = EmojiData.data[sectionIndex][emojiIndex];
+        infos.put(code, new EmojiInfo(null, sectionIndex, emojiIndex));
+        codes.add(code);
+      }
+    }
+    for (CharSequence alias : EmojiData.instance().getEmojiAliases().keySet()) {
+      codes.add(alias.toString());
+    }
+    trie = EmojiTrie.build(infos, EmojiData.instance().getEmojiAliases());
+  }
+
+  private static final class Match {
+    final int position, length;
+    final EmojiInfo info;
+
+    Match (int position, int length, EmojiInfo info) {
+      this.position = position;
+      this.length = length;
+      this.info = info;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (!(obj instanceof Match))
+        return false;
+      Match other = (Match) obj;
+      return other.position == position && other.length == length && other.info == info;
+    }
+
+    @Override
+    public int hashCode () {
+      return 31 * (31 * position + length) + System.identityHashCode(info);
+    }
+
+    @Override
+    public String toString () {
+      return position + "+" + length + ":" + info.page1 + "/" + info.page2;
+    }
+  }
+
+  private static EmojiInfo findLegacy (String code) {
+    EmojiInfo info = infos.get(code);
+    if (info == null) {
+      CharSequence alias = EmojiData.instance().getEmojiAlias(code);
+      if (alias != null) {
+        info = infos.get(alias);
+      }
+    }
+    return info;
+  }
+
+  private static List<Match> scan (String text) {
+    List<Match> matches = new ArrayList<>();
+    EmojiScanner.scan(trie, text, 0, text.length(), null, (input, code, info, position, length) -> matches.add(new Match(position, length, info)));
+    return matches;
+  }
+
+  private static List<Match> scanLegacy (String text) {
+    List<Match> matches = new ArrayList<>();
+    EmojiScanner.scanLegacy(EmojiTrieTest::findLegacy, new StringBuilder(), text, 0, text.length(), null, (input, code, info, position, length) -> matches.add(new Match(position, length, info)));
+    return matches;
+  }
+
+  private static String hex (String text) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < text.length(); i++) {
+      if (b.length() > 0) {
+        b.append(' ');
+      }
+      b.append(Integer.toHexString(text.charAt(i)));
+    }
+    return b.toString();
+  }
+
+  private static void assertSameAsLegacy (String text) {
+    assertEquals(hex(text), scanLegacy(text), scan(text));
+  }
+
+  private static String randomCode (Random random) {
+    return codes.get(random.nextInt(codes.size()));
+  }
+
+  @Test
+  public void everyCodeMatchesLegacyScanner () {
+    for (String code : codes) {
+      if (code.equals(EJECT))
+        continue;
+      List<Match> matches = scan("a" + code + " b");
+      assertEquals(hex(code), 1, matches.size());
+      assertEquals(hex(code), new Match(1, code.length(), matches.get(0).info), matches.get(0));
+      assertSameAsLegacy("a" + code + " b");
+      assertSameAsLegacy(code);
+    }
+  }
+
+  @Test
+  public void adjacentCodesMatchLegacyScanner () {
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      String text = randomCode(random) + randomCode(random);
+      if (!text.contains(EJECT)) {
+        assertSameAsLegacy(text);
+      }
+    }
+  }
+
+  @Test
+  public void unsupportedJoinsFallBackLikeLegacyScanner () {
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      String text = randomCode(random) + "\u200D" + randomCode(random);
+      if (!text.contains(EJECT) && !text.contains(TAG)) {
+        assertSameAsLegacy(text);
+      }
+    }
+    // Cat, zero width joiner, smiling face with heart-eyes
+    assertEquals(2, scan("🐈\u200D😍").size());
+  }
+
+  @Test
+  public void variationSelectorsAreOptional () {
+    for (String code : codes) {
+      if (code.indexOf('\uFE0F') == -1)
+        continue;
+      String stripped = code.replace("\uFE0F", "");
+      if (stripped.isEmpty())
+        continue;
+      List<Match> expected = scan(code);
+      List<Match> actual = scan(stripped);
+      assertEquals(hex(code), 1, actual.size());
+      assertTrue(hex(code), actual.get(0).info == expected.get(0).info);
+      assertEquals(hex(code), stripped.length(), actual.get(0).length);
+    }
+  }
+
+  @Test
+  public void findsCodesLegacyScannerMissed () {
+    // Legacy scanner starts matches only with characters listed in EmojiData.dataChars
+    assertEquals(0, scanLegacy("a" + EJECT + " b").size());
+    assertEquals(Arrays.asList(new Match(1, 1, infos.get(EJECT))), scan("a" + EJECT + " b"));
+
+    // Legacy scanner stops at the black flag after a joiner, instead of matching the subdivision flag
+    String england = "\uD83C\uDFF4\uDB40\uDC67\uDB40\uDC62\uDB40\uDC65\uDB40\uDC6E\uDB40\uDC67\uDB40\uDC7F";
+    List<Match> matches = scan("🐈\u200D" + england);
+    assertEquals(2, matches.size());
+    assertEquals(new Match(3, england.length(), infos.get(england)), matches.get(1));
+  }
+
+  @Test
+  public void countLimiterStopsScan () {
+    String text = "😀😀😀😀";
+    int[] count = new int[1];
+    Emoji.CountLimiter limiter = new Emoji.CountLimiter() {
+      @Override
+      public int getEmojiCount () {
+        return count[0];
+      }
+
+      @Override
+      public boolean incrementEmojiCount () {
+        return ++count[0] < 2;
+      }
+    };
+    List<Match> matches = new ArrayList<>();
+    EmojiScanner.scan(trie, text, 0, text.length(), limiter, (input, code, info, position, length) -> matches.add(new Match(position, length, info)));
+    assertEquals(2, matches.size());
+  }
+}
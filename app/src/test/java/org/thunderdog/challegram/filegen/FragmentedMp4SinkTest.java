@@ -0,0 +1,251 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.filegen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.otaliastudios.transcoder.common.TrackType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feeds {@link FragmentedMp4Sink} with synthetic H.264 and AAC samples and plays the role of TDLib's file generation:
+ * each reported prefix is read right away, as TDLib would upload it, and compared with the final file.
+ */
+public class FragmentedMp4SinkTest {
+  private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xd9, 0x00, (byte) 0xa0, 0x47, (byte) 0xfe, (byte) 0xc8};
+  private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+  private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+
+  private static final long FRAME_DURATION_US = 1_000_000 / 30;
+  private static final long AUDIO_FRAME_DURATION_US = 1024L * 1_000_000 / 44100;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+  private final List<Long> reportedPrefixSizes = new ArrayList<>();
+  private final List<byte[]> uploadedPrefixes = new ArrayList<>();
+
+  @Before
+  public void setUp () throws IOException {
+    file = folder.newFile("video.mp4");
+  }
+
+  private FragmentedMp4Sink newSink (boolean hasVideo, boolean hasAudio) {
+    FragmentedMp4Sink sink = new FragmentedMp4Sink(file.getPath(), readyBytesCount -> {
+      reportedPrefixSizes.add(readyBytesCount);
+      try {
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertTrue("Reported prefix is not on disk yet", data.length >= readyBytesCount);
+        uploadedPrefixes.add(Arrays.copyOf(data, (int) readyBytesCount));
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    });
+    sink.setTrackTranscoding(TrackType.VIDEO, hasVideo);
+    sink.setTrackTranscoding(TrackType.AUDIO, hasAudio);
+    if (hasVideo) {
+      sink.setTrackFormat(TrackType.VIDEO, new FragmentedMp4Sink.TrackFormat("video/avc", 320, 240, 0, 0, 0, SPS, PPS));
+    }
+    if (hasAudio) {
+      sink.setTrackFormat(TrackType.AUDIO, new FragmentedMp4Sink.TrackFormat("audio/mp4a-latm", 0, 0, 44100, 2, 62000, AUDIO_SPECIFIC_CONFIG));
+    }
+    return sink;
+  }
+
+  private static byte[] newFrame (boolean isKeyFrame, int index) {
+    byte[] frame = new byte[4 + 1 + 200 + (index % 7) * 10];
+    frame[3] = 1;
+    frame[4] = (byte) (isKeyFrame ? 0x65 : 0x41);
+    Arrays.fill(frame, 5, frame.length, (byte) (index | 0x80));
+    return frame;
+  }
+
+  /**
+   * Writes interleaved video and audio, with a key frame every {@code keyFrameInterval} video frames.
+   */
+  private static void writeSamples (FragmentedMp4Sink sink, boolean hasVideo, boolean hasAudio, long durationUs, int keyFrameInterval) {
+    long videoTimeUs = 0, audioTimeUs = 0;
+    int frameIndex = 0;
+    while (videoTimeUs < durationUs || audioTimeUs < durationUs) {
+      if (hasVideo && videoTimeUs < durationUs && (!hasAudio || videoTimeUs <= audioTimeUs)) {
+        boolean isKeyFrame = frameIndex % keyFrameInterval == 0;
+        byte[] frame = newFrame(isKeyFrame, frameIndex);
+        sink.writeSample(TrackType.VIDEO, ByteBuffer.wrap(frame), 0, frame.length, videoTimeUs, isKeyFrame);
+        videoTimeUs += FRAME_DURATION_US;
+        frameIndex++;
+      } else if (hasAudio && audioTimeUs < durationUs) {
+        byte[] frame = new byte[100];
+        sink.writeSample(TrackType.AUDIO, ByteBuffer.wrap(frame), 0, frame.length, audioTimeUs, true);
+        audioTimeUs += AUDIO_FRAME_DURATION_US;
+      } else {
+        videoTimeUs = audioTimeUs = durationUs;
+      }
+    }
+  }
+
+  private static final class Box {
+    final String type;
+    final int offset, size;
+
+    Box (String type, int offset, int size) {
+      this.type = type;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  private static List<Box> readBoxes (byte[] data, int start, int end) {
+    List<Box> boxes = new ArrayList<>();
+    int offset = start;
+    while (offset < end) {
+      assertTrue("Truncated box header at " + offset, offset + 8 <= end);
+      int size = ByteBuffer.wrap(data, offset, 4).getInt();
+      String type = new String(data, offset + 4, 4);
+      assertTrue("Bad size of " + type + " at " + offset, size >= 8 && offset + size <= end);
+      boxes.add(new Box(type, offset, size));
+      offset += size;
+    }
+    return boxes;
+  }
+
+  private static Box findChild (byte[] data, Box parent, String type, int headerSize) {
+    for (Box box : readBoxes(data, parent.offset + headerSize, parent.offset + parent.size)) {
+      if (box.type.equals(type)) {
+        return box;
+      }
+    }
+    throw new AssertionError(type + " not found in " + parent.type);
+  }
+
+  @Test
+  public void reportedPrefixesNeverChange () throws IOException {
+    FragmentedMp4Sink sink = newSink(true, true);
+    writeSamples(sink, true, true, 5_000_000, 30);
+    sink.stop();
+    sink.release();
+
+    byte[] data = Files.readAllBytes(file.toPath());
+    assertFalse(reportedPrefixSizes.isEmpty());
+    assertEquals(sink.getFragmentCount(), reportedPrefixSizes.size());
+    assertEquals(data.length, (long) reportedPrefixSizes.get(reportedPrefixSizes.size() - 1));
+    assertEquals(data.length, sink.getWrittenBytesCount());
+    long previousSize = 0;
+    for (int i = 0; i < uploadedPrefixes.size(); i++) {
+      long size = reportedPrefixSizes.get(i);
+      assertTrue("Prefix must grow", size > previousSize);
+      previousSize = size;
+      assertArrayEquals("Prefix #" + i + " changed after it was reported", uploadedPrefixes.get(i), Arrays.copyOf(data, (int) size));
+    }
+  }
+
+  @Test
+  public void fileIsHeaderFollowedByFragments () throws IOException {
+    FragmentedMp4Sink sink = newSink(true, true);
+    writeSamples(sink, true, true, 3_500_000, 30);
+    sink.stop();
+
+    byte[] data = Files.readAllBytes(file.toPath());
+    List<Box> boxes = readBoxes(data, 0, data.length);
+    assertEquals("ftyp", boxes.get(0).type);
+    assertEquals("moov", boxes.get(1).type);
+    assertEquals(0, (boxes.size() - 2) % 2);
+    for (int i = 2; i < boxes.size(); i += 2) {
+      assertEquals("moof", boxes.get(i).type);
+      assertEquals("mdat", boxes.get(i + 1).type);
+    }
+    assertEquals(sink.getFragmentCount(), (boxes.size() - 2) / 2);
+    // Each of the fragments is a reported prefix boundary
+    for (int i = 0; i < reportedPrefixSizes.size(); i++) {
+      Box mdat = boxes.get(3 + i * 2);
+      assertEquals((long) (mdat.offset + mdat.size), (long) reportedPrefixSizes.get(i));
+    }
+
+    Box moov = boxes.get(1);
+    findChild(data, moov, "mvex", 8);
+    int trakCount = 0;
+    for (Box box : readBoxes(data, moov.offset + 8, moov.offset + moov.size)) {
+      if (box.type.equals("trak")) {
+        trakCount++;
+      }
+    }
+    assertEquals(2, trakCount);
+  }
+
+  @Test
+  public void videoFragmentsStartWithKeyFrames () throws IOException {
+    FragmentedMp4Sink sink = newSink(true, false);
+    writeSamples(sink, true, false, 120 * FRAME_DURATION_US, 15);
+    sink.stop();
+
+    byte[] data = Files.readAllBytes(file.toPath());
+    List<Box> boxes = readBoxes(data, 0, data.length);
+    int fragmentCount = 0;
+    int sampleCount = 0;
+    for (Box box : boxes) {
+      if (!box.type.equals("moof")) {
+        continue;
+      }
+      fragmentCount++;
+      Box traf = findChild(data, box, "traf", 8);
+      Box trun = findChild(data, traf, "trun", 8);
+      ByteBuffer buffer = ByteBuffer.wrap(data, trun.offset + 12, trun.size - 12);
+      int count = buffer.getInt();
+      buffer.getInt(); // data_offset
+      buffer.getInt(); // sample_duration
+      buffer.getInt(); // sample_size
+      assertEquals("Fragment #" + fragmentCount + " does not start with a key frame", 0x02000000, buffer.getInt());
+      sampleCount += count;
+    }
+    assertTrue(fragmentCount > 1);
+    assertEquals(120, sampleCount);
+  }
+
+  @Test
+  public void annexBFramesAreWrittenLengthPrefixed () throws IOException {
+    FragmentedMp4Sink sink = newSink(true, false);
+    byte[] frame = newFrame(true, 0);
+    sink.writeSample(TrackType.VIDEO, ByteBuffer.wrap(frame), 0, frame.length, 0, true);
+    sink.stop();
+
+    byte[] data = Files.readAllBytes(file.toPath());
+    List<Box> boxes = readBoxes(data, 0, data.length);
+    Box mdat = boxes.get(boxes.size() - 1);
+    assertEquals("mdat", mdat.type);
+    int nalSize = frame.length - 4;
+    assertEquals(8 + 4 + nalSize, mdat.size);
+    assertEquals(nalSize, ByteBuffer.wrap(data, mdat.offset + 8, 4).getInt());
+    assertArrayEquals(Arrays.copyOfRange(frame, 4, frame.length), Arrays.copyOfRange(data, mdat.offset + 12, mdat.offset + 12 + nalSize));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnsupportedVideoFormat () {
+    FragmentedMp4Sink sink = newSink(false, false);
+    sink.setTrackFormat(TrackType.VIDEO, new FragmentedMp4Sink.TrackFormat("video/hevc", 320, 240, 0, 0, 0));
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class BitmapPoolTest {
+  private static final int SIDE = 100;
+  private static final int BITMAP_SIZE = SIDE * SIDE * 4;
+
+  private static Bitmap newBitmap (int width, int height) {
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  @Test
+  public void oldestBitmapsAreRecycledOverBudget () {
+    BitmapPool pool = new BitmapPool(BITMAP_SIZE * 3);
+    Bitmap[] bitmaps = new Bitmap[4];
+    for (int i = 0; i < bitmaps.length; i++) {
+      bitmaps[i] = newBitmap(SIDE, SIDE);
+      assertTrue(pool.offer(bitmaps[i]));
+    }
+    assertTrue(bitmaps[0].isRecycled());
+    for (int i = 1; i < bitmaps.length; i++) {
+      assertFalse(bitmaps[i].isRecycled());
+      assertTrue(pool.remove(bitmaps[i]));
+    }
+    assertFalse(pool.remove(bitmaps[0]));
+  }
+
+  @Test
+  public void largeBitmapsAreNotTaken () {
+    BitmapPool pool = new BitmapPool(BITMAP_SIZE * 3);
+    Bitmap bitmap = newBitmap(SIDE * 2, SIDE);
+    assertFalse(pool.offer(bitmap));
+    assertFalse(bitmap.isRecycled());
+    assertNull(pool.obtain(SIDE * 2, SIDE, Bitmap.Config.ARGB_8888));
+  }
+
+  @Test
+  public void recycledBitmapsAreNotTaken () {
+    BitmapPool pool = new BitmapPool(BITMAP_SIZE * 3);
+    Bitmap bitmap = newBitmap(SIDE, SIDE);
+    bitmap.recycle();
+    assertFalse(pool.offer(bitmap));
+  }
+
+  @Test
+  public void sameBitmapIsCountedOnce () {
+    BitmapPool pool = new BitmapPool(BITMAP_SIZE * 2);
+    Bitmap first = newBitmap(SIDE, SIDE);
+    Bitmap second = newBitmap(SIDE, SIDE);
+    assertTrue(pool.offer(first));
+    assertTrue(pool.offer(first));
+    assertTrue(pool.offer(second));
+    assertFalse(first.isRecycled());
+    assertFalse(second.isRecycled());
+  }
+
+  @Test
+  public void obtainPicksSmallestSuitableBitmap () {
+    BitmapPool pool = new BitmapPool(BITMAP_SIZE * 8);
+    Bitmap small = newBitmap(SIDE / 2, SIDE / 2);
+    Bitmap exact = newBitmap(SIDE, SIDE);
+    Bitmap larger = newBitmap(SIDE, SIDE * 3 / 2);
+    pool.offer(small);
+    pool.offer(larger);
+    pool.offer(exact);
+
+    assertSame(exact, pool.obtain(SIDE, SIDE, Bitmap.Config.ARGB_8888));
+    assertSame(larger, pool.obtain(SIDE, SIDE, Bitmap.Config.ARGB_8888));
+    assertNull(pool.obtain(SIDE, SIDE, Bitmap.Config.ARGB_8888));
+    // Four times larger than required, would pin memory behind a small image
+    assertNull(pool.obtain(SIDE / 4, SIDE / 4, Bitmap.Config.ARGB_8888));
+    assertSame(small, pool.obtain(SIDE / 2, SIDE / 2, Bitmap.Config.RGB_565));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.thunderdog.challegram.Log;
+
+/**
+ * Checks how bitmaps move between in-use references, the LRU tier and {@link BitmapPool}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P, shadows = ImageCacheTest.ShadowLog.class, instrumentedPackages = "org.thunderdog.challegram.Log")
+public class ImageCacheTest {
+  private static final int SIDE = 100;
+  private static final int BITMAP_SIZE = SIDE * SIDE * 4;
+  private static final int MEMCACHE_COUNT = 6;
+
+  /**
+   * {@link Log} loads settings through native code, which is not available in unit tests.
+   */
+  @Implements(Log.class)
+  public static class ShadowLog {
+    @Implementation
+    protected static boolean isEnabled (int tag) {
+      return false;
+    }
+  }
+
+  private ImageCache cache;
+
+  @Before
+  public void setUp () {
+    // Pool receives a third of the budget, which fits two evicted bitmaps
+    cache = new ImageCache(BITMAP_SIZE * MEMCACHE_COUNT);
+  }
+
+  private static ImageFile newFile (long id) {
+    return new ImageGalleryFile(id, "/storage/emulated/0/DCIM/Camera/IMG_" + id + ".jpg", 0, SIDE, SIDE, 1, false);
+  }
+
+  private static Bitmap newBitmap () {
+    return Bitmap.createBitmap(SIDE, SIDE, Bitmap.Config.ARGB_8888);
+  }
+
+  private Bitmap obtainReusableBitmap () {
+    return cache.obtainReusableBitmap(SIDE, SIDE, Bitmap.Config.ARGB_8888);
+  }
+
+  private static ImageFile[] newFiles (int count) {
+    ImageFile[] files = new ImageFile[count];
+    for (int i = 0; i < count; i++) {
+      files[i] = newFile(i);
+    }
+    return files;
+  }
+
+  private Bitmap[] put (ImageFile[] files) {
+    Bitmap[] bitmaps = new Bitmap[files.length];
+    for (int i = 0; i < files.length; i++) {
+      bitmaps[i] = newBitmap();
+      cache.putBitmap(files[i], bitmaps[i]);
+    }
+    return bitmaps;
+  }
+
+  private void fill (int count) {
+    put(newFiles(count));
+  }
+
+  @Test
+  public void leastRecentlyUsedBitmapIsMovedToPool () {
+    ImageFile[] files = newFiles(MEMCACHE_COUNT);
+    Bitmap[] bitmaps = put(files);
+    // Access makes the first bitmap most recently used
+    assertSame(bitmaps[0], cache.getBitmap(files[0]));
+
+    fill(1);
+
+    assertNull(cache.getBitmap(files[1]));
+    assertSame(bitmaps[0], cache.getBitmap(files[0]));
+    assertSame(bitmaps[2], cache.getBitmap(files[2]));
+    assertFalse(bitmaps[1].isRecycled());
+    assertSame(bitmaps[1], obtainReusableBitmap());
+    assertNull(obtainReusableBitmap());
+  }
+
+  @Test
+  public void evictionsBeyondPoolBudgetAreRecycled () {
+    Bitmap[] bitmaps = put(newFiles(MEMCACHE_COUNT));
+    fill(3);
+    assertTrue(bitmaps[0].isRecycled());
+    assertFalse(bitmaps[1].isRecycled());
+    assertFalse(bitmaps[2].isRecycled());
+    assertFalse(bitmaps[3].isRecycled());
+  }
+
+  @Test
+  public void referencedBitmapIsNotEvicted () {
+    ImageFile file = newFile(-1);
+    Bitmap bitmap = newBitmap();
+    cache.putBitmap(file, bitmap);
+    cache.addReference(file, bitmap);
+
+    fill(MEMCACHE_COUNT * 2);
+    assertSame(bitmap, cache.getBitmap(file));
+    assertFalse(bitmap.isRecycled());
+
+    // Once released, bitmap becomes the most recently used entry of the LRU tier
+    cache.removeReference(file, bitmap);
+    fill(MEMCACHE_COUNT - 1);
+    assertSame(bitmap, cache.getBitmap(file));
+    fill(MEMCACHE_COUNT);
+    assertNull(cache.getBitmap(file));
+  }
+
+  @Test
+  public void releasedUncachedBitmapIsMovedToPool () {
+    ImageFile file = newFile(-1);
+    file.setNoCache();
+    Bitmap bitmap = newBitmap();
+    cache.addReference(file, bitmap);
+    cache.removeReference(file, bitmap);
+
+    assertNull(cache.getBitmap(file));
+    assertSame(bitmap, obtainReusableBitmap());
+  }
+
+  @Test
+  public void referencedBitmapIsTakenOutOfPool () {
+    ImageFile[] files = newFiles(MEMCACHE_COUNT);
+    Bitmap first = put(files)[0];
+    fill(1);
+
+    // Bitmap handed off to a receiver while it was waiting in the pool must not be reused by decoder
+    cache.addReference(files[0], first);
+    assertNull(obtainReusableBitmap());
+    assertSame(first, cache.getBitmapReferenced(files[0]));
+    cache.removeReference(files[0], first);
+    cache.removeReference(files[0], first);
+    assertSame(first, cache.getBitmap(files[0]));
+    assertFalse(first.isRecycled());
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LottieCacheIndexTest {
+  private static final int FILE_SIZE = 100;
+  private static final long MAX_SIZE = FILE_SIZE * 3;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File cacheDir;
+  private LottieCacheIndex index;
+
+  @Before
+  public void setUp () throws IOException {
+    cacheDir = folder.newFolder("tgs");
+    index = new LottieCacheIndex(cacheDir, MAX_SIZE);
+  }
+
+  private static String key (String name) {
+    return LottieCache.getCacheFileKey(0, false, 512, null, name);
+  }
+
+  private File write (String name, int size) throws IOException {
+    File file = new LottieCacheIndex.Entry(key(name), 0).toFile(cacheDir);
+    File dir = file.getParentFile();
+    assertTrue(dir.exists() || dir.mkdirs());
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[size]);
+    }
+    return file;
+  }
+
+  private File file (String name) {
+    return new LottieCacheIndex.Entry(key(name), 0).toFile(cacheDir);
+  }
+
+  private List<String> access (String name, long time) throws IOException {
+    write(name, FILE_SIZE);
+    index.onAccess(key(name), time);
+    return index.trimToSize(key(name));
+  }
+
+  @Test
+  public void leastRecentlyUsedFileIsDeletedOverBudget () throws IOException {
+    assertNull(access("a", 1));
+    assertNull(access("b", 1));
+    assertNull(access("c", 1));
+    assertEquals(MAX_SIZE, index.size());
+
+    // Access makes "a" most recently used
+    index.onAccess(key("a"), 2);
+    assertEquals(Collections.singletonList(key("b")), access("d", 2));
+
+    assertFalse(file("b").exists());
+    assertNull(index.get(key("b")));
+    assertTrue(file("a").exists());
+    assertEquals(MAX_SIZE, index.size());
+  }
+
+  @Test
+  public void generatedFileIsMeasuredAndKept () throws IOException {
+    assertNull(access("a", 1));
+    assertNull(access("b", 1));
+
+    // Generation of "b" finished with a file larger than the whole budget
+    write("b", (int) MAX_SIZE * 2);
+    assertEquals(Collections.singletonList(key("a")), index.trimToSize(key("b")));
+    assertTrue(file("b").exists());
+    assertNotNull(index.get(key("b")));
+    assertEquals(MAX_SIZE * 2, index.size());
+  }
+
+  @Test
+  public void loadedEntriesAreOrderedByTime () throws IOException {
+    List<LottieCacheIndex.Entry> entries = new ArrayList<>();
+    String[] names = {"late", "early", "middle"};
+    long[] times = {30, 10, 20};
+    for (int i = 0; i < names.length; i++) {
+      write(names[i], FILE_SIZE);
+      entries.add(new LottieCacheIndex.Entry(key(names[i]), times[i]));
+    }
+    index.load(entries);
+    assertEquals(MAX_SIZE, index.size());
+
+    assertEquals(Collections.singletonList(key("early")), access("new", 40));
+    assertTrue(file("middle").exists());
+    assertTrue(file("late").exists());
+  }
+
+  @Test
+  public void missingFilesHaveNoSize () throws IOException {
+    index.onAccess(key("a"), 1);
+    assertNull(index.trimToSize(key("a")));
+    assertEquals(0, index.size());
+
+    write("a", FILE_SIZE);
+    assertNull(index.trimToSize(key("a")));
+    assertEquals(FILE_SIZE, index.size());
+
+    index.remove(key("a"));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void expiredFilesAreDeleted () throws IOException {
+    access("a", 10);
+    access("b", 20);
+    access("c", 30);
+
+    assertEquals(Arrays.asList(key("a"), key("b")), index.removeExpired(20));
+    assertFalse(file("a").exists());
+    assertFalse(file("b").exists());
+    assertTrue(file("c").exists());
+    assertEquals(FILE_SIZE, index.size());
+    assertEquals(30, index.getNextExpirationTime(20));
+
+    assertNull(index.removeExpired(25));
+    assertEquals(Collections.singletonList(key("c")), index.removeExpired(30));
+    assertEquals(-1, index.getNextExpirationTime(30));
+    assertEquals(0, index.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void badKeyIsRejected () {
+    index.onAccess(LottieCacheIndex.KEY_PREFIX + "0/512", 1);
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.telegram;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.drinkless.td.libcore.telegram.Client;
+import org.drinkless.td.libcore.telegram.TdApi;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Reads through {@link TdlibDataSource} while {@link GrowingFileBackend} plays the role of TDLib:
+ * it writes the file to disk part by part, starting from the offset the data source asked for,
+ * and sends {@link TdApi.UpdateFile} after each part.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TdlibDataSourceTest {
+  private static final int ACCOUNT_ID = 0;
+  private static final int FILE_ID = 1;
+  private static final int PART_SIZE = (int) ByteUnit.KIB.toBytes(16);
+  private static final long READ_AHEAD_SIZE = ByteUnit.KIB.toBytes(256);
+  private static final long TIMEOUT_MS = 10_000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] content;
+  private GrowingFileBackend backend;
+
+  private static final class GrowingFileBackend implements TdlibDataSource.Backend {
+    private final byte[] content;
+    private final RandomAccessFile out;
+    private final TdApi.File file;
+    private final BitSet downloaded;
+    private FileUpdateListener listener;
+
+    final List<Long> addedReferences = new CopyOnWriteArrayList<>();
+    final List<Long> seeks = new CopyOnWriteArrayList<>();
+    final List<Long> resumes = new CopyOnWriteArrayList<>();
+    int removedReferenceCount;
+    boolean isListenerRemoved;
+
+    GrowingFileBackend (File path, byte[] content) throws IOException {
+      this.content = content;
+      this.out = new RandomAccessFile(path, "rw");
+      this.downloaded = new BitSet(content.length);
+      this.file = new TdApi.File();
+      this.file.id = FILE_ID;
+      this.file.size = content.length;
+      this.file.local = new TdApi.LocalFile();
+      this.file.local.path = path.getPath();
+      this.file.local.canBeDownloaded = true;
+      this.file.remote = new TdApi.RemoteFile();
+    }
+
+    private TdApi.File copy () {
+      TdApi.File copy = new TdApi.File();
+      copy.id = file.id;
+      copy.size = file.size;
+      copy.local = new TdApi.LocalFile();
+      copy.local.path = file.local.path;
+      copy.local.canBeDownloaded = file.local.canBeDownloaded;
+      copy.local.isDownloadingActive = file.local.isDownloadingActive;
+      copy.local.isDownloadingCompleted = file.local.isDownloadingCompleted;
+      copy.local.downloadOffset = file.local.downloadOffset;
+      copy.local.downloadedPrefixSize = file.local.downloadedPrefixSize;
+      copy.local.downloadedSize = file.local.downloadedSize;
+      copy.remote = new TdApi.RemoteFile();
+      return copy;
+    }
+
+    private void startDownload (long offset) {
+      int end = Math.min(downloaded.nextClearBit((int) offset), content.length);
+      file.local.downloadOffset = offset;
+      file.local.downloadedPrefixSize = end - offset;
+      file.local.isDownloadingActive = !file.local.isDownloadingCompleted;
+    }
+
+    private void dispatchUpdate () {
+      FileUpdateListener listener;
+      TdApi.File file;
+      synchronized (this) {
+        listener = this.listener;
+        file = copy();
+      }
+      if (listener != null) {
+        listener.onUpdateFile(new TdApi.UpdateFile(file));
+      }
+    }
+
+    /**
+     * Downloads the next part after the prefix, as TDLib would, and notifies the listener.
+     */
+    void downloadPart (int partSize) throws IOException {
+      synchronized (this) {
+        if (!file.local.isDownloadingActive)
+          return;
+        int start = (int) (file.local.downloadOffset + file.local.downloadedPrefixSize);
+        int end = Math.min(content.length, start + partSize);
+        out.seek(start);
+        out.write(content, start, end - start);
+        downloaded.set(start, end);
+        startDownload(file.local.downloadOffset);
+        file.local.downloadedSize = downloaded.cardinality();
+        if (file.local.downloadedSize == content.length) {
+          file.local.isDownloadingCompleted = true;
+          file.local.isDownloadingActive = false;
+        } else if (downloaded.nextClearBit(start) >= content.length) {
+          // Reached the end, the rest has to be requested with a new offset
+          file.local.isDownloadingActive = false;
+        }
+      }
+      dispatchUpdate();
+    }
+
+    /**
+     * Moves download away from the reader, e.g. because another consumer of the same file seeked.
+     */
+    void moveDownload (long offset) {
+      synchronized (this) {
+        startDownload(offset);
+      }
+      dispatchUpdate();
+    }
+
+    /**
+     * Stops download before the end of the file, as TDLib does once a prefetch reaches its limit.
+     */
+    void stopDownload () {
+      synchronized (this) {
+        file.local.isDownloadingActive = false;
+      }
+      dispatchUpdate();
+    }
+
+    synchronized long getDownloadedPrefixEnd () {
+      return file.local.downloadOffset + file.local.downloadedPrefixSize;
+    }
+
+    synchronized boolean isDownloadingActive () {
+      return file.local.isDownloadingActive;
+    }
+
+    void close () throws IOException {
+      out.close();
+    }
+
+    @Override
+    public void send (TdApi.Function<?> function, Client.ResultHandler handler) {
+      TdApi.Object result;
+      synchronized (this) {
+        result = function instanceof TdApi.GetFile && ((TdApi.GetFile) function).fileId == FILE_ID ? copy() : new TdApi.Error(404, "Not Found");
+      }
+      handler.onResult(result);
+    }
+
+    @Override
+    public synchronized void addFileListener (int fileId, FileUpdateListener listener) {
+      assertEquals(FILE_ID, fileId);
+      this.listener = listener;
+    }
+
+    @Override
+    public synchronized void removeFileListener (int fileId, FileUpdateListener listener) {
+      if (this.listener == listener) {
+        this.listener = null;
+        this.isListenerRemoved = true;
+      }
+    }
+
+    @Override
+    public void addCloudReference (TdApi.File file, long offset, FileUpdateListener listener) {
+      synchronized (this) {
+        addedReferences.add(offset);
+        startDownload(offset);
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public void seekCloudReference (TdApi.File file, FileUpdateListener listener, long offset, long readAheadSize) {
+      synchronized (this) {
+        seeks.add(offset);
+        startDownload(offset);
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public void resumeCloudReference (TdApi.File file, FileUpdateListener listener, long offset) {
+      synchronized (this) {
+        resumes.add(offset);
+        startDownload(offset);
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public synchronized void removeCloudReference (TdApi.File file, FileUpdateListener listener) {
+      removedReferenceCount++;
+    }
+  }
+
+  private static final class Reader extends Thread {
+    private final TdlibDataSource dataSource;
+    private final int length;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    Reader (TdlibDataSource dataSource, int length) {
+      this.dataSource = dataSource;
+      this.length = length;
+    }
+
+    @Override
+    public void run () {
+      try {
+        byte[] buffer = new byte[(int) ByteUnit.KIB.toBytes(32)];
+        while (out.size() < length) {
+          int readCount = dataSource.read(buffer, 0, Math.min(buffer.length, length - out.size()));
+          if (readCount == C.RESULT_END_OF_INPUT)
+            break;
+          out.write(buffer, 0, readCount);
+        }
+      } catch (Throwable t) {
+        error.set(t);
+      }
+    }
+  }
+
+  @Before
+  public void setUp () throws IOException {
+    content = new byte[(int) ByteUnit.MIB.toBytes(2)];
+    new Random(42).nextBytes(content);
+    backend = new GrowingFileBackend(folder.newFile("video.mp4"), content);
+  }
+
+  private TdlibDataSource open (long position) throws IOException {
+    TdlibDataSource dataSource = new TdlibDataSource(READ_AHEAD_SIZE, accountId -> {
+      assertEquals(ACCOUNT_ID, accountId);
+      return backend;
+    });
+    long length = dataSource.open(new DataSpec.Builder()
+      .setUri(TdlibDataSource.UriFactory.create(ACCOUNT_ID, FILE_ID))
+      .setPosition(position)
+      .build()
+    );
+    assertEquals(content.length, length);
+    return dataSource;
+  }
+
+  private void downloadWhileReading (Reader reader) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (reader.isAlive()) {
+      if (System.currentTimeMillis() > deadline) {
+        reader.interrupt();
+        fail("Reader is stuck");
+      }
+      backend.downloadPart(PART_SIZE);
+      reader.join(1);
+    }
+    assertNull(reader.error.get());
+  }
+
+  private byte[] range (long position, int length) {
+    byte[] range = new byte[length];
+    System.arraycopy(content, (int) position, range, 0, length);
+    return range;
+  }
+
+  @Test
+  public void readsWholeFileWhileItGrows () throws Exception {
+    TdlibDataSource dataSource = open(0);
+    Reader reader = new Reader(dataSource, Integer.MAX_VALUE);
+    reader.start();
+    downloadWhileReading(reader);
+
+    assertArrayEquals(content, reader.out.toByteArray());
+    assertEquals(1, backend.addedReferences.size());
+    assertEquals(0L, (long) backend.addedReferences.get(0));
+    assertTrue(backend.seeks.isEmpty());
+
+    dataSource.close();
+    assertEquals(1, backend.removedReferenceCount);
+    assertTrue(backend.isListenerRemoved);
+    backend.close();
+  }
+
+  @Test
+  public void downloadStartsFromOpenPosition () throws Exception {
+    long position = ByteUnit.MIB.toBytes(1) + 123;
+    TdlibDataSource dataSource = open(position);
+    Reader reader = new Reader(dataSource, Integer.MAX_VALUE);
+    reader.start();
+    downloadWhileReading(reader);
+
+    assertArrayEquals(range(position, content.length - (int) position), reader.out.toByteArray());
+    assertEquals(1, backend.addedReferences.size());
+    assertEquals(position, (long) backend.addedReferences.get(0));
+
+    dataSource.close();
+    backend.close();
+  }
+
+  @Test
+  public void downloadIsMovedBackToReader () throws Exception {
+    int firstLength = (int) ByteUnit.KIB.toBytes(100);
+    TdlibDataSource dataSource = open(0);
+    Reader reader = new Reader(dataSource, firstLength);
+    reader.start();
+    downloadWhileReading(reader);
+    assertArrayEquals(range(0, firstLength), reader.out.toByteArray());
+
+    // Another consumer moves download far ahead of the reader
+    long otherOffset = ByteUnit.MIB.toBytes(1);
+    backend.moveDownload(otherOffset);
+
+    // Reader has to move download back to its position
+    int nextLength = (int) ByteUnit.KIB.toBytes(64);
+    reader = new Reader(dataSource, nextLength);
+    reader.start();
+    downloadWhileReading(reader);
+    assertArrayEquals(range(firstLength, nextLength), reader.out.toByteArray());
+
+    assertEquals(1, backend.addedReferences.size());
+    assertFalse(backend.seeks.isEmpty());
+    assertEquals((long) firstLength, (long) backend.seeks.get(0));
+
+    dataSource.close();
+    backend.close();
+  }
+
+  @Test
+  public void stoppedDownloadIsResumedWithinReadAhead () throws Exception {
+    TdlibDataSource dataSource = open(0);
+    Reader reader = new Reader(dataSource, Integer.MAX_VALUE);
+    reader.start();
+
+    // Download stops far enough from the playhead, as if it was a prefetch with a limit
+    long stopOffset = READ_AHEAD_SIZE * 2;
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (backend.getDownloadedPrefixEnd() < stopOffset) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Download doesn't start");
+      }
+      backend.downloadPart(PART_SIZE);
+    }
+    backend.stopDownload();
+
+    downloadWhileReading(reader);
+    assertArrayEquals(content, reader.out.toByteArray());
+    assertEquals(1, backend.addedReferences.size());
+    // Resumed from the playhead no later than it reached the end of the prefix
+    assertFalse(backend.resumes.isEmpty());
+    long resumeOffset = backend.resumes.get(0);
+    assertTrue(resumeOffset + READ_AHEAD_SIZE > stopOffset);
+    assertTrue(resumeOffset <= stopOffset);
+    assertTrue(backend.seeks.isEmpty());
+
+    dataSource.close();
+    backend.close();
+  }
+
+  @Test
+  public void closeWakesUpWaitingReader () throws Exception {
+    TdlibDataSource dataSource = open(0);
+    Reader reader = new Reader(dataSource, Integer.MAX_VALUE);
+    reader.start();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (backend.addedReferences.isEmpty() || reader.getState() != Thread.State.WAITING) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Reader doesn't wait for download");
+      }
+      Thread.sleep(1);
+    }
+    assertTrue(backend.isDownloadingActive());
+
+    dataSource.close();
+    reader.join(TIMEOUT_MS);
+    assertFalse(reader.isAlive());
+    assertTrue(reader.error.get() instanceof TdlibDataSource.TdlibDataSourceException);
+    assertEquals(0, reader.out.size());
+    backend.close();
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.telegram;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TdlibFilesManagerTest {
+  @Test
+  public void playerReplacesPrefetchInFlight () {
+    // Prefetch has already received its UpdateFile, so its download is pending
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_REPLACE_PREFETCH, TdlibFilesManager.getCloudReferenceAction(true, true, true, false));
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_REPLACE_PREFETCH, TdlibFilesManager.getCloudReferenceAction(true, true, true, true));
+    // DownloadFile of the prefetch is sent, but nothing has been received yet
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_REPLACE_PREFETCH, TdlibFilesManager.getCloudReferenceAction(false, true, false, false));
+  }
+
+  @Test
+  public void playerStartsDownloadOfIdleFile () {
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_DOWNLOAD, TdlibFilesManager.getCloudReferenceAction(false, false, false, false));
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_DOWNLOAD, TdlibFilesManager.getCloudReferenceAction(false, false, false, true));
+    // Download was requested, but TDLib has not reported it as active yet
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_NONE, TdlibFilesManager.getCloudReferenceAction(false, false, true, false));
+  }
+
+  @Test
+  public void playerJoinsRunningDownload () {
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_NONE, TdlibFilesManager.getCloudReferenceAction(true, false, true, false));
+    assertEquals(TdlibFilesManager.CLOUD_ACTION_SEEK, TdlibFilesManager.getCloudReferenceAction(true, false, true, true));
+  }
+}
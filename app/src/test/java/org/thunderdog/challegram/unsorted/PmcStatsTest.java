@@ -0,0 +1,52 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.unsorted;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class PmcStatsTest {
+  @Test
+  public void keysAreGroupedByPrefix () {
+    PmcStats stats = new PmcStats();
+    stats.countRead("settings_chat_1_100");
+    stats.countRead("settings_chat_2_200");
+    stats.countWrite("settings_chat_1_100");
+    stats.countRead("theme");
+    List<PmcStats.Entry> entries = stats.get();
+    assertEquals(2, entries.size());
+    assertEquals("settings_chat", entries.get(0).prefix);
+    assertEquals(2, entries.get(0).readCount);
+    assertEquals(1, entries.get(0).writeCount);
+    assertEquals("theme", entries.get(1).prefix);
+    assertEquals(1, entries.get(1).readCount);
+    assertEquals(0, entries.get(1).writeCount);
+  }
+
+  @Test
+  public void prefixesThatDidNotFitShareOneEntry () {
+    PmcStats stats = new PmcStats();
+    int prefixCount = 1000;
+    for (int i = 0; i < prefixCount; i++) {
+      stats.countWrite("key" + (char) ('a' + i % 26) + (char) ('a' + i / 26 % 26) + (char) ('a' + i / 676));
+    }
+    int writeCount = 0;
+    for (PmcStats.Entry entry : stats.get()) {
+      writeCount += entry.writeCount;
+    }
+    assertEquals(prefixCount, writeCount);
+  }
+}
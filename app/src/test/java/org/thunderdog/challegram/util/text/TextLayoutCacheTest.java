@@ -0,0 +1,123 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014-2022 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.thunderdog.challegram.util.text;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.text.TextPaint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TextLayoutCacheTest {
+  private static final int TEXT_SIZE_PX = 42;
+  private static final int MAX_WIDTH = 500;
+  private static final int LAYOUT_COUNT = 3;
+
+  private final TextStyleProvider provider = new TextStyleProvider(new TextPaint());
+  private TextLayoutCache cache;
+
+  @Before
+  public void setUp () {
+    cache = new TextLayoutCache(newLayout("text", 100, false).estimateSize() * LAYOUT_COUNT);
+  }
+
+  private TextLayoutCache.Key newKey (String text, int maxWidth) {
+    return new TextLayoutCache.Key(text, maxWidth, 0, -1, provider, TEXT_SIZE_PX, 0);
+  }
+
+  private static TextLayoutCache.Layout newLayout (String text, int width, boolean isWidthIndependent) {
+    return new TextLayoutCache.Layout(text, new TextPart[1], new int[1][], 0, width, width, 0, 1, 0, 0, isWidthIndependent);
+  }
+
+  @Test
+  public void layoutIsFoundByExactKey () {
+    TextLayoutCache.Layout layout = newLayout("text", MAX_WIDTH, false);
+    cache.put(newKey("text", MAX_WIDTH), layout);
+
+    assertSame(layout, cache.get(newKey("text", MAX_WIDTH)));
+    assertNull(cache.get(newKey("text", MAX_WIDTH + 1)));
+    assertNull(cache.get(newKey("text", MAX_WIDTH - 1)));
+    assertNull(cache.get(newKey("other", MAX_WIDTH)));
+  }
+
+  @Test
+  public void singleLineLayoutServesAnyLargerWidth () {
+    TextLayoutCache.Layout layout = newLayout("text", 100, true);
+    cache.put(newKey("text", MAX_WIDTH), layout);
+
+    assertSame(layout, cache.get(newKey("text", MAX_WIDTH * 2)));
+    assertSame(layout, cache.get(newKey("text", 101)));
+    // Line is broken once its width reaches max width
+    assertNull(cache.get(newKey("text", 100)));
+    assertNull(cache.get(newKey("text", 50)));
+  }
+
+  @Test
+  public void layoutFillingWholeWidthIsKeyedByWidth () {
+    TextLayoutCache.Layout layout = newLayout("text", MAX_WIDTH, true);
+    cache.put(newKey("text", MAX_WIDTH), layout);
+
+    assertSame(layout, cache.get(newKey("text", MAX_WIDTH)));
+    assertNull(cache.get(newKey("text", MAX_WIDTH * 2)));
+  }
+
+  @Test
+  public void layoutStateIsPartOfKey () {
+    TextLayoutCache.Layout layout = newLayout("text", MAX_WIDTH, false);
+    cache.put(newKey("text", MAX_WIDTH), layout);
+
+    TextStyleProvider otherProvider = new TextStyleProvider(new TextPaint());
+    assertNull(cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, Text.FLAG_ALL_BOLD, -1, provider, TEXT_SIZE_PX, 0)));
+    assertNull(cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, 0, 1, provider, TEXT_SIZE_PX, 0)));
+    assertNull(cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, 0, -1, otherProvider, TEXT_SIZE_PX, 0)));
+    assertNull(cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, 0, -1, provider, TEXT_SIZE_PX + 1, 0)));
+    // Emoji size, system emoji or text direction changed
+    assertNull(cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, 0, -1, provider, TEXT_SIZE_PX, 1)));
+    assertSame(layout, cache.get(new TextLayoutCache.Key("text", MAX_WIDTH, 0, -1, provider, TEXT_SIZE_PX, 0)));
+  }
+
+  @Test
+  public void leastRecentlyUsedLayoutIsEvictedOverBudget () {
+    TextLayoutCache.Layout[] layouts = new TextLayoutCache.Layout[LAYOUT_COUNT];
+    for (int i = 0; i < layouts.length; i++) {
+      layouts[i] = newLayout("text", 100, false);
+      cache.put(newKey("text", MAX_WIDTH + i), layouts[i]);
+    }
+    // Access makes the first layout most recently used
+    assertSame(layouts[0], cache.get(newKey("text", MAX_WIDTH)));
+
+    cache.put(newKey("text", MAX_WIDTH + LAYOUT_COUNT), newLayout("text", 100, false));
+    assertSame(layouts[0], cache.get(newKey("text", MAX_WIDTH)));
+    assertNull(cache.get(newKey("text", MAX_WIDTH + 1)));
+    assertSame(layouts[2], cache.get(newKey("text", MAX_WIDTH + 2)));
+
+    // Longer text takes more of the budget
+    cache.put(newKey("long", MAX_WIDTH), newLayout("long text that takes more than one layout of the budget", 100, false));
+    assertNull(cache.get(newKey("text", MAX_WIDTH)));
+    assertNull(cache.get(newKey("text", MAX_WIDTH + LAYOUT_COUNT)));
+  }
+
+  @Test
+  public void clearEvictsEverything () {
+    cache.put(newKey("text", MAX_WIDTH), newLayout("text", 100, true));
+    cache.put(newKey("other", MAX_WIDTH), newLayout("other", MAX_WIDTH, false));
+    cache.clear();
+    assertNull(cache.get(newKey("text", MAX_WIDTH)));
+    assertNull(cache.get(newKey("other", MAX_WIDTH)));
+  }
+}